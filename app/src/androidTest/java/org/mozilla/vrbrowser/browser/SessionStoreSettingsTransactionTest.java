@@ -0,0 +1,150 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.browser;
+
+import android.app.Instrumentation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.geckoview.GeckoRuntime;
+import org.mozilla.geckoview.GeckoSession;
+import org.mozilla.geckoview.GeckoSessionSettings;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the session settings changed in a settings transaction recreate the current session
+ * once, when the outermost transaction is committed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SessionStoreSettingsTransactionTest {
+
+    // Only one runtime can be created per process.
+    private static GeckoRuntime sRuntime;
+
+    private Instrumentation mInstrumentation;
+    private SessionStore mStore;
+    private int mRecreations;
+
+    private final SessionStore.SessionChangeListener mListener = new SessionStore.SessionChangeListener() {
+        @Override
+        public void onNewSession(GeckoSession aSession, int aId) {
+            mRecreations++;
+        }
+
+        @Override
+        public void onRemoveSession(GeckoSession aSession, int aId) {
+        }
+
+        @Override
+        public void onCurrentSessionChange(GeckoSession aSession, int aId) {
+        }
+    };
+
+    @BeforeClass
+    public static void setUpClass() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() ->
+                sRuntime = GeckoRuntime.create(InstrumentationRegistry.getTargetContext()));
+    }
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mStore = SessionStore.get();
+        mInstrumentation.runOnMainSync(() -> {
+            mStore.setRuntime(sRuntime);
+            mStore.setCurrentSession(mStore.createSession());
+            mStore.addSessionChangeListener(mListener);
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mInstrumentation.runOnMainSync(() -> {
+            mStore.removeSessionChangeListener(mListener);
+            mStore.removeSession(mStore.getCurrentSessionId());
+        });
+    }
+
+    private GeckoSessionSettings getSettings() {
+        return mStore.getCurrentSession().getSettings();
+    }
+
+    @Test
+    public void singleSettingRecreatesOnce() {
+        mInstrumentation.runOnMainSync(() -> {
+            boolean multiprocess = getSettings().getUseMultiprocess();
+            mStore.setMultiprocess(!multiprocess);
+            assertEquals(1, mRecreations);
+            assertEquals(!multiprocess, getSettings().getUseMultiprocess());
+        });
+    }
+
+    @Test
+    public void batchedSettingsRecreateOnce() {
+        mInstrumentation.runOnMainSync(() -> {
+            boolean multiprocess = getSettings().getUseMultiprocess();
+            boolean trackingProtection = getSettings().getUseTrackingProtection();
+            mStore.beginSettingsTransaction();
+            try {
+                mStore.setMultiprocess(!multiprocess);
+                mStore.setTrackingProtection(!trackingProtection);
+                assertEquals("Recreated before the commit", 0, mRecreations);
+            } finally {
+                mStore.commitSettingsTransaction();
+            }
+            assertEquals(1, mRecreations);
+            assertEquals(!multiprocess, getSettings().getUseMultiprocess());
+            assertEquals(!trackingProtection, getSettings().getUseTrackingProtection());
+        });
+    }
+
+    @Test
+    public void nestedSettingsRecreateOnce() {
+        mInstrumentation.runOnMainSync(() -> {
+            boolean multiprocess = getSettings().getUseMultiprocess();
+            boolean trackingProtection = getSettings().getUseTrackingProtection();
+            mStore.beginSettingsTransaction();
+            try {
+                mStore.setMultiprocess(!multiprocess);
+                mStore.beginSettingsTransaction();
+                try {
+                    mStore.setTrackingProtection(!trackingProtection);
+                } finally {
+                    mStore.commitSettingsTransaction();
+                }
+                assertEquals("Recreated by the inner commit", 0, mRecreations);
+            } finally {
+                mStore.commitSettingsTransaction();
+            }
+            assertEquals(1, mRecreations);
+            assertEquals(!multiprocess, getSettings().getUseMultiprocess());
+            assertEquals(!trackingProtection, getSettings().getUseTrackingProtection());
+        });
+    }
+
+    @Test
+    public void unchangedSettingsDontRecreate() {
+        mInstrumentation.runOnMainSync(() -> {
+            boolean multiprocess = getSettings().getUseMultiprocess();
+            mStore.beginSettingsTransaction();
+            try {
+                // Toggled back before the commit, the session keeps its settings.
+                mStore.setMultiprocess(!multiprocess);
+                mStore.setMultiprocess(multiprocess);
+            } finally {
+                mStore.commitSettingsTransaction();
+            }
+            assertEquals(0, mRecreations);
+        });
+    }
+}
@@ -0,0 +1,125 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.browser;
+
+import android.app.Instrumentation;
+import android.os.StrictMode;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the SettingsStore getters and setters on the UI thread with a StrictMode policy that kills
+ * the process on any disk read or write, including the write behind of the changes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SettingsStoreStrictModeTest {
+
+    private Instrumentation mInstrumentation;
+    private SettingsStore mSettings;
+    private StrictMode.ThreadPolicy mPreviousPolicy;
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        // The preferences are loaded from disk once, when the store is created.
+        mSettings = SettingsStore.getInstance(InstrumentationRegistry.getTargetContext());
+        mInstrumentation.runOnMainSync(() -> {
+            mPreviousPolicy = StrictMode.getThreadPolicy();
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .penaltyDeath()
+                    .build());
+        });
+    }
+
+    @After
+    public void tearDown() {
+        // Posted after the pending changes, so they are applied while the policy is installed.
+        mInstrumentation.runOnMainSync(() -> StrictMode.setThreadPolicy(mPreviousPolicy));
+    }
+
+    @Test
+    public void gettersAndSettersDontAccessDisk() {
+        // Every setting is written back with its current value, so the preferences don't change.
+        mInstrumentation.runOnMainSync(() -> {
+            mSettings.setCrashReportingEnabled(mSettings.isCrashReportingEnabled());
+            mSettings.isTelemetryEnabled();
+            mSettings.setGeolocationData(mSettings.getGeolocationData());
+            mSettings.setRemoteDebuggingEnabled(mSettings.isRemoteDebuggingEnabled());
+            mSettings.setConsoleLogsEnabled(mSettings.isConsoleLogsEnabled());
+            mSettings.setDrmContentPlaybackEnabled(mSettings.isDrmContentPlaybackEnabled());
+            mSettings.setTrackingProtectionEnabled(mSettings.isTrackingProtectionEnabled());
+            mSettings.setEnvironmentOverrideEnabled(mSettings.isEnvironmentOverrideEnabled());
+            mSettings.setMultiprocessEnabled(mSettings.isMultiprocessEnabled());
+            mSettings.setPerformanceMonitorEnabled(mSettings.isPerformanceMonitorEnabled());
+            mSettings.setServoEnabled(mSettings.isServoEnabled());
+            mSettings.setUaMode(mSettings.getUaMode());
+            mSettings.setInputMode(mSettings.getInputMode());
+            mSettings.setHomepage(mSettings.getHomepage());
+            mSettings.setDisplayDensity(mSettings.getDisplayDensity());
+            mSettings.setWindowWidth(mSettings.getWindowWidth());
+            mSettings.setWindowHeight(mSettings.getWindowHeight());
+            mSettings.getWindowAspect();
+            mSettings.setDisplayDpi(mSettings.getDisplayDpi());
+            mSettings.setMaxWindowWidth(mSettings.getMaxWindowWidth());
+            mSettings.setMaxWindowHeight(mSettings.getMaxWindowHeight());
+            mSettings.setEnvironment(mSettings.getEnvironment());
+            mSettings.setBrowserWorldWidth(mSettings.getBrowserWorldWidth());
+            mSettings.setBrowserWorldHeight(mSettings.getBrowserWorldHeight());
+            mSettings.setPointerColor(mSettings.getPointerColor());
+            mSettings.setScrollDirection(mSettings.getScrollDirection());
+            mSettings.setMSAALevel(mSettings.getMSAALevel());
+            mSettings.getLayersEnabled();
+            mSettings.getTransparentBorderWidth();
+            mSettings.setAudioEnabled(mSettings.isAudioEnabled());
+            mSettings.getVoiceSearchLanguage();
+            mSettings.setCylinderDensity(mSettings.getCylinderDensity());
+            mSettings.setFoveatedLevelApp(mSettings.getFoveatedLevelApp());
+            mSettings.setFoveatedLevelWebVR(mSettings.getFoveatedLevelWebVR());
+            Locale keyboardLocale = mSettings.getKeyboardLocale();
+            if (keyboardLocale != null) {
+                mSettings.setSelectedKeyboard(keyboardLocale);
+            }
+            mSettings.setSpeechDataCollectionEnabled(mSettings.isSpeechDataCollectionEnabled());
+            mSettings.setNotificationsEnabled(mSettings.isNotificationsEnabled());
+            // Served from memory, the durable writes of the count allow disk access themselves.
+            mSettings.getCrashRestartCount();
+        });
+    }
+
+    @Test
+    public void settersUpdateSnapshot() {
+        mInstrumentation.runOnMainSync(() -> {
+            int width = mSettings.getWindowWidth();
+            boolean audio = mSettings.isAudioEnabled();
+            String environment = mSettings.getEnvironment();
+            try {
+                mSettings.setWindowWidth(width + 1);
+                mSettings.setAudioEnabled(!audio);
+                mSettings.setEnvironment(environment + "_test");
+                assertEquals(width + 1, mSettings.getWindowWidth());
+                assertEquals(!audio, mSettings.isAudioEnabled());
+                assertEquals(environment + "_test", mSettings.getEnvironment());
+            } finally {
+                // Coalesced with the changes above into a single write.
+                mSettings.setWindowWidth(width);
+                mSettings.setAudioEnabled(audio);
+                mSettings.setEnvironment(environment);
+            }
+        });
+    }
+}
@@ -0,0 +1,137 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.input;
+
+import android.content.Context;
+import android.inputmethodservice.Keyboard;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.vrbrowser.R;
+
+import java.util.List;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures {@link CustomKeyboard#getNearestKeys(int, int)} on every shipped layout with the
+ * pointer updates of both controllers at 90 Hz, against the scan of every key it replaced. The
+ * results are logged, the test fails if the lookups of a frame take a noticeable part of it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CustomKeyboardBenchmark {
+
+    private static final String LOGTAG = "VRB";
+    private static final int FRAME_RATE = 90;
+    private static final long FRAME_NANOS = 1000000000L / FRAME_RATE;
+    private static final int CONTROLLERS = 2;
+    // One minute of pointer moves over the keyboard.
+    private static final int FRAMES = FRAME_RATE * 60;
+    private static final int WARMUP_FRAMES = FRAME_RATE * 5;
+    // Share of the frame the lookups may take.
+    private static final double MAX_FRAME_SHARE = 0.01;
+
+    private static final int[] LAYOUTS = {
+            R.xml.keyboard_qwerty,
+            R.xml.keyboard_qwerty_french,
+            R.xml.keyboard_qwerty_german,
+            R.xml.keyboard_qwerty_italian,
+            R.xml.keyboard_qwerty_japanese,
+            R.xml.keyboard_qwerty_korean,
+            R.xml.keyboard_qwerty_pinyin,
+            R.xml.keyboard_qwerty_russian,
+            R.xml.keyboard_qwerty_spanish,
+            R.xml.keyboard_symbols,
+            R.xml.keyboard_symbols_german,
+            R.xml.keyboard_symbols_japanese,
+            R.xml.keyboard_symbols_russian,
+            R.xml.keyboard_numeric,
+            R.xml.keyboard_zhuyin
+    };
+
+    private static Context getContext() {
+        return InstrumentationRegistry.getTargetContext();
+    }
+
+    // The previous getNearestKeys: copies the keys and scans all of them.
+    private static int bruteForceNearestKey(Keyboard aKeyboard, int x, int y) {
+        List<Keyboard.Key> keyList = aKeyboard.getKeys();
+        Keyboard.Key[] keys = keyList.toArray(new Keyboard.Key[keyList.size()]);
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i].isInside(x, y)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Pointer positions of both controllers, sweeping the keyboard and a margin around it.
+    private static int[][] createPath(Keyboard aKeyboard, int aFrames) {
+        int width = aKeyboard.getMinWidth();
+        int height = aKeyboard.getHeight();
+        int[][] path = new int[aFrames * CONTROLLERS][2];
+        for (int i = 0; i < path.length; ++i) {
+            double t = (double)i / path.length;
+            path[i][0] = (int)(width * (1.1 * Math.abs(Math.sin(t * 37 + i % CONTROLLERS)) - 0.05));
+            path[i][1] = (int)(height * (1.1 * Math.abs(Math.sin(t * 23 + i % CONTROLLERS)) - 0.05));
+        }
+        return path;
+    }
+
+    private static long runIndexed(CustomKeyboard aKeyboard, int[][] aPath) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int[] point: aPath) {
+            aKeyboard.getNearestKeys(point[0], point[1]);
+        }
+        return SystemClock.elapsedRealtimeNanos() - start;
+    }
+
+    private static long runBruteForce(CustomKeyboard aKeyboard, int[][] aPath) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int[] point: aPath) {
+            bruteForceNearestKey(aKeyboard, point[0], point[1]);
+        }
+        return SystemClock.elapsedRealtimeNanos() - start;
+    }
+
+    private static void benchmark(String aName, CustomKeyboard aKeyboard) {
+        int[][] path = createPath(aKeyboard, FRAMES);
+        // Same results on the measured path, so both sides do the same work.
+        for (int[] point: path) {
+            int expected = bruteForceNearestKey(aKeyboard, point[0], point[1]);
+            int[] nearest = aKeyboard.getNearestKeys(point[0], point[1]);
+            assertEquals(expected, nearest.length > 0 ? nearest[0] : -1);
+        }
+
+        int[][] warmup = createPath(aKeyboard, WARMUP_FRAMES);
+        runIndexed(aKeyboard, warmup);
+        runBruteForce(aKeyboard, warmup);
+
+        long indexed = runIndexed(aKeyboard, path);
+        long bruteForce = runBruteForce(aKeyboard, path);
+        double indexedPerFrame = (double)indexed / FRAMES;
+        double bruteForcePerFrame = (double)bruteForce / FRAMES;
+        Log.i(LOGTAG, String.format("%s, %d keys at %d Hz: %.0f ns per frame (%.3f%% of the frame), scan %.0f ns per frame",
+                aName, aKeyboard.getKeys().size(), FRAME_RATE, indexedPerFrame,
+                indexedPerFrame * 100 / FRAME_NANOS, bruteForcePerFrame));
+        assertTrue(aName + " takes " + indexedPerFrame + " ns per frame",
+                indexedPerFrame < FRAME_NANOS * MAX_FRAME_SHARE);
+    }
+
+    @Test
+    public void hitTestAt90Hz() {
+        for (int layout: LAYOUTS) {
+            benchmark(getContext().getResources().getResourceEntryName(layout), new CustomKeyboard(getContext(), layout));
+        }
+        benchmark("keyboard_popup", new CustomKeyboard(getContext(), R.xml.keyboard_popup, "aàáâãäåæ", 4, 0, 0));
+    }
+}
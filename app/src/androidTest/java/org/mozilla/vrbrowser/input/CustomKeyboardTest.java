@@ -0,0 +1,134 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.input;
+
+import android.content.Context;
+import android.inputmethodservice.Keyboard;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.vrbrowser.R;
+
+import java.util.List;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the grid index of {@link CustomKeyboard#getNearestKeys(int, int)} against a scan of
+ * every key, which is what getNearestKeys did before the index.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CustomKeyboardTest {
+
+    // Points past the keyboard bounds are still inside the keys on the edges.
+    private static final int MARGIN = 20;
+
+    private static Context getContext() {
+        return InstrumentationRegistry.getTargetContext();
+    }
+
+    private static int bruteForceNearestKey(Keyboard aKeyboard, int x, int y) {
+        List<Keyboard.Key> keys = aKeyboard.getKeys();
+        for (int i = 0; i < keys.size(); ++i) {
+            if (keys.get(i).isInside(x, y)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void assertMatchesBruteForce(CustomKeyboard aKeyboard) {
+        int right = aKeyboard.getMinWidth();
+        int bottom = aKeyboard.getHeight();
+        for (Keyboard.Key key: aKeyboard.getKeys()) {
+            right = Math.max(right, key.x + key.width);
+            bottom = Math.max(bottom, key.y + key.height);
+        }
+        for (int y = -MARGIN; y <= bottom + MARGIN; ++y) {
+            for (int x = -MARGIN; x <= right + MARGIN; ++x) {
+                int expected = bruteForceNearestKey(aKeyboard, x, y);
+                int[] nearest = aKeyboard.getNearestKeys(x, y);
+                String point = "(" + x + ", " + y + ")";
+                if (expected < 0) {
+                    assertEquals("No key expected at " + point, 0, nearest.length);
+                } else {
+                    assertEquals("One key expected at " + point, 1, nearest.length);
+                    assertEquals("Wrong key at " + point, expected, nearest[0]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void layoutsMatchBruteForce() {
+        int[] layouts = {
+                R.xml.keyboard_qwerty,
+                R.xml.keyboard_symbols,
+                R.xml.keyboard_numeric,
+                R.xml.keyboard_qwerty_japanese,
+                R.xml.keyboard_zhuyin
+        };
+        for (int layout: layouts) {
+            assertMatchesBruteForce(new CustomKeyboard(getContext(), layout));
+        }
+    }
+
+    @Test
+    public void popupKeyboardMatchesBruteForce() {
+        CustomKeyboard keyboard = new CustomKeyboard(getContext(), R.xml.keyboard_popup,
+                "aàáâãäåæ", 4, 0, 0);
+        assertMatchesBruteForce(keyboard);
+    }
+
+    @Test
+    public void matchesBruteForceAfterInvalidate() {
+        CustomKeyboard keyboard = new CustomKeyboard(getContext(), R.xml.keyboard_qwerty);
+        assertMatchesBruteForce(keyboard);
+
+        // Same as a resize of the keyboard: the key count stays the same but the geometry changes.
+        for (Keyboard.Key key: keyboard.getKeys()) {
+            key.x = key.x * 3 / 2;
+            key.width = key.width * 3 / 2;
+            key.y = key.y / 2;
+            key.height = key.height / 2;
+        }
+        keyboard.invalidateKeyIndex();
+        assertMatchesBruteForce(keyboard);
+    }
+
+    @Test
+    public void matchesBruteForceAfterKeyCountChange() {
+        CustomKeyboard keyboard = new CustomKeyboard(getContext(), R.xml.keyboard_qwerty);
+        assertMatchesBruteForce(keyboard);
+
+        // Overlaps the first keys, getNearestKeys must keep returning the first one in key order.
+        Keyboard.Key key = new Keyboard.Key(new Keyboard.Row(keyboard));
+        key.x = 0;
+        key.y = 0;
+        key.width = keyboard.getMinWidth() / 2;
+        key.height = keyboard.getHeight() / 2;
+        keyboard.getKeys().add(key);
+        assertMatchesBruteForce(keyboard);
+
+        keyboard.getKeys().remove(0);
+        assertMatchesBruteForce(keyboard);
+    }
+
+    @Test
+    public void resultArrayIsReused() {
+        CustomKeyboard keyboard = new CustomKeyboard(getContext(), R.xml.keyboard_qwerty);
+        Keyboard.Key first = keyboard.getKeys().get(0);
+        Keyboard.Key last = keyboard.getKeys().get(keyboard.getKeys().size() - 1);
+        int[] nearest = keyboard.getNearestKeys(first.x + first.width / 2, first.y + first.height / 2);
+        assertEquals(0, nearest[0]);
+        assertSame(nearest, keyboard.getNearestKeys(last.x + last.width / 2, last.y + last.height / 2));
+        assertEquals(keyboard.getKeys().size() - 1, nearest[0]);
+    }
+}
@@ -0,0 +1,148 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.input;
+
+import android.graphics.SurfaceTexture;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.MotionEvent;
+import android.view.Surface;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.vrbrowser.ui.widgets.Widget;
+import org.mozilla.vrbrowser.ui.widgets.WidgetPlacement;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Counts the Java allocations of {@link MotionEventGenerator#dispatch} while two controllers
+ * move over two widgets at 90 Hz, with presses, drags and hovers. The allocations per second are
+ * logged, the test fails if there is more than one allocation per frame on average.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MotionEventGeneratorAllocationTest {
+
+    private static final String LOGTAG = "VRB";
+    private static final int FRAME_RATE = 90;
+    private static final long FRAME_MS = 1000 / FRAME_RATE;
+    // Pointer samples queued per controller between two drains of the input queue.
+    private static final int SAMPLES_PER_FRAME = 2;
+    private static final int WARMUP_SECONDS = 5;
+    private static final int SECONDS = 30;
+    private static final int DEVICE = 200;
+    private static final int CONTROLLERS = 2;
+
+    private static class NoopWidget implements Widget {
+        private final int mHandle;
+        long mEvents;
+
+        NoopWidget(int aHandle) {
+            mHandle = aHandle;
+        }
+
+        @Override
+        public void handleTouchEvent(MotionEvent aEvent) {
+            mEvents++;
+        }
+
+        @Override
+        public void handleHoverEvent(MotionEvent aEvent) {
+            mEvents++;
+        }
+
+        @Override
+        public int getHandle() {
+            return mHandle;
+        }
+
+        @Override
+        public void onPause() {}
+        @Override
+        public void onResume() {}
+        @Override
+        public void setSurfaceTexture(SurfaceTexture aTexture, int aWidth, int aHeight) {}
+        @Override
+        public void setSurface(Surface aSurface, int aWidth, int aHeight, Runnable aFirstDrawCallback) {}
+        @Override
+        public void resizeSurface(int aWidth, int aHeight) {}
+        @Override
+        public WidgetPlacement getPlacement() { return null; }
+        @Override
+        public void handleResizeEvent(float aWorldWidth, float aWorldHeight) {}
+        @Override
+        public void releaseWidget() {}
+        @Override
+        public void setFirstDraw(boolean aIsFirstDraw) {}
+        @Override
+        public boolean getFirstDraw() { return false; }
+        @Override
+        public boolean isVisible() { return true; }
+        @Override
+        public boolean isDialog() { return false; }
+        @Override
+        public void setVisible(boolean aVisible) {}
+        @Override
+        public void resizeByMultiplier(float aspect, float multiplier) {}
+    }
+
+    private final NoopWidget mWidgetA = new NoopWidget(1);
+    private final NoopWidget mWidgetB = new NoopWidget(2);
+    private long mTime = SystemClock.uptimeMillis();
+
+    @After
+    public void tearDown() {
+        MotionEventGenerator.endBatch();
+    }
+
+    // Each controller presses and drags on one widget for a second, then hovers over both.
+    private void runFrames(int aFrames) {
+        for (int frame = 0; frame < aFrames; ++frame) {
+            MotionEventGenerator.beginBatch();
+            for (int sample = 0; sample < SAMPLES_PER_FRAME; ++sample) {
+                long time = mTime + sample * FRAME_MS / SAMPLES_PER_FRAME;
+                for (int controller = 0; controller < CONTROLLERS; ++controller) {
+                    int step = frame + controller * FRAME_RATE;
+                    boolean pressed = (step / FRAME_RATE) % 2 == 0;
+                    // Hovering pointers cross from one widget to the other every half second.
+                    Widget widget = pressed || (step / (FRAME_RATE / 2)) % 2 == 0 ? mWidgetA : mWidgetB;
+                    float x = (step * SAMPLES_PER_FRAME + sample) % 500;
+                    float y = 100 + controller * 200;
+                    MotionEventGenerator.dispatch(widget, DEVICE + controller, pressed, x, y, time);
+                }
+            }
+            MotionEventGenerator.endBatch();
+            mTime += FRAME_MS;
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void allocationsPerSecondAt90Hz() {
+        runFrames(FRAME_RATE * WARMUP_SECONDS);
+        long events = mWidgetA.mEvents + mWidgetB.mEvents;
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            runFrames(FRAME_RATE * SECONDS);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        int allocations = Debug.getThreadAllocCount();
+        int bytes = Debug.getThreadAllocSize();
+        events = mWidgetA.mEvents + mWidgetB.mEvents - events;
+
+        Log.i(LOGTAG, String.format("MotionEventGenerator at %d Hz: %d events/s, %.1f allocations/s, %.0f bytes/s",
+                FRAME_RATE, events / SECONDS, (double)allocations / SECONDS, (double)bytes / SECONDS));
+        assertTrue("Events dispatched", events > 0);
+        assertTrue(allocations + " allocations in " + SECONDS + " s", allocations < FRAME_RATE * SECONDS);
+    }
+}
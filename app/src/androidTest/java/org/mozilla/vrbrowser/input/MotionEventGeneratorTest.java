@@ -0,0 +1,242 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.input;
+
+import android.graphics.SurfaceTexture;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.Surface;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.vrbrowser.ui.widgets.Widget;
+import org.mozilla.vrbrowser.ui.widgets.WidgetPlacement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the batching of touch moves and the suppression of redundant hover events of
+ * {@link MotionEventGenerator}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MotionEventGeneratorTest {
+
+    // The devices are static in MotionEventGenerator, each test uses its own.
+    private static int sNextDevice = 100;
+
+    private static class RecordingWidget implements Widget {
+        // Copies, the generator recycles the events after the dispatch.
+        final List<MotionEvent> mEvents = new ArrayList<>();
+        private final int mHandle;
+
+        RecordingWidget(int aHandle) {
+            mHandle = aHandle;
+        }
+
+        int[] actions() {
+            int[] actions = new int[mEvents.size()];
+            for (int i = 0; i < actions.length; ++i) {
+                actions[i] = mEvents.get(i).getActionMasked();
+            }
+            return actions;
+        }
+
+        MotionEvent last() {
+            return mEvents.get(mEvents.size() - 1);
+        }
+
+        void recycle() {
+            for (MotionEvent event: mEvents) {
+                event.recycle();
+            }
+            mEvents.clear();
+        }
+
+        @Override
+        public void handleTouchEvent(MotionEvent aEvent) {
+            mEvents.add(MotionEvent.obtain(aEvent));
+        }
+
+        @Override
+        public void handleHoverEvent(MotionEvent aEvent) {
+            mEvents.add(MotionEvent.obtain(aEvent));
+        }
+
+        @Override
+        public int getHandle() {
+            return mHandle;
+        }
+
+        @Override
+        public void onPause() {}
+        @Override
+        public void onResume() {}
+        @Override
+        public void setSurfaceTexture(SurfaceTexture aTexture, int aWidth, int aHeight) {}
+        @Override
+        public void setSurface(Surface aSurface, int aWidth, int aHeight, Runnable aFirstDrawCallback) {}
+        @Override
+        public void resizeSurface(int aWidth, int aHeight) {}
+        @Override
+        public WidgetPlacement getPlacement() { return null; }
+        @Override
+        public void handleResizeEvent(float aWorldWidth, float aWorldHeight) {}
+        @Override
+        public void releaseWidget() {}
+        @Override
+        public void setFirstDraw(boolean aIsFirstDraw) {}
+        @Override
+        public boolean getFirstDraw() { return false; }
+        @Override
+        public boolean isVisible() { return true; }
+        @Override
+        public boolean isDialog() { return false; }
+        @Override
+        public void setVisible(boolean aVisible) {}
+        @Override
+        public void resizeByMultiplier(float aspect, float multiplier) {}
+    }
+
+    private final RecordingWidget mWidgetA = new RecordingWidget(1);
+    private final RecordingWidget mWidgetB = new RecordingWidget(2);
+    private final int mDevice = sNextDevice++;
+    private final long mTime = SystemClock.uptimeMillis();
+
+    @After
+    public void tearDown() {
+        // Leaves no pending move behind for the next test.
+        MotionEventGenerator.endBatch();
+        mWidgetA.recycle();
+        mWidgetB.recycle();
+    }
+
+    private void press(RecordingWidget aWidget, float aX, float aY, long aTime) {
+        MotionEventGenerator.dispatch(aWidget, mDevice, false, aX, aY, aTime);
+        MotionEventGenerator.dispatch(aWidget, mDevice, true, aX, aY, aTime);
+        aWidget.recycle();
+    }
+
+    @Test
+    public void sameWidgetMovesAreMerged() {
+        press(mWidgetA, 10, 10, mTime);
+
+        MotionEventGenerator.beginBatch();
+        MotionEventGenerator.dispatch(mWidgetA, mDevice, true, 20, 11, mTime + 5);
+        MotionEventGenerator.dispatch(mWidgetA, mDevice, true, 30, 12, mTime + 10);
+        MotionEventGenerator.dispatch(mWidgetA, mDevice, true, 40, 13, mTime + 15);
+        assertEquals("Moves are held until the batch ends", 0, mWidgetA.mEvents.size());
+        MotionEventGenerator.endBatch();
+
+        assertEquals(1, mWidgetA.mEvents.size());
+        MotionEvent move = mWidgetA.last();
+        assertEquals(MotionEvent.ACTION_MOVE, move.getActionMasked());
+        assertEquals(2, move.getHistorySize());
+        assertEquals(20, move.getHistoricalX(0), 0);
+        assertEquals(11, move.getHistoricalY(0), 0);
+        assertEquals(mTime + 5, move.getHistoricalEventTime(0));
+        assertEquals(30, move.getHistoricalX(1), 0);
+        assertEquals(mTime + 10, move.getHistoricalEventTime(1));
+        assertEquals(40, move.getX(), 0);
+        assertEquals(13, move.getY(), 0);
+        assertEquals(mTime + 15, move.getEventTime());
+        assertEquals(mTime, move.getDownTime());
+    }
+
+    @Test
+    public void movesAreNotMergedOutsideBatch() {
+        press(mWidgetA, 10, 10, mTime);
+
+        MotionEventGenerator.dispatch(mWidgetA, mDevice, true, 20, 10, mTime + 5);
+        MotionEventGenerator.dispatch(mWidgetA, mDevice, true, 30, 10, mTime + 10);
+
+        assertEquals(2, mWidgetA.mEvents.size());
+        assertEquals(0, mWidgetA.mEvents.get(0).getHistorySize());
+        assertEquals(0, mWidgetA.mEvents.get(1).getHistorySize());
+    }
+
+    @Test
+    public void widgetChangeFlushesPendingMove() {
+        press(mWidgetA, 10, 10, mTime);
+
+        MotionEventGenerator.beginBatch();
+        MotionEventGenerator.dispatch(mWidgetA, mDevice, true, 20, 10, mTime + 5);
+        MotionEventGenerator.dispatch(mWidgetA, mDevice, true, 30, 10, mTime + 10);
+        MotionEventGenerator.dispatch(mWidgetB, mDevice, true, 40, 10, mTime + 15);
+
+        // The move on A is delivered as soon as the pointer moves to B, B's waits for the batch.
+        assertEquals(1, mWidgetA.mEvents.size());
+        assertEquals(MotionEvent.ACTION_MOVE, mWidgetA.last().getActionMasked());
+        assertEquals(1, mWidgetA.last().getHistorySize());
+        assertEquals(30, mWidgetA.last().getX(), 0);
+        assertEquals(0, mWidgetB.mEvents.size());
+
+        MotionEventGenerator.endBatch();
+        assertEquals(1, mWidgetB.mEvents.size());
+        assertEquals(MotionEvent.ACTION_MOVE, mWidgetB.last().getActionMasked());
+        assertEquals(0, mWidgetB.last().getHistorySize());
+        assertEquals(40, mWidgetB.last().getX(), 0);
+    }
+
+    @Test
+    public void otherEventFlushesPendingMove() {
+        press(mWidgetA, 10, 10, mTime);
+
+        MotionEventGenerator.beginBatch();
+        MotionEventGenerator.dispatch(mWidgetA, mDevice, true, 20, 10, mTime + 5);
+        MotionEventGenerator.dispatch(mWidgetA, mDevice, false, 20, 10, mTime + 10);
+
+        // The pending move is delivered before the release, not when the batch ends.
+        assertEquals(MotionEvent.ACTION_MOVE, mWidgetA.mEvents.get(0).getActionMasked());
+        assertEquals(MotionEvent.ACTION_UP, mWidgetA.mEvents.get(1).getActionMasked());
+    }
+
+    @Test
+    public void hoverEnterSuppressesHoverMove() {
+        MotionEventGenerator.dispatch(mWidgetA, mDevice, false, 10, 10, mTime);
+        MotionEventGenerator.dispatch(mWidgetA, mDevice, false, 20, 10, mTime + 5);
+        MotionEventGenerator.dispatch(mWidgetB, mDevice, false, 30, 10, mTime + 10);
+
+        int[] expectedA = { MotionEvent.ACTION_HOVER_ENTER, MotionEvent.ACTION_HOVER_MOVE, MotionEvent.ACTION_HOVER_EXIT };
+        assertEquals(expectedA.length, mWidgetA.mEvents.size());
+        for (int i = 0; i < expectedA.length; ++i) {
+            assertEquals(expectedA[i], mWidgetA.actions()[i]);
+        }
+        // Entering B at a new location sends no HOVER_MOVE, the enter carries the location.
+        assertEquals(1, mWidgetB.mEvents.size());
+        assertEquals(MotionEvent.ACTION_HOVER_ENTER, mWidgetB.last().getActionMasked());
+        assertEquals(30, mWidgetB.last().getX(), 0);
+
+        // A stationary pointer gets no more events.
+        MotionEventGenerator.dispatch(mWidgetB, mDevice, false, 30, 10, mTime + 15);
+        assertEquals(1, mWidgetB.mEvents.size());
+
+        MotionEventGenerator.dispatch(mWidgetB, mDevice, false, 35, 10, mTime + 20);
+        assertEquals(2, mWidgetB.mEvents.size());
+        assertEquals(MotionEvent.ACTION_HOVER_MOVE, mWidgetB.last().getActionMasked());
+    }
+
+    @Test
+    public void releaseOverOtherWidgetEntersItOnce() {
+        press(mWidgetA, 10, 10, mTime);
+
+        // Released over B: A gets the end of the touch, B is entered once.
+        MotionEventGenerator.dispatch(mWidgetB, mDevice, false, 40, 10, mTime + 5);
+
+        int[] expectedA = { MotionEvent.ACTION_CANCEL, MotionEvent.ACTION_HOVER_EXIT };
+        assertEquals(expectedA.length, mWidgetA.mEvents.size());
+        for (int i = 0; i < expectedA.length; ++i) {
+            assertEquals(expectedA[i], mWidgetA.actions()[i]);
+        }
+        assertEquals(1, mWidgetB.mEvents.size());
+        assertEquals(MotionEvent.ACTION_HOVER_ENTER, mWidgetB.last().getActionMasked());
+    }
+}
@@ -0,0 +1,207 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser;
+
+import android.os.Handler;
+import android.os.MessageQueue;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.mozilla.vrbrowser.telemetry.MetricsRegistry;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+
+/**
+ * Runs the startup work of the activity in phases so only what the first frame needs delays it.
+ * Critical tasks run when they are scheduled, tasks after the first frame run one per message
+ * once {@link #onFirstFrame()} is called and idle tasks run one per idle callback of the UI
+ * thread after those. Each task is timed, the timings and the time to the first frame are logged
+ * and published in the {@link MetricsRegistry}.
+ *
+ * Must be used from the UI thread.
+ */
+public class StartupScheduler {
+
+    private static final String LOGTAG = "VRB";
+    private static final String METRICS_SOURCE = "startup";
+    // The deferred tasks still run if no frame is drawn, e.g. when the headset is not worn.
+    private static final long FIRST_FRAME_TIMEOUT = 10000;
+
+    @IntDef(value = { PHASE_CRITICAL, PHASE_AFTER_FIRST_FRAME, PHASE_IDLE })
+    public @interface Phase {}
+    public static final int PHASE_CRITICAL = 0;
+    public static final int PHASE_AFTER_FIRST_FRAME = 1;
+    public static final int PHASE_IDLE = 2;
+    private static final String[] PHASE_NAMES = { "critical", "after_first_frame", "idle" };
+
+    private static class Task {
+        final @Phase int mPhase;
+        final String mName;
+        final Runnable mRunnable;
+
+        Task(@Phase int aPhase, String aName, Runnable aRunnable) {
+            mPhase = aPhase;
+            mName = aName;
+            mRunnable = aRunnable;
+        }
+    }
+
+    private final Handler mHandler;
+    private final long mStartTime;
+    private long mFirstFrameTime = -1;
+    private boolean mDeferredStarted;
+    private boolean mIdleHandlerAdded;
+    private final ArrayDeque<Task> mAfterFirstFrameTasks = new ArrayDeque<>();
+    private final ArrayDeque<Task> mIdleTasks = new ArrayDeque<>();
+    // Task durations in microseconds by "<phase>.<task>", in the order they ran.
+    private final LinkedHashMap<String, Long> mTimings = new LinkedHashMap<>();
+
+    private final Runnable mFirstFrameTimeout = () -> {
+        Log.w(LOGTAG, "Startup: no frame after " + FIRST_FRAME_TIMEOUT + "ms, running the deferred tasks");
+        startDeferredTasks();
+    };
+
+    private final Runnable mAfterFirstFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Task task = mAfterFirstFrameTasks.poll();
+            if (task != null) {
+                runTask(task);
+            }
+            if (!mAfterFirstFrameTasks.isEmpty()) {
+                // One task per message, so input and rendering are not held behind all of them.
+                mHandler.post(this);
+            } else {
+                addIdleHandler();
+            }
+        }
+    };
+
+    private final MessageQueue.IdleHandler mIdleHandler = () -> {
+        if (!mAfterFirstFrameTasks.isEmpty()) {
+            // Keeps the phases in order, the idle handler is added again once they are done.
+            mIdleHandlerAdded = false;
+            return false;
+        }
+        Task task = mIdleTasks.poll();
+        if (task != null) {
+            runTask(task);
+        }
+        mIdleHandlerAdded = !mIdleTasks.isEmpty();
+        return mIdleHandlerAdded;
+    };
+
+    public StartupScheduler(@NonNull Handler aHandler) {
+        mHandler = aHandler;
+        mStartTime = SystemClock.uptimeMillis();
+        mHandler.postDelayed(mFirstFrameTimeout, FIRST_FRAME_TIMEOUT);
+        MetricsRegistry.get().source(METRICS_SOURCE, aSnapshot -> {
+            if (mFirstFrameTime >= 0) {
+                aSnapshot.put("startup.time_to_first_frame_ms", mFirstFrameTime - mStartTime);
+                aSnapshot.put("startup.process_to_first_frame_ms", mFirstFrameTime - Process.getStartUptimeMillis());
+            }
+            for (Map.Entry<String, Long> timing: mTimings.entrySet()) {
+                aSnapshot.put("startup." + timing.getKey() + "_us", timing.getValue());
+            }
+        });
+    }
+
+    /**
+     * Runs aTask now if aPhase is PHASE_CRITICAL, otherwise queues it for its phase. Tasks of a
+     * phase run in the order they are scheduled.
+     * @param aName Name of the task in the timings.
+     */
+    public void schedule(@Phase int aPhase, @NonNull String aName, @NonNull Runnable aTask) {
+        Task task = new Task(aPhase, aName, aTask);
+        if (aPhase == PHASE_CRITICAL) {
+            runTask(task);
+        } else if (aPhase == PHASE_AFTER_FIRST_FRAME) {
+            mAfterFirstFrameTasks.add(task);
+            if (mDeferredStarted && mAfterFirstFrameTasks.size() == 1) {
+                mHandler.post(mAfterFirstFrameRunnable);
+            }
+        } else {
+            mIdleTasks.add(task);
+            if (mDeferredStarted && mAfterFirstFrameTasks.isEmpty()) {
+                addIdleHandler();
+            }
+        }
+    }
+
+    /**
+     * Called when the first frame is drawn, later calls are ignored.
+     */
+    public void onFirstFrame() {
+        if (mFirstFrameTime >= 0) {
+            return;
+        }
+        mFirstFrameTime = SystemClock.uptimeMillis();
+        Log.i(LOGTAG, "Startup: time to first frame " + (mFirstFrameTime - mStartTime) + "ms, " +
+                (mFirstFrameTime - Process.getStartUptimeMillis()) + "ms since process start");
+        startDeferredTasks();
+    }
+
+    /**
+     * @return Milliseconds from the creation of the scheduler to the first frame, -1 if there
+     * was no frame yet.
+     */
+    public long getTimeToFirstFrame() {
+        return mFirstFrameTime >= 0 ? mFirstFrameTime - mStartTime : -1;
+    }
+
+    /**
+     * Drops the tasks that didn't run yet.
+     */
+    public void release() {
+        mHandler.removeCallbacks(mFirstFrameTimeout);
+        mHandler.removeCallbacks(mAfterFirstFrameRunnable);
+        if (mIdleHandlerAdded) {
+            mHandler.getLooper().getQueue().removeIdleHandler(mIdleHandler);
+            mIdleHandlerAdded = false;
+        }
+        mAfterFirstFrameTasks.clear();
+        mIdleTasks.clear();
+        MetricsRegistry.get().remove(METRICS_SOURCE);
+    }
+
+    private void startDeferredTasks() {
+        if (mDeferredStarted) {
+            return;
+        }
+        mDeferredStarted = true;
+        mHandler.removeCallbacks(mFirstFrameTimeout);
+        if (!mAfterFirstFrameTasks.isEmpty()) {
+            mHandler.post(mAfterFirstFrameRunnable);
+        } else {
+            addIdleHandler();
+        }
+    }
+
+    private void addIdleHandler() {
+        if (!mIdleHandlerAdded && !mIdleTasks.isEmpty()) {
+            mIdleHandlerAdded = true;
+            mHandler.getLooper().getQueue().addIdleHandler(mIdleHandler);
+        }
+    }
+
+    private void runTask(Task aTask) {
+        long start = System.nanoTime();
+        try {
+            aTask.mRunnable.run();
+        } finally {
+            long duration = (System.nanoTime() - start) / 1000;
+            mTimings.put(PHASE_NAMES[aTask.mPhase] + "." + aTask.mName, duration);
+            Log.d(LOGTAG, "Startup: " + PHASE_NAMES[aTask.mPhase] + " task " + aTask.mName + " took " +
+                    duration + "us");
+        }
+    }
+}
@@ -21,6 +21,7 @@ import android.opengl.GLES20;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Pair;
 import android.view.KeyEvent;
@@ -36,6 +37,8 @@ import org.mozilla.geckoview.GeckoRuntime;
 import org.mozilla.geckoview.GeckoSession;
 import org.mozilla.geckoview.GeckoVRManager;
 import org.mozilla.vrbrowser.audio.AudioEngine;
+import org.mozilla.vrbrowser.audio.AudioUpdateScheduler;
+import org.mozilla.vrbrowser.browser.PerformanceGovernor;
 import org.mozilla.vrbrowser.browser.PermissionDelegate;
 import org.mozilla.vrbrowser.browser.SessionStore;
 import org.mozilla.vrbrowser.browser.SettingsStore;
@@ -43,19 +46,25 @@ import org.mozilla.vrbrowser.crashreporting.CrashReporterService;
 import org.mozilla.vrbrowser.crashreporting.GlobalExceptionHandler;
 import org.mozilla.vrbrowser.geolocation.GeolocationWrapper;
 import org.mozilla.vrbrowser.utils.DeviceType;
+import org.mozilla.vrbrowser.input.InputEventQueue;
+import org.mozilla.vrbrowser.input.InputTracer;
 import org.mozilla.vrbrowser.input.MotionEventGenerator;
 import org.mozilla.vrbrowser.search.SearchEngineWrapper;
+import org.mozilla.vrbrowser.telemetry.MetricsRegistry;
 import org.mozilla.vrbrowser.telemetry.TelemetryWrapper;
 import org.mozilla.vrbrowser.ui.OffscreenDisplay;
+import org.mozilla.vrbrowser.ui.keyboards.DictionaryManager;
 import org.mozilla.vrbrowser.ui.widgets.BookmarkListener;
 import org.mozilla.vrbrowser.ui.views.BookmarksView;
 import org.mozilla.vrbrowser.ui.widgets.KeyboardWidget;
 import org.mozilla.vrbrowser.ui.widgets.NavigationBarWidget;
 import org.mozilla.vrbrowser.ui.widgets.RootWidget;
+import org.mozilla.vrbrowser.ui.widgets.TextureBudgetManager;
 import org.mozilla.vrbrowser.ui.widgets.TopBarWidget;
 import org.mozilla.vrbrowser.ui.widgets.TrayListener;
 import org.mozilla.vrbrowser.ui.widgets.TrayWidget;
 import org.mozilla.vrbrowser.ui.widgets.UIWidget;
+import org.mozilla.vrbrowser.ui.widgets.WidgetCommandBuffer;
 import org.mozilla.vrbrowser.ui.widgets.VideoProjectionMenuWidget;
 import org.mozilla.vrbrowser.ui.widgets.Widget;
 import org.mozilla.vrbrowser.ui.widgets.WidgetManagerDelegate;
@@ -65,13 +74,13 @@ import org.mozilla.vrbrowser.ui.widgets.dialogs.CrashDialogWidget;
 import org.mozilla.vrbrowser.utils.ConnectivityReceiver;
 import org.mozilla.vrbrowser.utils.ServoUtils;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
-import java.util.Set;
 import java.util.function.Consumer;
 
 import androidx.annotation.IntDef;
@@ -110,9 +119,19 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
     static final int GestureSwipeRight = 1;
     static final int SwipeDelay = 1000; // milliseconds
     static final long RESET_CRASH_COUNT_DELAY = 5000;
+    static final int INPUT_QUEUE_CAPACITY = 256;
+    static final int WIDGET_COMMANDS_CAPACITY = 32;
+    static final long TEXTURE_BUDGET = 48 * 1024 * 1024; // bytes
+    static final long TEXTURE_BUDGET_INTERVAL = 1000; // milliseconds
+    static final long HIDDEN_SURFACE_TIMEOUT = 10000; // milliseconds
+    static final int POOR_PERFORMANCE_FOVEATED_LEVEL = 3;
+    static final float POOR_PERFORMANCE_WINDOW_SCALE = 0.7f;
+    static final int AUDIO_UPDATE_RATE = 30; // updates per second
 
     static final String LOGTAG = "VRB";
     HashMap<Integer, Widget> mWidgets;
+    WidgetCommandBuffer mWidgetCommands;
+    TextureBudgetManager mTextureBudget;
     private int mWidgetHandleIndex = 1;
     AudioEngine mAudioEngine;
     OffscreenDisplay mOffscreenDisplay;
@@ -120,7 +139,35 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
     int mLastGesture;
     SwipeRunnable mLastRunnable;
     Handler mHandler = new Handler();
-    Runnable mAudioUpdateRunnable;
+    InputEventQueue mInputQueue = new InputEventQueue(INPUT_QUEUE_CAPACITY, mHandler, new InputEventQueue.Delegate() {
+        @Override
+        public void onDrainStarted() {
+            MotionEventGenerator.beginBatch();
+        }
+
+        @Override
+        public void onMotionEvent(int aHandle, int aDevice, boolean aPressed, float aX, float aY, long aEventTime) {
+            dispatchMotionEvent(aHandle, aDevice, aPressed, aX, aY, aEventTime);
+        }
+
+        @Override
+        public void onScrollEvent(int aHandle, int aDevice, float aX, float aY) {
+            dispatchScrollEvent(aHandle, aDevice, aX, aY);
+        }
+
+        @Override
+        public void onDrainFinished() {
+            MotionEventGenerator.endBatch();
+        }
+    });
+    AudioUpdateScheduler mAudioUpdateScheduler;
+    Runnable mTextureBudgetRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mTextureBudget.update(SystemClock.uptimeMillis());
+            mHandler.postDelayed(this, TEXTURE_BUDGET_INTERVAL);
+        }
+    };
     WindowWidget mWindowWidget;
     RootWidget mRootWidget;
     KeyboardWidget mKeyboard;
@@ -141,12 +188,15 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
     private LinkedList<Pair<Object, Float>> mBrightnessQueue;
     private Pair<Object, Float> mCurrentBrightness;
     private SearchEngineWrapper mSearchEngineWrapper;
+    private StartupScheduler mStartupScheduler;
     private SettingsStore mSettings;
     private ConnectivityReceiver mConnectivityReceiver;
     private boolean mConnectionAvailable = true;
     private AudioManager mAudioManager;
     private Widget mActiveDialog;
-    private Set<String> mPoorPerformanceWhiteList;
+    private PerformanceGovernor mPerformanceGovernor;
+    private boolean mVideosAvailable;
+    private float mWindowScaleBeforeGovernor = -1.0f;
 
     private boolean callOnAudioManager(Consumer<AudioManager> fn) {
         if (mAudioManager == null) {
@@ -193,12 +243,17 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
             workaroundGeckoSigAction();
         }
         mUiThread = Thread.currentThread();
+        mStartupScheduler = new StartupScheduler(mHandler);
 
         Bundle extras = getIntent() != null ? getIntent().getExtras() : null;
-        SessionStore.get().setContext(this, extras);
-        SessionStore.get().registerListeners();
-        SessionStore.get().addVideoAvailabilityListener(this);
-        ((VRBrowserApplication)getApplication()).getRepository().migrateOldBookmarks();
+        mStartupScheduler.schedule(StartupScheduler.PHASE_CRITICAL, "session_store", () -> {
+            SessionStore.get().setContext(this, extras);
+            SessionStore.get().registerListeners();
+            SessionStore.get().addVideoAvailabilityListener(this);
+        });
+        // Opening the database is not needed before the bookmarks are shown.
+        mStartupScheduler.schedule(StartupScheduler.PHASE_IDLE, "bookmark_migration", () ->
+                ((VRBrowserApplication)getApplication()).getRepository().migrateOldBookmarks());
 
         // Create broadcast receiver for getting crash messages from crash process
         IntentFilter intentFilter = new IntentFilter();
@@ -217,17 +272,24 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
         mCurrentBrightness = Pair.create(null, 1.0f);
 
         mWidgets = new HashMap<>();
+        // The flush tasks bypass queueRunnable below, which would close the batch they flush.
+        mWidgetCommands = new WidgetCommandBuffer(super::queueRunnable, this::flushWidgetCommandsNative, WIDGET_COMMANDS_CAPACITY);
+        // Widgets up to the browser window distance keep their full texture resolution.
+        mTextureBudget = new TextureBudgetManager(this::setWidgetTextureScale, TEXTURE_BUDGET, HIDDEN_SURFACE_TIMEOUT,
+                Math.abs(WidgetPlacement.unitFromMeters(this, R.dimen.window_world_z)));
         mWidgetContainer = new FrameLayout(this);
 
         mPermissionDelegate = new PermissionDelegate(this, this);
 
         mAudioEngine = new AudioEngine(this, null);
         mAudioEngine.setEnabled(SettingsStore.getInstance(this).isAudioEnabled());
-        mAudioEngine.preloadAsync(() -> {
-            Log.i(LOGTAG, "AudioEngine sounds preloaded!");
-            // mAudioEngine.playSound(AudioEngine.Sound.AMBIENT, true);
-        });
-        mAudioUpdateRunnable = () -> mAudioEngine.update();
+        mStartupScheduler.schedule(StartupScheduler.PHASE_AFTER_FIRST_FRAME, "audio_preload", () ->
+            mAudioEngine.preloadAsync(() -> {
+                Log.i(LOGTAG, "AudioEngine sounds preloaded!");
+                // mAudioEngine.playSound(AudioEngine.Sound.AMBIENT, true);
+            }));
+        mAudioUpdateScheduler = new AudioUpdateScheduler(mAudioEngine, mHandler, AUDIO_UPDATE_RATE);
+        registerMetrics();
 
         mSettings = SettingsStore.getInstance(this);
 
@@ -237,16 +299,24 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
         queueRunnable(() -> setTemporaryFilePath(tempPath));
         setCylinderDensity(SettingsStore.getInstance(this).getCylinderDensity());
         updateFoveatedLevel();
-        initializeWorld();
+        mStartupScheduler.schedule(StartupScheduler.PHASE_CRITICAL, "initialize_world", this::initializeWorld);
 
         // Setup the search engine
-        mSearchEngineWrapper = SearchEngineWrapper.get(this);
-        mSearchEngineWrapper.registerForUpdates();
+        mStartupScheduler.schedule(StartupScheduler.PHASE_AFTER_FIRST_FRAME, "search_engine", () -> {
+            mSearchEngineWrapper = SearchEngineWrapper.get(this);
+            mSearchEngineWrapper.registerForUpdates();
+        });
+
+        mStartupScheduler.schedule(StartupScheduler.PHASE_IDLE, "geolocation", () -> GeolocationWrapper.update(this));
 
-        GeolocationWrapper.update(this);
+        // Extract the keyboard dictionaries so the first CJK keystroke doesn't block on I/O
+        mStartupScheduler.schedule(StartupScheduler.PHASE_IDLE, "dictionaries", () ->
+                DictionaryManager.getInstance(this).extractAsync(mSettings.getKeyboardLocale()));
 
         mConnectivityReceiver = new ConnectivityReceiver();
-        mPoorPerformanceWhiteList = new HashSet<>();
+        mPerformanceGovernor = new PerformanceGovernor(this, this::applyPerformanceTier);
+        SessionStore.get().addNavigationListener(mPerformanceGovernor);
+        SessionStore.get().addSessionChangeListener(mPerformanceGovernor);
     }
 
     protected void initializeWorld() {
@@ -324,9 +394,25 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
             mOffscreenDisplay.onPause();
         }
         mWidgetContainer.getViewTreeObserver().removeOnGlobalFocusChangeListener(globalFocusListener);
+        mHandler.removeCallbacks(mTextureBudgetRunnable);
+        dumpInputTrace();
         super.onPause();
     }
 
+    private void dumpInputTrace() {
+        if (!InputTracer.isEnabled()) {
+            return;
+        }
+        final File file = new File(getExternalFilesDir(null), "input_trace.bin");
+        ((VRBrowserApplication)getApplicationContext()).getExecutors().diskIO().execute(() -> {
+            try {
+                InputTracer.dump(file);
+            } catch (IOException e) {
+                Log.e(LOGTAG, "Error writing the input trace: " + e.getMessage());
+            }
+        });
+    }
+
     @Override
     protected void onResume() {
         mWidgetContainer.getViewTreeObserver().addOnGlobalFocusChangeListener(globalFocusListener);
@@ -340,6 +426,7 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
         }
         handleConnectivityChange();
         mConnectivityReceiver.register(this, () -> runOnUiThread(() -> handleConnectivityChange()));
+        mHandler.post(mTextureBudgetRunnable);
         super.onResume();
     }
 
@@ -347,7 +434,12 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
     protected void onDestroy() {
         // Unregister the crash service broadcast receiver
         unregisterReceiver(mCrashReceiver);
-        mSearchEngineWrapper.unregisterForUpdates();
+        if (mStartupScheduler != null) {
+            mStartupScheduler.release();
+        }
+        if (mSearchEngineWrapper != null) {
+            mSearchEngineWrapper.unregisterForUpdates();
+        }
 
         for (Widget widget: mWidgets.values()) {
             widget.releaseWidget();
@@ -367,11 +459,35 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
         mTray.onDestroy();
         mBookmarksView.onDestroy();
         SessionStore.get().removeVideoAvailabilityListener(this);
+        SessionStore.get().removeNavigationListener(mPerformanceGovernor);
+        SessionStore.get().removeSessionChangeListener(mPerformanceGovernor);
+        MetricsRegistry.get().remove("activity");
 
         SessionStore.get().unregisterListeners();
         super.onDestroy();
     }
 
+    private void registerMetrics() {
+        // Read on the UI thread when about:performance takes a snapshot.
+        MetricsRegistry.get().source("activity", aSnapshot -> {
+            aSnapshot.put("input.queue.depth", mInputQueue.getDepth());
+            aSnapshot.put("input.queue.max_depth", mInputQueue.getMaxDepth());
+            aSnapshot.put("input.queue.dropped", mInputQueue.getDroppedCount());
+            aSnapshot.put("input.queue.coalesced", mInputQueue.getCoalescedCount());
+            aSnapshot.put("input.queue.avg_latency_us", mInputQueue.getAverageLatency() / 1000);
+            aSnapshot.put("textures.allocated_kb", mTextureBudget.getTotalAllocatedBytes() / 1024);
+            aSnapshot.put("textures.budget_kb", mTextureBudget.getBudget() / 1024);
+            aSnapshot.put("textures.scale_changes", mTextureBudget.getScaleChangeCount());
+            aSnapshot.put("textures.releases", mTextureBudget.getReleaseCount());
+            aSnapshot.put("audio.updates", mAudioUpdateScheduler.getExecutedCount());
+            aSnapshot.put("audio.skipped_idle", mAudioUpdateScheduler.getSkippedIdleCount());
+            aSnapshot.put("widgets.commands_merged", mWidgetCommands.getMergedCount());
+            if (mPerformanceGovernor != null) {
+                aSnapshot.put("performance.tier", mPerformanceGovernor.getTier());
+            }
+        });
+    }
+
     @Override
     protected void onNewIntent(final Intent intent) {
         Log.d(LOGTAG,"VRBrowserActivity onNewIntent");
@@ -402,6 +518,9 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
             Uri homepageUri = Uri.parse(extras.getString("homepage"));
             SettingsStore.getInstance(this).setHomepage(homepageUri.toString());
         }
+        if (extras != null && extras.containsKey("input_trace")) {
+            InputTracer.setEnabled(extras.getBoolean("input_trace"));
+        }
         if (extras != null && extras.containsKey("e10s")) {
             boolean wasEnabled = SettingsStore.getInstance(this).isMultiprocessEnabled();
             boolean enabled = extras.getBoolean("e10s", wasEnabled);
@@ -563,6 +682,7 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
                         if (!widget.getFirstDraw()) {
                             widget.setFirstDraw(true);
                             updateWidget(widget);
+                            mStartupScheduler.onFirstFrame();
                         }
                     }
 
@@ -594,6 +714,7 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
                 if (aSurface != null && !widget.getFirstDraw()) {
                     widget.setFirstDraw(true);
                     updateWidget(widget);
+                    mStartupScheduler.onFirstFrame();
                 }
             };
 
@@ -615,41 +736,49 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
     @Keep
     @SuppressWarnings("unused")
     void handleMotionEvent(final int aHandle, final int aDevice, final boolean aPressed, final float aX, final float aY) {
-        runOnUiThread(() -> {
-            Widget widget = mWidgets.get(aHandle);
-            if (!isWidgetInputEnabled(widget)) {
-                widget = null; // Fallback to mRootWidget in order to allow world clicks to dismiss UI.
-            }
-            float scale = widget != null ? widget.getPlacement().textureScale : 1.0f;
-            final float x = aX / scale;
-            final float y = aY / scale;
+        final long time = System.nanoTime();
+        final long event = mInputQueue.queueMotionEvent(aHandle, aDevice, aPressed, aX, aY);
+        if (event >= 0) {
+            InputTracer.trace(InputTracer.STAGE_NATIVE, event, aHandle, time);
+        }
+    }
 
-            if (widget == null) {
-                MotionEventGenerator.dispatch(mRootWidget, aDevice, aPressed, x, y);
-            } else if (widget == mWindowWidget && mWindowWidget.getBorderWidth() > 0) {
-                final int border = mWindowWidget.getBorderWidth();
-                MotionEventGenerator.dispatch(widget, aDevice, aPressed, x - border, y - border);
-            } else {
-                MotionEventGenerator.dispatch(widget, aDevice, aPressed, x, y);
-            }
-        });
+    private void dispatchMotionEvent(final int aHandle, final int aDevice, final boolean aPressed, final float aX, final float aY, final long aEventTime) {
+        Widget widget = mWidgets.get(aHandle);
+        if (!isWidgetInputEnabled(widget)) {
+            widget = null; // Fallback to mRootWidget in order to allow world clicks to dismiss UI.
+        }
+        float scale = widget != null ? widget.getPlacement().textureScale : 1.0f;
+        final float x = aX / scale;
+        final float y = aY / scale;
+
+        if (widget == null) {
+            MotionEventGenerator.dispatch(mRootWidget, aDevice, aPressed, x, y, aEventTime);
+        } else if (widget == mWindowWidget && mWindowWidget.getBorderWidth() > 0) {
+            final int border = mWindowWidget.getBorderWidth();
+            MotionEventGenerator.dispatch(widget, aDevice, aPressed, x - border, y - border, aEventTime);
+        } else {
+            MotionEventGenerator.dispatch(widget, aDevice, aPressed, x, y, aEventTime);
+        }
     }
 
     @Keep
     @SuppressWarnings("unused")
     void handleScrollEvent(final int aHandle, final int aDevice, final float aX, final float aY) {
-        runOnUiThread(() -> {
-            Widget widget = mWidgets.get(aHandle);
-            if (!isWidgetInputEnabled(widget)) {
-                return;
-            }
-            if (widget != null) {
-                float scrollDirection = mSettings.getScrollDirection() == 0 ? 1.0f : -1.0f;
-                MotionEventGenerator.dispatchScroll(widget, aDevice, aX * scrollDirection, aY * scrollDirection);
-            } else {
-                Log.e(LOGTAG, "Failed to find widget for scroll event: " + aHandle);
-            }
-        });
+        mInputQueue.queueScrollEvent(aHandle, aDevice, aX, aY);
+    }
+
+    private void dispatchScrollEvent(final int aHandle, final int aDevice, final float aX, final float aY) {
+        Widget widget = mWidgets.get(aHandle);
+        if (!isWidgetInputEnabled(widget)) {
+            return;
+        }
+        if (widget != null) {
+            float scrollDirection = mSettings.getScrollDirection() == 0 ? 1.0f : -1.0f;
+            MotionEventGenerator.dispatchScroll(widget, aDevice, aX * scrollDirection, aY * scrollDirection);
+        } else {
+            Log.e(LOGTAG, "Failed to find widget for scroll event: " + aHandle);
+        }
     }
 
     @Keep
@@ -698,11 +827,10 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
     @Keep
     @SuppressWarnings({"UnusedDeclaration"})
     void handleAudioPose(float qx, float qy, float qz, float qw, float px, float py, float pz) {
-        mAudioEngine.setPose(qx, qy, qz, qw, px, py, pz);
-
         // https://developers.google.com/vr/reference/android/com/google/vr/sdk/audio/GvrAudioEngine.html#resume()
         // The initialize method must be called from the main thread at a regular rate.
-        runOnUiThread(mAudioUpdateRunnable);
+        // The scheduler posts the update to the main thread, skipping it while nothing is playing.
+        mAudioUpdateScheduler.onPose(qx, qy, qz, qw, px, py, pz);
     }
 
     @Keep
@@ -875,17 +1003,20 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
             if (mWindowWidget == null) {
                 return;
             }
-            final String originalUrl = SessionStore.get().getCurrentUri();
-            if (mPoorPerformanceWhiteList.contains(originalUrl)) {
+            // Try the cheaper measures first, the page is only blocked when none of them helped.
+            final int previousTier = mPerformanceGovernor.getTier();
+            if (mPerformanceGovernor.onPoorPerformance() != PerformanceGovernor.TIER_BLOCK ||
+                    previousTier == PerformanceGovernor.TIER_BLOCK) {
                 return;
             }
+            final String originalUrl = SessionStore.get().getCurrentUri();
             SessionStore.get().loadUri("about:blank");
             final String[] buttons = {getString(R.string.ok_button), null, getString(R.string.performance_unblock_page)};
             mWindowWidget.showButtonPrompt(getString(R.string.performance_title), getString(R.string.performance_message), buttons, new GeckoSession.PromptDelegate.ButtonCallback() {
                 @Override
                 public void confirm(int button) {
                     if (button == 0) {
-                        mPoorPerformanceWhiteList.add(originalUrl);
+                        mPerformanceGovernor.onUnblocked(originalUrl);
                         SessionStore.get().loadUri(originalUrl);
                     }
                 }
@@ -893,6 +1024,42 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
         });
     }
 
+    private void applyPerformanceTier(@PerformanceGovernor.Tier int aTier) {
+        Log.d(LOGTAG, "Performance tier: " + aTier);
+        updateFoveatedLevel();
+        updateCPULevel();
+        mTextureBudget.setBudget(aTier >= PerformanceGovernor.TIER_TEXTURE_SCALE ? TEXTURE_BUDGET / 2 : TEXTURE_BUDGET);
+        mTextureBudget.update(SystemClock.uptimeMillis());
+
+        if (mWindowWidget == null) {
+            return;
+        }
+        // Shrinking the window reduces the pixels rendered by Gecko. The window size set by the
+        // user is not overwritten and the full screen size is left alone.
+        final boolean shrink = aTier >= PerformanceGovernor.TIER_WINDOW_SIZE;
+        if (shrink && mWindowScaleBeforeGovernor < 0 && mWindowWidget.getSaveResizeChanges()) {
+            mWindowScaleBeforeGovernor = mWindowWidget.getCurrentScale();
+            resizeWindowWithoutSaving(mWindowScaleBeforeGovernor * POOR_PERFORMANCE_WINDOW_SCALE);
+        } else if (!shrink && mWindowScaleBeforeGovernor >= 0) {
+            if (mWindowWidget.getSaveResizeChanges()) {
+                resizeWindowWithoutSaving(mWindowScaleBeforeGovernor);
+            }
+            mWindowScaleBeforeGovernor = -1.0f;
+        }
+    }
+
+    private void resizeWindowWithoutSaving(float aScale) {
+        mWindowWidget.setSaveResizeChanges(false);
+        mWindowWidget.resizeByMultiplier(mWindowWidget.getCurrentAspect(), aScale);
+        mWindowWidget.setSaveResizeChanges(true);
+    }
+
+    private void updateCPULevel() {
+        final boolean high = mVideosAvailable || (mPerformanceGovernor != null &&
+                mPerformanceGovernor.getTier() >= PerformanceGovernor.TIER_CPU_LEVEL);
+        queueRunnable(() -> setCPULevelNative(high ? CPU_LEVEL_HIGH : CPU_LEVEL_NORMAL));
+    }
+
     void createOffscreenDisplay() {
         int[] ids = new int[1];
         GLES20.glGenTextures(1, ids, 0);
@@ -924,12 +1091,41 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
         for (Widget widget: aWidgets) {
             mWidgets.put(widget.getHandle(), widget);
             ((View)widget).setVisibility(widget.getPlacement().visible ? View.VISIBLE : View.GONE);
+            addToTextureBudget(widget);
         }
-        queueRunnable(() -> {
-            for (Widget widget: aWidgets) {
-                addWidgetNative(widget.getHandle(), widget.getPlacement());
-            }
-        });
+        for (Widget widget: aWidgets) {
+            mWidgetCommands.addWidget(widget.getHandle(), widget.getPlacement());
+        }
+    }
+
+    private void addToTextureBudget(final Widget aWidget) {
+        // The browser window texture follows the content size, set by the window itself.
+        boolean scalable = !(aWidget instanceof WindowWidget);
+        mTextureBudget.addWidget(aWidget.getHandle(), aWidget.getPlacement().textureScale, scalable);
+        updateTextureBudget(aWidget);
+    }
+
+    private void updateTextureBudget(final Widget aWidget) {
+        WidgetPlacement placement = aWidget.getPlacement();
+        mTextureBudget.updateWidget(aWidget.getHandle(), placement.parentHandle,
+                placement.viewWidth(), placement.viewHeight(),
+                placement.translationX, placement.translationY, placement.translationZ,
+                placement.visible, SystemClock.uptimeMillis());
+    }
+
+    private void setWidgetTextureScale(final int aHandle, final float aTextureScale) {
+        Widget widget = mWidgets.get(aHandle);
+        if (widget == null) {
+            return;
+        }
+        WidgetPlacement placement = widget.getPlacement();
+        placement.textureScale = aTextureScale;
+        widget.resizeSurface(placement.textureWidth(), placement.textureHeight());
+        mWidgetCommands.updateWidget(aHandle, placement);
+        ((View)widget).invalidate();
+        Log.d(LOGTAG, "Widget " + aHandle + " texture scale " + aTextureScale + ": " +
+                mTextureBudget.getAllocatedBytes(aHandle) / 1024 + "KB, total " +
+                mTextureBudget.getTotalAllocatedBytes() / 1024 + "KB of " + mTextureBudget.getBudget() / 1024 + "KB");
     }
 
     private void updateActiveDialog(final Widget aWidget) {
@@ -951,7 +1147,8 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
     // VideoAvailabilityListener
     @Override
     public void onVideoAvailabilityChanged(boolean aVideosAvailable) {
-        queueRunnable(() -> setCPULevelNative(aVideosAvailable ? CPU_LEVEL_HIGH : CPU_LEVEL_NORMAL));
+        mVideosAvailable = aVideosAvailable;
+        updateCPULevel();
     }
 
     // WidgetManagerDelegate
@@ -959,13 +1156,16 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
     public void addWidget(Widget aWidget) {
         mWidgets.put(aWidget.getHandle(), aWidget);
         ((View)aWidget).setVisibility(aWidget.getPlacement().visible ? View.VISIBLE : View.GONE);
-        queueRunnable(() -> addWidgetNative(aWidget.getHandle(), aWidget.getPlacement()));
+        addToTextureBudget(aWidget);
+        mWidgetCommands.addWidget(aWidget.getHandle(), aWidget.getPlacement());
         updateActiveDialog(aWidget);
     }
 
     @Override
     public void updateWidget(final Widget aWidget) {
-        queueRunnable(() -> updateWidgetNative(aWidget.getHandle(), aWidget.getPlacement()));
+        // Restores the texture of a widget shown again before sending its placement.
+        updateTextureBudget(aWidget);
+        mWidgetCommands.updateWidget(aWidget.getHandle(), aWidget.getPlacement());
 
         final int textureWidth = aWidget.getPlacement().textureWidth();
         final int textureHeight = aWidget.getPlacement().textureHeight();
@@ -1001,7 +1201,8 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
         mWidgets.remove(aWidget.getHandle());
         mWidgetContainer.removeView((View) aWidget);
         aWidget.setFirstDraw(false);
-        queueRunnable(() -> removeWidgetNative(aWidget.getHandle()));
+        mWidgetCommands.removeWidget(aWidget.getHandle());
+        mTextureBudget.removeWidget(aWidget.getHandle());
         if (aWidget == mActiveDialog) {
             mActiveDialog = null;
         }
@@ -1009,12 +1210,12 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
 
     @Override
     public void startWidgetResize(final Widget aWidget) {
-        queueRunnable(() -> startWidgetResizeNative(aWidget.getHandle()));
+        mWidgetCommands.startWidgetResize(aWidget.getHandle());
     }
 
     @Override
     public void finishWidgetResize(final Widget aWidget) {
-        queueRunnable(() -> finishWidgetResizeNative(aWidget.getHandle()));
+        mWidgetCommands.finishWidgetResize(aWidget.getHandle());
     }
 
     @Override
@@ -1084,7 +1285,7 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
     @Override
     public void pushWorldBrightness(Object aKey, float aBrightness) {
         if (mCurrentBrightness.second != aBrightness) {
-            queueRunnable(() -> setWorldBrightnessNative(aBrightness));
+            mWidgetCommands.setWorldBrightness(aBrightness);
         }
         mBrightnessQueue.add(mCurrentBrightness);
         mCurrentBrightness = Pair.create(aKey, aBrightness);
@@ -1095,7 +1296,7 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
         if (mCurrentBrightness.first == aKey) {
             if (mCurrentBrightness.second != aBrightness) {
                 mCurrentBrightness = Pair.create(aKey, aBrightness);
-                queueRunnable(() -> setWorldBrightnessNative(aBrightness));
+                mWidgetCommands.setWorldBrightness(aBrightness);
             }
         } else {
             for (int i = mBrightnessQueue.size() - 1; i >= 0; --i) {
@@ -1116,7 +1317,7 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
             float brightness = mCurrentBrightness.second;
             mCurrentBrightness = mBrightnessQueue.removeLast();
             if (mCurrentBrightness.second != brightness) {
-                queueRunnable(() -> setWorldBrightnessNative(mCurrentBrightness.second));
+                mWidgetCommands.setWorldBrightness(mCurrentBrightness.second);
             }
 
             return;
@@ -1156,7 +1357,11 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
 
     @Override
     public void updateFoveatedLevel() {
-        final int appLevel = SettingsStore.getInstance(this).getFoveatedLevelApp();
+        int level = SettingsStore.getInstance(this).getFoveatedLevelApp();
+        if (mPerformanceGovernor != null && mPerformanceGovernor.getTier() >= PerformanceGovernor.TIER_FOVEATION) {
+            level = Math.max(level, POOR_PERFORMANCE_FOVEATED_LEVEL);
+        }
+        final int appLevel = level;
         queueRunnable(() -> updateFoveatedLevelNative(appLevel));
     }
 
@@ -1210,12 +1415,17 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
         queueRunnable(() -> setCylinderDensityNative(aDensity));
     }
 
-    private native void addWidgetNative(int aHandle, WidgetPlacement aPlacement);
-    private native void updateWidgetNative(int aHandle, WidgetPlacement aPlacement);
-    private native void removeWidgetNative(int aHandle);
-    private native void startWidgetResizeNative(int aHandle);
-    private native void finishWidgetResizeNative(int aHandle);
-    private native void setWorldBrightnessNative(float aBrigthness);
+    // Every task queued on the render thread ends the pending widget command batch, so it runs
+    // after the widget commands issued before it and before the ones issued after it.
+    @Override
+    protected void queueRunnable(Runnable aRunnable) {
+        if (mWidgetCommands != null) {
+            mWidgetCommands.closeBatch();
+        }
+        super.queueRunnable(aRunnable);
+    }
+
+    private native void flushWidgetCommandsNative(ByteBuffer aBuffer, int aCount);
     private native void setTemporaryFilePath(String aPath);
     private native void exitImmersiveNative();
     private native void workaroundGeckoSigAction();
@@ -37,4 +37,8 @@ public class VRBrowserApplication extends Application {
     public Places getPlaces() {
         return mPlaces;
     }
+
+    public AppExecutors getExecutors() {
+        return mAppExecutors;
+    }
 }
@@ -6,6 +6,9 @@
 package org.mozilla.vrbrowser.audio;
 
 import android.content.Context;
+import android.os.SystemClock;
+
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class AudioEngine {
@@ -15,7 +18,11 @@ public class AudioEngine {
     private float mMasterVolume = 1.0f;
     private static ConcurrentHashMap<Context, AudioEngine> mEngines = new ConcurrentHashMap<>();
     private boolean mEnabled;
+    private Set<Sound> mLoopingSounds = ConcurrentHashMap.newKeySet();
+    private volatile long mLastSoundTime;
     private static final String LOGTAG = "VRB";
+    // Time a sound played without looping is considered active, longer than any of the effects.
+    private static final long SOUND_ACTIVE_TIME = 1000;
 
     public enum SoundType {
         STEREO,
@@ -127,13 +134,29 @@ public class AudioEngine {
     public void playSound(Sound aSound, float aVolume, boolean aLoop) {
         if (mEnabled && mEngine != null) {
             mEngine.playSound(aSound, aVolume * mMasterVolume, aLoop);
+            if (aLoop) {
+                mLoopingSounds.add(aSound);
+            }
+            mLastSoundTime = SystemClock.uptimeMillis();
         }
     }
 
     public void stopSound(Sound aSound) {
         if (mEnabled && mEngine != null) {
             mEngine.stopSound(aSound);
+            mLoopingSounds.remove(aSound);
+        }
+    }
+
+    /**
+     * @return true if a looping sound is playing or a sound was started less than
+     * SOUND_ACTIVE_TIME ago. Can be called from any thread.
+     */
+    public boolean hasActiveSounds() {
+        if (mEngine == null) {
+            return false;
         }
+        return !mLoopingSounds.isEmpty() || SystemClock.uptimeMillis() - mLastSoundTime < SOUND_ACTIVE_TIME;
     }
 
 }
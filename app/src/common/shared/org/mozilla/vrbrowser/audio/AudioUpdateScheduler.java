@@ -0,0 +1,139 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.audio;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Decides which head poses reach the {@link AudioEngine}. Poses arrive every frame from the render
+ * thread. The engine update has to run on the main thread, so it is posted there at most at the
+ * configured rate, with at most one update queued at a time. When no sound is playing and the head
+ * barely moved since the last update, the pose is dropped and no update is posted.
+ */
+public class AudioUpdateScheduler {
+
+    private static final String LOGTAG = "VRB";
+    private static final int STATS_INTERVAL = 1000;
+    // 1 - |q1·q2| below this is under half a degree of rotation.
+    private static final float ROTATION_THRESHOLD = 1e-5f;
+    // One centimeter, squared.
+    private static final float POSITION_THRESHOLD = 0.01f * 0.01f;
+
+    private final AudioEngine mEngine;
+    private final Handler mHandler;
+    private final AtomicBoolean mUpdatePending = new AtomicBoolean();
+    private final Runnable mUpdateRunnable;
+    private volatile long mMinInterval;
+
+    // Render thread state
+    private final float[] mLastPose = new float[7];
+    private boolean mHasPose;
+    private long mLastUpdateTime;
+    private long mExecuted;
+    private long mSkippedIdle;
+    private long mSkippedRate;
+    private long mCoalesced;
+
+    /**
+     * @param aHandler Handler of the thread where {@link AudioEngine#update()} must be called.
+     * @param aRate Maximum number of engine updates per second.
+     */
+    public AudioUpdateScheduler(@NonNull AudioEngine aEngine, @NonNull Handler aHandler, int aRate) {
+        mEngine = aEngine;
+        mHandler = aHandler;
+        mUpdateRunnable = () -> {
+            mUpdatePending.set(false);
+            mEngine.update();
+        };
+        setRate(aRate);
+    }
+
+    /**
+     * @param aRate Maximum number of engine updates per second.
+     */
+    public void setRate(int aRate) {
+        mMinInterval = 1000 / Math.max(1, aRate);
+    }
+
+    /**
+     * Called from the render thread with the current head pose.
+     */
+    public void onPose(float qx, float qy, float qz, float qw, float px, float py, float pz) {
+        long now = SystemClock.uptimeMillis();
+        if (now - mLastUpdateTime < mMinInterval) {
+            mSkippedRate++;
+            return;
+        }
+        if (mHasPose && !mEngine.hasActiveSounds() && !hasMoved(qx, qy, qz, qw, px, py, pz)) {
+            mSkippedIdle++;
+            return;
+        }
+        mEngine.setPose(qx, qy, qz, qw, px, py, pz);
+        mLastPose[0] = qx;
+        mLastPose[1] = qy;
+        mLastPose[2] = qz;
+        mLastPose[3] = qw;
+        mLastPose[4] = px;
+        mLastPose[5] = py;
+        mLastPose[6] = pz;
+        mHasPose = true;
+        mLastUpdateTime = now;
+
+        if (mUpdatePending.compareAndSet(false, true)) {
+            mHandler.post(mUpdateRunnable);
+            mExecuted++;
+        } else {
+            // The queued update will pick up the new pose.
+            mCoalesced++;
+        }
+        if ((mExecuted + mCoalesced) % STATS_INTERVAL == 0) {
+            Log.d(LOGTAG, "Audio updates: " + mExecuted + " executed, " + mCoalesced + " coalesced, " +
+                    mSkippedIdle + " skipped while idle, " + mSkippedRate + " skipped by rate");
+        }
+    }
+
+    private boolean hasMoved(float qx, float qy, float qz, float qw, float px, float py, float pz) {
+        float dot = qx * mLastPose[0] + qy * mLastPose[1] + qz * mLastPose[2] + qw * mLastPose[3];
+        if (1.0f - Math.abs(dot) > ROTATION_THRESHOLD) {
+            return true;
+        }
+        float dx = px - mLastPose[4];
+        float dy = py - mLastPose[5];
+        float dz = pz - mLastPose[6];
+        return dx * dx + dy * dy + dz * dz > POSITION_THRESHOLD;
+    }
+
+    public long getExecutedCount() {
+        return mExecuted;
+    }
+
+    /**
+     * @return Poses dropped because no sound was playing and the head didn't move.
+     */
+    public long getSkippedIdleCount() {
+        return mSkippedIdle;
+    }
+
+    /**
+     * @return Poses dropped to keep the updates under the configured rate.
+     */
+    public long getSkippedRateCount() {
+        return mSkippedRate;
+    }
+
+    /**
+     * @return Poses applied while an update was already queued.
+     */
+    public long getCoalescedCount() {
+        return mCoalesced;
+    }
+}
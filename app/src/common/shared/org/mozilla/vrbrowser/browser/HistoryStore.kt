@@ -8,16 +8,23 @@ package org.mozilla.vrbrowser.browser
 import android.content.Context
 import android.os.Handler
 import android.os.Looper
+import android.os.SystemClock
 import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.future.future
 import mozilla.components.concept.storage.VisitType
 import org.mozilla.vrbrowser.VRBrowserApplication
+import org.mozilla.vrbrowser.telemetry.MetricsRegistry
 import java.util.concurrent.CompletableFuture
 
 class HistoryStore constructor(val context: Context) {
     private var listeners = ArrayList<HistoryListener>()
     private val storage = (context.applicationContext as VRBrowserApplication).places.history
 
+    companion object {
+        private val writeCounter = MetricsRegistry.get().counter("history.writes")
+        private val writeHistogram = MetricsRegistry.get().histogram("history.write_ms", 60 * 1000L)
+    }
+
     interface HistoryListener {
         fun onHistoryUpdated()
     }
@@ -41,7 +48,10 @@ class HistoryStore constructor(val context: Context) {
     }
 
     fun addHistory(aURL: String, visitType: VisitType) = GlobalScope.future {
+        val start = SystemClock.uptimeMillis()
         storage.recordVisit(aURL, visitType)
+        writeHistogram.record(SystemClock.uptimeMillis() - start)
+        writeCounter.increment()
         notifyListeners()
     }
 
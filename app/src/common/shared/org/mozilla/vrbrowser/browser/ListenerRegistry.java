@@ -0,0 +1,102 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.browser;
+
+import org.mozilla.vrbrowser.telemetry.MetricsRegistry;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Copy-on-write list of the listeners of one event type. Adding or removing a listener copies
+ * the array, iterating walks the array it started with without locking or copying, so listeners
+ * can be added and removed while the event is dispatched.
+ *
+ * The events notified through {@link #dispatch()} are counted, the dispatches and listener calls
+ * are published in the {@link MetricsRegistry} as listeners.&lt;name&gt;.dispatches and
+ * listeners.&lt;name&gt;.calls. Iterating the registry itself isn't counted.
+ */
+class ListenerRegistry<T> implements Iterable<T> {
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private volatile Object[] mListeners = EMPTY;
+    private final MetricsRegistry.Counter mDispatches;
+    private final MetricsRegistry.Counter mCalls;
+
+    ListenerRegistry(@NonNull String aName) {
+        mDispatches = MetricsRegistry.get().counter("listeners." + aName + ".dispatches");
+        mCalls = MetricsRegistry.get().counter("listeners." + aName + ".calls");
+    }
+
+    synchronized void add(@NonNull T aListener) {
+        Object[] listeners = new Object[mListeners.length + 1];
+        System.arraycopy(mListeners, 0, listeners, 0, mListeners.length);
+        listeners[mListeners.length] = aListener;
+        mListeners = listeners;
+    }
+
+    synchronized boolean remove(@NonNull T aListener) {
+        Object[] current = mListeners;
+        for (int i = 0; i < current.length; ++i) {
+            if (current[i].equals(aListener)) {
+                Object[] listeners = new Object[current.length - 1];
+                System.arraycopy(current, 0, listeners, 0, i);
+                System.arraycopy(current, i + 1, listeners, i, current.length - i - 1);
+                mListeners = listeners;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized void clear() {
+        mListeners = EMPTY;
+    }
+
+    int size() {
+        return mListeners.length;
+    }
+
+    /**
+     * @return The listeners to notify of an event, counted as one dispatch to all of them.
+     */
+    @NonNull
+    Iterable<T> dispatch() {
+        final Object[] listeners = mListeners;
+        mDispatches.increment();
+        mCalls.add(listeners.length);
+        return () -> iterator(listeners);
+    }
+
+    @NonNull
+    @Override
+    public Iterator<T> iterator() {
+        return iterator(mListeners);
+    }
+
+    private Iterator<T> iterator(final Object[] listeners) {
+        return new Iterator<T>() {
+            private int mIndex;
+
+            @Override
+            public boolean hasNext() {
+                return mIndex < listeners.length;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (mIndex >= listeners.length) {
+                    throw new NoSuchElementException();
+                }
+                return (T)listeners[mIndex++];
+            }
+        };
+    }
+}
@@ -0,0 +1,281 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.browser;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.mozilla.geckoview.AllowOrDeny;
+import org.mozilla.geckoview.GeckoResult;
+import org.mozilla.geckoview.GeckoSession;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Escalates through cheaper measures before blocking a page that performs poorly. Each poor
+ * performance report moves the current origin to the next tier, the measures of a tier include
+ * the ones of the lower tiers. The highest tier reached by an origin is persisted, so the next
+ * time it is loaded it starts in that tier instead of going through the reports again.
+ *
+ * Only the MAX_ORIGINS most recently used origins are persisted. The origins of private sessions
+ * are only kept in memory.
+ */
+public class PerformanceGovernor implements GeckoSession.NavigationDelegate, SessionStore.SessionChangeListener {
+
+    private static final String LOGTAG = "VRB";
+    private static final String PREFS_NAME = "performance_tiers";
+    // One "<origin>\t<tier>\t<unblocked>" line per origin, least recently used first.
+    private static final String PREF_ORIGINS = "origins";
+    static final int MAX_ORIGINS = 200;
+    // Time the measures of a tier get to take effect before escalating again.
+    private static final long ESCALATION_INTERVAL = 5000;
+
+    @IntDef(value = { TIER_NONE, TIER_FOVEATION, TIER_WINDOW_SIZE, TIER_CPU_LEVEL, TIER_TEXTURE_SCALE, TIER_BLOCK })
+    public @interface Tier {}
+    public static final int TIER_NONE = 0;
+    public static final int TIER_FOVEATION = 1;
+    public static final int TIER_WINDOW_SIZE = 2;
+    public static final int TIER_CPU_LEVEL = 3;
+    public static final int TIER_TEXTURE_SCALE = 4;
+    public static final int TIER_BLOCK = 5;
+
+    public interface Delegate {
+        /**
+         * Applies the measures of aTier and undoes the ones of the higher tiers. TIER_BLOCK is
+         * only applied when the page performs poorly, never when an origin is loaded.
+         */
+        void onPerformanceTierChanged(@Tier int aTier);
+    }
+
+    private static class Entry {
+        @Tier int mTier = TIER_NONE;
+        boolean mUnblocked;
+    }
+
+    private final SharedPreferences mPrefs;
+    private final Delegate mDelegate;
+    // Loaded on first use, the eldest entry is the least recently updated origin.
+    private LinkedHashMap<String, Entry> mEntries;
+    // Never persisted, they are gone when the application exits.
+    private final HashMap<String, Entry> mPrivateEntries = new HashMap<>();
+    private String mOrigin;
+    private boolean mPrivate;
+    private @Tier int mTier = TIER_NONE;
+    private long mLastEscalation;
+    private final int[] mEscalations = new int[TIER_BLOCK + 1];
+
+    public PerformanceGovernor(@NonNull Context aContext, @NonNull Delegate aDelegate) {
+        mPrefs = aContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mDelegate = aDelegate;
+    }
+
+    public @Tier int getTier() {
+        return mTier;
+    }
+
+    /**
+     * Called when the page reports poor performance.
+     * @return The tier applied for the current origin.
+     */
+    public @Tier int onPoorPerformance() {
+        long now = SystemClock.uptimeMillis();
+        if (mTier != TIER_NONE && now - mLastEscalation < ESCALATION_INTERVAL) {
+            return mTier;
+        }
+        int maxTier = isUnblocked(mOrigin) ? TIER_TEXTURE_SCALE : TIER_BLOCK;
+        if (mTier >= maxTier) {
+            return mTier;
+        }
+        mLastEscalation = now;
+        setTier(mTier + 1);
+        mEscalations[mTier]++;
+        if (mOrigin != null && mTier > getPersistedTier(mOrigin)) {
+            getOrCreateEntry(mOrigin).mTier = mTier;
+            save();
+        }
+        Log.d(LOGTAG, "Poor performance on " + mOrigin + ", tier " + mTier);
+        return mTier;
+    }
+
+    /**
+     * Called when the user allows a page blocked by TIER_BLOCK, its origin is never blocked again.
+     */
+    public void onUnblocked(@Nullable String aUri) {
+        String origin = getOrigin(aUri);
+        if (origin != null) {
+            Entry entry = getOrCreateEntry(origin);
+            entry.mUnblocked = true;
+            entry.mTier = TIER_TEXTURE_SCALE;
+            save();
+        }
+    }
+
+    private void setTier(@Tier int aTier) {
+        if (mTier == aTier) {
+            return;
+        }
+        mTier = aTier;
+        mDelegate.onPerformanceTierChanged(aTier);
+    }
+
+    private int getPersistedTier(@Nullable String aOrigin) {
+        Entry entry = getEntry(aOrigin);
+        return entry != null ? entry.mTier : TIER_NONE;
+    }
+
+    private boolean isUnblocked(@Nullable String aOrigin) {
+        Entry entry = getEntry(aOrigin);
+        return entry != null && entry.mUnblocked;
+    }
+
+    private @Nullable Entry getEntry(@Nullable String aOrigin) {
+        if (aOrigin == null) {
+            return null;
+        }
+        // Private sessions see what was learnt in normal sessions, not the other way around.
+        Entry entry = mPrivate ? mPrivateEntries.get(aOrigin) : null;
+        return entry != null ? entry : getEntries().get(aOrigin);
+    }
+
+    private @NonNull Entry getOrCreateEntry(@NonNull String aOrigin) {
+        if (!mPrivate) {
+            // Moved to the end, so the origins updated last are the ones kept.
+            Entry entry = getEntries().remove(aOrigin);
+            if (entry == null) {
+                entry = new Entry();
+            }
+            getEntries().put(aOrigin, entry);
+            return entry;
+        }
+        Entry entry = mPrivateEntries.get(aOrigin);
+        if (entry == null) {
+            entry = new Entry();
+            Entry persisted = getEntries().get(aOrigin);
+            if (persisted != null) {
+                entry.mTier = persisted.mTier;
+                entry.mUnblocked = persisted.mUnblocked;
+            }
+            mPrivateEntries.put(aOrigin, entry);
+        }
+        return entry;
+    }
+
+    private LinkedHashMap<String, Entry> getEntries() {
+        if (mEntries != null) {
+            return mEntries;
+        }
+        mEntries = new LinkedHashMap<String, Entry>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> aEldest) {
+                return size() > MAX_ORIGINS;
+            }
+        };
+        String value = mPrefs.getString(PREF_ORIGINS, null);
+        if (value == null) {
+            return mEntries;
+        }
+        for (String line: value.split("\n")) {
+            String[] fields = line.split("\t");
+            if (fields.length != 3) {
+                continue;
+            }
+            try {
+                Entry entry = new Entry();
+                entry.mTier = Math.max(TIER_NONE, Math.min(TIER_BLOCK, Integer.parseInt(fields[1])));
+                entry.mUnblocked = Boolean.parseBoolean(fields[2]);
+                mEntries.put(fields[0], entry);
+            } catch (NumberFormatException e) {
+                Log.e(LOGTAG, "Invalid performance tier entry: " + line);
+            }
+        }
+        return mEntries;
+    }
+
+    private void save() {
+        if (mPrivate) {
+            return;
+        }
+        StringBuilder value = new StringBuilder();
+        for (Map.Entry<String, Entry> entry: getEntries().entrySet()) {
+            value.append(entry.getKey()).append('\t')
+                    .append(entry.getValue().mTier).append('\t')
+                    .append(entry.getValue().mUnblocked).append('\n');
+        }
+        // Replaces the whole file, so the origins evicted from the map are removed from disk too.
+        mPrefs.edit().clear().putString(PREF_ORIGINS, value.toString()).apply();
+    }
+
+    private static @Nullable String getOrigin(@Nullable String aUri) {
+        if (aUri == null) {
+            return null;
+        }
+        Uri uri = Uri.parse(aUri);
+        if (uri.getScheme() == null || uri.getHost() == null || uri.getHost().isEmpty()) {
+            return null;
+        }
+        String origin = uri.getScheme() + "://" + uri.getHost();
+        return uri.getPort() >= 0 ? origin + ":" + uri.getPort() : origin;
+    }
+
+    /**
+     * @return Number of times each tier was reached after a poor performance report.
+     */
+    public int[] getEscalationCounts() {
+        return mEscalations.clone();
+    }
+
+    // NavigationDelegate
+
+    @Override
+    public void onLocationChange(@NonNull GeckoSession aSession, @Nullable String aUri) {
+        setLocation(aUri, SessionStore.get().isCurrentSessionPrivate());
+    }
+
+    @Nullable
+    @Override
+    public GeckoResult<AllowOrDeny> onLoadRequest(@NonNull GeckoSession aSession, @NonNull LoadRequest aRequest) {
+        // Blocking is applied through the tiers, loads are never denied here.
+        return GeckoResult.ALLOW;
+    }
+
+    // SessionChangeListener
+
+    @Override
+    public void onNewSession(GeckoSession aSession, int aId) {
+    }
+
+    @Override
+    public void onRemoveSession(GeckoSession aSession, int aId) {
+    }
+
+    @Override
+    public void onCurrentSessionChange(GeckoSession aSession, int aId) {
+        // The tier follows the page of the current session.
+        SessionStore store = SessionStore.get();
+        setLocation(store.getCurrentUri(), store.isCurrentSessionPrivate());
+    }
+
+    private void setLocation(@Nullable String aUri, boolean aPrivate) {
+        String origin = getOrigin(aUri);
+        if (aPrivate == mPrivate && (origin == null ? mOrigin == null : origin.equals(mOrigin))) {
+            return;
+        }
+        mOrigin = origin;
+        mPrivate = aPrivate;
+        mLastEscalation = SystemClock.uptimeMillis();
+        // Known heavy sites start in their tier, a block is only applied when they perform poorly again.
+        setTier(Math.min(getPersistedTier(origin), TIER_TEXTURE_SCALE));
+    }
+}
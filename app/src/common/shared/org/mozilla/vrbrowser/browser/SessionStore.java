@@ -10,7 +10,11 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
+import android.util.Base64;
 import android.util.Log;
 import android.view.inputmethod.CursorAnchorInfo;
 import android.view.inputmethod.ExtractedText;
@@ -28,10 +32,14 @@ import org.mozilla.geckoview.GeckoSessionSettings;
 import org.mozilla.geckoview.MediaElement;
 import org.mozilla.geckoview.WebExtension;
 import org.mozilla.geckoview.WebRequestError;
+import org.mozilla.vrbrowser.AppExecutors;
 import org.mozilla.vrbrowser.BuildConfig;
 import org.mozilla.vrbrowser.R;
+import org.mozilla.vrbrowser.VRBrowserApplication;
 import org.mozilla.vrbrowser.crashreporting.CrashReporterService;
 import org.mozilla.vrbrowser.geolocation.GeolocationData;
+import org.mozilla.vrbrowser.telemetry.Histogram;
+import org.mozilla.vrbrowser.telemetry.MetricsRegistry;
 import org.mozilla.vrbrowser.telemetry.TelemetryWrapper;
 import org.mozilla.vrbrowser.utils.InternalPages;
 
@@ -39,17 +47,18 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CompletableFuture;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -74,19 +83,34 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
     }
     // You can test a local file using: "resource://android/assets/webvr/index.html"
     public static final String PRIVATE_BROWSING_URI = "about:privatebrowsing";
+    public static final String PERFORMANCE_URI = "about:performance";
+    public static final String PERFORMANCE_EXPORT_URI = "about:performance?export";
     public static final int NO_SESSION_ID = -1;
     private static final String[] WEB_EXTENSIONS = new String[] {
       "webcompat_vimeo",
       "webcompat_youtube"
     };
-
-    private LinkedList<GeckoSession.NavigationDelegate> mNavigationListeners;
-    private LinkedList<GeckoSession.ProgressDelegate> mProgressListeners;
-    private LinkedList<GeckoSession.ContentDelegate> mContentListeners;
-    private LinkedList<SessionChangeListener> mSessionChangeListeners;
-    private LinkedList<GeckoSession.TextInputDelegate> mTextInputListeners;
-    private LinkedList<GeckoSession.PromptDelegate> mPromptListeners;
-    private LinkedList<VideoAvailabilityListener> mVideoAvailabilityListeners;
+    private static final String VR_PREFS_FILE = "user.js";
+    private static final String VR_PREFS_DIGEST_KEY = "vr_prefs_digest";
+    private static final MetricsRegistry.Counter sVRPrefsWrites = MetricsRegistry.get().counter("gecko_prefs.writes");
+    private static final MetricsRegistry.Counter sVRPrefsSkipped = MetricsRegistry.get().counter("gecko_prefs.skipped");
+    private static final Histogram sVRPrefsWriteHistogram = MetricsRegistry.get().histogram("gecko_prefs.write_us", 10 * 1000 * 1000);
+    private static final Histogram sVRPrefsWaitHistogram = MetricsRegistry.get().histogram("gecko_prefs.wait_us", 10 * 1000 * 1000);
+
+    // Time the listeners get to answer a load request before it is allowed, not applied while
+    // a listener waits on the user.
+    private static final long LOAD_REQUEST_TIMEOUT = 5000;
+    private static final MetricsRegistry.Counter sLoadRequestsDenied = MetricsRegistry.get().counter("load_requests.denied");
+    private static final MetricsRegistry.Counter sLoadRequestsTimedOut = MetricsRegistry.get().counter("load_requests.timed_out");
+    private static final Histogram sLoadRequestHistogram = MetricsRegistry.get().histogram("load_requests.decision_ms", 60 * 1000);
+
+    private final ListenerRegistry<GeckoSession.NavigationDelegate> mNavigationListeners = new ListenerRegistry<>("navigation");
+    private final ListenerRegistry<GeckoSession.ProgressDelegate> mProgressListeners = new ListenerRegistry<>("progress");
+    private final ListenerRegistry<GeckoSession.ContentDelegate> mContentListeners = new ListenerRegistry<>("content");
+    private final ListenerRegistry<SessionChangeListener> mSessionChangeListeners = new ListenerRegistry<>("session_change");
+    private final ListenerRegistry<GeckoSession.TextInputDelegate> mTextInputListeners = new ListenerRegistry<>("text_input");
+    private final ListenerRegistry<GeckoSession.PromptDelegate> mPromptListeners = new ListenerRegistry<>("prompt");
+    private final ListenerRegistry<VideoAvailabilityListener> mVideoAvailabilityListeners = new ListenerRegistry<>("video_availability");
     private UserAgentOverride mUserAgentOverride;
 
     public interface SessionChangeListener {
@@ -99,6 +123,19 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
         void onVideoAvailabilityChanged(boolean aVideosAvailable);
     }
 
+    /**
+     * Implemented by navigation listeners that may answer a load request only after the user
+     * did, e.g. through a permission prompt. The load request is not allowed on timeout while
+     * such an answer is pending.
+     */
+    public interface InteractiveLoadRequestListener {
+        /**
+         * Called right after onLoadRequest returned the answer for aRequest.
+         * @return true if the answer waits on the user.
+         */
+        boolean isWaitingForUser(@NonNull LoadRequest aRequest);
+    }
+
     class SessionSettings {
         boolean multiprocess = SettingsStore.getInstance(mContext).isMultiprocessEnabled();
         boolean privateMode = false;
@@ -108,6 +145,13 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
         boolean servo = false;
     }
 
+    // Session settings changed in the current settings transaction, null when unchanged.
+    private static class PendingSessionSettings {
+        Boolean multiprocess;
+        Boolean trackingProtection;
+        Boolean servo;
+    }
+
     class State {
         boolean mCanGoBack;
         boolean mCanGoForward;
@@ -122,6 +166,10 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
         SessionSettings mSettings;
         ArrayList<Media> mMediaElements = new ArrayList<>();
         SessionState mSessionState;
+        // Set when the about:performance page is loaded, the next location is the page.
+        boolean mPerformancePagePending;
+        // Location of the about:performance page while it is shown.
+        String mPerformancePageUri;
     }
 
     private GeckoRuntime mRuntime;
@@ -137,22 +185,37 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
     private SharedPreferences mPrefs;
     private BookmarksStore mBookmarksStore;
     private HistoryStore mHistoryStore;
+    private int mSettingsTransactionDepth;
+    private PendingSessionSettings mPendingSessionSettings;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
 
     private SessionStore() {
         mSessions = new LinkedHashMap<>();
         mSessionsStack = new ArrayDeque<>();
         mPrivateSessionsStack = new ArrayDeque<>();
+        MetricsRegistry.get().source("sessions", this::collectMetrics);
     }
 
-    public void registerListeners() {
-        mNavigationListeners = new LinkedList<>();
-        mProgressListeners = new LinkedList<>();
-        mContentListeners = new LinkedList<>();
-        mSessionChangeListeners = new LinkedList<>();
-        mTextInputListeners = new LinkedList<>();
-        mPromptListeners = new LinkedList<>();
-        mVideoAvailabilityListeners = new LinkedList<>();
+    private void collectMetrics(@NonNull MetricsRegistry.Snapshot aSnapshot) {
+        int live = 0;
+        int privateSessions = 0;
+        for (State state : mSessions.values()) {
+            // Closed sessions keep their state and are reopened when they become current.
+            if (state.mSession.isOpen()) {
+                live++;
+            }
+            if (state.mSettings != null && state.mSettings.privateMode) {
+                privateSessions++;
+            }
+        }
+        aSnapshot.put("sessions.count", mSessions.size());
+        aSnapshot.put("sessions.live", live);
+        aSnapshot.put("sessions.hibernated", mSessions.size() - live);
+        aSnapshot.put("sessions.private", privateSessions);
+    }
 
+    public void registerListeners() {
         if (mPrefs != null) {
             mPrefs.registerOnSharedPreferenceChangeListener(this);
         }
@@ -164,6 +227,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
         mContentListeners.clear();
         mSessionChangeListeners.clear();
         mTextInputListeners.clear();
+        mPromptListeners.clear();
         mVideoAvailabilityListeners.clear();
 
         if (mPrefs != null) {
@@ -178,10 +242,18 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
         }
     }
 
+    /**
+     * Sets the runtime the sessions are opened with. Used by the tests, which have no activity to
+     * pass to {@link #setContext(Context, Bundle)}.
+     */
+    void setRuntime(GeckoRuntime aRuntime) {
+        mRuntime = aRuntime;
+    }
+
     public void setContext(Context aContext, Bundle aExtras) {
         if (mRuntime == null) {
             // FIXME: Once GeckoView has a prefs API
-            vrPrefsWorkAround(aContext, aExtras);
+            CompletableFuture<Void> prefsWrite = vrPrefsWorkAround(aContext, aExtras);
             GeckoRuntimeSettings.Builder runtimeSettingsBuilder = new GeckoRuntimeSettings.Builder();
             runtimeSettingsBuilder.crashHandler(CrashReporterService.class);
             runtimeSettingsBuilder.contentBlocking((new ContentBlocking.Settings.Builder())
@@ -201,6 +273,11 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
                 runtimeSettingsBuilder.arguments(new String[] { "-purgecaches" });
             }
 
+            // Gecko reads the prefs file when the runtime is created.
+            long waitStart = System.nanoTime();
+            prefsWrite.join();
+            sVRPrefsWaitHistogram.record((System.nanoTime() - waitStart) / 1000);
+
             mRuntime = GeckoRuntime.create(aContext, runtimeSettingsBuilder.build());
             for (String extension: WEB_EXTENSIONS) {
                 String path = "resource://android/assets/web_extensions/" + extension + "/";
@@ -374,6 +451,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
     }
 
     int createSession(SessionSettings aSettings) {
+        final long start = System.nanoTime();
         State state = new State();
         state.mSettings = aSettings;
 
@@ -407,9 +485,10 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
         state.mSession.setPermissionDelegate(mPermissionDelegate);
         state.mSession.setContentBlockingDelegate(this);
         state.mSession.setMediaDelegate(this);
-        for (SessionChangeListener listener: mSessionChangeListeners) {
+        for (SessionChangeListener listener: mSessionChangeListeners.dispatch()) {
             listener.onNewSession(state.mSession, result);
         }
+        TelemetryWrapper.recordSessionCreation((System.nanoTime() - start) / 1000);
 
         return result;
     }
@@ -426,7 +505,8 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
             session.setContentBlockingDelegate(null);
             session.setMediaDelegate(null);
             mSessions.remove(aSessionId);
-            for (SessionChangeListener listener: mSessionChangeListeners) {
+            TelemetryWrapper.cancelPageLoad(aSessionId);
+            for (SessionChangeListener listener: mSessionChangeListeners.dispatch()) {
                 listener.onRemoveSession(session, aSessionId);
             }
             session.setActive(false);
@@ -523,7 +603,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
             if (!mCurrentSession.isOpen()) {
                 mCurrentSession.open(mRuntime);
             }
-            for (SessionChangeListener listener: mSessionChangeListeners) {
+            for (SessionChangeListener listener: mSessionChangeListeners.dispatch()) {
                 listener.onCurrentSessionChange(mCurrentSession, aId);
             }
         }
@@ -682,9 +762,66 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
             aUri = getHomeUri();
         }
         Log.d(LOGTAG, "Loading URI: " + aUri);
+        if (isPerformanceUri(aUri)) {
+            loadPerformancePage(mCurrentSession, PERFORMANCE_EXPORT_URI.equalsIgnoreCase(aUri));
+            return;
+        }
         mCurrentSession.loadUri(aUri);
     }
 
+    private static boolean isPerformanceUri(@NonNull String aUri) {
+        return PERFORMANCE_URI.equalsIgnoreCase(aUri) || PERFORMANCE_EXPORT_URI.equalsIgnoreCase(aUri);
+    }
+
+    private boolean isPerformancePage(@NonNull GeckoSession aSession, @NonNull String aUri) {
+        State state = mSessions.get(aSession.hashCode());
+        return state != null && aUri.equals(state.mPerformancePageUri);
+    }
+
+    private void setPerformancePagePending(@NonNull GeckoSession aSession) {
+        State state = mSessions.get(aSession.hashCode());
+        if (state != null) {
+            state.mPerformancePagePending = true;
+            state.mPerformancePageUri = null;
+        }
+    }
+
+    /**
+     * Loads the about:performance page with the current metrics. When aExport is true the
+     * metrics are also written to a JSON file and the page shows where, which must only be
+     * requested by the user.
+     */
+    private void loadPerformancePage(@NonNull GeckoSession aSession, boolean aExport) {
+        MetricsRegistry.Snapshot snapshot = MetricsRegistry.get().snapshot();
+        if (!aExport) {
+            setPerformancePagePending(aSession);
+            aSession.loadData(InternalPages.createPerformancePage(mContext, snapshot, null), "text/html");
+            return;
+        }
+
+        File dir = mContext.getExternalFilesDir(null);
+        File file = new File(dir != null ? dir : mContext.getFilesDir(), "performance/performance_" + snapshot.getTime() + ".json");
+        AppExecutors executors = ((VRBrowserApplication)mContext.getApplicationContext()).getExecutors();
+        executors.diskIO().execute(() -> {
+            String exportResult;
+            try {
+                snapshot.writeTo(file);
+                exportResult = file.getAbsolutePath();
+                Log.d(LOGTAG, "Performance metrics exported to " + exportResult);
+            } catch (IOException e) {
+                Log.e(LOGTAG, "Error exporting performance metrics: " + e.getMessage());
+                exportResult = e.getMessage();
+            }
+            final String message = exportResult;
+            executors.mainThread().execute(() -> {
+                if (aSession.isOpen()) {
+                    setPerformancePagePending(aSession);
+                    aSession.loadData(InternalPages.createPerformancePage(mContext, snapshot, message), "text/html");
+                }
+            });
+        });
+    }
+
     public void toggleServo() {
         if (mCurrentSession == null) {
             return;
@@ -762,48 +899,102 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
         }
     }
 
-    private void vrPrefsWorkAround(Context aContext, Bundle aExtras) {
+    /**
+     * Writes the Gecko prefs file on the disk I/O thread.
+     * @return Completes once the file is up to date.
+     */
+    private CompletableFuture<Void> vrPrefsWorkAround(Context aContext, Bundle aExtras) {
+        final String prefs = createVRPrefs(aContext, aExtras);
+        final SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(aContext);
+        AppExecutors executors = ((VRBrowserApplication)aContext.getApplicationContext()).getExecutors();
+        return CompletableFuture.runAsync(() -> writeVRPrefs(aContext, prefs, sharedPrefs), executors.diskIO());
+    }
+
+    private String createVRPrefs(Context aContext, Bundle aExtras) {
+        StringBuilder out = new StringBuilder();
+        out.append("pref(\"dom.vr.enabled\", true);\n");
+        out.append("pref(\"dom.vr.external.enabled\", true);\n");
+        out.append("pref(\"webgl.enable-surface-texture\", true);\n");
+        // Enable MultiView draft extension
+        out.append("pref(\"webgl.enable-draft-extensions\", true);\n");
+        out.append("pref(\"apz.allow_double_tap_zooming\", false);\n");
+        out.append("pref(\"dom.webcomponents.customelements.enabled\", true);\n");
+        out.append("pref(\"javascript.options.ion\", true);\n");
+        out.append("pref(\"media.webspeech.synth.enabled\", false);\n");
+        // Prevent autozoom when giving a form field focus.
+        out.append("pref(\"formhelper.autozoom\", false);\n");
+        // Uncomment this to enable WebRender. WARNING NOT READY FOR USAGE.
+        // out.append("pref(\"gfx.webrender.all\", true);\n");
+        int msaa = SettingsStore.getInstance(aContext).getMSAALevel();
+        if (msaa > 0) {
+            int msaaLevel = msaa == 2 ? 4 : 2;
+            out.append("pref(\"gl.msaa-level\",").append(msaaLevel).append(");\n");
+        }
+        addOptionalPref(out, "dom.vr.require-gesture", aExtras);
+        addOptionalPref(out, "privacy.reduceTimerPrecision", aExtras);
+        if (aExtras != null && aExtras.getBoolean("media.autoplay.enabled", false)) {
+            // Enable playing audios without gesture (used for gfx automated testing)
+            out.append("pref(\"media.autoplay.enabled.user-gestures-needed\", false);\n");
+            out.append("pref(\"media.autoplay.enabled.ask-permission\", false);\n");
+            out.append("pref(\"media.autoplay.default\", 0);\n");
+        }
+        return out.toString();
+    }
+
+    private void addOptionalPref(StringBuilder out, String aKey, Bundle aExtras) {
+        if (aExtras != null && aExtras.containsKey(aKey)) {
+            boolean value = aExtras.getBoolean(aKey);
+            out.append(String.format("pref(\"%s\", %s);\n", aKey, value ? "true" : "false"));
+        }
+    }
+
+    private static void writeVRPrefs(Context aContext, String aPrefs, SharedPreferences aSharedPrefs) {
+        long start = System.nanoTime();
         File path = GeckoProfile.initFromArgs(aContext, null).getDir();
-        String prefFileName = path.getAbsolutePath() + File.separator + "user.js";
-        Log.i(LOGTAG, "Creating file: " + prefFileName);
-        try (FileOutputStream out = new FileOutputStream(prefFileName)) {
-            out.write("pref(\"dom.vr.enabled\", true);\n".getBytes());
-            out.write("pref(\"dom.vr.external.enabled\", true);\n".getBytes());
-            out.write("pref(\"webgl.enable-surface-texture\", true);\n".getBytes());
-            // Enable MultiView draft extension
-            out.write("pref(\"webgl.enable-draft-extensions\", true);\n".getBytes());
-            out.write("pref(\"apz.allow_double_tap_zooming\", false);\n".getBytes());
-            out.write("pref(\"dom.webcomponents.customelements.enabled\", true);\n".getBytes());
-            out.write("pref(\"javascript.options.ion\", true);\n".getBytes());
-            out.write("pref(\"media.webspeech.synth.enabled\", false);\n".getBytes());
-            // Prevent autozoom when giving a form field focus.
-            out.write("pref(\"formhelper.autozoom\", false);\n".getBytes());
-            // Uncomment this to enable WebRender. WARNING NOT READY FOR USAGE.
-            // out.write("pref(\"gfx.webrender.all\", true);\n".getBytes());
-            int msaa = SettingsStore.getInstance(aContext).getMSAALevel();
-            if (msaa > 0) {
-                int msaaLevel = msaa == 2 ? 4 : 2;
-                out.write(("pref(\"gl.msaa-level\"," + msaaLevel + ");\n").getBytes());
-            }
-            addOptionalPref(out, "dom.vr.require-gesture", aExtras);
-            addOptionalPref(out, "privacy.reduceTimerPrecision", aExtras);
-            if (aExtras != null && aExtras.getBoolean("media.autoplay.enabled", false)) {
-                // Enable playing audios without gesture (used for gfx automated testing)
-                out.write("pref(\"media.autoplay.enabled.user-gestures-needed\", false);\n".getBytes());
-                out.write("pref(\"media.autoplay.enabled.ask-permission\", false);\n".getBytes());
-                out.write("pref(\"media.autoplay.default\", 0);\n".getBytes());
-            }
+        File prefFile = new File(path, VR_PREFS_FILE);
+        byte[] content = aPrefs.getBytes(StandardCharsets.UTF_8);
+        String digest = getDigest(content);
+        // The prefs rarely change between launches, skip the write when the file already has them.
+        if (digest != null && digest.equals(aSharedPrefs.getString(VR_PREFS_DIGEST_KEY, null)) && prefFile.exists()) {
+            sVRPrefsSkipped.increment();
+            sVRPrefsWriteHistogram.record((System.nanoTime() - start) / 1000);
+            return;
+        }
+
+        // Written to a temporary file and renamed, so Gecko never reads a partially written file.
+        Log.i(LOGTAG, "Creating file: " + prefFile);
+        File tempFile = new File(path, VR_PREFS_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            out.write(content);
+            out.getFD().sync();
         } catch (FileNotFoundException e) {
-            Log.e(LOGTAG, "Unable to create file: '" + prefFileName + "' got exception: " + e.toString());
+            Log.e(LOGTAG, "Unable to create file: '" + tempFile + "' got exception: " + e.toString());
+            return;
         } catch (IOException e) {
-            Log.e(LOGTAG, "Unable to write file: '" + prefFileName + "' got exception: " + e.toString());
+            Log.e(LOGTAG, "Unable to write file: '" + tempFile + "' got exception: " + e.toString());
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(prefFile)) {
+            Log.e(LOGTAG, "Unable to rename file: '" + tempFile + "' to '" + prefFile + "'");
+            tempFile.delete();
+            return;
         }
+        if (digest != null) {
+            aSharedPrefs.edit().putString(VR_PREFS_DIGEST_KEY, digest).apply();
+        }
+        sVRPrefsWrites.increment();
+        sVRPrefsWriteHistogram.record((System.nanoTime() - start) / 1000);
     }
 
-    private void addOptionalPref(FileOutputStream out, String aKey, Bundle aExtras) throws IOException {
-        if (aExtras != null && aExtras.containsKey(aKey)) {
-            boolean value = aExtras.getBoolean(aKey);
-            out.write(String.format("pref(\"%s\", %s);\n", aKey, value ? "true" : "false").getBytes());
+    @Nullable
+    private static String getDigest(byte[] aContent) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.encodeToString(digest.digest(aContent), Base64.NO_WRAP);
+        } catch (NoSuchAlgorithmException e) {
+            Log.e(LOGTAG, "Unable to digest the prefs: " + e.toString());
+            return null;
         }
     }
 
@@ -891,7 +1082,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
         State state = mSessions.get(sessionId);
         if (state != null) {
             mCurrentSession = state.mSession;
-            for (SessionChangeListener listener : mSessionChangeListeners) {
+            for (SessionChangeListener listener : mSessionChangeListeners.dispatch()) {
                 listener.onCurrentSessionChange(mCurrentSession, sessionId);
             }
         }
@@ -914,23 +1105,14 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
     }
 
     public void setMaxWindowSize(int width, int height) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putInt(
-                mContext.getString(R.string.settings_key_max_window_height),
-                height);
-        editor.putInt(
-                mContext.getString(R.string.settings_key_max_window_width),
-                width);
-        editor.commit();
+        SettingsStore.getInstance(mContext).setMaxWindowWidth(width);
+        SettingsStore.getInstance(mContext).setMaxWindowHeight(height);
     }
 
     public void setServo(final boolean enabled) {
-      if (!enabled && mCurrentSession != null && isInstanceOfServoSession(mCurrentSession)) {
-        String uri = getCurrentUri();
-        int id = createSession();
-        setCurrentSession(id);
-        loadUri(uri);
-      }
+        beginSettingsTransaction();
+        getPendingSessionSettings().servo = enabled;
+        commitSettingsTransaction();
     }
 
     private void recreateSession(SessionStore.SessionSettings aSettings) {
@@ -961,19 +1143,73 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
     }
 
     public void setMultiprocess(final boolean aEnabled) {
-        State state = getCurrentState();
-        if (state != null && state.mSettings.multiprocess != aEnabled) {
-            state.mSettings.multiprocess = aEnabled;
-            recreateSession(state.mSettings);
-        }
+        beginSettingsTransaction();
+        getPendingSessionSettings().multiprocess = aEnabled;
+        commitSettingsTransaction();
     }
 
     public void setTrackingProtection(final boolean aEnabled) {
+        beginSettingsTransaction();
+        getPendingSessionSettings().trackingProtection = aEnabled;
+        commitSettingsTransaction();
+    }
+
+    /**
+     * Defers the session setting changes until the matching {@link #commitSettingsTransaction()},
+     * so changing several of them recreates the session once. Transactions can be nested, the
+     * changes are applied when the outermost one is committed.
+     */
+    public void beginSettingsTransaction() {
+        mSettingsTransactionDepth++;
+    }
+
+    /**
+     * Applies the session setting changes made since {@link #beginSettingsTransaction()}. The
+     * current session is recreated once, preserving its state, and only if its settings differ
+     * from the ones it was created with.
+     */
+    public void commitSettingsTransaction() {
+        if (mSettingsTransactionDepth == 0) {
+            Log.e(LOGTAG, "commitSettingsTransaction called without a transaction");
+            return;
+        }
+        if (--mSettingsTransactionDepth > 0) {
+            return;
+        }
+        PendingSessionSettings pending = mPendingSessionSettings;
+        mPendingSessionSettings = null;
         State state = getCurrentState();
-        if (state != null && state.mSettings.trackingProtection != aEnabled) {
-            state.mSettings.trackingProtection = aEnabled;
-            recreateSession(state.mSettings);
+        if (pending == null || state == null) {
+            return;
+        }
+
+        boolean multiprocess = pending.multiprocess != null ? pending.multiprocess : state.mSettings.multiprocess;
+        boolean trackingProtection = pending.trackingProtection != null ? pending.trackingProtection : state.mSettings.trackingProtection;
+        if (Boolean.FALSE.equals(pending.servo) && isInstanceOfServoSession(mCurrentSession)) {
+            // Servo sessions have no state to restore, the new session reloads the page.
+            String uri = getCurrentUri();
+            SessionStore.SessionSettings settings = new SessionStore.SessionSettings();
+            settings.multiprocess = multiprocess;
+            settings.trackingProtection = trackingProtection;
+            int id = createSession(settings);
+            setCurrentSession(id);
+            loadUri(uri);
+            return;
         }
+
+        if (multiprocess == state.mSettings.multiprocess && trackingProtection == state.mSettings.trackingProtection) {
+            return;
+        }
+        state.mSettings.multiprocess = multiprocess;
+        state.mSettings.trackingProtection = trackingProtection;
+        recreateSession(state.mSettings);
+    }
+
+    private PendingSessionSettings getPendingSessionSettings() {
+        if (mPendingSessionSettings == null) {
+            mPendingSessionSettings = new PendingSessionSettings();
+        }
+        return mPendingSessionSettings;
     }
 
     public void setRemoteDebugging(final boolean enabled) {
@@ -1013,9 +1249,15 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
 
         state.mPreviousUri = state.mUri;
         state.mUri = aUri;
+        if (state.mPerformancePagePending) {
+            state.mPerformancePagePending = false;
+            state.mPerformancePageUri = aUri;
+        } else if (state.mPerformancePageUri != null && !state.mPerformancePageUri.equals(aUri)) {
+            state.mPerformancePageUri = null;
+        }
 
         if (mCurrentSession == aSession) {
-            for (GeckoSession.NavigationDelegate listener : mNavigationListeners) {
+            for (GeckoSession.NavigationDelegate listener : mNavigationListeners.dispatch()) {
                 listener.onLocationChange(aSession, aUri);
             }
         }
@@ -1036,7 +1278,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
         state.mCanGoBack = aCanGoBack;
 
         if (mCurrentSession == aSession) {
-            for (GeckoSession.NavigationDelegate listener : mNavigationListeners) {
+            for (GeckoSession.NavigationDelegate listener : mNavigationListeners.dispatch()) {
                 listener.onCanGoBack(aSession, aCanGoBack);
             }
         }
@@ -1052,7 +1294,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
         state.mCanGoForward = aCanGoForward;
 
         if (mCurrentSession == aSession) {
-            for (GeckoSession.NavigationDelegate listener : mNavigationListeners) {
+            for (GeckoSession.NavigationDelegate listener : mNavigationListeners.dispatch()) {
                 listener.onCanGoForward(aSession, aCanGoForward);
             }
         }
@@ -1089,23 +1331,119 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
             return result;
         }
 
-        AtomicInteger count = new AtomicInteger(0);
-        AtomicBoolean allowed = new AtomicBoolean(false);
-        for (GeckoSession.NavigationDelegate listener: mNavigationListeners) {
+        if (isPerformanceUri(uri)) {
+            // Web content can't open the page. The export only runs for URIs loaded by the user
+            // through loadUri and for the links of the page itself.
+            if (aRequest.triggerUri == null) {
+                loadPerformancePage(aSession, false);
+            } else if (isPerformancePage(aSession, aRequest.triggerUri)) {
+                loadPerformancePage(aSession, PERFORMANCE_EXPORT_URI.equalsIgnoreCase(uri));
+            }
+            result.complete(AllowOrDeny.DENY);
+            return result;
+        }
+
+        LoadRequestDecision decision = new LoadRequestDecision(uri);
+        for (GeckoSession.NavigationDelegate listener: mNavigationListeners.dispatch()) {
+            if (decision.isDecided()) {
+                // Denied, the remaining listeners would not change the decision.
+                break;
+            }
             GeckoResult<AllowOrDeny> listenerResult = listener.onLoadRequest(aSession, aRequest);
+            if (listenerResult == null) {
+                // The listener doesn't handle load requests.
+                continue;
+            }
+            final boolean fromUser = listener instanceof InteractiveLoadRequestListener &&
+                    ((InteractiveLoadRequestListener)listener).isWaitingForUser(aRequest);
+            decision.addPendingAnswer(fromUser);
             listenerResult.then(value -> {
-                if (AllowOrDeny.ALLOW.equals(value)) {
-                    allowed.set(true);
-                }
-                if (count.getAndIncrement() == mNavigationListeners.size() - 1) {
-                    result.complete(allowed.get() ? AllowOrDeny.ALLOW : AllowOrDeny.DENY);
-                }
-
+                decision.onAnswer(value, fromUser);
                 return null;
             });
         }
+        decision.onListenersAsked();
 
-        return result;
+        return decision.getResult();
+    }
+
+    /**
+     * Allows a load request unless a listener denies it. The first DENY decides without waiting
+     * for the other listeners, and the request is allowed if some listener didn't answer before
+     * the timeout. The timeout starts once the listeners were asked and no answer waiting on the
+     * user is pending. Only used from the UI thread.
+     */
+    private class LoadRequestDecision implements Runnable {
+        private final GeckoResult<AllowOrDeny> mResult = new GeckoResult<>();
+        private final String mUri;
+        private final long mStart = SystemClock.uptimeMillis();
+        // Starts at one so the request is not decided while the listeners are being asked.
+        private int mPendingAnswers = 1;
+        private int mPendingUserAnswers;
+        private boolean mListenersAsked;
+        private boolean mTimeoutScheduled;
+        private boolean mDecided;
+
+        LoadRequestDecision(String aUri) {
+            mUri = aUri;
+        }
+
+        GeckoResult<AllowOrDeny> getResult() {
+            return mResult;
+        }
+
+        boolean isDecided() {
+            return mDecided;
+        }
+
+        void addPendingAnswer(boolean aFromUser) {
+            mPendingAnswers++;
+            if (aFromUser) {
+                mPendingUserAnswers++;
+            }
+        }
+
+        void onListenersAsked() {
+            mListenersAsked = true;
+            onAnswer(null, false);
+        }
+
+        void onAnswer(@Nullable AllowOrDeny aValue, boolean aFromUser) {
+            if (mDecided) {
+                return;
+            }
+            if (aFromUser) {
+                mPendingUserAnswers--;
+            }
+            if (AllowOrDeny.DENY.equals(aValue)) {
+                decide(AllowOrDeny.DENY);
+            } else if (--mPendingAnswers == 0) {
+                decide(AllowOrDeny.ALLOW);
+            } else if (mListenersAsked && mPendingUserAnswers == 0 && !mTimeoutScheduled) {
+                mTimeoutScheduled = true;
+                mHandler.postDelayed(this, LOAD_REQUEST_TIMEOUT);
+            }
+        }
+
+        // Timeout
+        @Override
+        public void run() {
+            if (!mDecided) {
+                Log.w(LOGTAG, "Load request timed out waiting for " + mPendingAnswers + " listeners: " + mUri);
+                sLoadRequestsTimedOut.increment();
+                decide(AllowOrDeny.ALLOW);
+            }
+        }
+
+        private void decide(AllowOrDeny aValue) {
+            mDecided = true;
+            mHandler.removeCallbacks(this);
+            sLoadRequestHistogram.record(SystemClock.uptimeMillis() - mStart);
+            if (aValue == AllowOrDeny.DENY) {
+                sLoadRequestsDenied.increment();
+            }
+            mResult.complete(aValue);
+        }
     }
 
     /**
@@ -1180,7 +1518,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
             mCurrentSession = state.mSession;
 
             if (mCurrentSession != aSession) {
-                for (SessionChangeListener listener : mSessionChangeListeners) {
+                for (SessionChangeListener listener : mSessionChangeListeners.dispatch()) {
                     listener.onCurrentSessionChange(mCurrentSession, sessionId);
                 }
             }
@@ -1207,10 +1545,10 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
             return;
         }
         state.mIsLoading = true;
-        TelemetryWrapper.startPageLoadTime();
+        TelemetryWrapper.startPageLoadTime(aSession.hashCode());
 
         if (mCurrentSession == aSession) {
-            for (GeckoSession.ProgressDelegate listener : mProgressListeners) {
+            for (GeckoSession.ProgressDelegate listener : mProgressListeners.dispatch()) {
                 listener.onPageStart(aSession, aUri);
             }
         }
@@ -1226,11 +1564,13 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
 
         state.mIsLoading = false;
         if (!isLocalizedContent(state.mUri)) {
-            TelemetryWrapper.uploadPageLoadToHistogram(state.mUri);
+            TelemetryWrapper.uploadPageLoadToHistogram(aSession.hashCode(), state.mUri);
+        } else {
+            TelemetryWrapper.cancelPageLoad(aSession.hashCode());
         }
 
         if (mCurrentSession == aSession) {
-            for (GeckoSession.ProgressDelegate listener : mProgressListeners) {
+            for (GeckoSession.ProgressDelegate listener : mProgressListeners.dispatch()) {
                 listener.onPageStop(aSession, b);
             }
         }
@@ -1252,7 +1592,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
         state.mSecurityInformation = aInformation;
 
         if (mCurrentSession == aSession) {
-            for (GeckoSession.ProgressDelegate listener : mProgressListeners) {
+            for (GeckoSession.ProgressDelegate listener : mProgressListeners.dispatch()) {
                 listener.onSecurityChange(aSession, aInformation);
             }
         }
@@ -1280,7 +1620,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
         state.mTitle = aTitle;
 
         if (mCurrentSession == aSession) {
-            for (GeckoSession.ContentDelegate listener : mContentListeners) {
+            for (GeckoSession.ContentDelegate listener : mContentListeners.dispatch()) {
                 listener.onTitleChange(aSession, aTitle);
             }
         }
@@ -1309,7 +1649,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
         state.mFullScreen = aFullScreen;
 
         if (mCurrentSession == aSession) {
-            for (GeckoSession.ContentDelegate listener : mContentListeners) {
+            for (GeckoSession.ContentDelegate listener : mContentListeners.dispatch()) {
                 listener.onFullScreen(aSession, aFullScreen);
             }
         }
@@ -1337,8 +1677,9 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
 
     @Override
     public void onFirstComposite(@NonNull GeckoSession aSession) {
+        TelemetryWrapper.recordFirstComposite(aSession.hashCode());
         if (mCurrentSession == aSession) {
-            for (GeckoSession.ContentDelegate listener : mContentListeners) {
+            for (GeckoSession.ContentDelegate listener : mContentListeners.dispatch()) {
                 listener.onFirstComposite(aSession);
             }
         }
@@ -1349,7 +1690,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
     @Override
     public void restartInput(@NonNull GeckoSession aSession, int reason) {
         if (aSession == mCurrentSession) {
-            for (GeckoSession.TextInputDelegate listener : mTextInputListeners) {
+            for (GeckoSession.TextInputDelegate listener : mTextInputListeners.dispatch()) {
                 listener.restartInput(aSession, reason);
             }
         }
@@ -1362,7 +1703,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
             state.mIsInputActive = true;
         }
         if (aSession == mCurrentSession) {
-            for (GeckoSession.TextInputDelegate listener : mTextInputListeners) {
+            for (GeckoSession.TextInputDelegate listener : mTextInputListeners.dispatch()) {
                 listener.showSoftInput(aSession);
             }
         }
@@ -1375,7 +1716,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
             state.mIsInputActive = false;
         }
         if (aSession == mCurrentSession) {
-            for (GeckoSession.TextInputDelegate listener : mTextInputListeners) {
+            for (GeckoSession.TextInputDelegate listener : mTextInputListeners.dispatch()) {
                 listener.hideSoftInput(aSession);
             }
         }
@@ -1384,7 +1725,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
     @Override
     public void updateSelection(@NonNull GeckoSession aSession, int selStart, int selEnd, int compositionStart, int compositionEnd) {
         if (aSession == mCurrentSession) {
-            for (GeckoSession.TextInputDelegate listener : mTextInputListeners) {
+            for (GeckoSession.TextInputDelegate listener : mTextInputListeners.dispatch()) {
                 listener.updateSelection(aSession, selStart, selEnd, compositionStart, compositionEnd);
             }
         }
@@ -1393,7 +1734,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
     @Override
     public void updateExtractedText(@NonNull GeckoSession aSession, @NonNull ExtractedTextRequest request, @NonNull ExtractedText text) {
         if (aSession == mCurrentSession) {
-            for (GeckoSession.TextInputDelegate listener : mTextInputListeners) {
+            for (GeckoSession.TextInputDelegate listener : mTextInputListeners.dispatch()) {
                 listener.updateExtractedText(aSession, request, text);
             }
         }
@@ -1402,7 +1743,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
     @Override
     public void updateCursorAnchorInfo(@NonNull GeckoSession aSession, @NonNull CursorAnchorInfo info) {
         if (aSession == mCurrentSession) {
-            for (GeckoSession.TextInputDelegate listener : mTextInputListeners) {
+            for (GeckoSession.TextInputDelegate listener : mTextInputListeners.dispatch()) {
                 listener.updateCursorAnchorInfo(aSession, info);
             }
         }
@@ -1437,7 +1778,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
     @Override
     public void onAlert(@NonNull GeckoSession session, String title, String msg, @NonNull AlertCallback callback) {
         if (session == mCurrentSession) {
-            for (GeckoSession.PromptDelegate listener : mPromptListeners) {
+            for (GeckoSession.PromptDelegate listener : mPromptListeners.dispatch()) {
                 listener.onAlert(session, title, msg, callback);
             }
         }
@@ -1446,7 +1787,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
     @Override
     public void onButtonPrompt(@NonNull GeckoSession session, String title, String msg, String[] btnMsg, @NonNull ButtonCallback callback) {
         if (session == mCurrentSession) {
-            for (GeckoSession.PromptDelegate listener : mPromptListeners) {
+            for (GeckoSession.PromptDelegate listener : mPromptListeners.dispatch()) {
                 listener.onButtonPrompt(session, title, msg, btnMsg, callback);
             }
         }
@@ -1455,7 +1796,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
     @Override
     public void onTextPrompt(@NonNull GeckoSession session, String title, String msg, String value, @NonNull TextCallback callback) {
         if (session == mCurrentSession) {
-            for (GeckoSession.PromptDelegate listener : mPromptListeners) {
+            for (GeckoSession.PromptDelegate listener : mPromptListeners.dispatch()) {
                 listener.onTextPrompt(session, title, msg, value, callback);
             }
         }
@@ -1464,7 +1805,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
     @Override
     public void onAuthPrompt(@NonNull GeckoSession session, String title, String msg, @NonNull AuthOptions options, @NonNull AuthCallback callback) {
         if (session == mCurrentSession) {
-            for (GeckoSession.PromptDelegate listener : mPromptListeners) {
+            for (GeckoSession.PromptDelegate listener : mPromptListeners.dispatch()) {
                 listener.onAuthPrompt(session, title, msg, options, callback);
             }
         }
@@ -1473,7 +1814,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
     @Override
     public void onChoicePrompt(@NonNull GeckoSession session, String title, String msg, int type, @NonNull Choice[] choices, @NonNull ChoiceCallback callback) {
         if (session == mCurrentSession) {
-            for (GeckoSession.PromptDelegate listener : mPromptListeners) {
+            for (GeckoSession.PromptDelegate listener : mPromptListeners.dispatch()) {
                 listener.onChoicePrompt(session, title, msg, type, choices, callback);
             }
         }
@@ -1482,7 +1823,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
     @Override
     public void onColorPrompt(@NonNull GeckoSession session, String title, String value, @NonNull TextCallback callback) {
         if (session == mCurrentSession) {
-            for (GeckoSession.PromptDelegate listener : mPromptListeners) {
+            for (GeckoSession.PromptDelegate listener : mPromptListeners.dispatch()) {
                 listener.onColorPrompt(session, title, value, callback);
             }
         }
@@ -1491,7 +1832,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
     @Override
     public void onDateTimePrompt(@NonNull GeckoSession session, String title, int type, String value, String min, String max, @NonNull TextCallback callback) {
         if (session == mCurrentSession) {
-            for (GeckoSession.PromptDelegate listener : mPromptListeners) {
+            for (GeckoSession.PromptDelegate listener : mPromptListeners.dispatch()) {
                 listener.onDateTimePrompt(session, title, type, value, min, max, callback);
             }
         }
@@ -1500,7 +1841,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
     @Override
     public void onFilePrompt(@NonNull GeckoSession session, String title, int type, String[] mimeTypes, @NonNull FileCallback callback) {
         if (session == mCurrentSession) {
-            for (GeckoSession.PromptDelegate listener : mPromptListeners) {
+            for (GeckoSession.PromptDelegate listener : mPromptListeners.dispatch()) {
                 listener.onFilePrompt(session, title, type, mimeTypes, callback);
             }
         }
@@ -1523,7 +1864,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
         state.mMediaElements.add(media);
 
         if (state.mMediaElements.size() == 1) {
-            for (VideoAvailabilityListener listener: mVideoAvailabilityListeners) {
+            for (VideoAvailabilityListener listener: mVideoAvailabilityListeners.dispatch()) {
                 listener.onVideoAvailabilityChanged(true);
             }
         }
@@ -1541,7 +1882,7 @@ public class SessionStore implements ContentBlocking.Delegate, GeckoSession.Navi
                 media.unload();
                 state.mMediaElements.remove(i);
                 if (state.mMediaElements.size() == 0) {
-                    for (VideoAvailabilityListener listener: mVideoAvailabilityListeners) {
+                    for (VideoAvailabilityListener listener: mVideoAvailabilityListeners.dispatch()) {
                         listener.onVideoAvailabilityChanged(false);
                     }
                 }
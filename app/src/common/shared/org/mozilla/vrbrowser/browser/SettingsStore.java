@@ -3,6 +3,8 @@ package org.mozilla.vrbrowser.browser;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.StrictMode;
 import android.preference.PreferenceManager;
 
@@ -75,38 +77,231 @@ public class SettingsStore {
     private final static boolean enableCrashReportingByDefault = false;
     private final static boolean enableTelemetryByDefault = true;
 
-    private int mCachedScrollDirection = -1;
+    // Keys of the crash restart count, it is also read by the crash reporter process.
+    private final String mCrashRestartCountKey;
+    private final String mCrashRestartCountTimestampKey;
+
+    // Resolved once, getString() is a resources lookup.
+    private static class Keys {
+        final String crashReportingEnabled;
+        final String telemetryEnabled;
+        final String geolocationData;
+        final String remoteDebuggingEnabled;
+        final String consoleLogsEnabled;
+        final String drmPlaybackEnabled;
+        final String trackingProtectionEnabled;
+        final String environmentOverrideEnabled;
+        final String multiprocessEnabled;
+        final String performanceMonitorEnabled;
+        final String servoEnabled;
+        final String uaMode;
+        final String inputMode;
+        final String homepage;
+        final String displayDensity;
+        final String windowWidth;
+        final String windowHeight;
+        final String displayDpi;
+        final String maxWindowWidth;
+        final String maxWindowHeight;
+        final String environment;
+        final String browserWorldWidth;
+        final String browserWorldHeight;
+        final String pointerColor;
+        final String scrollDirection;
+        final String msaaLevel;
+        final String audioEnabled;
+        final String voiceSearchLanguage;
+        final String cylinderDensity;
+        final String foveatedLevelApp;
+        final String foveatedLevelWebVR;
+        final String keyboardLocale;
+        final String speechDataCollectionEnabled;
+        final String notificationsEnabled;
+
+        Keys(Context aContext) {
+            crashReportingEnabled = aContext.getString(R.string.settings_key_crash);
+            telemetryEnabled = aContext.getString(R.string.settings_key_telemetry);
+            geolocationData = aContext.getString(R.string.settings_key_geolocation_data);
+            remoteDebuggingEnabled = aContext.getString(R.string.settings_key_remote_debugging);
+            consoleLogsEnabled = aContext.getString(R.string.settings_key_console_logs);
+            drmPlaybackEnabled = aContext.getString(R.string.settings_key_drm_playback);
+            trackingProtectionEnabled = aContext.getString(R.string.settings_key_tracking_protection);
+            environmentOverrideEnabled = aContext.getString(R.string.settings_key_environment_override);
+            multiprocessEnabled = aContext.getString(R.string.settings_key_multiprocess);
+            performanceMonitorEnabled = aContext.getString(R.string.settings_key_performance_monitor);
+            servoEnabled = aContext.getString(R.string.settings_key_servo);
+            uaMode = aContext.getString(R.string.settings_key_user_agent_version);
+            inputMode = aContext.getString(R.string.settings_key_input_mode);
+            homepage = aContext.getString(R.string.settings_key_homepage);
+            displayDensity = aContext.getString(R.string.settings_key_display_density);
+            windowWidth = aContext.getString(R.string.settings_key_window_width);
+            windowHeight = aContext.getString(R.string.settings_key_window_height);
+            displayDpi = aContext.getString(R.string.settings_key_display_dpi);
+            maxWindowWidth = aContext.getString(R.string.settings_key_max_window_width);
+            maxWindowHeight = aContext.getString(R.string.settings_key_max_window_height);
+            environment = aContext.getString(R.string.settings_key_env);
+            browserWorldWidth = aContext.getString(R.string.settings_key_browser_world_width);
+            browserWorldHeight = aContext.getString(R.string.settings_key_browser_world_height);
+            pointerColor = aContext.getString(R.string.settings_key_pointer_color);
+            scrollDirection = aContext.getString(R.string.settings_key_scroll_direction);
+            msaaLevel = aContext.getString(R.string.settings_key_msaa);
+            audioEnabled = aContext.getString(R.string.settings_key_audio);
+            voiceSearchLanguage = aContext.getString(R.string.settings_key_voice_search_language);
+            cylinderDensity = aContext.getString(R.string.settings_key_cylinder_density);
+            foveatedLevelApp = aContext.getString(R.string.settings_key_foveated_app);
+            foveatedLevelWebVR = aContext.getString(R.string.settings_key_foveated_webvr);
+            keyboardLocale = aContext.getString(R.string.settings_key_keyboard_locale);
+            speechDataCollectionEnabled = aContext.getString(R.string.settings_key_speech_data_collection);
+            notificationsEnabled = aContext.getString(R.string.settings_key_notifications);
+        }
+    }
+
+    // In-memory copy of the preferences. Getters read it and setters update it before staging
+    // the new value in the pending editor.
+    private static class Values {
+        volatile boolean crashReportingEnabled;
+        volatile boolean telemetryEnabled;
+        volatile String geolocationData;
+        volatile boolean remoteDebuggingEnabled;
+        volatile boolean consoleLogsEnabled;
+        volatile boolean drmPlaybackEnabled;
+        volatile boolean trackingProtectionEnabled;
+        volatile boolean environmentOverrideEnabled;
+        volatile boolean multiprocessEnabled;
+        volatile boolean performanceMonitorEnabled;
+        volatile boolean servoEnabled;
+        volatile int uaMode;
+        volatile int inputMode;
+        volatile String homepage;
+        volatile float displayDensity;
+        volatile int windowWidth;
+        volatile int windowHeight;
+        volatile int displayDpi;
+        volatile int maxWindowWidth;
+        volatile int maxWindowHeight;
+        volatile String environment;
+        volatile float browserWorldWidth;
+        volatile float browserWorldHeight;
+        volatile int pointerColor;
+        volatile int scrollDirection;
+        volatile int msaaLevel;
+        volatile boolean audioEnabled;
+        volatile String voiceSearchLanguage;
+        volatile float cylinderDensity;
+        volatile int foveatedLevelApp;
+        volatile int foveatedLevelWebVR;
+        volatile String keyboardLocale;
+        volatile boolean speechDataCollectionEnabled;
+        volatile boolean notificationsEnabled;
+    }
+
+    private final Keys mKeys;
+    private final Values mValues = new Values();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private SharedPreferences.Editor mPendingEditor;
+    private final Runnable mApplyRunnable = this::applyPendingChanges;
 
     public SettingsStore(Context aContext) {
         mContext = aContext;
-        mPrefs = PreferenceManager.getDefaultSharedPreferences(aContext);
+        mKeys = new Keys(aContext);
+        mCrashRestartCountKey = aContext.getString(R.string.settings_key_crash_restart_count);
+        mCrashRestartCountTimestampKey = aContext.getString(R.string.settings_key_crash_restart_count_timestamp);
+        // The preferences are loaded from disk once, every later read is served from memory.
+        final StrictMode.ThreadPolicy threadPolicy = StrictMode.allowThreadDiskReads();
+        try {
+            mPrefs = PreferenceManager.getDefaultSharedPreferences(aContext);
+            mValues.crashReportingEnabled = mPrefs.getBoolean(mKeys.crashReportingEnabled, enableCrashReportingByDefault);
+            mValues.telemetryEnabled = mPrefs.getBoolean(mKeys.telemetryEnabled, enableTelemetryByDefault);
+            mValues.geolocationData = mPrefs.getString(mKeys.geolocationData, "");
+            mValues.remoteDebuggingEnabled = mPrefs.getBoolean(mKeys.remoteDebuggingEnabled, REMOTE_DEBUGGING_DEFAULT);
+            mValues.consoleLogsEnabled = mPrefs.getBoolean(mKeys.consoleLogsEnabled, CONSOLE_LOGS_DEFAULT);
+            mValues.drmPlaybackEnabled = mPrefs.getBoolean(mKeys.drmPlaybackEnabled, DRM_PLAYBACK_DEFAULT);
+            mValues.trackingProtectionEnabled = mPrefs.getBoolean(mKeys.trackingProtectionEnabled, TRACKING_DEFAULT);
+            mValues.environmentOverrideEnabled = mPrefs.getBoolean(mKeys.environmentOverrideEnabled, ENV_OVERRIDE_DEFAULT);
+            mValues.multiprocessEnabled = mPrefs.getBoolean(mKeys.multiprocessEnabled, MULTIPROCESS_DEFAULT);
+            mValues.performanceMonitorEnabled = mPrefs.getBoolean(mKeys.performanceMonitorEnabled, PERFORMANCE_MONITOR_DEFAULT);
+            mValues.servoEnabled = mPrefs.getBoolean(mKeys.servoEnabled, SERVO_DEFAULT);
+            mValues.uaMode = mPrefs.getInt(mKeys.uaMode, UA_MODE_DEFAULT);
+            mValues.inputMode = mPrefs.getInt(mKeys.inputMode, INPUT_MODE_DEFAULT);
+            mValues.homepage = mPrefs.getString(mKeys.homepage, aContext.getString(R.string.homepage_url));
+            mValues.displayDensity = mPrefs.getFloat(mKeys.displayDensity, DISPLAY_DENSITY_DEFAULT);
+            mValues.windowWidth = mPrefs.getInt(mKeys.windowWidth, WINDOW_WIDTH_DEFAULT);
+            mValues.windowHeight = mPrefs.getInt(mKeys.windowHeight, WINDOW_HEIGHT_DEFAULT);
+            mValues.displayDpi = mPrefs.getInt(mKeys.displayDpi, DISPLAY_DPI_DEFAULT);
+            mValues.maxWindowWidth = mPrefs.getInt(mKeys.maxWindowWidth, MAX_WINDOW_WIDTH_DEFAULT);
+            mValues.maxWindowHeight = mPrefs.getInt(mKeys.maxWindowHeight, MAX_WINDOW_HEIGHT_DEFAULT);
+            mValues.environment = mPrefs.getString(mKeys.environment, ENV_DEFAULT);
+            mValues.browserWorldWidth = mPrefs.getFloat(mKeys.browserWorldWidth, BROWSER_WORLD_WIDTH_DEFAULT);
+            mValues.browserWorldHeight = mPrefs.getFloat(mKeys.browserWorldHeight, BROWSER_WORLD_HEIGHT_DEFAULT);
+            mValues.pointerColor = mPrefs.getInt(mKeys.pointerColor, POINTER_COLOR_DEFAULT_DEFAULT);
+            mValues.scrollDirection = mPrefs.getInt(mKeys.scrollDirection, SCROLL_DIRECTION_DEFAULT);
+            mValues.msaaLevel = mPrefs.getInt(mKeys.msaaLevel, MSAA_DEFAULT_LEVEL);
+            mValues.audioEnabled = mPrefs.getBoolean(mKeys.audioEnabled, AUDIO_ENABLED);
+            mValues.voiceSearchLanguage = mPrefs.getString(mKeys.voiceSearchLanguage, null);
+            mValues.cylinderDensity = mPrefs.getFloat(mKeys.cylinderDensity, 0);
+            mValues.foveatedLevelApp = mPrefs.getInt(mKeys.foveatedLevelApp, FOVEATED_APP_DEFAULT_LEVEL);
+            mValues.foveatedLevelWebVR = mPrefs.getInt(mKeys.foveatedLevelWebVR, FOVEATED_WEBVR_DEFAULT_LEVEL);
+            mValues.keyboardLocale = mPrefs.getString(mKeys.keyboardLocale, null);
+            mValues.speechDataCollectionEnabled = mPrefs.getBoolean(mKeys.speechDataCollectionEnabled, SPEECH_DATA_COLLECTION_DEFAULT);
+            mValues.notificationsEnabled = mPrefs.getBoolean(mKeys.notificationsEnabled, NOTIFICATIONS_DEFAULT);
+        } finally {
+            StrictMode.setThreadPolicy(threadPolicy);
+        }
+    }
+
+    /**
+     * @return The editor the changes are staged in, applied once at the end of the current UI
+     * thread task so the changes made together are written to disk together.
+     */
+    private synchronized SharedPreferences.Editor edit() {
+        if (mPendingEditor == null) {
+            mPendingEditor = mPrefs.edit();
+            mHandler.post(mApplyRunnable);
+        }
+        return mPendingEditor;
+    }
+
+    private synchronized void put(String aKey, boolean aValue) {
+        edit().putBoolean(aKey, aValue);
+    }
+
+    private synchronized void put(String aKey, int aValue) {
+        edit().putInt(aKey, aValue);
+    }
+
+    private synchronized void put(String aKey, float aValue) {
+        edit().putFloat(aKey, aValue);
+    }
+
+    private synchronized void put(String aKey, String aValue) {
+        edit().putString(aKey, aValue);
+    }
+
+    private synchronized void applyPendingChanges() {
+        if (mPendingEditor != null) {
+            // Updates the preferences in memory and notifies the listeners now, the disk write
+            // happens in the background.
+            mPendingEditor.apply();
+            mPendingEditor = null;
+        }
     }
 
     public boolean isCrashReportingEnabled() {
-        return mPrefs.getBoolean(mContext.getString(R.string.settings_key_crash), enableCrashReportingByDefault);
+        return mValues.crashReportingEnabled;
     }
 
     public void setCrashReportingEnabled(boolean isEnabled) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putBoolean(mContext.getString(R.string.settings_key_crash), isEnabled);
-        editor.commit();
+        mValues.crashReportingEnabled = isEnabled;
+        put(mKeys.crashReportingEnabled, isEnabled);
     }
 
     public boolean isTelemetryEnabled() {
-        // The first access to shared preferences will require a disk read.
-        final StrictMode.ThreadPolicy threadPolicy = StrictMode.allowThreadDiskReads();
-        try {
-            return mPrefs.getBoolean(
-                    mContext.getString(R.string.settings_key_telemetry), enableTelemetryByDefault);
-        } finally {
-            StrictMode.setThreadPolicy(threadPolicy);
-        }
+        return mValues.telemetryEnabled;
     }
 
     public void setTelemetryEnabled(boolean isEnabled) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putBoolean(mContext.getString(R.string.settings_key_telemetry), isEnabled);
-        editor.commit();
+        mValues.telemetryEnabled = isEnabled;
+        put(mKeys.telemetryEnabled, isEnabled);
 
         // If the state of Telemetry is not the same, we reinitialize it.
         final boolean hasEnabled = isTelemetryEnabled();
@@ -119,167 +314,139 @@ public class SettingsStore {
     }
 
     public void setGeolocationData(String aGeolocationData) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putString(mContext.getString(R.string.settings_key_geolocation_data), aGeolocationData);
-        editor.commit();
+        mValues.geolocationData = aGeolocationData;
+        put(mKeys.geolocationData, aGeolocationData);
     }
 
     public String getGeolocationData() {
-        return mPrefs.getString(mContext.getString(R.string.settings_key_geolocation_data), "");
+        return mValues.geolocationData;
     }
 
     public boolean isRemoteDebuggingEnabled() {
-        return mPrefs.getBoolean(
-                mContext.getString(R.string.settings_key_remote_debugging), REMOTE_DEBUGGING_DEFAULT);
+        return mValues.remoteDebuggingEnabled;
     }
 
     public void setRemoteDebuggingEnabled(boolean isEnabled) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putBoolean(mContext.getString(R.string.settings_key_remote_debugging), isEnabled);
-        editor.commit();
+        mValues.remoteDebuggingEnabled = isEnabled;
+        put(mKeys.remoteDebuggingEnabled, isEnabled);
     }
 
     public boolean isConsoleLogsEnabled() {
-        return mPrefs.getBoolean(
-                mContext.getString(R.string.settings_key_console_logs), CONSOLE_LOGS_DEFAULT);
+        return mValues.consoleLogsEnabled;
     }
 
     public void setConsoleLogsEnabled(boolean isEnabled) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putBoolean(mContext.getString(R.string.settings_key_console_logs), isEnabled);
-        editor.commit();
+        mValues.consoleLogsEnabled = isEnabled;
+        put(mKeys.consoleLogsEnabled, isEnabled);
     }
 
     public boolean isDrmContentPlaybackEnabled() {
-        return mPrefs.getBoolean(
-                mContext.getString(R.string.settings_key_drm_playback), DRM_PLAYBACK_DEFAULT);
+        return mValues.drmPlaybackEnabled;
     }
 
     public void setDrmContentPlaybackEnabled(boolean isEnabled) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putBoolean(mContext.getString(R.string.settings_key_drm_playback), isEnabled);
-        editor.commit();
+        mValues.drmPlaybackEnabled = isEnabled;
+        put(mKeys.drmPlaybackEnabled, isEnabled);
     }
 
     public boolean isTrackingProtectionEnabled() {
-        return mPrefs.getBoolean(
-                mContext.getString(R.string.settings_key_tracking_protection), TRACKING_DEFAULT);
+        return mValues.trackingProtectionEnabled;
     }
 
     public void setTrackingProtectionEnabled(boolean isEnabled) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putBoolean(mContext.getString(R.string.settings_key_tracking_protection), isEnabled);
-        editor.commit();
+        mValues.trackingProtectionEnabled = isEnabled;
+        put(mKeys.trackingProtectionEnabled, isEnabled);
     }
 
     public boolean isEnvironmentOverrideEnabled() {
-        return mPrefs.getBoolean(
-                mContext.getString(R.string.settings_key_environment_override), ENV_OVERRIDE_DEFAULT);
+        return mValues.environmentOverrideEnabled;
     }
 
     public void setEnvironmentOverrideEnabled(boolean isEnabled) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putBoolean(mContext.getString(R.string.settings_key_environment_override), isEnabled);
-        editor.commit();
+        mValues.environmentOverrideEnabled = isEnabled;
+        put(mKeys.environmentOverrideEnabled, isEnabled);
     }
 
 
     public boolean isMultiprocessEnabled() {
-        return mPrefs.getBoolean(
-                mContext.getString(R.string.settings_key_multiprocess), MULTIPROCESS_DEFAULT);
+        return mValues.multiprocessEnabled;
     }
 
     public void setMultiprocessEnabled(boolean isEnabled) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putBoolean(mContext.getString(R.string.settings_key_multiprocess), isEnabled);
-        editor.commit();
+        mValues.multiprocessEnabled = isEnabled;
+        put(mKeys.multiprocessEnabled, isEnabled);
     }
 
     public boolean isPerformanceMonitorEnabled() {
-        return mPrefs.getBoolean(mContext.getString(R.string.settings_key_performance_monitor), PERFORMANCE_MONITOR_DEFAULT);
+        return mValues.performanceMonitorEnabled;
     }
 
     public void setPerformanceMonitorEnabled(boolean isEnabled) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putBoolean(mContext.getString(R.string.settings_key_performance_monitor), isEnabled);
-        editor.commit();
+        mValues.performanceMonitorEnabled = isEnabled;
+        put(mKeys.performanceMonitorEnabled, isEnabled);
     }
 
     public boolean isServoEnabled() {
-        return isServoAvailable() && mPrefs.getBoolean(mContext.getString(R.string.settings_key_servo), SERVO_DEFAULT);
+        return isServoAvailable() && mValues.servoEnabled;
     }
 
     public void setServoEnabled(boolean isEnabled) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putBoolean(mContext.getString(R.string.settings_key_servo), isEnabled);
-        editor.commit();
+        mValues.servoEnabled = isEnabled;
+        put(mKeys.servoEnabled, isEnabled);
     }
 
     public int getUaMode() {
-        return mPrefs.getInt(
-                mContext.getString(R.string.settings_key_user_agent_version), UA_MODE_DEFAULT);
+        return mValues.uaMode;
     }
 
     public void setUaMode(int mode) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putInt(mContext.getString(R.string.settings_key_user_agent_version), mode);
-        editor.commit();
+        mValues.uaMode = mode;
+        put(mKeys.uaMode, mode);
     }
 
     public int getInputMode() {
-        return mPrefs.getInt(
-                mContext.getString(R.string.settings_key_input_mode), INPUT_MODE_DEFAULT);
+        return mValues.inputMode;
     }
 
     public void setInputMode(int aTouchMode) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putInt(mContext.getString(R.string.settings_key_input_mode), aTouchMode);
-        editor.commit();
+        mValues.inputMode = aTouchMode;
+        put(mKeys.inputMode, aTouchMode);
     }
 
     public String getHomepage() {
-        return mPrefs.getString(
-                mContext.getString(R.string.settings_key_homepage),
-                mContext.getString(R.string.homepage_url));
+        return mValues.homepage;
     }
 
     public void setHomepage(String aHomepage) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putString(mContext.getString(R.string.settings_key_homepage), aHomepage);
-        editor.commit();
+        mValues.homepage = aHomepage;
+        put(mKeys.homepage, aHomepage);
     }
 
     public float getDisplayDensity() {
-        return mPrefs.getFloat(
-                mContext.getString(R.string.settings_key_display_density), DISPLAY_DENSITY_DEFAULT);
+        return mValues.displayDensity;
     }
 
     public void setDisplayDensity(float aDensity) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putFloat(mContext.getString(R.string.settings_key_display_density), aDensity);
-        editor.commit();
+        mValues.displayDensity = aDensity;
+        put(mKeys.displayDensity, aDensity);
     }
 
     public int getWindowWidth() {
-        return mPrefs.getInt(
-                mContext.getString(R.string.settings_key_window_width), WINDOW_WIDTH_DEFAULT);
+        return mValues.windowWidth;
     }
 
     public void setWindowWidth(int aWindowWidth) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putInt(mContext.getString(R.string.settings_key_window_width), aWindowWidth);
-        editor.commit();
+        mValues.windowWidth = aWindowWidth;
+        put(mKeys.windowWidth, aWindowWidth);
     }
 
     public int getWindowHeight() {
-        return mPrefs.getInt(
-                mContext.getString(R.string.settings_key_window_height), WINDOW_HEIGHT_DEFAULT);
+        return mValues.windowHeight;
     }
 
     public void setWindowHeight(int aWindowHeight) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putInt(mContext.getString(R.string.settings_key_window_height), aWindowHeight);
-        editor.commit();
+        mValues.windowHeight = aWindowHeight;
+        put(mKeys.windowHeight, aWindowHeight);
     }
 
     public float getWindowAspect() {
@@ -287,105 +454,85 @@ public class SettingsStore {
     }
 
     public int getDisplayDpi() {
-        return mPrefs.getInt(
-                mContext.getString(R.string.settings_key_display_dpi), DISPLAY_DPI_DEFAULT);
+        return mValues.displayDpi;
     }
 
     public void setDisplayDpi(int aDpi) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putInt(mContext.getString(R.string.settings_key_display_dpi), aDpi);
-        editor.commit();
+        mValues.displayDpi = aDpi;
+        put(mKeys.displayDpi, aDpi);
     }
 
     public int getMaxWindowWidth() {
-        return mPrefs.getInt(
-                mContext.getString(R.string.settings_key_max_window_width), MAX_WINDOW_WIDTH_DEFAULT);
+        return mValues.maxWindowWidth;
     }
 
     public void setMaxWindowWidth(int aMaxWindowWidth) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putInt(mContext.getString(R.string.settings_key_max_window_width), aMaxWindowWidth);
-        editor.commit();
+        mValues.maxWindowWidth = aMaxWindowWidth;
+        put(mKeys.maxWindowWidth, aMaxWindowWidth);
     }
 
     public int getMaxWindowHeight() {
-        return mPrefs.getInt(
-                mContext.getString(R.string.settings_key_max_window_height), MAX_WINDOW_HEIGHT_DEFAULT);
+        return mValues.maxWindowHeight;
     }
 
     public void setMaxWindowHeight(int aMaxWindowHeight) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putInt(mContext.getString(R.string.settings_key_max_window_height), aMaxWindowHeight);
-        editor.commit();
+        mValues.maxWindowHeight = aMaxWindowHeight;
+        put(mKeys.maxWindowHeight, aMaxWindowHeight);
     }
 
     public String getEnvironment() {
-        return mPrefs.getString(mContext.getString(R.string.settings_key_env), ENV_DEFAULT);
+        return mValues.environment;
     }
 
     public void setEnvironment(String aEnv) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putString(mContext.getString(R.string.settings_key_env), aEnv);
-        editor.commit();
+        mValues.environment = aEnv;
+        put(mKeys.environment, aEnv);
     }
 
     public float getBrowserWorldWidth() {
-        return mPrefs.getFloat(
-                mContext.getString(R.string.settings_key_browser_world_width), BROWSER_WORLD_WIDTH_DEFAULT);
+        return mValues.browserWorldWidth;
     }
 
     public void setBrowserWorldWidth(float aBrowserWorldWidth) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putFloat(mContext.getString(R.string.settings_key_browser_world_width), aBrowserWorldWidth);
-        editor.commit();
+        mValues.browserWorldWidth = aBrowserWorldWidth;
+        put(mKeys.browserWorldWidth, aBrowserWorldWidth);
     }
 
     public float getBrowserWorldHeight() {
-        return mPrefs.getFloat(
-                mContext.getString(R.string.settings_key_browser_world_height), BROWSER_WORLD_HEIGHT_DEFAULT);
+        return mValues.browserWorldHeight;
     }
 
     public void setBrowserWorldHeight(float aBrowserWorldHeight) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putFloat(mContext.getString(R.string.settings_key_browser_world_height), aBrowserWorldHeight);
-        editor.commit();
+        mValues.browserWorldHeight = aBrowserWorldHeight;
+        put(mKeys.browserWorldHeight, aBrowserWorldHeight);
     }
 
     public int getPointerColor() {
-        return mPrefs.getInt(
-                mContext.getString(R.string.settings_key_pointer_color), POINTER_COLOR_DEFAULT_DEFAULT);
+        return mValues.pointerColor;
     }
 
     public void setPointerColor(int color) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putInt(mContext.getString(R.string.settings_key_pointer_color), color);
-        editor.commit();
+        mValues.pointerColor = color;
+        put(mKeys.pointerColor, color);
     }
 
     public int getScrollDirection() {
-        if (mCachedScrollDirection < 0) {
-            mCachedScrollDirection = mPrefs.getInt(mContext.getString(R.string.settings_key_scroll_direction), SCROLL_DIRECTION_DEFAULT);
-        }
-        return mCachedScrollDirection;
+        return mValues.scrollDirection;
     }
 
     public void setScrollDirection(int aScrollDirection) {
-        mCachedScrollDirection = aScrollDirection;
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putInt(mContext.getString(R.string.settings_key_scroll_direction), aScrollDirection);
-        editor.commit();
+        mValues.scrollDirection = aScrollDirection;
+        put(mKeys.scrollDirection, aScrollDirection);
     }
 
 
     public int getMSAALevel() {
-        return mPrefs.getInt(
-                mContext.getString(R.string.settings_key_msaa), MSAA_DEFAULT_LEVEL);
+        return mValues.msaaLevel;
     }
 
     public void setMSAALevel(int level) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putInt(mContext.getString(R.string.settings_key_msaa), level);
-        editor.commit();
+        mValues.msaaLevel = level;
+        put(mKeys.msaaLevel, level);
     }
 
     public boolean getLayersEnabled() {
@@ -400,18 +547,16 @@ public class SettingsStore {
     }
 
     public boolean isAudioEnabled() {
-        return mPrefs.getBoolean(mContext.getString(R.string.settings_key_audio), AUDIO_ENABLED);
+        return mValues.audioEnabled;
     }
 
     public void setAudioEnabled(boolean isEnabled) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putBoolean(mContext.getString(R.string.settings_key_audio), isEnabled);
-        editor.commit();
+        mValues.audioEnabled = isEnabled;
+        put(mKeys.audioEnabled, isEnabled);
     }
 
     public String getVoiceSearchLanguage() {
-        String language = mPrefs.getString(
-                mContext.getString(R.string.settings_key_voice_search_language), null);
+        String language = mValues.voiceSearchLanguage;
         if (language == null) {
             return LocaleUtils.getDefaultVoiceSearchLanguage(mContext);
         }
@@ -419,67 +564,63 @@ public class SettingsStore {
     }
 
     public void setVoiceSearchLanguage(String language) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putString(mContext.getString(R.string.settings_key_voice_search_language), language);
-        editor.commit();
+        mValues.voiceSearchLanguage = language;
+        put(mKeys.voiceSearchLanguage, language);
     }
 
     public float getCylinderDensity() {
-        return mPrefs.getFloat(mContext.getString(R.string.settings_key_cylinder_density),  0);
+        return mValues.cylinderDensity;
     }
 
     public void setCylinderDensity(float aDensity) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putFloat(mContext.getString(R.string.settings_key_cylinder_density), aDensity);
-        editor.commit();
+        mValues.cylinderDensity = aDensity;
+        put(mKeys.cylinderDensity, aDensity);
     }
 
     public int getFoveatedLevelApp() {
-        return mPrefs.getInt(
-                mContext.getString(R.string.settings_key_foveated_app), FOVEATED_APP_DEFAULT_LEVEL);
+        return mValues.foveatedLevelApp;
     }
 
     public int getFoveatedLevelWebVR() {
-        return mPrefs.getInt(
-                mContext.getString(R.string.settings_key_foveated_webvr), FOVEATED_WEBVR_DEFAULT_LEVEL);
+        return mValues.foveatedLevelWebVR;
     }
 
     public void setFoveatedLevelApp(int level) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putInt(mContext.getString(R.string.settings_key_foveated_app), level);
-        editor.commit();
+        mValues.foveatedLevelApp = level;
+        put(mKeys.foveatedLevelApp, level);
     }
 
     public void setFoveatedLevelWebVR(int level) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putInt(mContext.getString(R.string.settings_key_foveated_webvr), level);
-        editor.commit();
+        mValues.foveatedLevelWebVR = level;
+        put(mKeys.foveatedLevelWebVR, level);
     }
 
     public void setSelectedKeyboard(Locale aLocale) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putString(mContext.getString(R.string.settings_key_keyboard_locale), aLocale.toLanguageTag());
-        editor.commit();
+        mValues.keyboardLocale = aLocale.toLanguageTag();
+        put(mKeys.keyboardLocale, mValues.keyboardLocale);
     }
 
     public Locale getKeyboardLocale() {
-        String value = mPrefs.getString(mContext.getString(R.string.settings_key_keyboard_locale), null);
+        String value = mValues.keyboardLocale;
         if (StringUtils.isEmpty(value)) {
             return null;
         }
         return Locale.forLanguageTag(value);
     }
 
+    // The crash restart count must be on disk before a crash happens and is read by the crash
+    // reporter process, so it is the only setting written synchronously.
+
     public synchronized long getCrashRestartCount() {
-        long count = mPrefs.getLong(mContext.getString(R.string.settings_key_crash_restart_count), 0);
+        long count = mPrefs.getLong(mCrashRestartCountKey, 0);
         if (count > 0) {
-            final long timestamp = mPrefs.getLong(mContext.getString(R.string.settings_key_crash_restart_count_timestamp), -1);
+            final long timestamp = mPrefs.getLong(mCrashRestartCountTimestampKey, -1);
             if (System.currentTimeMillis() - timestamp > CRASH_RESTART_DELTA) {
                 count = 0;
                 SharedPreferences.Editor editor = mPrefs.edit();
-                editor.putLong(mContext.getString(R.string.settings_key_crash_restart_count), count);
-                editor.putLong(mContext.getString(R.string.settings_key_crash_restart_count_timestamp), -1);
-                editor.commit();
+                editor.putLong(mCrashRestartCountKey, count);
+                editor.putLong(mCrashRestartCountTimestampKey, -1);
+                commitDurably(editor);
             }
         }
         return count;
@@ -487,39 +628,44 @@ public class SettingsStore {
 
     public synchronized void incrementCrashRestartCount() {
         SharedPreferences.Editor editor = mPrefs.edit();
-        long count = mPrefs.getLong(mContext.getString(R.string.settings_key_crash_restart_count), 0);
+        long count = mPrefs.getLong(mCrashRestartCountKey, 0);
         count++;
-        editor.putLong(mContext.getString(R.string.settings_key_crash_restart_count), count);
-        editor.putLong(mContext.getString(R.string.settings_key_crash_restart_count_timestamp), System.currentTimeMillis());
-        editor.commit();
+        editor.putLong(mCrashRestartCountKey, count);
+        editor.putLong(mCrashRestartCountTimestampKey, System.currentTimeMillis());
+        commitDurably(editor);
     }
 
     public synchronized void resetCrashRestartCount() {
         SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putLong(mContext.getString(R.string.settings_key_crash_restart_count), 0);
-        editor.commit();
+        editor.putLong(mCrashRestartCountKey, 0);
+        commitDurably(editor);
+    }
+
+    private static void commitDurably(SharedPreferences.Editor aEditor) {
+        final StrictMode.ThreadPolicy threadPolicy = StrictMode.allowThreadDiskWrites();
+        try {
+            aEditor.commit();
+        } finally {
+            StrictMode.setThreadPolicy(threadPolicy);
+        }
     }
 
     public boolean isSpeechDataCollectionEnabled() {
-        return mPrefs.getBoolean(
-                mContext.getString(R.string.settings_key_speech_data_collection), SPEECH_DATA_COLLECTION_DEFAULT);
+        return mValues.speechDataCollectionEnabled;
     }
 
     public void setSpeechDataCollectionEnabled(boolean isEnabled) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putBoolean(mContext.getString(R.string.settings_key_speech_data_collection), isEnabled);
-        editor.commit();
+        mValues.speechDataCollectionEnabled = isEnabled;
+        put(mKeys.speechDataCollectionEnabled, isEnabled);
     }
 
     public boolean isNotificationsEnabled() {
-        return mPrefs.getBoolean(
-                mContext.getString(R.string.settings_key_notifications), NOTIFICATIONS_DEFAULT);
+        return mValues.notificationsEnabled;
     }
 
     public void setNotificationsEnabled(boolean isEnabled) {
-        SharedPreferences.Editor editor = mPrefs.edit();
-        editor.putBoolean(mContext.getString(R.string.settings_key_notifications), isEnabled);
-        editor.commit();
+        mValues.notificationsEnabled = isEnabled;
+        put(mKeys.notificationsEnabled, isEnabled);
     }
 }
 
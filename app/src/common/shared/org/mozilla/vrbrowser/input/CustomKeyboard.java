@@ -14,6 +14,7 @@ import android.view.inputmethod.EditorInfo;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 public class CustomKeyboard extends Keyboard {
@@ -23,6 +24,24 @@ public class CustomKeyboard extends Keyboard {
     private Key mModeChangeKey;
     private int mMaxColums;
 
+    // Uniform grid of key indices used by getNearestKeys. Each cell lists, in key order, the keys
+    // whose touch area overlaps it. Stored flattened: the keys of cell c are
+    // mCellKeys[mCellStart[c]] to mCellKeys[mCellStart[c + 1] - 1].
+    private static final int[] NO_KEYS = new int[0];
+    private Key[] mIndexedKeys;
+    private int[] mCellStart;
+    private int[] mCellKeys;
+    private int mGridLeft;
+    private int mGridTop;
+    private int mGridColumns;
+    private int mGridRows;
+    private int mCellWidth;
+    private int mCellHeight;
+    private final int[] mNearestKey = new int[1];
+
+    // Reflected fields, resolved once per class and field name.
+    private static final HashMap<Class<?>, HashMap<String, Field>> sFields = new HashMap<>();
+
     public static final int KEYCODE_SYMBOLS_CHANGE = -10;
     public static final int KEYCODE_VOICE_INPUT = -11;
     public static final int KEYCODE_LANGUAGE_CHANGE = -12;
@@ -112,7 +131,6 @@ public class CustomKeyboard extends Keyboard {
     private int getParentFieldInt(Object obj, String fieldName) {
         try {
             Field mField = getField(obj.getClass().getSuperclass(), fieldName);
-            mField.setAccessible(true);
             return mField.getInt(obj);
         } catch (IllegalAccessException e) {
             e.printStackTrace();
@@ -123,7 +141,6 @@ public class CustomKeyboard extends Keyboard {
     private Object getFieldObject(Object obj, String fieldName) {
         try {
             Field mField = getField(obj.getClass(), fieldName);
-            mField.setAccessible(true);
             return mField.get(obj);
         } catch (IllegalAccessException e) {
             e.printStackTrace();
@@ -133,7 +150,6 @@ public class CustomKeyboard extends Keyboard {
     private Object getParentFieldObject(Object obj, String fieldName) {
         try {
             Field mField = getField(obj.getClass().getSuperclass(), fieldName);
-            mField.setAccessible(true);
             return mField.get(this);
         } catch (IllegalAccessException e) {
             e.printStackTrace();
@@ -141,7 +157,28 @@ public class CustomKeyboard extends Keyboard {
         }
     }
 
+    /**
+     * Returns the accessible field declared by the class or any of its superclasses. Lookups are
+     * cached so the class hierarchy is only walked once per class and field name.
+     */
     public static Field getField(Class<?> clazz, String fieldName) {
+        synchronized (sFields) {
+            HashMap<String, Field> fields = sFields.get(clazz);
+            if (fields == null) {
+                fields = new HashMap<>();
+                sFields.put(clazz, fields);
+            }
+            Field field = fields.get(fieldName);
+            if (field == null) {
+                field = findField(clazz, fieldName);
+                field.setAccessible(true);
+                fields.put(fieldName, field);
+            }
+            return field;
+        }
+    }
+
+    private static Field findField(Class<?> clazz, String fieldName) {
         Class<?> tmpClass = clazz;
         do {
             try {
@@ -158,11 +195,10 @@ public class CustomKeyboard extends Keyboard {
 
     public static void setParentField(Object obj, String fieldName, Object value) {
         try {
-            Field privateField = obj.getClass().getSuperclass().getDeclaredField(fieldName);
-            privateField.setAccessible(true);
+            Field privateField = getField(obj.getClass().getSuperclass(), fieldName);
             privateField.set(obj, value);
 
-        } catch (NoSuchFieldException e) {
+        } catch (RuntimeException e) {
             e.printStackTrace();
         } catch (IllegalAccessException e) {
             e.printStackTrace();
@@ -183,18 +219,113 @@ public class CustomKeyboard extends Keyboard {
         return key;
     }
 
-    // Override to fix the bug of not all the touch area covered in wide buttons (e.g. space)
+    // Override to fix the bug of not all the touch area covered in wide buttons (e.g. space).
+    /**
+     * Returns at most the first key containing the point, looked up in the key index.
+     *
+     * Note: the returned array is reused across calls, the next call overwrites its content.
+     * Callers must copy it if they need to keep the result.
+     */
     @Override
     public int[] getNearestKeys(int x, int y) {
+        if (mIndexedKeys == null || mIndexedKeys.length != getKeys().size()) {
+            buildKeyIndex();
+        }
+        if (mGridColumns == 0) {
+            return NO_KEYS;
+        }
+
+        // Points outside the grid can still be inside the keys on the keyboard edges, which are
+        // included in the border cells.
+        int column = Math.max(0, Math.min(mGridColumns - 1, (x - mGridLeft) / mCellWidth));
+        int row = Math.max(0, Math.min(mGridRows - 1, (y - mGridTop) / mCellHeight));
+        int cell = row * mGridColumns + column;
+        for (int i = mCellStart[cell]; i < mCellStart[cell + 1]; ++i) {
+            int index = mCellKeys[i];
+            if (mIndexedKeys[index].isInside(x, y)) {
+                mNearestKey[0] = index;
+                return mNearestKey;
+            }
+        }
+        return NO_KEYS;
+    }
+
+    /**
+     * Rebuilds the key index used for hit-testing. Must be called when the key geometry changes,
+     * e.g. after the keyboard is resized.
+     */
+    public void invalidateKeyIndex() {
+        mIndexedKeys = null;
+    }
+
+    private void buildKeyIndex() {
         List<Key> keys = getKeys();
-        Key[] mKeys = keys.toArray(new Key[keys.size()]);
-        int i = 0;
-        for (Key key : mKeys) {
-            if(key.isInside(x, y))
-                return new int[]{i};
-            i++;
+        mIndexedKeys = keys.toArray(new Key[keys.size()]);
+        mGridColumns = 0;
+        mGridRows = 0;
+        if (mIndexedKeys.length == 0) {
+            return;
+        }
+
+        int left = 0;
+        int top = 0;
+        int right = getMinWidth();
+        int bottom = getHeight();
+        int cellWidth = Integer.MAX_VALUE;
+        int cellHeight = Integer.MAX_VALUE;
+        for (Key key: mIndexedKeys) {
+            left = Math.min(left, key.x);
+            top = Math.min(top, key.y);
+            right = Math.max(right, key.x + key.width);
+            bottom = Math.max(bottom, key.y + key.height);
+            if (key.width > 0) {
+                cellWidth = Math.min(cellWidth, key.width);
+            }
+            if (key.height > 0) {
+                cellHeight = Math.min(cellHeight, key.height);
+            }
+        }
+        mGridLeft = left;
+        mGridTop = top;
+        mCellWidth = cellWidth == Integer.MAX_VALUE ? Math.max(1, right - left) : cellWidth;
+        mCellHeight = cellHeight == Integer.MAX_VALUE ? Math.max(1, bottom - top) : cellHeight;
+        mGridColumns = (right - left) / mCellWidth + 1;
+        mGridRows = (bottom - top) / mCellHeight + 1;
+
+        // First pass counts the keys per cell, second pass fills them in key order.
+        int cells = mGridColumns * mGridRows;
+        mCellStart = new int[cells + 1];
+        for (int pass = 0; pass < 2; ++pass) {
+            int[] fill = pass == 0 ? null : new int[cells];
+            for (int index = 0; index < mIndexedKeys.length; ++index) {
+                Key key = mIndexedKeys[index];
+                // Keys on the edges accept touches all the way to the grid border (see Key.isInside).
+                int keyLeft = (key.edgeFlags & EDGE_LEFT) != 0 ? left : key.x;
+                int keyRight = (key.edgeFlags & EDGE_RIGHT) != 0 ? right : key.x + key.width;
+                int keyTop = (key.edgeFlags & EDGE_TOP) != 0 ? top : key.y;
+                int keyBottom = (key.edgeFlags & EDGE_BOTTOM) != 0 ? bottom : key.y + key.height;
+                int firstColumn = Math.max(0, (keyLeft - left) / mCellWidth);
+                int lastColumn = Math.min(mGridColumns - 1, (keyRight - left) / mCellWidth);
+                int firstRow = Math.max(0, (keyTop - top) / mCellHeight);
+                int lastRow = Math.min(mGridRows - 1, (keyBottom - top) / mCellHeight);
+                for (int row = firstRow; row <= lastRow; ++row) {
+                    for (int column = firstColumn; column <= lastColumn; ++column) {
+                        int cell = row * mGridColumns + column;
+                        if (fill == null) {
+                            mCellStart[cell + 1]++;
+                        } else {
+                            mCellKeys[mCellStart[cell] + fill[cell]++] = index;
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int cell = 0; cell < cells; ++cell) {
+                    mCellStart[cell + 1] += mCellStart[cell];
+                }
+                mCellKeys = new int[mCellStart[cells]];
+            }
         }
-        return new int[0];
     }
 
     public boolean setEnterKeyLabel(String aText) {
@@ -226,8 +357,7 @@ public class CustomKeyboard extends Keyboard {
 
     public int[] getShiftKeyIndices() {
         try {
-            Field mField = getField(getClass().getSuperclass(), "mShiftKeyIndices");
-            mField.setAccessible(true);
+            Field mField = getField(Keyboard.class, "mShiftKeyIndices");
             return (int[])mField.get(this);
         } catch (Exception e) {
             return new int[]{super.getShiftKeyIndex()};
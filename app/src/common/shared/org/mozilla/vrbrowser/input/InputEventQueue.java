@@ -0,0 +1,247 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.input;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.mozilla.vrbrowser.telemetry.TelemetryWrapper;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Single producer, single consumer ring buffer of pointer events. The render thread queues the
+ * events without allocating and the UI thread drains all the queued events in a single task,
+ * skipping the hover moves that are superseded by a later hover move of the same device on the
+ * same widget.
+ */
+public class InputEventQueue {
+
+    private static final String LOGTAG = "VRB";
+    private static final int TYPE_MOTION = 0;
+    private static final int TYPE_SCROLL = 1;
+    // Devices with a larger id are queued but never coalesced.
+    private static final int MAX_COALESCED_DEVICES = 8;
+    private static final int STATS_INTERVAL = 1000;
+
+    public interface Delegate {
+        default void onDrainStarted() {}
+        /**
+         * @param aEventTime Time the event was queued, in the {@link SystemClock#uptimeMillis()} time base.
+         */
+        void onMotionEvent(int aHandle, int aDevice, boolean aPressed, float aX, float aY, long aEventTime);
+        void onScrollEvent(int aHandle, int aDevice, float aX, float aY);
+        default void onDrainFinished() {}
+    }
+
+    private final int mMask;
+    private final byte[] mTypes;
+    private final int[] mHandles;
+    private final int[] mDevices;
+    private final boolean[] mPressed;
+    private final float[] mX;
+    private final float[] mY;
+    private final long[] mTimes;
+    private final boolean[] mSuperseded;
+    // Only written by the producer and the consumer respectively. The volatile writes publish
+    // the records (or the free slots) to the other thread.
+    private volatile long mHead;
+    private volatile long mTail;
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+
+    // Consumer state used to coalesce hover moves.
+    private final boolean[] mNextIsHover = new boolean[MAX_COALESCED_DEVICES];
+    private final int[] mNextHandle = new int[MAX_COALESCED_DEVICES];
+    private final boolean[] mLastPressed = new boolean[MAX_COALESCED_DEVICES];
+
+    private final Handler mHandler;
+    private final Delegate mDelegate;
+    private final Runnable mDrainRunnable = this::drain;
+
+    // Statistics
+    private volatile int mDropped;
+    private int mMaxDepth;
+    private long mDispatched;
+    private long mCoalesced;
+    private long mLatencySum;
+    private long mMaxLatency;
+
+    /**
+     * @param aCapacity Maximum number of queued events, rounded up to a power of two.
+     * @param aHandler Handler of the thread that consumes the events.
+     */
+    public InputEventQueue(int aCapacity, @NonNull Handler aHandler, @NonNull Delegate aDelegate) {
+        int capacity = Integer.highestOneBit(Math.max(2, aCapacity - 1)) << 1;
+        mMask = capacity - 1;
+        mTypes = new byte[capacity];
+        mHandles = new int[capacity];
+        mDevices = new int[capacity];
+        mPressed = new boolean[capacity];
+        mX = new float[capacity];
+        mY = new float[capacity];
+        mTimes = new long[capacity];
+        mSuperseded = new boolean[capacity];
+        mHandler = aHandler;
+        mDelegate = aDelegate;
+    }
+
+    /**
+     * Queues a pointer event. Must only be called from the producer thread.
+     * @return Sequence number of the event, used to trace it, or -1 if the queue was full.
+     */
+    public long queueMotionEvent(int aHandle, int aDevice, boolean aPressed, float aX, float aY) {
+        return queue(TYPE_MOTION, aHandle, aDevice, aPressed, aX, aY);
+    }
+
+    /**
+     * Queues a scroll event. Must only be called from the producer thread.
+     */
+    public void queueScrollEvent(int aHandle, int aDevice, float aX, float aY) {
+        queue(TYPE_SCROLL, aHandle, aDevice, false, aX, aY);
+    }
+
+    private long queue(int aType, int aHandle, int aDevice, boolean aPressed, float aX, float aY) {
+        final long head = mHead;
+        if (head - mTail > mMask) {
+            // Every pointer event carries the full pointer state, so the next one that fits
+            // brings the consumer up to date.
+            mDropped++;
+            scheduleDrain();
+            return -1;
+        }
+        final int slot = (int)head & mMask;
+        mTypes[slot] = (byte)aType;
+        mHandles[slot] = aHandle;
+        mDevices[slot] = aDevice;
+        mPressed[slot] = aPressed;
+        mX[slot] = aX;
+        mY[slot] = aY;
+        // Same clock as SystemClock.uptimeMillis(), so it can also be used as the event time.
+        mTimes[slot] = System.nanoTime();
+        mHead = head + 1;
+        scheduleDrain();
+        return head;
+    }
+
+    private void scheduleDrain() {
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            mHandler.post(mDrainRunnable);
+        }
+    }
+
+    private void drain() {
+        // Clear the flag before reading the head so events queued from now on schedule a new drain.
+        mDrainScheduled.set(false);
+        final long head = mHead;
+        final long tail = mTail;
+        if (head == tail) {
+            return;
+        }
+        mMaxDepth = Math.max(mMaxDepth, (int)(head - tail));
+
+        // Walk backwards to find the hover moves followed by another hover move of the same device
+        // on the same widget.
+        for (int i = 0; i < MAX_COALESCED_DEVICES; ++i) {
+            mNextIsHover[i] = false;
+        }
+        for (long index = head - 1; index >= tail; --index) {
+            final int slot = (int)index & mMask;
+            final int device = mDevices[slot];
+            mSuperseded[slot] = false;
+            if (device < 0 || device >= MAX_COALESCED_DEVICES) {
+                continue;
+            }
+            if (mTypes[slot] == TYPE_MOTION) {
+                final boolean hover = !mPressed[slot];
+                mSuperseded[slot] = hover && mNextIsHover[device] && mNextHandle[device] == mHandles[slot];
+                mNextIsHover[device] = hover;
+                mNextHandle[device] = mHandles[slot];
+            } else {
+                mNextIsHover[device] = false;
+            }
+        }
+
+        final long now = System.nanoTime();
+        mDelegate.onDrainStarted();
+        for (long index = tail; index < head; ++index) {
+            final int slot = (int)index & mMask;
+            final int device = mDevices[slot];
+            final boolean coalescable = device >= 0 && device < MAX_COALESCED_DEVICES;
+            if (mTypes[slot] == TYPE_MOTION) {
+                // A release is never skipped, it sets where the touch ends.
+                if (mSuperseded[slot] && coalescable && !mLastPressed[device]) {
+                    mCoalesced++;
+                    continue;
+                }
+                if (coalescable) {
+                    mLastPressed[device] = mPressed[slot];
+                }
+                InputTracer.setCurrentEvent(index);
+                mDelegate.onMotionEvent(mHandles[slot], device, mPressed[slot], mX[slot], mY[slot], mTimes[slot] / 1000000);
+            } else {
+                mDelegate.onScrollEvent(mHandles[slot], device, mX[slot], mY[slot]);
+            }
+            recordLatency(now - mTimes[slot]);
+        }
+        mTail = head;
+        mDelegate.onDrainFinished();
+        InputTracer.setCurrentEvent(InputTracer.NO_EVENT);
+    }
+
+    private void recordLatency(long aNanos) {
+        TelemetryWrapper.recordInputLatency(aNanos / 1000);
+        mDispatched++;
+        mLatencySum += aNanos;
+        mMaxLatency = Math.max(mMaxLatency, aNanos);
+        if (mDispatched % STATS_INTERVAL == 0) {
+            Log.d(LOGTAG, "Input queue: " + getAverageLatency() / 1000 + "us average latency, " +
+                    mMaxLatency / 1000 + "us max, max depth " + mMaxDepth + ", " +
+                    mCoalesced + " coalesced, " + mDropped + " dropped");
+        }
+    }
+
+    /**
+     * @return Number of events dropped because the queue was full.
+     */
+    public int getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * @return Number of hover moves skipped because a later one superseded them.
+     */
+    public long getCoalescedCount() {
+        return mCoalesced;
+    }
+
+    /**
+     * @return Number of events currently queued.
+     */
+    public int getDepth() {
+        return (int)(mHead - mTail);
+    }
+
+    /**
+     * @return Largest number of events drained at once.
+     */
+    public int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    /**
+     * @return Average time between queueing an event and dispatching it, in nanoseconds.
+     */
+    public long getAverageLatency() {
+        return mDispatched > 0 ? mLatencySum / mDispatched : 0;
+    }
+
+    public long getMaxLatency() {
+        return mMaxLatency;
+    }
+}
@@ -0,0 +1,148 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.input;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Opt-in tracing of the pointer events through the input pipeline. Each event is identified by
+ * its sequence number in the {@link InputEventQueue} and stamped at every stage it goes through.
+ * The stamps are kept in a fixed size in memory ring buffer, so only the most recent ones are
+ * kept, and dumped to a binary file that tools/input_trace/convert_trace.py turns into Chrome
+ * trace JSON.
+ *
+ * When tracing is disabled every call returns after reading a volatile field.
+ *
+ * File format, big endian: a header made of the magic, version, record size and record count as
+ * ints followed by the System.nanoTime() and System.currentTimeMillis() of the dump as longs, then
+ * the records from oldest to newest. A record is the System.nanoTime() of the stamp as a long,
+ * the event sequence number and the widget handle as ints and the stage as a byte.
+ */
+public class InputTracer {
+
+    private static final String LOGTAG = "VRB";
+    public static final long NO_EVENT = -1;
+
+    // Render thread, when the native pointer event is received.
+    public static final byte STAGE_NATIVE = 0;
+    // UI thread, when the queued event is dispatched to the motion event generator.
+    public static final byte STAGE_DISPATCH = 1;
+    // UI thread, when the generated motion event is delivered to the widget.
+    public static final byte STAGE_WIDGET = 2;
+    // UI thread, when the widget texture drawn after the event is posted.
+    public static final byte STAGE_SURFACE_POST = 3;
+
+    static final int MAGIC = 0x46585254; // "FXRT"
+    static final int VERSION = 1;
+    static final int RECORD_SIZE = 17;
+    // About 1MB of records.
+    private static final int CAPACITY = 1 << 16;
+
+    private static volatile InputTracer sInstance;
+    // Only used from the UI thread.
+    private static long sCurrentEvent = NO_EVENT;
+
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(CAPACITY * RECORD_SIZE);
+    private final AtomicLong mNext = new AtomicLong();
+
+    private InputTracer() {}
+
+    public static synchronized void setEnabled(boolean aEnabled) {
+        if (aEnabled == isEnabled()) {
+            return;
+        }
+        sInstance = aEnabled ? new InputTracer() : null;
+        sCurrentEvent = NO_EVENT;
+        Log.d(LOGTAG, "Input tracing " + (aEnabled ? "enabled" : "disabled"));
+    }
+
+    public static boolean isEnabled() {
+        return sInstance != null;
+    }
+
+    public static void trace(byte aStage, long aEvent, int aHandle) {
+        if (sInstance != null) {
+            trace(aStage, aEvent, aHandle, System.nanoTime());
+        }
+    }
+
+    /**
+     * @param aTime Time of the stamp, in the {@link System#nanoTime()} time base.
+     */
+    public static void trace(byte aStage, long aEvent, int aHandle, long aTime) {
+        InputTracer tracer = sInstance;
+        if (tracer == null || aEvent == NO_EVENT) {
+            return;
+        }
+        // Absolute puts on the reserved record, so threads stamping at the same time don't
+        // need a lock.
+        int offset = (int)(tracer.mNext.getAndIncrement() & (CAPACITY - 1)) * RECORD_SIZE;
+        tracer.mBuffer.putLong(offset, aTime);
+        tracer.mBuffer.putInt(offset + 8, (int)aEvent);
+        tracer.mBuffer.putInt(offset + 12, aHandle);
+        tracer.mBuffer.put(offset + 16, aStage);
+    }
+
+    /**
+     * Sets the event being dispatched on the UI thread, the stages after the dispatch are
+     * stamped with it.
+     */
+    static void setCurrentEvent(long aEvent) {
+        if (sInstance != null || aEvent == NO_EVENT) {
+            sCurrentEvent = aEvent;
+        }
+    }
+
+    /**
+     * @return The event being dispatched on the UI thread, NO_EVENT if there is none or tracing
+     * is disabled.
+     */
+    public static long getCurrentEvent() {
+        return sCurrentEvent;
+    }
+
+    /**
+     * Writes the records in the ring buffer to aFile. Records stamped during the dump may be
+     * missing or torn. Does I/O, must not be called from the UI thread.
+     *
+     * @return false if tracing is disabled.
+     */
+    public static boolean dump(@NonNull File aFile) throws IOException {
+        InputTracer tracer = sInstance;
+        if (tracer == null) {
+            return false;
+        }
+        long end = tracer.mNext.get();
+        long start = Math.max(0, end - CAPACITY);
+        byte[] record = new byte[RECORD_SIZE];
+        ByteBuffer buffer = tracer.mBuffer.duplicate();
+        try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(aFile)))) {
+            stream.writeInt(MAGIC);
+            stream.writeInt(VERSION);
+            stream.writeInt(RECORD_SIZE);
+            stream.writeInt((int)(end - start));
+            stream.writeLong(System.nanoTime());
+            stream.writeLong(System.currentTimeMillis());
+            for (long index = start; index < end; ++index) {
+                buffer.position((int)(index & (CAPACITY - 1)) * RECORD_SIZE);
+                buffer.get(record);
+                stream.write(record);
+            }
+        }
+        Log.d(LOGTAG, "Input trace of " + (end - start) + " records written to " + aFile);
+        return true;
+    }
+}
@@ -15,6 +15,7 @@ import org.mozilla.vrbrowser.ui.widgets.Widget;
 
 public class MotionEventGenerator {
     static final String LOGTAG = "VRB";
+    static final int STATS_INTERVAL = 1000;
     static class Device {
         int mDevice;
         Widget mPreviousWidget = null;
@@ -23,6 +24,11 @@ public class MotionEventGenerator {
         long mDownTime;
         MotionEvent.PointerProperties mProperties[];
         MotionEvent.PointerCoords mCoords[];
+        // Move of the current batch, later moves on the same widget are added as new samples.
+        MotionEvent mPendingMove;
+        Widget mPendingMoveWidget;
+        // Traced event of the last sample of the pending move.
+        long mPendingMoveTraceEvent = InputTracer.NO_EVENT;
 
         Device(final int aDevice) {
             mDevice = aDevice;
@@ -40,12 +46,29 @@ public class MotionEventGenerator {
     }
 
     private static SparseArray<Device> devices = new SparseArray<>();
+    private static boolean sBatching;
 
+    // Statistics
+    private static long sGeneratedEvents;
+    private static long sBatchedSamples;
+    private static long sSuppressedEvents;
+    private static long sStatsStart;
 
-    private static void generateEvent(Widget aWidget, Device aDevice, int aAction, boolean aGeneric) {
-        MotionEvent event = MotionEvent.obtain(
+    private static MotionEvent obtainEvent(Device aDevice, int aAction, long aEventTime) {
+        // MotionEvent.obtain takes the instance from the framework pool, recycling it after the
+        // dispatch returns it there, so no event is allocated once the pool is warm.
+        sGeneratedEvents++;
+        if (sGeneratedEvents % STATS_INTERVAL == 0) {
+            long now = SystemClock.uptimeMillis();
+            if (sStatsStart > 0 && now > sStatsStart) {
+                Log.d(LOGTAG, "Motion events: " + STATS_INTERVAL * 1000 / (now - sStatsStart) + " events/s, " +
+                        sBatchedSamples + " batched samples, " + sSuppressedEvents + " suppressed events");
+            }
+            sStatsStart = now;
+        }
+        return MotionEvent.obtain(
                 /*mDownTime*/ aDevice.mDownTime,
-                /*eventTime*/ SystemClock.uptimeMillis(),
+                /*eventTime*/ aEventTime,
                 /*action*/ aAction,
                 /*pointerCount*/ 1,
                 /*pointerProperties*/ aDevice.mProperties,
@@ -58,6 +81,17 @@ public class MotionEventGenerator {
                 /*edgeFlags*/ 0,
                 /*source*/ InputDevice.SOURCE_TOUCHSCREEN,
                 /*flags*/ 0);
+    }
+
+    private static void generateEvent(Widget aWidget, Device aDevice, int aAction, boolean aGeneric) {
+        generateEvent(aWidget, aDevice, aAction, aGeneric, SystemClock.uptimeMillis());
+    }
+
+    private static void generateEvent(Widget aWidget, Device aDevice, int aAction, boolean aGeneric, long aEventTime) {
+        // Keep the events of the device in order.
+        flushPendingMove(aDevice);
+        MotionEvent event = obtainEvent(aDevice, aAction, aEventTime);
+        InputTracer.trace(InputTracer.STAGE_WIDGET, InputTracer.getCurrentEvent(), aWidget.getHandle());
         if (aGeneric) {
             aWidget.handleHoverEvent(event);
         } else {
@@ -66,7 +100,71 @@ public class MotionEventGenerator {
         event.recycle();
     }
 
+    private static void generateMove(Widget aWidget, Device aDevice, long aEventTime) {
+        if (!sBatching) {
+            generateEvent(aWidget, aDevice, MotionEvent.ACTION_MOVE, false, aEventTime);
+            return;
+        }
+        if (aDevice.mPendingMove != null && aDevice.mPendingMoveWidget == aWidget &&
+                aEventTime >= aDevice.mPendingMove.getEventTime()) {
+            // Moves of the same batch are delivered as one event with historical samples.
+            aDevice.mPendingMove.addBatch(aEventTime, aDevice.mCoords, 0);
+            aDevice.mPendingMoveTraceEvent = InputTracer.getCurrentEvent();
+            sBatchedSamples++;
+            return;
+        }
+        flushPendingMove(aDevice);
+        aDevice.mPendingMove = obtainEvent(aDevice, MotionEvent.ACTION_MOVE, aEventTime);
+        aDevice.mPendingMoveWidget = aWidget;
+        aDevice.mPendingMoveTraceEvent = InputTracer.getCurrentEvent();
+    }
+
+    private static void flushPendingMove(Device aDevice) {
+        MotionEvent event = aDevice.mPendingMove;
+        if (event == null) {
+            return;
+        }
+        Widget widget = aDevice.mPendingMoveWidget;
+        long traceEvent = aDevice.mPendingMoveTraceEvent;
+        aDevice.mPendingMove = null;
+        aDevice.mPendingMoveWidget = null;
+        aDevice.mPendingMoveTraceEvent = InputTracer.NO_EVENT;
+        // The move is delivered on behalf of its last sample, which may not be the event being
+        // dispatched.
+        long currentEvent = InputTracer.getCurrentEvent();
+        InputTracer.setCurrentEvent(traceEvent);
+        InputTracer.trace(InputTracer.STAGE_WIDGET, traceEvent, widget.getHandle());
+        widget.handleTouchEvent(event);
+        InputTracer.setCurrentEvent(currentEvent);
+        event.recycle();
+    }
+
+    /**
+     * Starts batching the touch moves of each device until {@link #endBatch()} is called.
+     */
+    public static void beginBatch() {
+        sBatching = true;
+    }
+
+    /**
+     * Dispatches the touch moves batched since {@link #beginBatch()}.
+     */
+    public static void endBatch() {
+        sBatching = false;
+        for (int i = 0; i < devices.size(); ++i) {
+            flushPendingMove(devices.valueAt(i));
+        }
+    }
+
     public static void dispatch(Widget aWidget, int aDevice, boolean aPressed, float aX, float aY) {
+        dispatch(aWidget, aDevice, aPressed, aX, aY, SystemClock.uptimeMillis());
+    }
+
+    /**
+     * @param aEventTime Time the sample was taken, in the {@link SystemClock#uptimeMillis()} time base.
+     */
+    public static void dispatch(Widget aWidget, int aDevice, boolean aPressed, float aX, float aY, long aEventTime) {
+        InputTracer.trace(InputTracer.STAGE_DISPATCH, InputTracer.getCurrentEvent(), aWidget != null ? aWidget.getHandle() : 0);
         Device device = devices.get(aDevice);
         if (device == null) {
             device = new Device(aDevice);
@@ -84,35 +182,45 @@ public class MotionEventGenerator {
         }
         if (!aPressed && (device.mPreviousWidget != null) && (device.mPreviousWidget != aWidget)) {
             if (device.mWasPressed) {
-                generateEvent(device.mPreviousWidget, device, MotionEvent.ACTION_CANCEL, false);
+                generateEvent(device.mPreviousWidget, device, MotionEvent.ACTION_CANCEL, false, aEventTime);
                 device.mWasPressed = false;
             }
-            generateEvent(device.mPreviousWidget, device, MotionEvent.ACTION_HOVER_EXIT, true);
+            generateEvent(device.mPreviousWidget, device, MotionEvent.ACTION_HOVER_EXIT, true, aEventTime);
             device.mPreviousWidget = null;
         }
         if (aWidget == null) {
             device.mPreviousWidget = null;
             return;
         }
+        boolean entered = false;
         if (aWidget != device.mPreviousWidget && !aPressed) {
-            generateEvent(aWidget, device, MotionEvent.ACTION_HOVER_ENTER, true);
+            generateEvent(aWidget, device, MotionEvent.ACTION_HOVER_ENTER, true, aEventTime);
+            entered = true;
         }
         if (aPressed && !device.mWasPressed) {
-            device.mDownTime = SystemClock.uptimeMillis();
+            device.mDownTime = aEventTime;
             device.mWasPressed = true;
-            generateEvent(aWidget, device, MotionEvent.ACTION_HOVER_EXIT, true);
-            generateEvent(aWidget, device, MotionEvent.ACTION_DOWN, false);
+            generateEvent(aWidget, device, MotionEvent.ACTION_HOVER_EXIT, true, aEventTime);
+            generateEvent(aWidget, device, MotionEvent.ACTION_DOWN, false, aEventTime);
             device.mTouchStartWidget = aWidget;
         } else if (!aPressed && device.mWasPressed) {
             device.mWasPressed = false;
-            generateEvent(device.mTouchStartWidget, device, MotionEvent.ACTION_UP, false);
-            generateEvent(aWidget, device, MotionEvent.ACTION_HOVER_ENTER, true);
+            generateEvent(device.mTouchStartWidget, device, MotionEvent.ACTION_UP, false, aEventTime);
+            if (entered) {
+                // The widget already got an enter event at this location.
+                sSuppressedEvents++;
+            } else {
+                generateEvent(aWidget, device, MotionEvent.ACTION_HOVER_ENTER, true, aEventTime);
+            }
         } else if (moving && aPressed) {
-            generateEvent(aWidget, device, MotionEvent.ACTION_MOVE, false);
+            generateMove(aWidget, device, aEventTime);
+        } else if (moving && entered) {
+            // The enter event already carries the new location.
+            sSuppressedEvents++;
         } else if (moving) {
-            generateEvent(aWidget, device, MotionEvent.ACTION_HOVER_MOVE, true);
-        } else {
-            Log.e("VRB", "Unknown touch event action");
+            generateEvent(aWidget, device, MotionEvent.ACTION_HOVER_MOVE, true, aEventTime);
+        } else if (!entered) {
+            // Nothing changed since the previous sample.
             return;
         }
         device.mPreviousWidget = aWidget;
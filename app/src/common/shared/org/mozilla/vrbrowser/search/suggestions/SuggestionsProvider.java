@@ -1,11 +1,14 @@
 package org.mozilla.vrbrowser.search.suggestions;
 
 import android.content.Context;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 
 import org.mozilla.vrbrowser.browser.SessionStore;
 import org.mozilla.vrbrowser.search.SearchEngineWrapper;
+import org.mozilla.vrbrowser.telemetry.Histogram;
+import org.mozilla.vrbrowser.telemetry.MetricsRegistry;
 import org.mozilla.vrbrowser.ui.widgets.SuggestionsWidget.SuggestionItem;
 import org.mozilla.vrbrowser.ui.widgets.SuggestionsWidget.SuggestionItem.Type;
 import org.mozilla.vrbrowser.utils.UrlUtils;
@@ -41,6 +44,8 @@ public class SuggestionsProvider {
         }
     }
 
+    private static final Histogram sLatencyHistogram = MetricsRegistry.get().histogram("suggestions.latency_ms", 60 * 1000);
+
     private Context mContext;
     private SearchEngineWrapper mSearchEngineWrapper;
     private String mText;
@@ -154,10 +159,12 @@ public class SuggestionsProvider {
     }
 
     public CompletableFuture<List<SuggestionItem>> getSuggestions() {
+        final long start = SystemClock.uptimeMillis();
         return CompletableFuture.supplyAsync(() -> new ArrayList<SuggestionItem>())
                 .thenComposeAsync(this::getSearchEngineSuggestions)
                 .thenComposeAsync(this::getBookmarkSuggestions)
-                .thenComposeAsync(this::getHistorySuggestions);
+                .thenComposeAsync(this::getHistorySuggestions)
+                .whenComplete((items, ex) -> sLatencyHistogram.record(SystemClock.uptimeMillis() - start));
     }
 
 }
@@ -0,0 +1,206 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.telemetry;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Log-linear histogram of non negative values, in the style of HdrHistogram. Values below
+ * 2^precisionBits get a bucket each, above that every power of two range is split in
+ * 2^(precisionBits - 1) buckets, so the relative error of a reported value is under
+ * 2^(1 - precisionBits). Values larger than the maximum value are recorded as the maximum value.
+ *
+ * Recording is lock free and can be done from any thread. The counters are striped by thread so
+ * threads recording at the same time rarely update the same counter.
+ *
+ * The log-linear buckets don't line up with fixed size buckets, so a histogram that has to report
+ * linear buckets also keeps exact counts for them.
+ */
+public class Histogram {
+
+    private static final int STRIPES = 4;
+
+    private static class Stripe {
+        final AtomicLongArray counts;
+        final AtomicLongArray linearCounts;
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong max = new AtomicLong();
+
+        Stripe(int aBucketCount, int aLinearBucketCount) {
+            counts = new AtomicLongArray(aBucketCount);
+            linearCounts = new AtomicLongArray(aLinearBucketCount);
+        }
+    }
+
+    private final String mName;
+    private final long mMaxValue;
+    private final int mPrecisionBits;
+    private final int mSubBucketCount;
+    private final int mSubBucketHalfCount;
+    private final int mBucketCount;
+    private final long mLinearBucketSize;
+    private final int mLinearBucketCount;
+    private final Stripe[] mStripes = new Stripe[STRIPES];
+
+    /**
+     * @param aMaxValue Largest value that can be recorded without being clamped.
+     * @param aPrecisionBits Between 1 and 16, 7 keeps the error under 1.6%.
+     */
+    public Histogram(@NonNull String aName, long aMaxValue, int aPrecisionBits) {
+        this(aName, aMaxValue, aPrecisionBits, 1, 0);
+    }
+
+    /**
+     * @param aLinearBucketSize Size of the linear buckets reported by {@link Snapshot#getLinearBuckets()}.
+     * @param aLinearBucketCount Number of linear buckets, the last one gets all the larger values.
+     */
+    public Histogram(@NonNull String aName, long aMaxValue, int aPrecisionBits, long aLinearBucketSize, int aLinearBucketCount) {
+        if (aPrecisionBits < 1 || aPrecisionBits > 16) {
+            throw new IllegalArgumentException("Invalid precision: " + aPrecisionBits);
+        }
+        if (aLinearBucketSize < 1 || aLinearBucketCount < 0) {
+            throw new IllegalArgumentException("Invalid linear buckets: " + aLinearBucketCount + " of " + aLinearBucketSize);
+        }
+        mName = aName;
+        mLinearBucketSize = aLinearBucketSize;
+        mLinearBucketCount = aLinearBucketCount;
+        mMaxValue = Math.max(1, aMaxValue);
+        mPrecisionBits = aPrecisionBits;
+        mSubBucketCount = 1 << aPrecisionBits;
+        mSubBucketHalfCount = mSubBucketCount >> 1;
+        mBucketCount = getIndex(mMaxValue) + 1;
+        for (int i = 0; i < STRIPES; ++i) {
+            mStripes[i] = new Stripe(mBucketCount, mLinearBucketCount);
+        }
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void record(long aValue) {
+        long value = Math.max(0, Math.min(aValue, mMaxValue));
+        Stripe stripe = mStripes[(int)Thread.currentThread().getId() & (STRIPES - 1)];
+        stripe.counts.incrementAndGet(getIndex(value));
+        if (mLinearBucketCount > 0) {
+            stripe.linearCounts.incrementAndGet((int)Math.min(value / mLinearBucketSize, mLinearBucketCount - 1));
+        }
+        stripe.sum.addAndGet(value);
+        long max = stripe.max.get();
+        while (value > max && !stripe.max.compareAndSet(max, value)) {
+            max = stripe.max.get();
+        }
+    }
+
+    private int getIndex(long aValue) {
+        if (aValue < mSubBucketCount) {
+            return (int)aValue;
+        }
+        // Shift that brings the value into [half, count) of the sub buckets.
+        int shift = (63 - Long.numberOfLeadingZeros(aValue)) - (mPrecisionBits - 1);
+        return mSubBucketCount + (shift - 1) * mSubBucketHalfCount + (int)((aValue >> shift) - mSubBucketHalfCount);
+    }
+
+    private long getHighestValue(int aIndex) {
+        if (aIndex < mSubBucketCount) {
+            return aIndex;
+        }
+        int offset = aIndex - mSubBucketCount;
+        int shift = offset / mSubBucketHalfCount + 1;
+        long subBucket = offset % mSubBucketHalfCount + mSubBucketHalfCount;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    public Snapshot snapshot() {
+        return takeSnapshot(false);
+    }
+
+    /**
+     * Takes a snapshot and resets the counters. Values recorded while the snapshot is taken are
+     * either in this snapshot or in the next one.
+     */
+    public Snapshot snapshotAndReset() {
+        return takeSnapshot(true);
+    }
+
+    private Snapshot takeSnapshot(boolean aReset) {
+        Snapshot snapshot = new Snapshot(mBucketCount, mLinearBucketCount);
+        for (Stripe stripe : mStripes) {
+            for (int i = 0; i < mBucketCount; ++i) {
+                long count = aReset ? stripe.counts.getAndSet(i, 0) : stripe.counts.get(i);
+                snapshot.mCounts[i] += count;
+                snapshot.mCount += count;
+            }
+            for (int i = 0; i < mLinearBucketCount; ++i) {
+                snapshot.mLinearCounts[i] += aReset ? stripe.linearCounts.getAndSet(i, 0) : stripe.linearCounts.get(i);
+            }
+            snapshot.mSum += aReset ? stripe.sum.getAndSet(0) : stripe.sum.get();
+            snapshot.mMax = Math.max(snapshot.mMax, aReset ? stripe.max.getAndSet(0) : stripe.max.get());
+        }
+        return snapshot;
+    }
+
+    public class Snapshot {
+        private final long[] mCounts;
+        private final long[] mLinearCounts;
+        private long mCount;
+        private long mSum;
+        private long mMax;
+
+        Snapshot(int aBucketCount, int aLinearBucketCount) {
+            mCounts = new long[aBucketCount];
+            mLinearCounts = new long[aLinearBucketCount];
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public long getMean() {
+            return mCount > 0 ? mSum / mCount : 0;
+        }
+
+        /**
+         * @param aPercentile Between 0 and 100.
+         * @return Highest value equivalent to the percentile, 0 if nothing was recorded.
+         */
+        public long getPercentile(double aPercentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long)Math.ceil(mCount * Math.min(100.0, aPercentile) / 100.0));
+            long accumulated = 0;
+            for (int i = 0; i < mCounts.length; ++i) {
+                accumulated += mCounts[i];
+                if (accumulated >= target) {
+                    return Math.min(getHighestValue(i), mMax);
+                }
+            }
+            return mMax;
+        }
+
+        /**
+         * @return The exact counts of the linear buckets given to the constructor, the last bucket
+         * gets all the larger values.
+         */
+        public long[] getLinearBuckets() {
+            return mLinearCounts.clone();
+        }
+
+        @Override
+        public String toString() {
+            return mName + ": count " + mCount + ", p50 " + getPercentile(50) + ", p90 " + getPercentile(90) +
+                    ", p99 " + getPercentile(99) + ", max " + mMax;
+        }
+    }
+}
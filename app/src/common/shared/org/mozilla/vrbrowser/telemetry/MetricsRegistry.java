@@ -0,0 +1,277 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.telemetry;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Central registry of the runtime metrics shown in about:performance. Subsystems publish to it
+ * in one of these ways:
+ * <ul>
+ *   <li>Counters, histograms and cache counters are updated where the event happens, updating
+ *   them is a lock free atomic operation.</li>
+ *   <li>Gauges and sources are only read when a snapshot is taken, so publishing a value that is
+ *   already tracked by a subsystem costs nothing until the page is opened.</li>
+ * </ul>
+ * Gauges and sources are read on the thread taking the snapshot, the UI thread for the page.
+ * Metric names are dot separated, the snapshot keeps them sorted so related metrics are listed
+ * together.
+ */
+public class MetricsRegistry {
+
+    private static final String LOGTAG = "VRB";
+    private static final int HISTOGRAM_PRECISION_BITS = 7;
+
+    public interface Gauge {
+        Number getValue();
+    }
+
+    /**
+     * Publishes a set of metrics that changes at runtime, like one metric per widget.
+     */
+    public interface Source {
+        void collect(@NonNull Snapshot aSnapshot);
+    }
+
+    public static class Counter {
+        private final AtomicLong mValue = new AtomicLong();
+
+        public void increment() {
+            mValue.incrementAndGet();
+        }
+
+        public void add(long aValue) {
+            mValue.addAndGet(aValue);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+    }
+
+    public static class CacheCounter {
+        private final AtomicLong mHits = new AtomicLong();
+        private final AtomicLong mMisses = new AtomicLong();
+
+        public void hit() {
+            mHits.incrementAndGet();
+        }
+
+        public void miss() {
+            mMisses.incrementAndGet();
+        }
+
+        public long getHits() {
+            return mHits.get();
+        }
+
+        public long getMisses() {
+            return mMisses.get();
+        }
+    }
+
+    private static MetricsRegistry mInstance;
+
+    public static synchronized MetricsRegistry get() {
+        if (mInstance == null) {
+            mInstance = new MetricsRegistry();
+        }
+        return mInstance;
+    }
+
+    private final ConcurrentHashMap<String, Counter> mCounters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CacheCounter> mCaches = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histogram> mHistograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Gauge> mGauges = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Source> mSources = new ConcurrentHashMap<>();
+
+    private MetricsRegistry() {
+        Runtime runtime = Runtime.getRuntime();
+        gauge("jvm.heap.used_kb", () -> (runtime.totalMemory() - runtime.freeMemory()) / 1024);
+        gauge("jvm.heap.total_kb", () -> runtime.totalMemory() / 1024);
+        gauge("jvm.heap.max_kb", () -> runtime.maxMemory() / 1024);
+        gauge("jvm.threads", Thread::activeCount);
+    }
+
+    /**
+     * @return The counter with the given name, created the first time it is requested.
+     */
+    public @NonNull Counter counter(@NonNull String aName) {
+        return mCounters.computeIfAbsent(aName, name -> new Counter());
+    }
+
+    /**
+     * @return The hits and misses counter of the given cache, created the first time it is requested.
+     */
+    public @NonNull CacheCounter cache(@NonNull String aName) {
+        return mCaches.computeIfAbsent(aName, name -> new CacheCounter());
+    }
+
+    /**
+     * @return The histogram with the given name, created the first time it is requested.
+     */
+    public @NonNull Histogram histogram(@NonNull String aName, long aMaxValue) {
+        return mHistograms.computeIfAbsent(aName, name -> new Histogram(name, aMaxValue, HISTOGRAM_PRECISION_BITS));
+    }
+
+    /**
+     * Publishes a histogram owned by a subsystem. Snapshots don't reset it.
+     */
+    public void histogram(@NonNull String aName, @NonNull Histogram aHistogram) {
+        mHistograms.put(aName, aHistogram);
+    }
+
+    public void gauge(@NonNull String aName, @NonNull Gauge aGauge) {
+        mGauges.put(aName, aGauge);
+    }
+
+    public void source(@NonNull String aName, @NonNull Source aSource) {
+        mSources.put(aName, aSource);
+    }
+
+    /**
+     * Removes the gauge or source with the given name, counters and histograms are never removed.
+     */
+    public void remove(@NonNull String aName) {
+        mGauges.remove(aName);
+        mSources.remove(aName);
+    }
+
+    public @NonNull Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        for (Map.Entry<String, Counter> entry : mCounters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, CacheCounter> entry : mCaches.entrySet()) {
+            long hits = entry.getValue().getHits();
+            long misses = entry.getValue().getMisses();
+            snapshot.put(entry.getKey() + ".hits", hits);
+            snapshot.put(entry.getKey() + ".misses", misses);
+            snapshot.put(entry.getKey() + ".hit_ratio", hits + misses > 0 ? hits / (double)(hits + misses) : 0.0);
+        }
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        for (Map.Entry<String, Gauge> entry : mGauges.entrySet()) {
+            try {
+                snapshot.put(entry.getKey(), entry.getValue().getValue());
+            } catch (RuntimeException e) {
+                Log.e(LOGTAG, "Error reading metric " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+        for (Map.Entry<String, Source> entry : mSources.entrySet()) {
+            try {
+                entry.getValue().collect(snapshot);
+            } catch (RuntimeException e) {
+                Log.e(LOGTAG, "Error reading metrics " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+        return snapshot;
+    }
+
+    public static class Snapshot {
+        private final long mTime = System.currentTimeMillis();
+        private final long mUptime = SystemClock.uptimeMillis();
+        private final TreeMap<String, Object> mValues = new TreeMap<>();
+
+        public void put(@NonNull String aName, Number aValue) {
+            if (aValue != null) {
+                mValues.put(aName, aValue);
+            }
+        }
+
+        public void put(@NonNull String aName, @NonNull Histogram.Snapshot aValue) {
+            mValues.put(aName, aValue);
+        }
+
+        /**
+         * @return Wall clock time the snapshot was taken, in milliseconds since the epoch.
+         */
+        public long getTime() {
+            return mTime;
+        }
+
+        public long getUptime() {
+            return mUptime;
+        }
+
+        /**
+         * @return The metric names in alphabetical order.
+         */
+        public @NonNull ArrayList<String> getNames() {
+            return new ArrayList<>(mValues.keySet());
+        }
+
+        /**
+         * @return A Number or a Histogram.Snapshot, null if there is no metric with that name.
+         */
+        public Object getValue(@NonNull String aName) {
+            return mValues.get(aName);
+        }
+
+        public Map<String, Object> getValues() {
+            return Collections.unmodifiableMap(mValues);
+        }
+
+        public @NonNull JSONObject toJSON() throws JSONException {
+            JSONObject metrics = new JSONObject();
+            for (Map.Entry<String, Object> entry : mValues.entrySet()) {
+                Object value = entry.getValue();
+                if (value instanceof Histogram.Snapshot) {
+                    Histogram.Snapshot histogram = (Histogram.Snapshot)value;
+                    JSONObject json = new JSONObject();
+                    json.put("count", histogram.getCount());
+                    json.put("mean", histogram.getMean());
+                    json.put("p50", histogram.getPercentile(50));
+                    json.put("p90", histogram.getPercentile(90));
+                    json.put("p99", histogram.getPercentile(99));
+                    json.put("max", histogram.getMax());
+                    value = json;
+                }
+                metrics.put(entry.getKey(), value);
+            }
+            JSONObject result = new JSONObject();
+            result.put("time", mTime);
+            result.put("uptime", mUptime);
+            result.put("metrics", metrics);
+            return result;
+        }
+
+        /**
+         * Writes the snapshot as JSON. Does I/O, must not be called from the UI thread.
+         */
+        public void writeTo(@NonNull File aFile) throws IOException {
+            File dir = aFile.getParentFile();
+            if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(aFile), StandardCharsets.UTF_8)) {
+                writer.write(toJSON().toString(2));
+            } catch (JSONException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
@@ -5,6 +5,7 @@ import android.content.res.Resources;
 import android.os.StrictMode;
 import android.os.SystemClock;
 import android.util.Log;
+import android.util.SparseArray;
 
 import mozilla.components.lib.fetch.httpurlconnection.HttpURLConnectionClient;
 import org.mozilla.telemetry.Telemetry;
@@ -29,10 +30,9 @@ import org.mozilla.vrbrowser.utils.UrlUtils;
 import java.net.URI;
 import java.util.HashSet;
 
+import androidx.annotation.AnyThread;
 import androidx.annotation.UiThread;
 
-import static java.lang.Math.toIntExact;
-
 
 public class TelemetryWrapper {
     private final static String APP_NAME = "FirefoxReality";
@@ -41,16 +41,41 @@ public class TelemetryWrapper {
     private final static int LOADING_BUCKET_SIZE_MS = 100;
     private final static int MIN_IMMERSIVE_TIME = 1000;
     private final static int IMMERSIVE_BUCKET_SIZE_MS = 10000;
-    private final static int HISTOGRAM_MIN_INDEX = 0;
     private final static int HISTOGRAM_SIZE = 200;
+    private final static int HISTOGRAM_PRECISION_BITS = 7;
 
     private static HashSet<String> domainMap = new HashSet<String>();
-    private static int[] loadingTimeHistogram = new int[HISTOGRAM_SIZE];
-    private static int[] immersiveHistogram = new int[HISTOGRAM_SIZE];
+    // Milliseconds
+    private static final Histogram loadingTimeHistogram = new Histogram(Method.FOREGROUND,
+            LOADING_BUCKET_SIZE_MS * HISTOGRAM_SIZE, HISTOGRAM_PRECISION_BITS, LOADING_BUCKET_SIZE_MS, HISTOGRAM_SIZE);
+    private static final Histogram immersiveHistogram = new Histogram(Method.IMMERSIVE_MODE,
+            IMMERSIVE_BUCKET_SIZE_MS * HISTOGRAM_SIZE, HISTOGRAM_PRECISION_BITS, IMMERSIVE_BUCKET_SIZE_MS, HISTOGRAM_SIZE);
+    private static final Histogram firstCompositeHistogram = new Histogram(Method.FIRST_COMPOSITE,
+            60 * 1000, HISTOGRAM_PRECISION_BITS);
+    // Microseconds
+    private static final Histogram sessionCreationHistogram = new Histogram(Method.SESSION_CREATION,
+            10 * 1000 * 1000, HISTOGRAM_PRECISION_BITS);
+    private static final Histogram inputLatencyHistogram = new Histogram(Method.INPUT_LATENCY,
+            1000 * 1000, HISTOGRAM_PRECISION_BITS);
+    static {
+        // Telemetry resets them when the app is paused, about:performance shows the current run.
+        MetricsRegistry registry = MetricsRegistry.get();
+        registry.histogram("page.load_ms", loadingTimeHistogram);
+        registry.histogram("page.first_composite_ms", firstCompositeHistogram);
+        registry.histogram("session.creation_us", sessionCreationHistogram);
+        registry.histogram("input.latency_us", inputLatencyHistogram);
+    }
     private static int numUri = 0;
-    private static long startLoadPageTime = 0;
+    private static SparseArray<PageLoad> pageLoads = new SparseArray<>();
+    private static int abortedPageLoads = 0;
     private static long startImmersiveTime = 0;
 
+    // Timing of the page being loaded by a session.
+    private static class PageLoad {
+        long navigationStart;
+        long firstComposite;
+    }
+
     private class Category {
         private static final String ACTION = "action";
         private static final String HISTOGRAM = "histogram";
@@ -65,6 +90,9 @@ public class TelemetryWrapper {
         // TODO: Support "select_query" after providing search suggestion.
         private static final String VOICE_QUERY = "voice_query";
         private static final String IMMERSIVE_MODE = "immersive_mode";
+        private static final String FIRST_COMPOSITE = "first_composite";
+        private static final String SESSION_CREATION = "session_creation";
+        private static final String INPUT_LATENCY = "input_latency";
     }
 
     private class Object {
@@ -72,11 +100,17 @@ public class TelemetryWrapper {
         private static final String BROWSER = "browser";
         private static final String SEARCH_BAR = "search_bar";
         private static final String VOICE_INPUT = "voice_input";
+        private static final String PERCENTILES = "percentiles";
     }
 
     private class Extra {
         private static final String TOTAL_URI_COUNT = "total_uri_count";
         private static final String UNIQUE_DOMAINS_COUNT = "unique_domains_count";
+        private static final String COUNT = "count";
+        private static final String P50 = "p50";
+        private static final String P90 = "p90";
+        private static final String P99 = "p99";
+        private static final String MAX = "max";
     }
 
     // We should call this at the application initial stage. Instead,
@@ -166,27 +200,15 @@ public class TelemetryWrapper {
     }
 
     private static void queueHistogram() {
-        // Upload loading time histogram
-        TelemetryEvent loadingHistogramEvent = TelemetryEvent.create(Category.HISTOGRAM, Method.FOREGROUND, Object.BROWSER);
-        for (int bucketIndex = 0; bucketIndex < loadingTimeHistogram.length; ++bucketIndex) {
-            loadingHistogramEvent.extra(Integer.toString(bucketIndex * LOADING_BUCKET_SIZE_MS),
-                    Integer.toString(loadingTimeHistogram[bucketIndex]));
-        }
-        loadingHistogramEvent.queue();
-
-        // Clear loading histogram array after queueing it
-        loadingTimeHistogram = new int[HISTOGRAM_SIZE];
+        // Upload loading time histogram, the snapshot resets it.
+        queueLinearHistogram(loadingTimeHistogram.snapshotAndReset(), Method.FOREGROUND, LOADING_BUCKET_SIZE_MS);
 
         // Upload immersive time histogram
-        TelemetryEvent immersiveHistogramEvent = TelemetryEvent.create(Category.HISTOGRAM, Method.IMMERSIVE_MODE, Object.BROWSER);
-        for (int bucketIndex = 0; bucketIndex < immersiveHistogram.length; ++bucketIndex) {
-            immersiveHistogramEvent.extra(Integer.toString(bucketIndex * IMMERSIVE_BUCKET_SIZE_MS),
-                    Integer.toString(immersiveHistogram[bucketIndex]));
-        }
-        immersiveHistogramEvent.queue();
+        queueLinearHistogram(immersiveHistogram.snapshotAndReset(), Method.IMMERSIVE_MODE, IMMERSIVE_BUCKET_SIZE_MS);
 
-        // Clear loading histogram array after queueing it
-        immersiveHistogram = new int[HISTOGRAM_SIZE];
+        queuePercentiles(firstCompositeHistogram.snapshotAndReset(), Method.FIRST_COMPOSITE);
+        queuePercentiles(sessionCreationHistogram.snapshotAndReset(), Method.SESSION_CREATION);
+        queuePercentiles(inputLatencyHistogram.snapshotAndReset(), Method.INPUT_LATENCY);
 
         // We only upload the domain and URI counts to the probes without including
         // users' URI info.
@@ -204,6 +226,31 @@ public class TelemetryWrapper {
 
     }
 
+    private static void queueLinearHistogram(Histogram.Snapshot aSnapshot, String aMethod, int aBucketSize) {
+        // Keep the linear buckets of the existing probes.
+        long[] buckets = aSnapshot.getLinearBuckets();
+        TelemetryEvent event = TelemetryEvent.create(Category.HISTOGRAM, aMethod, Object.BROWSER);
+        for (int bucketIndex = 0; bucketIndex < buckets.length; ++bucketIndex) {
+            event.extra(Integer.toString(bucketIndex * aBucketSize), Long.toString(buckets[bucketIndex]));
+        }
+        event.queue();
+        queuePercentiles(aSnapshot, aMethod);
+    }
+
+    private static void queuePercentiles(Histogram.Snapshot aSnapshot, String aMethod) {
+        if (aSnapshot.getCount() == 0) {
+            return;
+        }
+        Log.d(LOGTAG, aSnapshot.toString());
+        TelemetryEvent.create(Category.HISTOGRAM, aMethod, Object.PERCENTILES)
+                .extra(Extra.COUNT, Long.toString(aSnapshot.getCount()))
+                .extra(Extra.P50, Long.toString(aSnapshot.getPercentile(50)))
+                .extra(Extra.P90, Long.toString(aSnapshot.getPercentile(90)))
+                .extra(Extra.P99, Long.toString(aSnapshot.getPercentile(99)))
+                .extra(Extra.MAX, Long.toString(aSnapshot.getMax()))
+                .queue();
+    }
+
     private static void searchEnterEvent() {
         Telemetry telemetry = TelemetryHolder.get();
         TelemetryEvent.create(Category.ACTION, Method.TYPE_QUERY, Object.SEARCH_BAR).queue();
@@ -219,16 +266,44 @@ public class TelemetryWrapper {
         event.queue();
     }
 
+    /**
+     * Starts timing a page load of the session. A load the session didn't finish is not recorded.
+     */
     @UiThread
-    public static void startPageLoadTime() {
-        startLoadPageTime = SystemClock.elapsedRealtime();
+    public static void startPageLoadTime(int aSessionId) {
+        PageLoad load = pageLoads.get(aSessionId);
+        if (load == null) {
+            load = new PageLoad();
+            pageLoads.put(aSessionId, load);
+        } else {
+            abortedPageLoads++;
+        }
+        load.navigationStart = SystemClock.elapsedRealtime();
+        load.firstComposite = 0;
+    }
+
+    /**
+     * Discards the page load timing of the session.
+     */
+    @UiThread
+    public static void cancelPageLoad(int aSessionId) {
+        pageLoads.remove(aSessionId);
+    }
+
+    /**
+     * @return Number of page loads replaced by a new load of the same session before stopping.
+     */
+    public static int getAbortedPageLoads() {
+        return abortedPageLoads;
     }
 
     @UiThread
-    public static void uploadPageLoadToHistogram(String uri) {
-        if (startLoadPageTime == 0) {
+    public static void uploadPageLoadToHistogram(int aSessionId, String uri) {
+        PageLoad load = pageLoads.get(aSessionId);
+        if (load == null) {
             return;
         }
+        pageLoads.remove(aSessionId);
 
         if (uri == null)
             return;
@@ -242,22 +317,13 @@ public class TelemetryWrapper {
             domainMap.add(UrlUtils.stripCommonSubdomains(uriLink.getHost()));
             numUri++;
 
-            long elapsedLoad = SystemClock.elapsedRealtime() - startLoadPageTime;
+            long elapsedLoad = SystemClock.elapsedRealtime() - load.navigationStart;
             if (elapsedLoad < MIN_LOAD_TIME) {
                 return;
             }
 
-            int histogramLoadIndex = toIntExact(elapsedLoad / LOADING_BUCKET_SIZE_MS);
             Log.d(LOGTAG, "Sent load to histogram");
-
-            if (histogramLoadIndex > (HISTOGRAM_SIZE - 2)) {
-                histogramLoadIndex = HISTOGRAM_SIZE - 1;
-                Log.e(LOGTAG, "the loading histogram size is overflow.");
-            } else if (histogramLoadIndex < HISTOGRAM_MIN_INDEX) {
-                histogramLoadIndex = HISTOGRAM_MIN_INDEX;
-            }
-
-            loadingTimeHistogram[histogramLoadIndex]++;
+            loadingTimeHistogram.record(elapsedLoad);
 
         } catch (IllegalArgumentException e) {
             Log.e(LOGTAG, "Invalid URL", e);
@@ -280,17 +346,34 @@ public class TelemetryWrapper {
             return;
         }
 
-        int histogramImmersiveIndex = toIntExact(elapsedImmersive / IMMERSIVE_BUCKET_SIZE_MS);
         Log.i(LOGTAG, "Send immersive time spent to histogram.");
+        immersiveHistogram.record(elapsedImmersive);
+    }
 
-        if (histogramImmersiveIndex > (HISTOGRAM_SIZE - 2)) {
-            histogramImmersiveIndex = HISTOGRAM_SIZE - 1;
-            Log.e(LOGTAG, "the immersive histogram size is overflow.");
-        } else if (histogramImmersiveIndex < HISTOGRAM_MIN_INDEX) {
-            histogramImmersiveIndex = HISTOGRAM_MIN_INDEX;
+    @UiThread
+    public static void recordFirstComposite(int aSessionId) {
+        PageLoad load = pageLoads.get(aSessionId);
+        if (load == null || load.firstComposite != 0) {
+            return;
         }
+        load.firstComposite = SystemClock.elapsedRealtime();
+        firstCompositeHistogram.record(load.firstComposite - load.navigationStart);
+    }
+
+    /**
+     * @param aMicros Time spent creating a session, in microseconds.
+     */
+    @AnyThread
+    public static void recordSessionCreation(long aMicros) {
+        sessionCreationHistogram.record(aMicros);
+    }
 
-        immersiveHistogram[histogramImmersiveIndex]++;
+    /**
+     * @param aMicros Time between receiving an input event and dispatching it, in microseconds.
+     */
+    @AnyThread
+    public static void recordInputLatency(long aMicros) {
+        inputLatencyHistogram.record(aMicros);
     }
 }
 
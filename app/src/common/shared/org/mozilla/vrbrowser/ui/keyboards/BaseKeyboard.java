@@ -11,11 +11,34 @@ import java.util.Locale;
 import java.util.regex.Pattern;
 
 public abstract class BaseKeyboard implements KeyboardInterface {
+    // Localized labels used when refreshing the special keys.
+    private static final int[] LABEL_IDS = {
+            R.string.keyboard_go_label,
+            R.string.keyboard_next_label,
+            R.string.keyboard_search_label,
+            R.string.keyboard_send_label,
+            R.string.keyboard_enter_label,
+            R.string.keyboard_space_label
+    };
+
     protected Context mContext;
     BaseKeyboard(Context aContext) {
         mContext = aContext;
     }
 
+    @Override
+    public void preloadLabels() {
+        StringUtils.preloadStringsByLocale(mContext, getLocale(), LABEL_IDS);
+        getKeyboardTitle();
+    }
+
+    // Parses the layouts ahead of time so switching to this keyboard doesn't inflate any XML.
+    @Override
+    public void preloadLayouts() {
+        getAlphabeticKeyboard();
+        getSymbolsKeyboard();
+    }
+
     @Override
     public String getEnterKeyText(int aIMEOptions, String aComposingText) {
         Locale locale = getLocale();
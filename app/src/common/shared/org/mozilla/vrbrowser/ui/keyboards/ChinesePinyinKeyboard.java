@@ -3,10 +3,9 @@ package org.mozilla.vrbrowser.ui.keyboards;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
-import com.readystatesoftware.sqliteasset.SQLiteAssetHelper;
-
 import org.mozilla.vrbrowser.R;
 import org.mozilla.vrbrowser.input.CustomKeyboard;
 import org.mozilla.vrbrowser.utils.StringUtils;
@@ -25,7 +24,7 @@ import androidx.annotation.Nullable;
 public class ChinesePinyinKeyboard extends BaseKeyboard {
     private static final String LOGTAG = "VRB";
     private CustomKeyboard mKeyboard;
-    private DBHelper mDB;
+    private SQLiteOpenHelper mDB;
     private HashMap<String, KeyMap> mKeymaps = new HashMap<>();
     private HashMap<String, KeyMap> mExtraKeymaps = new HashMap<>();
     private List<Character> mAutocompleteEndings = Arrays.asList(
@@ -38,7 +37,7 @@ public class ChinesePinyinKeyboard extends BaseKeyboard {
 
     @NonNull
     @Override
-    public CustomKeyboard getAlphabeticKeyboard() {
+    public synchronized CustomKeyboard getAlphabeticKeyboard() {
         if (mKeyboard == null) {
             mKeyboard = new CustomKeyboard(mContext.getApplicationContext(), R.xml.keyboard_qwerty_pinyin);
             loadDatabase();
@@ -224,7 +223,7 @@ public class ChinesePinyinKeyboard extends BaseKeyboard {
 
     private void loadDatabase() {
         try {
-            mDB = new DBHelper(mContext);
+            mDB = DictionaryManager.getInstance(mContext).getHelper(DictionaryManager.Dictionary.PINYIN);
             addExtraKeyMaps();
         }
         catch (Exception ex) {
@@ -395,14 +394,4 @@ public class ChinesePinyinKeyboard extends BaseKeyboard {
         ArrayList<Words> displays = new ArrayList<>();
         ArrayList<Words> candidates = new ArrayList<>();
     }
-
-
-    class DBHelper extends SQLiteAssetHelper {
-        private static final String DATABASE_NAME = "google_pinyin.db";
-        private static final int DATABASE_VERSION = 1;
-
-        public DBHelper(Context context) {
-            super(context, DATABASE_NAME, null, DATABASE_VERSION);
-        }
-    }
 }
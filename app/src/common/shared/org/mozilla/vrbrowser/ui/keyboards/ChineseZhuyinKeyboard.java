@@ -3,11 +3,10 @@ package org.mozilla.vrbrowser.ui.keyboards;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 import android.inputmethodservice.Keyboard.Key;
 
-import com.readystatesoftware.sqliteasset.SQLiteAssetHelper;
-
 import org.mozilla.vrbrowser.R;
 import org.mozilla.vrbrowser.input.CustomKeyboard;
 import org.mozilla.vrbrowser.utils.StringUtils;
@@ -27,8 +26,8 @@ public class ChineseZhuyinKeyboard extends BaseKeyboard {
     private static final String LOGTAG = "VRB";
     private static final String nonZhuyinReg = "[^ㄅ-ㄩ˙ˊˇˋˉ]";
     private CustomKeyboard mKeyboard;
-    private DBWordHelper mWordDB;
-    private DBPhraseHelper mPhraseDB;
+    private SQLiteOpenHelper mWordDB;
+    private SQLiteOpenHelper mPhraseDB;
     private HashMap<String, KeyMap> mKeymaps = new HashMap<>();
     private HashMap<String, Words> mKeyCodes = new HashMap<>();
     private final String[] sqliteArgs = new String[2];
@@ -41,7 +40,7 @@ public class ChineseZhuyinKeyboard extends BaseKeyboard {
 
     @NonNull
     @Override
-    public CustomKeyboard getAlphabeticKeyboard() {
+    public synchronized CustomKeyboard getAlphabeticKeyboard() {
         if (mKeyboard == null) {
             mKeyboard = new CustomKeyboard(mContext.getApplicationContext(), R.xml.keyboard_zhuyin);
             loadDatabase();
@@ -196,8 +195,9 @@ public class ChineseZhuyinKeyboard extends BaseKeyboard {
 
     private void loadDatabase() {
         try {
-            mWordDB = new DBWordHelper(mContext);
-            mPhraseDB = new DBPhraseHelper(mContext);
+            DictionaryManager dictionaries = DictionaryManager.getInstance(mContext);
+            mWordDB = dictionaries.getHelper(DictionaryManager.Dictionary.ZHUYIN_WORDS);
+            mPhraseDB = dictionaries.getHelper(DictionaryManager.Dictionary.ZHUYIN_PHRASES);
             addExtraKeyMaps();
         }
         catch (Exception ex) {
@@ -401,23 +401,4 @@ public class ChineseZhuyinKeyboard extends BaseKeyboard {
     class KeyMap {
         ArrayList<Words> displays = new ArrayList<>();
     }
-
-
-    class DBWordHelper extends SQLiteAssetHelper {
-        private static final String DATABASE_NAME = "zhuyin_words.db";
-        private static final int DATABASE_VERSION = 1;
-
-        public DBWordHelper(Context context) {
-            super(context, DATABASE_NAME, null, DATABASE_VERSION);
-        }
-    }
-
-    class DBPhraseHelper extends SQLiteAssetHelper {
-        private static final String DATABASE_NAME = "zhuyin_phrases.db";
-        private static final int DATABASE_VERSION = 1;
-
-        public DBPhraseHelper(Context context) {
-            super(context, DATABASE_NAME, null, DATABASE_VERSION);
-        }
-    }
 }
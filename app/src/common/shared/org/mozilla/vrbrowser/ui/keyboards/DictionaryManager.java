@@ -0,0 +1,228 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.ui.keyboards;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.readystatesoftware.sqliteasset.SQLiteAssetHelper;
+
+import org.mozilla.vrbrowser.AppExecutors;
+import org.mozilla.vrbrowser.VRBrowserApplication;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Owns the SQLite dictionaries used by the CJK keyboards. {@link SQLiteAssetHelper} copies the
+ * databases out of the APK the first time they are opened, so this class does that work on the
+ * disk IO executor at startup instead of on the first keyboard switch.
+ */
+public class DictionaryManager {
+
+    private static final String LOGTAG = "VRB";
+    private static final int DATABASE_VERSION = 1;
+    private static final int WARMUP_BUFFER_SIZE = 64 * 1024;
+
+    public enum Dictionary {
+        PINYIN("google_pinyin.db", Locale.SIMPLIFIED_CHINESE),
+        ZHUYIN_WORDS("zhuyin_words.db", Locale.TRADITIONAL_CHINESE),
+        ZHUYIN_PHRASES("zhuyin_phrases.db", Locale.TRADITIONAL_CHINESE);
+
+        private String mFileName;
+        private Locale mLocale;
+
+        Dictionary(String aFileName, Locale aLocale) {
+            mFileName = aFileName;
+            mLocale = aLocale;
+        }
+
+        public String getFileName() {
+            return mFileName;
+        }
+
+        public Locale getLocale() {
+            return mLocale;
+        }
+    }
+
+    public interface ExtractionListener {
+        void onDictionaryReady(@NonNull Dictionary aDictionary, long aElapsedMs, int aReadyCount, int aTotalCount);
+        default void onExtractionFinished(long aElapsedMs) {}
+    }
+
+    private static DictionaryManager mInstance;
+
+    public static synchronized @NonNull
+    DictionaryManager getInstance(final @NonNull Context aContext) {
+        if (mInstance == null) {
+            mInstance = new DictionaryManager(aContext.getApplicationContext());
+        }
+
+        return mInstance;
+    }
+
+    private Context mContext;
+    private final HashMap<Dictionary, DBHelper> mHelpers = new HashMap<>();
+    private final HashMap<Dictionary, Long> mReadyTimes = new HashMap<>();
+    private final CopyOnWriteArrayList<ExtractionListener> mListeners = new CopyOnWriteArrayList<>();
+    private boolean mExtractionStarted;
+    private long mExtractionTime = -1;
+
+    private DictionaryManager(Context aContext) {
+        mContext = aContext;
+    }
+
+    public void addExtractionListener(@NonNull ExtractionListener aListener) {
+        mListeners.add(aListener);
+    }
+
+    public void removeExtractionListener(@NonNull ExtractionListener aListener) {
+        mListeners.remove(aListener);
+    }
+
+    /**
+     * Extracts and verifies every dictionary on the disk IO executor. Dictionaries of the selected
+     * keyboard locale go first and are read once more so their pages are hot in the page cache.
+     */
+    public synchronized void extractAsync(@Nullable Locale aSelectedLocale) {
+        if (mExtractionStarted) {
+            return;
+        }
+        mExtractionStarted = true;
+
+        final List<Dictionary> dictionaries = new ArrayList<>(Arrays.asList(Dictionary.values()));
+        if (aSelectedLocale != null) {
+            dictionaries.sort((a, b) -> Boolean.compare(!matches(a, aSelectedLocale), !matches(b, aSelectedLocale)));
+        }
+
+        AppExecutors executors = ((VRBrowserApplication)mContext).getExecutors();
+        executors.diskIO().execute(() -> {
+            final long start = SystemClock.elapsedRealtime();
+            int ready = 0;
+            for (Dictionary dictionary: dictionaries) {
+                long dictionaryStart = SystemClock.elapsedRealtime();
+                if (!prepare(dictionary)) {
+                    continue;
+                }
+                if (aSelectedLocale != null && matches(dictionary, aSelectedLocale)) {
+                    warmup(dictionary);
+                }
+                long elapsed = SystemClock.elapsedRealtime() - dictionaryStart;
+                synchronized (this) {
+                    mReadyTimes.put(dictionary, elapsed);
+                }
+                ready++;
+                Log.d(LOGTAG, "Dictionary " + dictionary.getFileName() + " ready in " + elapsed + "ms");
+                for (ExtractionListener listener: mListeners) {
+                    listener.onDictionaryReady(dictionary, elapsed, ready, dictionaries.size());
+                }
+            }
+            long total = SystemClock.elapsedRealtime() - start;
+            synchronized (this) {
+                mExtractionTime = total;
+            }
+            Log.d(LOGTAG, "Dictionary extraction finished in " + total + "ms");
+            for (ExtractionListener listener: mListeners) {
+                listener.onExtractionFinished(total);
+            }
+        });
+    }
+
+    /**
+     * Returns the helper for the given dictionary. If the background extraction has not reached it
+     * yet the first {@link SQLiteOpenHelper#getReadableDatabase()} call will still extract it.
+     */
+    @NonNull
+    public synchronized SQLiteOpenHelper getHelper(@NonNull Dictionary aDictionary) {
+        DBHelper helper = mHelpers.get(aDictionary);
+        if (helper == null) {
+            helper = new DBHelper(mContext, aDictionary.getFileName());
+            mHelpers.put(aDictionary, helper);
+        }
+        return helper;
+    }
+
+    public synchronized boolean isReady(@NonNull Dictionary aDictionary) {
+        return mReadyTimes.containsKey(aDictionary);
+    }
+
+    /**
+     * @return Time spent extracting and verifying the dictionary, or -1 if it is not ready yet.
+     */
+    public synchronized long getReadyTime(@NonNull Dictionary aDictionary) {
+        Long time = mReadyTimes.get(aDictionary);
+        return time != null ? time : -1;
+    }
+
+    /**
+     * @return Time spent extracting all the dictionaries, or -1 if the extraction is still running.
+     */
+    public synchronized long getExtractionTime() {
+        return mExtractionTime;
+    }
+
+    private boolean matches(Dictionary aDictionary, Locale aLocale) {
+        return aDictionary.getLocale().equals(aLocale);
+    }
+
+    private boolean prepare(Dictionary aDictionary) {
+        SQLiteOpenHelper helper = getHelper(aDictionary);
+        try {
+            if (verify(helper.getReadableDatabase())) {
+                return true;
+            }
+            // The extracted copy is corrupted or truncated, extract it again.
+            Log.e(LOGTAG, "Dictionary " + aDictionary.getFileName() + " failed verification, extracting again");
+            helper.close();
+            mContext.deleteDatabase(aDictionary.getFileName());
+            return verify(helper.getReadableDatabase());
+
+        } catch (Exception ex) {
+            Log.e(LOGTAG, "Error extracting dictionary " + aDictionary.getFileName() + ": " + ex.getMessage());
+            return false;
+        }
+    }
+
+    private boolean verify(SQLiteDatabase aDatabase) {
+        try (Cursor cursor = aDatabase.rawQuery("SELECT count(*) FROM sqlite_master WHERE type = 'table'", null)) {
+            return cursor.moveToFirst() && cursor.getInt(0) > 0;
+        }
+    }
+
+    private void warmup(Dictionary aDictionary) {
+        File file = mContext.getDatabasePath(aDictionary.getFileName());
+        byte[] buffer = new byte[WARMUP_BUFFER_SIZE];
+        try (FileInputStream stream = new FileInputStream(file)) {
+            //noinspection StatementWithEmptyBody
+            while (stream.read(buffer) > 0) {
+                // Reading the file is enough to bring its pages into the page cache.
+            }
+        } catch (IOException ex) {
+            Log.e(LOGTAG, "Error warming up dictionary " + aDictionary.getFileName() + ": " + ex.getMessage());
+        }
+    }
+
+    private static class DBHelper extends SQLiteAssetHelper {
+        DBHelper(Context aContext, String aName) {
+            super(aContext, aName, null, DATABASE_VERSION);
+        }
+    }
+}
@@ -20,7 +20,7 @@ public class EnglishKeyboard extends BaseKeyboard {
 
     @NonNull
     @Override
-    public CustomKeyboard getAlphabeticKeyboard() {
+    public synchronized CustomKeyboard getAlphabeticKeyboard() {
         if (mKeyboard == null) {
             mKeyboard = new CustomKeyboard(mContext.getApplicationContext(), R.xml.keyboard_qwerty);
         }
@@ -22,7 +22,7 @@ public class GermanKeyboard extends BaseKeyboard {
 
     @NonNull
     @Override
-    public CustomKeyboard getAlphabeticKeyboard() {
+    public synchronized CustomKeyboard getAlphabeticKeyboard() {
         if (mKeyboard == null) {
             mKeyboard = new CustomKeyboard(mContext.getApplicationContext(), R.xml.keyboard_qwerty_german);
         }
@@ -31,7 +31,7 @@ public class GermanKeyboard extends BaseKeyboard {
 
     @Nullable
     @Override
-    public CustomKeyboard getSymbolsKeyboard() {
+    public synchronized CustomKeyboard getSymbolsKeyboard() {
         if (mSymbolsKeyboard == null) {
             mSymbolsKeyboard = new CustomKeyboard(mContext.getApplicationContext(), R.xml.keyboard_symbols_german);
         }
@@ -1,18 +1,24 @@
 package org.mozilla.vrbrowser.ui.keyboards;
 
 import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import org.mozilla.vrbrowser.R;
+import org.mozilla.vrbrowser.VRBrowserApplication;
 import org.mozilla.vrbrowser.input.CustomKeyboard;
+import org.mozilla.vrbrowser.telemetry.MetricsRegistry;
 import org.mozilla.vrbrowser.utils.StringUtils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import jp.co.omronsoft.openwnn.ComposingText;
 import jp.co.omronsoft.openwnn.JAJP.OpenWnnEngineJAJP;
@@ -26,6 +32,9 @@ import jp.co.omronsoft.openwnn.WnnWord;
 public class JapaneseKeyboard extends BaseKeyboard {
 
     private static final String LOGTAG = "VRB";
+    private static final int MAX_CACHED_CONVERSIONS = 64;
+    private static final int LATENCY_LOG_INTERVAL = 100;
+    private static final MetricsRegistry.CacheCounter sCacheCounter = MetricsRegistry.get().cache("cache.japanese_conversions");
 
     private CustomKeyboard mKeyboard;
     private CustomKeyboard mSymbolsKeyboard;
@@ -44,15 +53,26 @@ public class JapaneseKeyboard extends BaseKeyboard {
     /** The inputing/editing string */
     protected ComposingText  mComposingText;
 
+    /** Prediction results by composing text, most recently used last */
+    private LinkedHashMap<String, List<Words>> mConversionCache = new LinkedHashMap<String, List<Words>>(MAX_CACHED_CONVERSIONS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<Words>> eldest) {
+            return size() > MAX_CACHED_CONVERSIONS;
+        }
+    };
+
+    private long mFirstCandidatesLatency = -1;
+    private long mCandidatesLatencySum;
+    private int mCandidatesCount;
+    private int mCacheHits;
+    // The layouts are guarded by their own lock, the keyboard lock is held by the converter warmup.
+    private final Object mLayoutLock = new Object();
+    private boolean mConverterWarmupStarted;
+
 
     public JapaneseKeyboard(Context aContext) {
         super(aContext);
 
-        mConverter = new OpenWnnEngineJAJP();
-        ((OpenWnnEngineJAJP) mConverter).setKeyboardType(OpenWnnEngineJAJP.KEYBOARD_QWERTY);
-        ((OpenWnnEngineJAJP) mConverter).setDictionary(OpenWnnEngineJAJP.DIC_LANG_JP);
-        mConverter.init();
-
         mPreConverter = new Romkan();
         mComposingText = new ComposingText();
     }
@@ -60,27 +80,79 @@ public class JapaneseKeyboard extends BaseKeyboard {
     @NonNull
     @Override
     public CustomKeyboard getAlphabeticKeyboard() {
+        synchronized (mLayoutLock) {
+            loadAlphabeticKeyboard();
+            if (!mConverterWarmupStarted) {
+                mConverterWarmupStarted = true;
+                warmupConverter();
+            }
+            return mKeyboard;
+        }
+    }
+
+    // Only parse the layouts, the converter is warmed up when the keyboard is first selected.
+    @Override
+    public void preloadLayouts() {
+        synchronized (mLayoutLock) {
+            loadAlphabeticKeyboard();
+        }
+        getSymbolsKeyboard();
+    }
+
+    private void loadAlphabeticKeyboard() {
         if (mKeyboard == null) {
             mKeyboard = new CustomKeyboard(mContext.getApplicationContext(), R.xml.keyboard_qwerty_japanese);
         }
+    }
 
-        return mKeyboard;
+    // OpenWnn loads its dictionaries on the first prediction, do it in the background when the
+    // keyboard is first selected so the first keystroke doesn't pay for it.
+    private void warmupConverter() {
+        ((VRBrowserApplication)mContext.getApplicationContext()).getExecutors().diskIO().execute(() -> {
+            long start = SystemClock.elapsedRealtime();
+            synchronized (this) {
+                WnnEngine converter = getConverter();
+                ComposingText text = new ComposingText();
+                text.insertStrSegment(ComposingText.LAYER0, ComposingText.LAYER1, new StrSegment("a"));
+                new Romkan().convert(text);
+                if (converter.predict(text, 0, -1) > 0) {
+                    //noinspection StatementWithEmptyBody
+                    while (converter.getNextCandidate() != null) {
+                    }
+                }
+                converter.init();
+            }
+            Log.d(LOGTAG, "Japanese converter warmed up in " + (SystemClock.elapsedRealtime() - start) + "ms");
+        });
+    }
+
+    // Must be called with the keyboard lock held.
+    private WnnEngine getConverter() {
+        if (mConverter == null) {
+            mConverter = new OpenWnnEngineJAJP();
+            ((OpenWnnEngineJAJP) mConverter).setKeyboardType(OpenWnnEngineJAJP.KEYBOARD_QWERTY);
+            ((OpenWnnEngineJAJP) mConverter).setDictionary(OpenWnnEngineJAJP.DIC_LANG_JP);
+            mConverter.init();
+        }
+        return mConverter;
     }
 
     @Nullable
     @Override
     public CustomKeyboard getSymbolsKeyboard() {
-        if (mSymbolsKeyboard == null) {
-            mSymbolsKeyboard = new CustomKeyboard(mContext.getApplicationContext(), R.xml.keyboard_symbols_japanese);
+        synchronized (mLayoutLock) {
+            if (mSymbolsKeyboard == null) {
+                mSymbolsKeyboard = new CustomKeyboard(mContext.getApplicationContext(), R.xml.keyboard_symbols_japanese);
 
-            mSymbolsConverter = new SymbolList(mContext, SymbolList.LANG_JA);
+                mSymbolsConverter = new SymbolList(mContext, SymbolList.LANG_JA);
+            }
+            return mSymbolsKeyboard;
         }
-        return mSymbolsKeyboard;
     }
 
     @Nullable
     @Override
-    public CandidatesResult getCandidates(String aComposingText) {
+    public synchronized CandidatesResult getCandidates(String aComposingText) {
         if (StringUtils.isEmpty(aComposingText)) {
             mComposingText.clear();
             return null;
@@ -95,19 +167,30 @@ public class JapaneseKeyboard extends BaseKeyboard {
             return null;
         }
 
+        long start = SystemClock.elapsedRealtimeNanos();
         initializeComposingText(aComposingText);
 
-        List<Words> words = new ArrayList<>();
-        int candidates = mConverter.predict(mComposingText, 0, -1);
-        if (candidates > 0) {
-            WnnWord word;
-            while ((word = mConverter.getNextCandidate()) != null) {
-                words.add(new Words(1, word.stroke, word.candidate));
+        List<Words> words = mConversionCache.get(aComposingText);
+        if (words != null) {
+            mCacheHits++;
+            sCacheCounter.hit();
+        } else {
+            sCacheCounter.miss();
+            words = new ArrayList<>();
+            WnnEngine converter = getConverter();
+            int candidates = converter.predict(mComposingText, 0, -1);
+            if (candidates > 0) {
+                WnnWord word;
+                while ((word = converter.getNextCandidate()) != null) {
+                    words.add(new Words(1, word.stroke, word.candidate));
+                }
             }
+            mConversionCache.put(aComposingText, words);
         }
+        recordCandidatesLatency(SystemClock.elapsedRealtimeNanos() - start);
 
         CandidatesResult result = new CandidatesResult();
-        result.words = words;
+        result.words = new ArrayList<>(words);
 
         if (autocompose) {
             result.action = CandidatesResult.Action.AUTO_COMPOSE;
@@ -123,6 +206,34 @@ public class JapaneseKeyboard extends BaseKeyboard {
         return result;
     }
 
+    private void recordCandidatesLatency(long aNanos) {
+        if (mFirstCandidatesLatency < 0) {
+            mFirstCandidatesLatency = aNanos;
+            Log.d(LOGTAG, "Japanese first candidates latency: " + aNanos / 1000 + "us");
+            return;
+        }
+        mCandidatesLatencySum += aNanos;
+        mCandidatesCount++;
+        if (mCandidatesCount % LATENCY_LOG_INTERVAL == 0) {
+            Log.d(LOGTAG, "Japanese candidates latency: " + getAverageCandidatesLatency() / 1000 + "us average, " +
+                    mCacheHits + " cache hits in " + (mCandidatesCount + 1) + " lookups");
+        }
+    }
+
+    /**
+     * @return Latency of the first candidates lookup in nanoseconds, or -1 if there wasn't any yet.
+     */
+    public synchronized long getFirstCandidatesLatency() {
+        return mFirstCandidatesLatency;
+    }
+
+    /**
+     * @return Average latency of the candidates lookups after the first one, in nanoseconds.
+     */
+    public synchronized long getAverageCandidatesLatency() {
+        return mCandidatesCount > 0 ? mCandidatesLatencySum / mCandidatesCount : 0;
+    }
+
     @Override
     public CandidatesResult getEmojiCandidates(String aComposingText) {
         ComposingText text = new ComposingText();
@@ -203,8 +314,10 @@ public class JapaneseKeyboard extends BaseKeyboard {
     }
 
     @Override
-    public void clear() {
-        mConverter.init();
+    public synchronized void clear() {
+        if (mConverter != null) {
+            mConverter.init();
+        }
     }
 
 }
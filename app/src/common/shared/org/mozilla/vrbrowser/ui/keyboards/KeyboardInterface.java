@@ -44,5 +44,7 @@ public interface KeyboardInterface {
     String getSpaceKeyText(String aComposingText);
     String getEnterKeyText(int aIMEOptions, String aComposingText);
     String getModeChangeKeyText();
+    default void preloadLabels() {}
+    default void preloadLayouts() {}
     default @Nullable void clear() {}
 }
\ No newline at end of file
@@ -16,6 +16,9 @@ import java.util.Locale;
 
 public class KoreanKeyboard extends BaseKeyboard {
     private CustomKoreanKeyboard mKeyboard;
+    private final DecomposedHangul mBefore = new DecomposedHangul();
+    private final DecomposedHangul mAfter = new DecomposedHangul();
+    private final StringBuilder mResult = new StringBuilder();
     /*
      * The Korean Writing System:
      * http://gernot-katzers-spice-pages.com/var/korean_hangul_unicode.html
@@ -40,11 +43,29 @@ public class KoreanKeyboard extends BaseKeyboard {
     private final static int AMOUNT_OF_TAILS_THE_AMOUNT_OF_VOWELS = AMOUNT_OF_TAILS * VOWELS.length(); // 588
 
 
-    class DecomposedHangul {
+    /**
+     * Hangul syllable or jamo decomposed into its initial, vowel and tail indices. Instances are
+     * reused between keystrokes, all the lookups work on code points and don't allocate.
+     */
+    static class DecomposedHangul {
         int initialIndex = -1;
         int vowelIndex = -1;
         int tailIndex = -1;
 
+        void decompose(int aCodePoint) {
+            if (aCodePoint >= HANGUL_UNICODE_START_VALUE && aCodePoint <= HANGUL_UNICODE_LAST_VALUE) {
+                // Hangul syllable
+                initialIndex = (aCodePoint - HANGUL_UNICODE_START_VALUE) / AMOUNT_OF_TAILS_THE_AMOUNT_OF_VOWELS;
+                tailIndex = ((aCodePoint - HANGUL_UNICODE_START_VALUE) % AMOUNT_OF_TAILS) - 1;
+                vowelIndex = ((aCodePoint - HANGUL_UNICODE_START_VALUE - tailIndex) % AMOUNT_OF_TAILS_THE_AMOUNT_OF_VOWELS) / AMOUNT_OF_TAILS;
+                return;
+            }
+            // Jamo character, or none of them if aCodePoint is negative.
+            initialIndex = aCodePoint < 0 ? -1 : INITIALS.indexOf(aCodePoint);
+            vowelIndex = aCodePoint < 0 ? -1 : VOWELS.indexOf(aCodePoint);
+            tailIndex = aCodePoint < 0 ? -1 : TAILS.indexOf(aCodePoint);
+        }
+
         boolean isInitial() {
             return initialIndex >= 0 && vowelIndex < 0;
         }
@@ -65,14 +86,14 @@ public class KoreanKeyboard extends BaseKeyboard {
             return initialIndex >= 0 && vowelIndex >= 0 && tailIndex < 0;
         }
 
-        boolean combineVowel(String aSufix) {
+        boolean combineVowel(int aSuffix) {
             if (!isVowel() && !isInitialAndVowel()) {
                 return false;
             }
-            String prefix = VOWELS.substring(vowelIndex, vowelIndex + 1);
+            char prefix = VOWELS.charAt(vowelIndex);
             for (String values : COMBINED_VOWELS) {
-                if (values.indexOf(prefix) == 1 && values.indexOf(aSufix) == 2) {
-                    vowelIndex = VOWELS.indexOf(values.substring(0, 1));
+                if (values.charAt(1) == prefix && values.charAt(2) == aSuffix) {
+                    vowelIndex = VOWELS.indexOf(values.charAt(0));
                     return true;
                 }
             }
@@ -80,14 +101,14 @@ public class KoreanKeyboard extends BaseKeyboard {
             return false;
         }
 
-        boolean combineTail(String aSufix) {
+        boolean combineTail(int aSuffix) {
             if (!isCompleteHangul()) {
                 return false;
             }
-            String prefix = TAILS.substring(tailIndex, tailIndex + 1);
+            char prefix = TAILS.charAt(tailIndex);
             for (String values : COMBINED_CONSONANTS) {
-                if (values.indexOf(prefix) == 1 && values.indexOf(aSufix) == 2) {
-                    tailIndex = TAILS.indexOf(values.substring(0, 1));
+                if (values.charAt(1) == prefix && values.charAt(2) == aSuffix) {
+                    tailIndex = TAILS.indexOf(values.charAt(0));
                     return true;
                 }
             }
@@ -100,10 +121,10 @@ public class KoreanKeyboard extends BaseKeyboard {
                 return false;
             }
 
-            String jamo = VOWELS.substring(vowelIndex, vowelIndex + 1);
+            char jamo = VOWELS.charAt(vowelIndex);
             for (String values : COMBINED_VOWELS) {
-                if (values.indexOf(jamo) == 0) {
-                    vowelIndex = VOWELS.indexOf(values.substring(1, 2));
+                if (values.charAt(0) == jamo) {
+                    vowelIndex = VOWELS.indexOf(values.charAt(1));
                     return true;
                 }
             }
@@ -115,23 +136,26 @@ public class KoreanKeyboard extends BaseKeyboard {
                 return false;
             }
 
-            String jamo = TAILS.substring(tailIndex, tailIndex + 1);
+            char jamo = TAILS.charAt(tailIndex);
             for (String values : COMBINED_CONSONANTS) {
-                if (values.indexOf(jamo) == 0) {
-                    tailIndex = TAILS.indexOf(values.substring(1, 2));
+                if (values.charAt(0) == jamo) {
+                    tailIndex = TAILS.indexOf(values.charAt(1));
                     return true;
                 }
             }
             return false;
         }
 
-        String getHangul() {
+        /**
+         * Appends the composed Hangul syllable or jamo, if any, to aBuilder.
+         */
+        void appendTo(StringBuilder aBuilder) {
             if (isVowel()) {
-                return VOWELS.substring(vowelIndex, vowelIndex + 1);
+                aBuilder.append(VOWELS.charAt(vowelIndex));
             } else if (isInitial()) {
-                return INITIALS.substring(initialIndex, initialIndex + 1);
+                aBuilder.append(INITIALS.charAt(initialIndex));
             } else if (isTail()) {
-                return TAILS.substring(tailIndex, tailIndex + 1);
+                aBuilder.append(TAILS.charAt(tailIndex));
             } else if (isInitialAndVowel() || isCompleteHangul()) {
                 // Compose Hangul syllable using Unicode math (initial + vowel + tail)
                 int charValue = HANGUL_UNICODE_START_VALUE + initialIndex * AMOUNT_OF_TAILS_THE_AMOUNT_OF_VOWELS;
@@ -142,10 +166,8 @@ public class KoreanKeyboard extends BaseKeyboard {
                     }
                 }
 
-                return new String(Character.toChars(charValue));
+                aBuilder.appendCodePoint(charValue);
             }
-
-            return "";
         }
     }
 
@@ -209,7 +231,7 @@ public class KoreanKeyboard extends BaseKeyboard {
 
     @NonNull
     @Override
-    public CustomKeyboard getAlphabeticKeyboard() {
+    public synchronized CustomKeyboard getAlphabeticKeyboard() {
         if (mKeyboard == null) {
             mKeyboard = new CustomKoreanKeyboard(mContext.getApplicationContext(), R.xml.keyboard_qwerty_korean);
         }
@@ -224,152 +246,115 @@ public class KoreanKeyboard extends BaseKeyboard {
 
     @Nullable
     @Override
-    public String overrideAddText(String aTextBeforeCursor, String aNextText) {
+    public synchronized String overrideAddText(String aTextBeforeCursor, String aNextText) {
         if (StringUtils.isEmpty(aTextBeforeCursor) || StringUtils.isEmpty(aNextText)) {
             return null;
         }
 
-        DecomposedHangul before = decompose(StringUtils.getLastCharacter(aTextBeforeCursor));
-        DecomposedHangul after = decompose(StringUtils.getLastCharacter(aNextText));
+        DecomposedHangul before = mBefore;
+        DecomposedHangul after = mAfter;
+        before.decompose(aTextBeforeCursor.charAt(aTextBeforeCursor.length() - 1));
+        after.decompose(aNextText.charAt(aNextText.length() - 1));
 
-        String result = null;
-
-        if (before.isInitial() && after.isInitial() && before.initialIndex == after.initialIndex && SINGLE_CONSONANTS.contains(getInitial(before.initialIndex))) {
+        if (before.isInitial() && after.isInitial() && before.initialIndex == after.initialIndex && SINGLE_CONSONANTS.indexOf(INITIALS.charAt(before.initialIndex)) >= 0) {
             // Generate double consonant from single consonants.
             // Example: ㅅㅅ will convert to ㅆ
-            result = StringUtils.removeLastCharacter(aTextBeforeCursor);
-            result += getDoubleConsonant(SINGLE_CONSONANTS.indexOf(getInitial(before.initialIndex)));
-        } else if (after.isVowel() && before.combineVowel(getVowel(after.vowelIndex))) {
+            startResult(aTextBeforeCursor);
+            mResult.append(DOUBLE_CONSONANTS.charAt(SINGLE_CONSONANTS.indexOf(INITIALS.charAt(before.initialIndex))));
+        } else if (after.isVowel() && before.combineVowel(VOWELS.charAt(after.vowelIndex))) {
             // Combine vowels.
             // Example: ᅥᅵ will convert to ᅦ
-            result = StringUtils.removeLastCharacter(aTextBeforeCursor);
-            result += before.getHangul();
-        } else if (after.isTail() && before.combineTail(getTail(after.tailIndex))) {
+            startResult(aTextBeforeCursor);
+            before.appendTo(mResult);
+        } else if (after.isTail() && before.combineTail(TAILS.charAt(after.tailIndex))) {
             // Combine tails for complete Hanguls.
             // Example: 식 will convert to 싟 (because the ending jamo tail ᄀㅅ will convert to ㄳ)
-            result = StringUtils.removeLastCharacter(aTextBeforeCursor);
-            result += before.getHangul();
+            startResult(aTextBeforeCursor);
+            before.appendTo(mResult);
         } else if (before.isInitial() && after.isVowel()) {
             // Combine initial and vowel.
             // Example: ㅂᅩ  will produce 보
-            result = StringUtils.removeLastCharacter(aTextBeforeCursor);
+            startResult(aTextBeforeCursor);
             before.vowelIndex = after.vowelIndex;
             before.tailIndex = -1;
-            result += before.getHangul();
+            before.appendTo(mResult);
         } else if (before.isInitialAndVowel() && after.isTail()) {
             // Add tail to a Hangul with no tail.
             // Example: 보ㅇ  will produce 봉
-            result = StringUtils.removeLastCharacter(aTextBeforeCursor);
+            startResult(aTextBeforeCursor);
             before.tailIndex = after.tailIndex;
-            result += before.getHangul();
-        } else if (before.isCompleteHangul() && after.isVowel() && INITIALS.contains(getTail(before.tailIndex))) {
+            before.appendTo(mResult);
+        } else if (before.isCompleteHangul() && after.isVowel() && INITIALS.indexOf(TAILS.charAt(before.tailIndex)) >= 0) {
             // Split Hangul when vowel is added after a complete Hangul.
             // Example: ㅂㅏㅂ  will produce 밥. Another ㅏ will produce 바바 instead of 밥ㅏ
-            result = StringUtils.removeLastCharacter(aTextBeforeCursor);
-            after.initialIndex = INITIALS.indexOf(getTail(before.tailIndex));
+            startResult(aTextBeforeCursor);
+            after.initialIndex = INITIALS.indexOf(TAILS.charAt(before.tailIndex));
             before.tailIndex = -1;
-            result += before.getHangul();
-            result += after.getHangul();
+            before.appendTo(mResult);
+            after.appendTo(mResult);
+        } else {
+            return null;
         }
 
-        return result;
+        return mResult.toString();
     }
 
     @Nullable
     @Override
-    public String overrideBackspace(String aTextBeforeCursor) {
+    public synchronized String overrideBackspace(String aTextBeforeCursor) {
         if (StringUtils.isEmpty(aTextBeforeCursor)) {
             return null;
         }
 
-        String result = null;
-        DecomposedHangul last = decompose(StringUtils.getLastCharacter(aTextBeforeCursor));
+        DecomposedHangul last = mAfter;
+        last.decompose(aTextBeforeCursor.charAt(aTextBeforeCursor.length() - 1));
         if (last.removeCombinedTail()) {
             // Remove the combined tail from a Hangul.
             // Example: 싟 will produce 식 (the ㅅ tail is removed from the combined ㄳ tail)
-            result = StringUtils.removeLastCharacter(aTextBeforeCursor);
-            result += last.getHangul();
+            startResult(aTextBeforeCursor);
+            last.appendTo(mResult);
         } else if (last.removeCombinedVowel()) {
             // Remove the combined vowel from a Hangul or a jamo.
             // Example: ᅦ will produce ᅥ (The ᅵ jamo was removed)
-            result = StringUtils.removeLastCharacter(aTextBeforeCursor);
-            result += last.getHangul();
+            startResult(aTextBeforeCursor);
+            last.appendTo(mResult);
         } else if (last.isCompleteHangul()) {
             // Remove the tail from a Hangul.
             // Example: 봉 will produce 보 (the ㅇ tail is removed)
             last.tailIndex = -1;
-            result = StringUtils.removeLastCharacter(aTextBeforeCursor);
-            result += last.getHangul();
+            startResult(aTextBeforeCursor);
+            last.appendTo(mResult);
         } else if (last.isInitialAndVowel()) {
-            result = StringUtils.removeLastCharacter(aTextBeforeCursor);
-            DecomposedHangul before = decompose(StringUtils.getLastCharacter(result));
-            if (before.isInitialAndVowel() && TAILS.contains(getInitial(last.initialIndex))) {
+            startResult(aTextBeforeCursor);
+            DecomposedHangul before = mBefore;
+            before.decompose(mResult.length() > 0 ? mResult.charAt(mResult.length() - 1) : -1);
+            if (before.isInitialAndVowel() && TAILS.indexOf(INITIALS.charAt(last.initialIndex)) >= 0) {
                 // Remove the vowel from a Hangul and use the remaining initial as tail for the previous Hangul.
                 // Example: 바바 will produce 밥 (The ㅏ vowel is removed and ㅂㅏㅂ is combined into a single Hangul)
-                result = StringUtils.removeLastCharacter(result);
-                before.tailIndex = TAILS.indexOf(getInitial(last.initialIndex));
-                result += before.getHangul();
+                mResult.setLength(mResult.length() - 1);
+                before.tailIndex = TAILS.indexOf(INITIALS.charAt(last.initialIndex));
+                before.appendTo(mResult);
             } else {
                 // Remove the vowel from a Hangul.
                 // Example: 보 will produce ㅂ (the ᅩ vowel is removed)
-                result += getInitial(last.initialIndex);
+                mResult.append(INITIALS.charAt(last.initialIndex));
             }
-        } else if (last.isInitial() && DOUBLE_CONSONANTS.contains(getInitial(last.initialIndex))) {
+        } else if (last.isInitial() && DOUBLE_CONSONANTS.indexOf(INITIALS.charAt(last.initialIndex)) >= 0) {
             // Generate single consonant from double consonants.
             // Example: ㅆ will convert to ㅅ
-            result = StringUtils.removeLastCharacter(aTextBeforeCursor);
-            result += getSingleConsonant(DOUBLE_CONSONANTS.indexOf(getInitial(last.initialIndex)));
-        }
-
-        return result;
-    }
-
-    private DecomposedHangul decompose(String aCharacter) {
-        DecomposedHangul result = new DecomposedHangul();
-        if (StringUtils.isEmpty(aCharacter)) {
-            return result;
-        }
-
-        // Check if it's a Hangul character
-        final int charValue = aCharacter.codePointAt(0); // Unicode value
-        if (charValue >= HANGUL_UNICODE_START_VALUE &&  charValue <= HANGUL_UNICODE_LAST_VALUE) {
-            result.initialIndex = (charValue - HANGUL_UNICODE_START_VALUE) / AMOUNT_OF_TAILS_THE_AMOUNT_OF_VOWELS;
-            result.tailIndex = ((charValue - HANGUL_UNICODE_START_VALUE) % AMOUNT_OF_TAILS) - 1;
-            result.vowelIndex = ((charValue - HANGUL_UNICODE_START_VALUE - result.tailIndex) % AMOUNT_OF_TAILS_THE_AMOUNT_OF_VOWELS) / AMOUNT_OF_TAILS;
-            return result;
-        }
-
-        // Check if it is a Jamo character
-        result.initialIndex = INITIALS.indexOf(aCharacter);
-        result.vowelIndex = VOWELS.indexOf(aCharacter);
-        result.tailIndex = TAILS.indexOf(aCharacter);
-
-        return result;
-    }
-
-    private String getVowel(int aIndex) {
-        if (aIndex < 0 || aIndex >= VOWELS.length()) {
-            return "";
-        }
-
-        return VOWELS.substring(aIndex, aIndex + 1);
-    }
-
-
-    private String getTail(int aIndex) {
-        if (aIndex < 0 || aIndex >= TAILS.length()) {
-            return "";
+            startResult(aTextBeforeCursor);
+            mResult.append(SINGLE_CONSONANTS.charAt(DOUBLE_CONSONANTS.indexOf(INITIALS.charAt(last.initialIndex))));
+        } else {
+            return null;
         }
 
-        return TAILS.substring(aIndex, aIndex + 1);
+        return mResult.toString();
     }
 
-    private String getInitial(int aIndex) {
-        if (aIndex < 0 || aIndex >= INITIALS.length()) {
-            return "";
-        }
-
-        return INITIALS.substring(aIndex, aIndex + 1);
+    // Starts the result with the text before the cursor minus its last character.
+    private void startResult(String aTextBeforeCursor) {
+        mResult.setLength(0);
+        mResult.append(aTextBeforeCursor, 0, aTextBeforeCursor.length() - 1);
     }
 
     private String getSingleConsonant(int aIndex) {
@@ -24,7 +24,7 @@ public class RussianKeyboard extends BaseKeyboard {
 
     @NonNull
     @Override
-    public CustomKeyboard getAlphabeticKeyboard() {
+    public synchronized CustomKeyboard getAlphabeticKeyboard() {
         if (mKeyboard == null) {
             mKeyboard = new CustomKeyboard(mContext.getApplicationContext(), R.xml.keyboard_qwerty_russian);
         }
@@ -33,7 +33,7 @@ public class RussianKeyboard extends BaseKeyboard {
 
     @Nullable
     @Override
-    public CustomKeyboard getSymbolsKeyboard() {
+    public synchronized CustomKeyboard getSymbolsKeyboard() {
         if (mSymbolsKeyboard == null) {
             mSymbolsKeyboard = new CustomKeyboard(mContext.getApplicationContext(), R.xml.keyboard_symbols_russian);
         }
@@ -0,0 +1,290 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.ui.keyboards;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import org.mozilla.vrbrowser.VRBrowserApplication;
+import org.mozilla.vrbrowser.telemetry.MetricsRegistry;
+import org.mozilla.vrbrowser.ui.keyboards.KeyboardInterface.Words;
+import org.mozilla.vrbrowser.utils.StringUtils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Small per-locale cache of the candidates the user commits, keyed by the composing text that
+ * produced them. Lookups are a single hash map access so habitual inputs get their top candidates
+ * without going through the keyboard dictionaries. The cache is bounded: the least frequently
+ * (and then least recently) used composing keys are evicted first.
+ */
+public class UserPhraseCache {
+
+    private static final String LOGTAG = "VRB";
+    private static final int FILE_VERSION = 1;
+    private static final int MAX_KEYS = 512;
+    private static final int MAX_PHRASES_PER_KEY = 5;
+    private static final int MAX_FREQUENCY = 1 << 15;
+    private static final MetricsRegistry.CacheCounter sCacheCounter = MetricsRegistry.get().cache("cache.user_phrases");
+
+    private static class Phrase {
+        String value;
+        String code;
+        int syllable;
+        int frequency;
+        long lastUsed;
+    }
+
+    private static class Entry {
+        ArrayList<Phrase> phrases = new ArrayList<>();
+        int frequency;
+        long lastUsed;
+    }
+
+    private final HashMap<String, Entry> mEntries = new HashMap<>();
+    private final AtomicFile mFile;
+    private final Executor mExecutor;
+    private final Locale mLocale;
+    private boolean mLoaded;
+    private boolean mSavePending;
+    private long mClock;
+
+    public UserPhraseCache(@NonNull Context aContext, @NonNull Locale aLocale) {
+        mLocale = aLocale;
+        mFile = new AtomicFile(new File(aContext.getFilesDir(), "user_phrases_" + aLocale.toLanguageTag() + ".bin"));
+        mExecutor = ((VRBrowserApplication)aContext.getApplicationContext()).getExecutors().diskIO();
+        mExecutor.execute(this::load);
+    }
+
+    @NonNull
+    public Locale getLocale() {
+        return mLocale;
+    }
+
+    /**
+     * @return Cached candidates for the composing text, most frequent first. Empty until the
+     * persisted cache has been loaded.
+     */
+    @NonNull
+    public synchronized List<Words> lookup(String aComposingText) {
+        if (!mLoaded || StringUtils.isEmpty(aComposingText)) {
+            return Collections.emptyList();
+        }
+        Entry entry = mEntries.get(normalize(aComposingText));
+        if (entry == null) {
+            sCacheCounter.miss();
+            return Collections.emptyList();
+        }
+        sCacheCounter.hit();
+        ArrayList<Words> result = new ArrayList<>(entry.phrases.size());
+        for (Phrase phrase: entry.phrases) {
+            // Keyboards may mutate the candidates they are given, so always hand out copies.
+            result.add(new Words(phrase.syllable, phrase.code, phrase.value));
+        }
+        return result;
+    }
+
+    /**
+     * Records that aWord was committed while aComposingText was being composed.
+     */
+    public synchronized void learn(String aComposingText, @NonNull Words aWord) {
+        if (!mLoaded || StringUtils.isEmpty(aComposingText) || StringUtils.isEmpty(aWord.value)) {
+            return;
+        }
+        String key = normalize(aComposingText);
+        if (key.isEmpty()) {
+            return;
+        }
+        long now = ++mClock;
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            if (mEntries.size() >= MAX_KEYS) {
+                evictEntry();
+            }
+            entry = new Entry();
+            mEntries.put(key, entry);
+        }
+
+        Phrase phrase = null;
+        for (Phrase item: entry.phrases) {
+            if (item.value.equals(aWord.value)) {
+                phrase = item;
+                break;
+            }
+        }
+        if (phrase == null) {
+            if (entry.phrases.size() >= MAX_PHRASES_PER_KEY) {
+                // Phrases are kept sorted, the last one is the least used.
+                Phrase removed = entry.phrases.remove(entry.phrases.size() - 1);
+                entry.frequency -= removed.frequency;
+            }
+            phrase = new Phrase();
+            phrase.value = aWord.value;
+            entry.phrases.add(phrase);
+        }
+        phrase.code = aWord.code != null ? aWord.code : "";
+        phrase.syllable = aWord.syllable;
+        phrase.frequency++;
+        phrase.lastUsed = now;
+        entry.frequency++;
+        entry.lastUsed = now;
+
+        if (phrase.frequency >= MAX_FREQUENCY) {
+            // Age the entry so that new habits can overtake old ones.
+            entry.frequency = 0;
+            for (Phrase item: entry.phrases) {
+                item.frequency = Math.max(1, item.frequency / 2);
+                entry.frequency += item.frequency;
+            }
+        }
+        sortPhrases(entry);
+        scheduleSave();
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        scheduleSave();
+    }
+
+    private static String normalize(String aComposingText) {
+        return StringUtils.removeSpaces(aComposingText);
+    }
+
+    private static void sortPhrases(Entry aEntry) {
+        aEntry.phrases.sort((a, b) -> {
+            if (a.frequency != b.frequency) {
+                return Integer.compare(b.frequency, a.frequency);
+            }
+            return Long.compare(b.lastUsed, a.lastUsed);
+        });
+    }
+
+    private void evictEntry() {
+        String victim = null;
+        Entry victimEntry = null;
+        for (Map.Entry<String, Entry> item: mEntries.entrySet()) {
+            Entry entry = item.getValue();
+            if (victimEntry == null || entry.frequency < victimEntry.frequency ||
+                    (entry.frequency == victimEntry.frequency && entry.lastUsed < victimEntry.lastUsed)) {
+                victim = item.getKey();
+                victimEntry = entry;
+            }
+        }
+        if (victim != null) {
+            mEntries.remove(victim);
+        }
+    }
+
+    private void scheduleSave() {
+        if (mSavePending) {
+            return;
+        }
+        mSavePending = true;
+        mExecutor.execute(this::save);
+    }
+
+    private void load() {
+        HashMap<String, Entry> entries = new HashMap<>();
+        long clock = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(mFile.openRead()))) {
+            if (input.readInt() == FILE_VERSION) {
+                clock = input.readLong();
+                int count = input.readInt();
+                for (int i = 0; i < count; ++i) {
+                    String key = input.readUTF();
+                    Entry entry = new Entry();
+                    int phrases = input.readByte();
+                    for (int j = 0; j < phrases; ++j) {
+                        Phrase phrase = new Phrase();
+                        phrase.value = input.readUTF();
+                        phrase.code = input.readUTF();
+                        phrase.syllable = input.readByte();
+                        phrase.frequency = input.readInt();
+                        phrase.lastUsed = input.readLong();
+                        entry.phrases.add(phrase);
+                        entry.frequency += phrase.frequency;
+                        entry.lastUsed = Math.max(entry.lastUsed, phrase.lastUsed);
+                    }
+                    entries.put(key, entry);
+                }
+            }
+        } catch (FileNotFoundException ex) {
+            // Nothing learned yet.
+        } catch (IOException ex) {
+            Log.e(LOGTAG, "Error reading user phrases for " + mLocale + ": " + ex.getMessage());
+            entries.clear();
+        }
+
+        synchronized (this) {
+            mEntries.putAll(entries);
+            mClock = Math.max(mClock, clock);
+            mLoaded = true;
+        }
+    }
+
+    private void save() {
+        // Serialized in memory under the lock, so lookup() and learn() never wait on the disk.
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(buffer);
+        try {
+            synchronized (this) {
+                mSavePending = false;
+                output.writeInt(FILE_VERSION);
+                output.writeLong(mClock);
+                output.writeInt(mEntries.size());
+                for (Map.Entry<String, Entry> item: mEntries.entrySet()) {
+                    output.writeUTF(item.getKey());
+                    output.writeByte(item.getValue().phrases.size());
+                    for (Phrase phrase: item.getValue().phrases) {
+                        output.writeUTF(phrase.value);
+                        output.writeUTF(phrase.code);
+                        output.writeByte(phrase.syllable);
+                        output.writeInt(phrase.frequency);
+                        output.writeLong(phrase.lastUsed);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            // Not thrown when writing to memory.
+            Log.e(LOGTAG, "Error serializing user phrases for " + mLocale + ": " + ex.getMessage());
+            return;
+        }
+
+        FileOutputStream stream = null;
+        try {
+            stream = mFile.startWrite();
+            buffer.writeTo(stream);
+            mFile.finishWrite(stream);
+
+        } catch (IOException ex) {
+            Log.e(LOGTAG, "Error writing user phrases for " + mLocale + ": " + ex.getMessage());
+            if (stream != null) {
+                mFile.failWrite(stream);
+            }
+        }
+    }
+}
@@ -31,6 +31,8 @@ import android.inputmethodservice.Keyboard.Key;
 import android.media.AudioManager;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.util.TypedValue;
@@ -47,8 +49,10 @@ import android.widget.TextView;
 
 import org.mozilla.vrbrowser.R;
 import org.mozilla.vrbrowser.input.CustomKeyboard;
+import org.mozilla.vrbrowser.telemetry.MetricsRegistry;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -135,6 +139,7 @@ public class CustomKeyboardView extends View implements View.OnClickListener {
         void swipeUp();
     }
 
+    private static final String LOGTAG = "VRB";
     private static final boolean DEBUG = false;
     private static final int NOT_A_KEY = -1;
     private static final int[] KEY_DELETE = { Keyboard.KEYCODE_DELETE };
@@ -221,8 +226,6 @@ public class CustomKeyboardView extends View implements View.OnClickListener {
     private int mRepeatKeyIndex = NOT_A_KEY;
     private int mPopupLayout;
     private boolean mAbortKey;
-    private Key mInvalidatedKey;
-    private Rect mClipRegion = new Rect(0, 0, 0, 0);
     private boolean mPossiblePoly;
     private SwipeTracker mSwipeTracker = new SwipeTracker();
     private int mSwipeThreshold;
@@ -269,6 +272,27 @@ public class CustomKeyboardView extends View implements View.OnClickListener {
     private AudioManager mAudioManager;
     /** Whether the requirement of a headset to hear passwords if accessibility is enabled is announced. */
     private boolean mHeadsetRequiredToHearPasswordsAnnounced;
+    /** Rendered key bitmaps, one list of drawable states per key. */
+    private ArrayList<KeyBitmap>[] mKeyBitmaps;
+    /** Hover redraw statistics */
+    private static final int HOVER_STATS_INTERVAL = 100;
+    private static final MetricsRegistry.CacheCounter sKeyBitmapCounter = MetricsRegistry.get().cache("cache.key_bitmaps");
+    private int mHoverCount;
+    private long mHoverDrawTime;
+    private long mUploadedPixels;
+    private int mKeyBitmapRenders;
+
+    /**
+     * A key rendered for a given drawable state. The bitmap is reused as long as the key
+     * label, icon and state are the ones it was rendered with.
+     */
+    private static class KeyBitmap {
+        int[] state;
+        CharSequence label;
+        boolean shifted;
+        Drawable icon;
+        Bitmap bitmap;
+    }
 
 
     // Fork
@@ -385,38 +409,47 @@ public class CustomKeyboardView extends View implements View.OnClickListener {
 
     public void setKeyBackground(Drawable resId) {
         mKeyBackground = resId;
+        invalidateKeyBitmaps();
     }
 
     public void setKeyCapStartBackground(Drawable resId) {
         mKeyCapStartBackground = resId;
+        invalidateKeyBitmaps();
     }
 
     public void setKeySingleStartBackground(Drawable resId) {
         mKeySingleBackground = resId;
+        invalidateKeyBitmaps();
     }
 
     public void setKeyCapEndBackground(Drawable resId) {
         mKeyCapEndBackground = resId;
+        invalidateKeyBitmaps();
     }
 
     public void setKeyTextColor(int color) {
         mKeyTextColor = color;
+        invalidateKeyBitmaps();
     }
 
     public void setSelectedForegroundColor(int color) {
         mSelectedForegroundColor = color;
+        invalidateKeyBitmaps();
     }
 
     public void setForegroundColor(int color) {
         mForegroundColor = color;
+        invalidateKeyBitmaps();
     }
 
     public void setKeyboardHoveredPadding(int padding) {
         mKeyboardHoveredPadding = padding;
+        invalidateKeyBitmaps();
     }
 
     public void setKeyboardPressedPadding(int padding) {
         mKeyboardPressedPadding = padding;
+        invalidateKeyBitmaps();
     }
 
     private void initGestureDetector() {
@@ -657,23 +690,27 @@ public class CustomKeyboardView extends View implements View.OnClickListener {
         mProximityThreshold *= mProximityThreshold; // Square it
     }
 
-    private Method mResizeMethod;
+    // Resolved once, Keyboard.resize is the same for every keyboard view.
+    private static Method sResizeMethod;
     @Override
     public void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
         if (mKeyboard != null) {
-            if (mResizeMethod == null) {
+            if (sResizeMethod == null) {
                 try {
-                    mResizeMethod = Keyboard.class.getDeclaredMethod("resize", int.class, int.class);
+                    sResizeMethod = Keyboard.class.getDeclaredMethod("resize", int.class, int.class);
+                    sResizeMethod.setAccessible(true);
                 }
                 catch (Exception ex) {
                     ex.printStackTrace();
                 }
             }
-            if (mResizeMethod != null) {
+            if (sResizeMethod != null) {
                 try {
-                    mResizeMethod.setAccessible(true);
-                    mResizeMethod.invoke(mKeyboard, w, h);
+                    sResizeMethod.invoke(mKeyboard, w, h);
+                    if (mKeyboard instanceof CustomKeyboard) {
+                        ((CustomKeyboard) mKeyboard).invalidateKeyIndex();
+                    }
                 }
                 catch (Exception ex) {
                     ex.printStackTrace();
@@ -682,6 +719,7 @@ public class CustomKeyboardView extends View implements View.OnClickListener {
         }
         // Release the buffer, if any and it will be reallocated on the next draw
         mBuffer = null;
+        invalidateKeyBitmaps();
     }
 
     @Override
@@ -704,6 +742,8 @@ public class CustomKeyboardView extends View implements View.OnClickListener {
                 mCanvas = new Canvas(mBuffer);
             }
             invalidateAllKeys();
+            // Keys may have been resized
+            invalidateKeyBitmaps();
             mKeyboardChanged = false;
         }
         final Canvas canvas = mCanvas;
@@ -713,132 +753,30 @@ public class CustomKeyboardView extends View implements View.OnClickListener {
         if (mKeyboard == null) return;
 
         final Paint paint = mPaint;
-        final Rect clipRegion = mClipRegion;
-        final Rect padding = mPadding;
+        final Rect dirtyRect = mDirtyRect;
         final int kbdPaddingLeft = getPaddingLeft();
         final int kbdPaddingTop = getPaddingTop();
         final Key[] keys = mKeys;
-        final Key invalidKey = mInvalidatedKey;
-
-        paint.setColor(mKeyTextColor);
-        boolean drawSingleKey = false;
-        if (invalidKey != null && canvas.getClipBounds(clipRegion)) {
-            // Is clipRegion completely contained within the invalidated key?
-            if (invalidKey.x + kbdPaddingLeft - 1 <= clipRegion.left &&
-                    invalidKey.y + kbdPaddingTop - 1 <= clipRegion.top &&
-                    invalidKey.x + invalidKey.width + kbdPaddingLeft + 1 >= clipRegion.right &&
-                    invalidKey.y + invalidKey.height + kbdPaddingTop + 1 >= clipRegion.bottom) {
-                drawSingleKey = true;
-            }
-        }
+
         canvas.drawColor(0x00000000, PorterDuff.Mode.CLEAR);
         final int keyCount = keys.length;
+        if (mKeyBitmaps == null || mKeyBitmaps.length != keyCount) {
+            //noinspection unchecked
+            mKeyBitmaps = new ArrayList[keyCount];
+        }
         for (int i = 0; i < keyCount; i++) {
             final Key key = keys[i];
-            if (drawSingleKey && invalidKey != key) {
+            final int left = key.x + kbdPaddingLeft;
+            final int top = key.y + kbdPaddingTop;
+            // Only composite the keys that intersect the dirty region
+            if (!dirtyRect.intersects(left, top, left + key.width, top + key.height)) {
                 continue;
             }
-            int[] drawableState = key.getCurrentDrawableState();
-            if (mHoveredKey == i && !key.pressed) {
-                // Fork: implement hovered key
-                drawableState = KEY_STATE_HOVERED;
-            }
-
-            boolean stateHovered = false;
-            boolean statePressed = false;
-            for (int state : drawableState) {
-                if (state == android.R.attr.state_hovered)
-                    stateHovered = true;
-                else if (state == android.R.attr.state_pressed)
-                    statePressed = true;
-            }
-            Drawable keyBackground = mKeyBackground;
-            int columns = ((CustomKeyboard)mKeyboard).getMaxColums();
-            if (mFeaturedKeyBackground != null && mFeaturedKeyCodes.contains(key.codes[0])) {
-                keyBackground = mFeaturedKeyBackground;
-
-            } else if ((i == columns && i == keyCount - 1) && mKeySingleBackground != null) {
-                keyBackground = mKeySingleBackground;
-
-            } else if ((i == 0 || i == columns) && mKeyCapStartBackground != null) {
-                keyBackground = mKeyCapStartBackground;
-
-            } else if ((i == keyCount  - 1 || i == columns - 1)&& mKeyCapEndBackground != null) {
-                keyBackground = mKeyCapEndBackground;
-
-            }
-            keyBackground.setState(drawableState);
-
-            // Switch the character to uppercase if shift is pressed
-            String label = key.label == null ? null : adjustCase(key.label).toString();
-
-            final Rect bounds = keyBackground.getBounds();
-            if (key.width != bounds.right ||
-                    key.height != bounds.bottom) {
-                keyBackground.setBounds(0, 0, key.width, key.height);
-            }
-            canvas.translate(key.x + kbdPaddingLeft, key.y + kbdPaddingTop);
-            keyBackground.draw(canvas);
-
-            // Get the button state related padding
-            float statePadding = 0.0f;
-            if (stateHovered) {
-                statePadding = -mKeyboardHoveredPadding;
-
-            } else if (statePressed) {
-                statePadding = mKeyboardPressedPadding;
-            }
-
-            int targetColor = mKeyTextColor;
-            if (stateHovered) {
-                targetColor = mForegroundColor;
-            } else if (statePressed) {
-                targetColor = mSelectedForegroundColor;
+            Bitmap bitmap = getKeyBitmap(i, key);
+            if (bitmap != null) {
+                canvas.drawBitmap(bitmap, left, top, null);
             }
-
-            if (label != null) {
-                float descent;
-
-                // For characters, use large font. For labels like "Done", use small font.
-                if (label.length() > 1 && key.codes.length < 2) {
-                    paint.setTextSize(mLabelTextSize);
-                    paint.setTypeface(Typeface.DEFAULT_BOLD);
-                    descent = mLabelTextSize * 0.1f;
-
-                } else {
-                    paint.setTextSize(mKeyTextSize);
-                    paint.setTypeface(Typeface.DEFAULT);
-                    descent = paint.descent();
-                }
-                paint.setColor(targetColor);
-
-                // Draw a drop shadow for the text
-                paint.setShadowLayer(mShadowRadius, 0, 0, mShadowColor);
-
-                // Draw the text
-                canvas.drawText(label,
-                        (key.width - padding.left - padding.right) / 2
-                                + padding.left  + statePadding,
-                        (key.height - padding.top - padding.bottom) / 2
-                                + (paint.getTextSize() / 2)  - descent + padding.top  + statePadding,
-                        paint);
-                // Turn off drop shadow
-                paint.setShadowLayer(0, 0, 0, 0);
-
-            } else if (key.icon != null) {
-                final float drawableX = (key.width - padding.left - padding.right - key.icon.getIntrinsicWidth()) / 2
-                        + padding.left + statePadding;
-                final float drawableY = (key.height - padding.top - padding.bottom - key.icon.getIntrinsicHeight()) / 2
-                        + padding.top + statePadding;
-                canvas.translate(drawableX, drawableY);
-                key.icon.setColorFilter(targetColor, PorterDuff.Mode.MULTIPLY);
-                key.icon.setBounds(0, 0, key.icon.getIntrinsicWidth(), key.icon.getIntrinsicHeight());
-                key.icon.draw(canvas);
-                canvas.translate(-drawableX, -drawableY);
-            }
-            canvas.translate(-key.x - kbdPaddingLeft, -key.y - kbdPaddingTop);
         }
-        mInvalidatedKey = null;
         // Overlay a dark rectangle to dim the keyboard
         if (mMiniKeyboardOnScreen) {
             paint.setColor((int) (mBackgroundDimAmount * 0xFF) << 24);
@@ -861,6 +799,177 @@ public class CustomKeyboardView extends View implements View.OnClickListener {
         mDirtyRect.setEmpty();
     }
 
+    private int[] getKeyDrawableState(int aIndex, Key aKey) {
+        if (mHoveredKey == aIndex && !aKey.pressed) {
+            // Fork: implement hovered key
+            return KEY_STATE_HOVERED;
+        }
+        return aKey.getCurrentDrawableState();
+    }
+
+    /**
+     * Returns the bitmap of the key for its current drawable state, rendering it only when the
+     * label, icon or state have not been rendered yet.
+     */
+    private Bitmap getKeyBitmap(int aIndex, Key aKey) {
+        if (aKey.width <= 0 || aKey.height <= 0) {
+            return null;
+        }
+        final int[] drawableState = getKeyDrawableState(aIndex, aKey);
+        final boolean shifted = mKeyboard.isShifted();
+        ArrayList<KeyBitmap> cached = mKeyBitmaps[aIndex];
+        if (cached == null) {
+            cached = new ArrayList<>(2);
+            mKeyBitmaps[aIndex] = cached;
+        }
+        KeyBitmap entry = null;
+        for (KeyBitmap item: cached) {
+            if (item.state == drawableState) {
+                entry = item;
+                break;
+            }
+        }
+        if (entry != null && entry.shifted == shifted && entry.icon == aKey.icon &&
+                TextUtils.equals(entry.label, aKey.label)) {
+            sKeyBitmapCounter.hit();
+            return entry.bitmap;
+        }
+        sKeyBitmapCounter.miss();
+        if (entry == null) {
+            entry = new KeyBitmap();
+            entry.state = drawableState;
+            entry.bitmap = Bitmap.createBitmap(aKey.width, aKey.height, Bitmap.Config.ARGB_8888);
+            cached.add(entry);
+        } else {
+            entry.bitmap.eraseColor(0x00000000);
+        }
+        entry.label = aKey.label;
+        entry.shifted = shifted;
+        entry.icon = aKey.icon;
+        renderKey(new Canvas(entry.bitmap), aIndex, aKey, drawableState);
+        mKeyBitmapRenders++;
+        return entry.bitmap;
+    }
+
+    private void renderKey(Canvas canvas, int i, Key key, int[] drawableState) {
+        final Paint paint = mPaint;
+        final Rect padding = mPadding;
+        final int keyCount = mKeys.length;
+
+        boolean stateHovered = false;
+        boolean statePressed = false;
+        for (int state : drawableState) {
+            if (state == android.R.attr.state_hovered)
+                stateHovered = true;
+            else if (state == android.R.attr.state_pressed)
+                statePressed = true;
+        }
+        Drawable keyBackground = mKeyBackground;
+        int columns = ((CustomKeyboard)mKeyboard).getMaxColums();
+        if (mFeaturedKeyBackground != null && mFeaturedKeyCodes.contains(key.codes[0])) {
+            keyBackground = mFeaturedKeyBackground;
+
+        } else if ((i == columns && i == keyCount - 1) && mKeySingleBackground != null) {
+            keyBackground = mKeySingleBackground;
+
+        } else if ((i == 0 || i == columns) && mKeyCapStartBackground != null) {
+            keyBackground = mKeyCapStartBackground;
+
+        } else if ((i == keyCount  - 1 || i == columns - 1)&& mKeyCapEndBackground != null) {
+            keyBackground = mKeyCapEndBackground;
+
+        }
+        keyBackground.setState(drawableState);
+
+        // Switch the character to uppercase if shift is pressed
+        String label = key.label == null ? null : adjustCase(key.label).toString();
+
+        final Rect bounds = keyBackground.getBounds();
+        if (key.width != bounds.right ||
+                key.height != bounds.bottom) {
+            keyBackground.setBounds(0, 0, key.width, key.height);
+        }
+        keyBackground.draw(canvas);
+
+        // Get the button state related padding
+        float statePadding = 0.0f;
+        if (stateHovered) {
+            statePadding = -mKeyboardHoveredPadding;
+
+        } else if (statePressed) {
+            statePadding = mKeyboardPressedPadding;
+        }
+
+        int targetColor = mKeyTextColor;
+        if (stateHovered) {
+            targetColor = mForegroundColor;
+        } else if (statePressed) {
+            targetColor = mSelectedForegroundColor;
+        }
+
+        if (label != null) {
+            float descent;
+
+            // For characters, use large font. For labels like "Done", use small font.
+            if (label.length() > 1 && key.codes.length < 2) {
+                paint.setTextSize(mLabelTextSize);
+                paint.setTypeface(Typeface.DEFAULT_BOLD);
+                descent = mLabelTextSize * 0.1f;
+
+            } else {
+                paint.setTextSize(mKeyTextSize);
+                paint.setTypeface(Typeface.DEFAULT);
+                descent = paint.descent();
+            }
+            paint.setColor(targetColor);
+
+            // Draw a drop shadow for the text
+            paint.setShadowLayer(mShadowRadius, 0, 0, mShadowColor);
+
+            // Draw the text
+            canvas.drawText(label,
+                    (key.width - padding.left - padding.right) / 2
+                            + padding.left  + statePadding,
+                    (key.height - padding.top - padding.bottom) / 2
+                            + (paint.getTextSize() / 2)  - descent + padding.top  + statePadding,
+                    paint);
+            // Turn off drop shadow
+            paint.setShadowLayer(0, 0, 0, 0);
+
+        } else if (key.icon != null) {
+            final float drawableX = (key.width - padding.left - padding.right - key.icon.getIntrinsicWidth()) / 2
+                    + padding.left + statePadding;
+            final float drawableY = (key.height - padding.top - padding.bottom - key.icon.getIntrinsicHeight()) / 2
+                    + padding.top + statePadding;
+            canvas.translate(drawableX, drawableY);
+            key.icon.setColorFilter(targetColor, PorterDuff.Mode.MULTIPLY);
+            key.icon.setBounds(0, 0, key.icon.getIntrinsicWidth(), key.icon.getIntrinsicHeight());
+            key.icon.draw(canvas);
+            canvas.translate(-drawableX, -drawableY);
+        }
+    }
+
+    /**
+     * Drops the rendered key bitmaps so that keys are rendered again on the next draw. Needs to be
+     * called when the key sizes or the keyboard theme change.
+     */
+    public void invalidateKeyBitmaps() {
+        if (mKeyBitmaps != null) {
+            for (ArrayList<KeyBitmap> cached: mKeyBitmaps) {
+                if (cached == null) {
+                    continue;
+                }
+                for (KeyBitmap entry: cached) {
+                    entry.bitmap.recycle();
+                }
+            }
+            mKeyBitmaps = null;
+        }
+        if (mBuffer != null) {
+            invalidateAllKeys();
+        }
+    }
+
     private int getKeyIndices(int x, int y, int[] allKeys) {
         final Key[] keys = mKeys;
         int primaryIndex = NOT_A_KEY;
@@ -1127,7 +1236,6 @@ public class CustomKeyboardView extends View implements View.OnClickListener {
             return;
         }
         final Key key = mKeys[keyIndex];
-        mInvalidatedKey = key;
         mDirtyRect.union(key.x + getPaddingLeft(), key.y + getPaddingTop(),
                 key.x + key.width + getPaddingLeft(), key.y + key.height + getPaddingTop());
         onBufferDraw();
@@ -1225,21 +1333,59 @@ public class CustomKeyboardView extends View implements View.OnClickListener {
 
         int prevHovered = mHoveredKey;
         mHoveredKey = keyIndex;
-        if (mHoveredKey != NOT_A_KEY && prevHovered != mHoveredKey) {
-            invalidateKey(mHoveredKey);
-        }
-        if (prevHovered != NOT_A_KEY && prevHovered != mHoveredKey) {
-            invalidateKey(prevHovered);
+        if (prevHovered != mHoveredKey) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            if (mHoveredKey != NOT_A_KEY) {
+                invalidateKey(mHoveredKey);
+            }
+            if (prevHovered != NOT_A_KEY) {
+                invalidateKey(prevHovered);
+            }
+            recordHoverDraw(SystemClock.elapsedRealtimeNanos() - start, prevHovered, mHoveredKey);
         }
         return result;
     }
 
+    private void recordHoverDraw(long aNanos, int aPrevKey, int aKey) {
+        mHoverCount++;
+        mHoverDrawTime += aNanos;
+        // Each invalidated key rect ends up uploaded to the widget texture
+        mUploadedPixels += getKeyArea(aPrevKey) + getKeyArea(aKey);
+        if (mHoverCount % HOVER_STATS_INTERVAL == 0) {
+            Log.d(LOGTAG, "Keyboard hover redraw: " + getAverageHoverDrawTime() / 1000 + "us average, " +
+                    mUploadedPixels / mHoverCount + " pixels uploaded per hover, " +
+                    mKeyBitmapRenders + " key renders in " + mHoverCount + " hovers");
+        }
+    }
+
+    private int getKeyArea(int aIndex) {
+        if (mKeys == null || aIndex < 0 || aIndex >= mKeys.length) {
+            return 0;
+        }
+        return mKeys[aIndex].width * mKeys[aIndex].height;
+    }
+
+    /**
+     * @return Average time spent redrawing the keys affected by a hover change, in nanoseconds.
+     */
+    public long getAverageHoverDrawTime() {
+        return mHoverCount > 0 ? mHoverDrawTime / mHoverCount : 0;
+    }
+
+    /**
+     * @return Average number of pixels invalidated, and therefore uploaded, per hover change.
+     */
+    public long getAverageHoverUploadedPixels() {
+        return mHoverCount > 0 ? mUploadedPixels / mHoverCount : 0;
+    }
+
     public void setFeaturedKeyBackground(int resId, int[] keyCodes) {
         mFeaturedKeyBackground = getResources().getDrawable(resId);
         mFeaturedKeyCodes.clear();
         for (int value: keyCodes) {
             mFeaturedKeyCodes.add(value);
         }
+        invalidateKeyBitmaps();
     }
 
     private boolean onModifiedTouchEvent(MotionEvent me, boolean possiblePoly) {
@@ -1423,6 +1569,7 @@ public class CustomKeyboardView extends View implements View.OnClickListener {
         dismissPopupKeyboard();
         mBuffer = null;
         mCanvas = null;
+        invalidateKeyBitmaps();
         mMiniKeyboardCache.clear();
     }
 
@@ -11,6 +11,7 @@ import android.graphics.drawable.Drawable;
 import android.inputmethodservice.Keyboard;
 import android.os.Handler;
 import android.os.LocaleList;
+import android.os.SystemClock;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
@@ -30,9 +31,12 @@ import android.widget.TextView;
 
 import org.mozilla.geckoview.GeckoSession;
 import org.mozilla.vrbrowser.R;
+import org.mozilla.vrbrowser.VRBrowserApplication;
 import org.mozilla.vrbrowser.browser.SessionStore;
 import org.mozilla.vrbrowser.browser.SettingsStore;
 import org.mozilla.vrbrowser.input.CustomKeyboard;
+import org.mozilla.vrbrowser.telemetry.Histogram;
+import org.mozilla.vrbrowser.telemetry.MetricsRegistry;
 import org.mozilla.vrbrowser.telemetry.TelemetryWrapper;
 import org.mozilla.vrbrowser.ui.keyboards.ItalianKeyboard;
 import org.mozilla.vrbrowser.ui.keyboards.FrenchKeyboard;
@@ -43,6 +47,7 @@ import org.mozilla.vrbrowser.ui.keyboards.KeyboardInterface;
 import org.mozilla.vrbrowser.ui.keyboards.RussianKeyboard;
 import org.mozilla.vrbrowser.ui.keyboards.KoreanKeyboard;
 import org.mozilla.vrbrowser.ui.keyboards.SpanishKeyboard;
+import org.mozilla.vrbrowser.ui.keyboards.UserPhraseCache;
 import org.mozilla.vrbrowser.ui.views.AutoCompletionView;
 import org.mozilla.vrbrowser.ui.views.CustomKeyboardView;
 import org.mozilla.vrbrowser.ui.views.LanguageSelectorView;
@@ -52,6 +57,8 @@ import org.mozilla.vrbrowser.ui.keyboards.EnglishKeyboard;
 import org.mozilla.vrbrowser.utils.StringUtils;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 
 import androidx.annotation.NonNull;
@@ -62,6 +69,9 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
         GeckoSession.TextInputDelegate, WidgetManagerDelegate.FocusChangeListener, VoiceSearchWidget.VoiceSearchDelegate, TextWatcher {
 
     private static final String LOGTAG = "VRB";
+    // Microseconds
+    private static final Histogram sKeyHistogram = MetricsRegistry.get().histogram("keyboard.key_us", 1000 * 1000);
+    private static final Histogram sCandidatesHistogram = MetricsRegistry.get().histogram("keyboard.candidates_us", 1000 * 1000);
 
     private static int MAX_CHARS_PER_POPUP_LINE = 10;
 
@@ -96,6 +106,9 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
     private String mComposingText = "";
     private String mComposingDisplayText = "";
     private boolean mInternalDeleteHint = false;
+    private HashMap<Locale, UserPhraseCache> mUserPhrases = new HashMap<>();
+    // Popup keyboards are built from code, keep them around instead of laying them out on every long press.
+    private HashMap<String, CustomKeyboard> mPopupKeyboards = new HashMap<>();
 
     public KeyboardWidget(Context aContext) {
         super(aContext);
@@ -142,6 +155,18 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
         mKeyboards.add(new KoreanKeyboard(aContext));
         mKeyboards.add(new JapaneseKeyboard(aContext));
 
+        // Load the localized key labels and parse the keyboard layouts in the background so
+        // refreshing the labels doesn't create contexts and switching languages doesn't inflate XML.
+        final ArrayList<KeyboardInterface> keyboards = new ArrayList<>(mKeyboards);
+        ((VRBrowserApplication)aContext.getApplicationContext()).getExecutors().diskIO().execute(() -> {
+            long start = SystemClock.elapsedRealtime();
+            for (KeyboardInterface keyboard: keyboards) {
+                keyboard.preloadLabels();
+                keyboard.preloadLayouts();
+            }
+            Log.d(LOGTAG, "Keyboard layouts preloaded in " + (SystemClock.elapsedRealtime() - start) + "ms");
+        });
+
         mDefaultKeyboardSymbols = new CustomKeyboard(aContext.getApplicationContext(), R.xml.keyboard_symbols);
         mKeyboardNumeric = new CustomKeyboard(aContext.getApplicationContext(), R.xml.keyboard_numeric);
         setDefaultKeyboard();
@@ -344,8 +369,13 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
             }
             params.topMargin = popupKey.y + mKeyboardPopupTopMargin + mKeyboardView.getPaddingTop();
 
-            CustomKeyboard popupKeyboard = new CustomKeyboard(getContext(), popupKey.popupResId,
-                    popupCharacters, MAX_CHARS_PER_POPUP_LINE, 0, getContext().getResources().getDimensionPixelSize(R.dimen.keyboard_vertical_gap));
+            String popupCacheKey = popupKey.popupResId + ":" + popupCharacters;
+            CustomKeyboard popupKeyboard = mPopupKeyboards.get(popupCacheKey);
+            if (popupKeyboard == null) {
+                popupKeyboard = new CustomKeyboard(getContext(), popupKey.popupResId,
+                        popupCharacters, MAX_CHARS_PER_POPUP_LINE, 0, getContext().getResources().getDimensionPixelSize(R.dimen.keyboard_vertical_gap));
+                mPopupKeyboards.put(popupCacheKey, popupKeyboard);
+            }
             mPopupKeyboardView.setKeyboard(popupKeyboard);
             mPopupKeyboardView.setLayoutParams(params);
             mPopupKeyboardView.setShifted(mIsCapsLock || mKeyboardView.isShifted());
@@ -374,6 +404,7 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
     @Override
     public void onKey(int primaryCode, int[] keyCodes, boolean hasPopup) {
         Log.d("VRB", "Keyboard onPress++ " + primaryCode);
+        long start = SystemClock.elapsedRealtimeNanos();
         switch (primaryCode) {
             case Keyboard.KEYCODE_MODE_CHANGE:
                 handleModeChange();
@@ -417,6 +448,7 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
 
         mIsLongPress = false;
         mIsMultiTap = false;
+        sKeyHistogram.record((SystemClock.elapsedRealtimeNanos() - start) / 1000);
     }
 
     @Override
@@ -754,11 +786,14 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
         }
 
         if (mCurrentKeyboard.usesComposingText()) {
+            long start = SystemClock.elapsedRealtimeNanos();
             final KeyboardInterface.CandidatesResult candidates = mCurrentKeyboard.getCandidates(mComposingText);
+            addUserPhrases(candidates);
+            sCandidatesHistogram.record((SystemClock.elapsedRealtimeNanos() - start) / 1000);
             setAutoCompletionVisible(candidates != null && candidates.words.size() > 0);
             mAutoCompletionView.setItems(candidates != null ? candidates.words : null);
             if (candidates != null && candidates.action == KeyboardInterface.CandidatesResult.Action.AUTO_COMPOSE) {
-                onAutoCompletionItemClick(candidates.words.get(0));
+                commitCandidate(candidates.words.get(0));
             } else if (candidates != null) {
                 postInputCommand(() -> displayComposingText(candidates.composing, ComposingAction.DO_NOT_FINISH));
             } else {
@@ -771,7 +806,9 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
         } else {
             String fullText = mInputConnection.getExtractedText(new ExtractedTextRequest(),0).text.toString();
             String beforeText = mInputConnection.getTextBeforeCursor(fullText.length(),0).toString();
+            long start = SystemClock.elapsedRealtimeNanos();
             final KeyboardInterface.CandidatesResult candidates = mCurrentKeyboard.getCandidates(beforeText);
+            sCandidatesHistogram.record((SystemClock.elapsedRealtimeNanos() - start) / 1000);
             setAutoCompletionVisible(candidates != null && candidates.words.size() > 0);
             mAutoCompletionView.setItems(candidates != null ? candidates.words : null);
         }
@@ -779,6 +816,42 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
         updateSpecialKeyLabels();
     }
 
+    private UserPhraseCache getUserPhrases() {
+        Locale locale = mCurrentKeyboard.getLocale();
+        UserPhraseCache cache = mUserPhrases.get(locale);
+        if (cache == null) {
+            cache = new UserPhraseCache(getContext(), locale);
+            mUserPhrases.put(locale, cache);
+        }
+        return cache;
+    }
+
+    private void addUserPhrases(KeyboardInterface.CandidatesResult aCandidates) {
+        if (aCandidates == null || aCandidates.words == null ||
+                aCandidates.action != KeyboardInterface.CandidatesResult.Action.SHOW_CANDIDATES) {
+            return;
+        }
+        List<KeyboardInterface.Words> phrases = getUserPhrases().lookup(mComposingText);
+        if (phrases.isEmpty()) {
+            return;
+        }
+        // Habitual phrases go first, drop their duplicates from the dictionary candidates.
+        ArrayList<KeyboardInterface.Words> words = new ArrayList<>(phrases);
+        for (KeyboardInterface.Words word: aCandidates.words) {
+            boolean duplicated = false;
+            for (KeyboardInterface.Words phrase: phrases) {
+                if (phrase.value.equals(word.value)) {
+                    duplicated = true;
+                    break;
+                }
+            }
+            if (!duplicated) {
+                words.add(word);
+            }
+        }
+        aCandidates.words = words;
+    }
+
     private void updateSpecialKeyLabels() {
         String spaceText = mCurrentKeyboard.getSpaceKeyText(mComposingText);
         String enterText = mCurrentKeyboard.getEnterKeyText(mEditorInfo.imeOptions, mComposingText);
@@ -918,6 +991,16 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
 
     @Override
     public void onAutoCompletionItemClick(final KeyboardInterface.Words aItem) {
+        if (mFocusedView == null || mInputConnection == null) {
+            return;
+        }
+        if (mCurrentKeyboard.usesComposingText()) {
+            getUserPhrases().learn(mComposingText, aItem);
+        }
+        commitCandidate(aItem);
+    }
+
+    private void commitCandidate(final KeyboardInterface.Words aItem) {
         if (mFocusedView == null || mInputConnection == null) {
             return;
         }
@@ -46,6 +46,7 @@ import mozilla.components.concept.storage.VisitType;
 public class NavigationBarWidget extends UIWidget implements GeckoSession.NavigationDelegate,
         GeckoSession.ProgressDelegate, GeckoSession.ContentDelegate, WidgetManagerDelegate.WorldClickListener,
         WidgetManagerDelegate.UpdateListener, SessionStore.SessionChangeListener,
+        SessionStore.InteractiveLoadRequestListener,
         NavigationURLBar.NavigationURLBarDelegate, VoiceSearchWidget.VoiceSearchDelegate,
         SharedPreferences.OnSharedPreferenceChangeListener, SuggestionsWidget.URLBarPopupDelegate,
         BookmarkListener, TrayListener {
@@ -671,9 +672,7 @@ public class NavigationBarWidget extends UIWidget implements GeckoSession.Naviga
     public @Nullable GeckoResult<AllowOrDeny> onLoadRequest(GeckoSession aSession, @NonNull LoadRequest aRequest) {
         final GeckoResult<AllowOrDeny> result = new GeckoResult<>();
 
-        Uri uri = Uri.parse(aRequest.uri);
-        if ("file".equalsIgnoreCase(uri.getScheme())
-                && !mWidgetManager.isPermissionGranted(android.Manifest.permission.READ_EXTERNAL_STORAGE)) {
+        if (needsStoragePermission(aRequest)) {
             mWidgetManager.requestPermission(
                     aRequest.uri,
                     android.Manifest.permission.READ_EXTERNAL_STORAGE,
@@ -695,6 +694,19 @@ public class NavigationBarWidget extends UIWidget implements GeckoSession.Naviga
         return result;
     }
 
+    // InteractiveLoadRequestListener
+    @Override
+    public boolean isWaitingForUser(@NonNull LoadRequest aRequest) {
+        // The permission prompt of onLoadRequest is open.
+        return needsStoragePermission(aRequest);
+    }
+
+    private boolean needsStoragePermission(@NonNull LoadRequest aRequest) {
+        Uri uri = Uri.parse(aRequest.uri);
+        return "file".equalsIgnoreCase(uri.getScheme())
+                && !mWidgetManager.isPermissionGranted(android.Manifest.permission.READ_EXTERNAL_STORAGE);
+    }
+
     // Progress Listener
     @Override
     public void onPageStart(GeckoSession aSession, String aUri) {
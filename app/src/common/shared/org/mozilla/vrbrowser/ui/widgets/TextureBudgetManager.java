@@ -0,0 +1,262 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.ui.widgets;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Keeps the memory used by the widget textures under a budget. The texture scale of each
+ * scalable widget starts from the scale set in its placement, is reduced for widgets placed
+ * further than the reference distance and is reduced for all of them when the visible textures
+ * don't fit in the budget. Surfaces of widgets hidden for longer than the hidden timeout are
+ * shrunk to RELEASED_SCALE and restored as soon as the widget is visible again.
+ *
+ * The manager doesn't depend on the widgets or on Android, the texture changes are applied by
+ * the {@link Renderer}. Must only be used from a single thread.
+ */
+public class TextureBudgetManager {
+
+    public static final int BYTES_PER_PIXEL = 4;
+    // Native layers can't free their surface without removing the widget, so released surfaces
+    // are shrunk to a few pixels instead.
+    public static final float RELEASED_SCALE = 0.01f;
+    static final float MIN_SCALE = 0.3f;
+    static final float SCALE_STEP = 0.05f;
+    static final float MIN_DISTANCE_FACTOR = 0.5f;
+
+    public interface Renderer {
+        /**
+         * Resizes the widget surface to the texture size given by aTextureScale and redraws it.
+         */
+        void onTextureScaleChanged(int aHandle, float aTextureScale);
+    }
+
+    static class Entry {
+        int handle;
+        float baseScale;
+        boolean scalable;
+        float scale;
+        int parentHandle = -1;
+        int viewWidth;
+        int viewHeight;
+        float x;
+        float y;
+        float z;
+        boolean visible;
+        long hiddenSince = -1;
+        boolean released;
+    }
+
+    private final Renderer mRenderer;
+    private long mBudget;
+    private final long mHiddenTimeout;
+    private final float mReferenceDistance;
+    private final HashMap<Integer, Entry> mEntries = new HashMap<>();
+    // Scale of the placement before the manager changed it, kept when a widget is removed.
+    private final HashMap<Integer, Float> mBaseScales = new HashMap<>();
+    private final ArrayList<Entry> mScalable = new ArrayList<>();
+
+    // Statistics
+    private long mScaleChanges;
+    private long mReleases;
+
+    /**
+     * @param aBudget Maximum number of bytes used by the widget textures.
+     * @param aHiddenTimeout Time a widget must stay hidden before its surface is released.
+     * @param aReferenceDistance Distance up to which widgets keep their full texture scale,
+     *                           in world units.
+     */
+    public TextureBudgetManager(Renderer aRenderer, long aBudget, long aHiddenTimeout, float aReferenceDistance) {
+        mRenderer = aRenderer;
+        mBudget = aBudget;
+        mHiddenTimeout = aHiddenTimeout;
+        mReferenceDistance = aReferenceDistance;
+    }
+
+    /**
+     * @param aTextureScale Texture scale of the widget placement. The first time a widget is
+     *                      added it is used as the scale while the budget is not exceeded.
+     * @param aScalable false if the texture of the widget must not be scaled or released, its
+     *                  texture still counts against the budget.
+     */
+    public void addWidget(int aHandle, float aTextureScale, boolean aScalable) {
+        Entry entry = mEntries.get(aHandle);
+        if (entry == null) {
+            entry = new Entry();
+            entry.handle = aHandle;
+            mEntries.put(aHandle, entry);
+        }
+        Float baseScale = mBaseScales.get(aHandle);
+        if (baseScale == null) {
+            baseScale = aTextureScale;
+            mBaseScales.put(aHandle, baseScale);
+        }
+        entry.baseScale = baseScale;
+        entry.scale = aTextureScale;
+        entry.scalable = aScalable;
+    }
+
+    public void removeWidget(int aHandle) {
+        mEntries.remove(aHandle);
+    }
+
+    /**
+     * Updates the placement of a widget. A released surface of a widget that becomes visible is
+     * restored before returning.
+     *
+     * @param aViewWidth Width of the widget view, the texture width at scale 1.
+     * @param aViewHeight Height of the widget view, the texture height at scale 1.
+     * @param aNow Current time, in the same time base used for {@link #update(long)}.
+     */
+    public void updateWidget(int aHandle, int aParentHandle, int aViewWidth, int aViewHeight,
+                             float aX, float aY, float aZ, boolean aVisible, long aNow) {
+        Entry entry = mEntries.get(aHandle);
+        if (entry == null) {
+            return;
+        }
+        entry.parentHandle = aParentHandle;
+        entry.viewWidth = aViewWidth;
+        entry.viewHeight = aViewHeight;
+        entry.x = aX;
+        entry.y = aY;
+        entry.z = aZ;
+        entry.visible = aVisible;
+        if (aVisible) {
+            entry.hiddenSince = -1;
+            if (entry.released) {
+                entry.released = false;
+                // Start from the scale it had, the next update fits it in the budget.
+                setScale(entry, entry.scale);
+            }
+        } else if (entry.hiddenSince < 0) {
+            entry.hiddenSince = aNow;
+        }
+    }
+
+    /**
+     * Releases the surfaces of the widgets hidden for too long and fits the texture scales of the
+     * visible widgets in the budget. Expected to be called periodically.
+     */
+    public void update(long aNow) {
+        long fixedBytes = 0;
+        long scalableBytes = 0;
+        mScalable.clear();
+        for (Entry entry : mEntries.values()) {
+            if (entry.scalable && !entry.visible && !entry.released && entry.hiddenSince >= 0 &&
+                    aNow - entry.hiddenSince >= mHiddenTimeout) {
+                entry.released = true;
+                mReleases++;
+                mRenderer.onTextureScaleChanged(entry.handle, RELEASED_SCALE);
+            }
+            if (entry.scalable && entry.visible) {
+                mScalable.add(entry);
+                scalableBytes += getBytes(entry, entry.baseScale * getDistanceFactor(entry));
+            } else {
+                fixedBytes += getAllocatedBytes(entry);
+            }
+        }
+
+        float budgetFactor = 1.0f;
+        if (scalableBytes > 0 && fixedBytes + scalableBytes > mBudget) {
+            // The memory grows with the square of the scale.
+            budgetFactor = (float)Math.sqrt(Math.max(0, mBudget - fixedBytes) / (double)scalableBytes);
+        }
+        for (Entry entry : mScalable) {
+            float scale = entry.baseScale * getDistanceFactor(entry) * budgetFactor;
+            scale = Math.round(scale / SCALE_STEP) * SCALE_STEP;
+            scale = Math.max(MIN_SCALE, Math.min(entry.baseScale, scale));
+            if (Math.abs(scale - entry.scale) >= SCALE_STEP / 2) {
+                setScale(entry, scale);
+            }
+        }
+    }
+
+    private void setScale(Entry aEntry, float aScale) {
+        aEntry.scale = aScale;
+        mScaleChanges++;
+        mRenderer.onTextureScaleChanged(aEntry.handle, aScale);
+    }
+
+    private float getDistanceFactor(Entry aEntry) {
+        float x = 0, y = 0, z = 0;
+        Entry entry = aEntry;
+        // Child placements are relative to their parent, the rotations are ignored.
+        for (int depth = 0; entry != null && depth < mEntries.size(); ++depth) {
+            x += entry.x;
+            y += entry.y;
+            z += entry.z;
+            entry = entry.parentHandle >= 0 ? mEntries.get(entry.parentHandle) : null;
+        }
+        float distance = (float)Math.sqrt(x * x + y * y + z * z);
+        if (distance <= mReferenceDistance) {
+            return 1.0f;
+        }
+        return Math.max(MIN_DISTANCE_FACTOR, mReferenceDistance / distance);
+    }
+
+    private static long getBytes(Entry aEntry, float aScale) {
+        return (long)Math.ceil(aEntry.viewWidth * aScale) * (long)Math.ceil(aEntry.viewHeight * aScale) * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * @return Texture scale currently applied to the widget, or -1 if it is not managed.
+     */
+    public float getTextureScale(int aHandle) {
+        Entry entry = mEntries.get(aHandle);
+        if (entry == null) {
+            return -1;
+        }
+        return entry.released ? RELEASED_SCALE : entry.scale;
+    }
+
+    /**
+     * @return Bytes allocated for the texture of the widget.
+     */
+    public long getAllocatedBytes(int aHandle) {
+        Entry entry = mEntries.get(aHandle);
+        return entry != null ? getAllocatedBytes(entry) : 0;
+    }
+
+    private static long getAllocatedBytes(Entry aEntry) {
+        return getBytes(aEntry, aEntry.released ? RELEASED_SCALE : aEntry.scale);
+    }
+
+    public long getTotalAllocatedBytes() {
+        long total = 0;
+        for (Entry entry : mEntries.values()) {
+            total += getAllocatedBytes(entry);
+        }
+        return total;
+    }
+
+    public List<Integer> getHandles() {
+        return new ArrayList<>(mEntries.keySet());
+    }
+
+    public long getBudget() {
+        return mBudget;
+    }
+
+    /**
+     * Changes the budget, applied on the next {@link #update(long)}.
+     */
+    public void setBudget(long aBudget) {
+        mBudget = aBudget;
+    }
+
+    public long getScaleChangeCount() {
+        return mScaleChanges;
+    }
+
+    /**
+     * @return Number of surfaces released because their widget stayed hidden.
+     */
+    public long getReleaseCount() {
+        return mReleases;
+    }
+}
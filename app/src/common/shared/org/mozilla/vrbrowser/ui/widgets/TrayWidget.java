@@ -28,6 +28,7 @@ import java.util.List;
 public class TrayWidget extends UIWidget implements SessionStore.SessionChangeListener, BookmarkListener, WidgetManagerDelegate.UpdateListener {
     static final String LOGTAG = "VRB";
     private static final int ICON_ANIMATION_DURATION = 200;
+    private static final int MAX_REDRAW_RATE = 30;
 
     private UIButton mSettingsButton;
     private UIButton mPrivateButton;
@@ -58,6 +59,8 @@ public class TrayWidget extends UIWidget implements SessionStore.SessionChangeLi
 
     private void initialize(Context aContext) {
         inflate(aContext, R.layout.tray, this);
+        // The icon hover animations don't need the full display refresh rate.
+        setMaxRedrawRate(MAX_REDRAW_RATE);
 
         mTrayListeners = new ArrayList<>();
 
@@ -12,12 +12,16 @@ import android.graphics.PorterDuff;
 import android.graphics.SurfaceTexture;
 import android.view.Surface;
 
+import org.mozilla.vrbrowser.input.InputTracer;
+
 class UISurfaceTextureRenderer {
     private int mTextureWidth;
     private int mTextureHeight;
     private SurfaceTexture mSurfaceTexture;
     private Surface mSurface;
     private Canvas mSurfaceCanvas;
+    private long mTraceEvent = InputTracer.NO_EVENT;
+    private int mTraceHandle;
 
     UISurfaceTextureRenderer(SurfaceTexture aTexture, int aWidth, int aHeight) {
         mTextureWidth = aWidth;
@@ -72,10 +76,22 @@ class UISurfaceTextureRenderer {
     void drawEnd() {
         if(mSurfaceCanvas != null) {
             mSurface.unlockCanvasAndPost(mSurfaceCanvas);
+            if (mTraceEvent != InputTracer.NO_EVENT) {
+                InputTracer.trace(InputTracer.STAGE_SURFACE_POST, mTraceEvent, mTraceHandle);
+                mTraceEvent = InputTracer.NO_EVENT;
+            }
         }
         mSurfaceCanvas = null;
     }
 
+    /**
+     * Stamps the traced input event when the next drawn frame is posted.
+     */
+    void traceNextPost(long aEvent, int aHandle) {
+        mTraceEvent = aEvent;
+        mTraceHandle = aHandle;
+    }
+
     int width() {
         return mTextureWidth;
     }
@@ -19,6 +19,7 @@ import android.widget.FrameLayout;
 
 import org.mozilla.vrbrowser.R;
 import org.mozilla.vrbrowser.browser.SettingsStore;
+import org.mozilla.vrbrowser.input.InputTracer;
 
 import java.lang.reflect.Constructor;
 import java.util.HashMap;
@@ -47,6 +48,7 @@ public abstract class UIWidget extends FrameLayout implements Widget {
     protected Delegate mDelegate;
     protected int mBorderWidth;
     private Runnable mFirstDrawCallback;
+    private WidgetRedrawScheduler.Entry mRedrawEntry;
 
     public UIWidget(Context aContext) {
         super(aContext);
@@ -79,6 +81,15 @@ public abstract class UIWidget extends FrameLayout implements Widget {
 
         mChildren = new HashMap<>();
         mBackHandler = () -> onDismiss();
+        mRedrawEntry = WidgetRedrawScheduler.get().register(this);
+    }
+
+    /**
+     * Caps the number of times per second the widget texture is redrawn when its views change.
+     * @param aFps Maximum redraws per second, 0 to redraw on every display frame.
+     */
+    protected void setMaxRedrawRate(int aFps) {
+        mRedrawEntry.setMaxRedrawRate(aFps);
     }
 
     @Override
@@ -146,14 +157,23 @@ public abstract class UIWidget extends FrameLayout implements Widget {
 
     @Override
     public void handleTouchEvent(MotionEvent aEvent) {
+        traceNextPost();
         this.dispatchTouchEvent(aEvent);
     }
 
     @Override
     public void handleHoverEvent(MotionEvent aEvent) {
+        traceNextPost();
         this.dispatchGenericMotionEvent(aEvent);
     }
 
+    private void traceNextPost() {
+        long traceEvent = InputTracer.getCurrentEvent();
+        if (traceEvent != InputTracer.NO_EVENT && mRenderer != null) {
+            mRenderer.traceNextPost(traceEvent, mHandle);
+        }
+    }
+
     @Override
     public void handleResizeEvent(float aWorldWidth, float aWorldHeight) {
         int defaultWidth = mInitialWidth;
@@ -174,6 +194,7 @@ public abstract class UIWidget extends FrameLayout implements Widget {
 
     @Override
     public void releaseWidget() {
+        WidgetRedrawScheduler.get().unregister(mRedrawEntry);
         if (mRenderer != null) {
             mRenderer.release();
             mRenderer = null;
@@ -203,6 +224,7 @@ public abstract class UIWidget extends FrameLayout implements Widget {
             super.draw(aCanvas);
             return;
         }
+        WidgetRedrawScheduler.get().onDrawBegin(mRedrawEntry);
         Canvas textureCanvas = mRenderer.drawBegin();
         if(textureCanvas != null) {
             // set the proper scale
@@ -212,6 +234,7 @@ public abstract class UIWidget extends FrameLayout implements Widget {
             super.draw(textureCanvas);
         }
         mRenderer.drawEnd();
+        WidgetRedrawScheduler.get().onDrawEnd(mRedrawEntry);
         if (mFirstDrawCallback != null) {
             mFirstDrawCallback.run();
             mFirstDrawCallback = null;
@@ -223,7 +246,7 @@ public abstract class UIWidget extends FrameLayout implements Widget {
         super.onDescendantInvalidated(child, target);
         if (mRenderer != null) {
             // TODO: transform rect and use invalidate(dirty)
-            postInvalidate();
+            WidgetRedrawScheduler.get().requestRedraw(mRedrawEntry);
         }
     }
 
@@ -234,7 +257,7 @@ public abstract class UIWidget extends FrameLayout implements Widget {
         ViewParent parent =  super.invalidateChildInParent(aLocation, aDirty);
         if (parent != null && mRenderer != null) {
             // TODO: transform rect and use invalidate(dirty)
-            postInvalidate();
+            WidgetRedrawScheduler.get().requestRedraw(mRedrawEntry);
         }
         return parent;
     }
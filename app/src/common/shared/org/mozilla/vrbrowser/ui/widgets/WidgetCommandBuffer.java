@@ -0,0 +1,288 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.ui.widgets;
+
+import android.util.Log;
+import android.util.SparseIntArray;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Collects the widget commands issued by the UI thread during a frame and hands them to the
+ * native side in a single call. Each command is a fixed size record in a direct buffer, so the
+ * native side reads the placements with plain loads instead of one JNI call per field. Updates
+ * of a widget that already has a pending add or update in the batch overwrite its placement.
+ *
+ * Record layout, native byte order, RECORD_SIZE bytes:
+ *  0 int   command
+ *  4 int   handle
+ *  8 int   width
+ * 12 int   height
+ * 16 float anchorX, anchorY
+ * 24 float translationX, translationY, translationZ
+ * 36 float rotationAxisX, rotationAxisY, rotationAxisZ
+ * 48 float rotation
+ * 52 int   parentHandle
+ * 56 float parentAnchorX, parentAnchorY
+ * 64 float density
+ * 68 float worldWidth
+ * 72 int   flags (FLAG_*)
+ * 76 float textureScale
+ *
+ * Commands without a placement only fill the command and handle. COMMAND_SET_BRIGHTNESS stores
+ * the brightness at the anchorX offset. Must be kept in sync with WidgetPlacement::FromBuffer.
+ *
+ * Each batch is flushed by the task queued on the flush executor with its first command. Tasks
+ * queued on the same executor by other code must call {@link #closeBatch()} first, so the
+ * commands issued after them are not flushed ahead of them.
+ */
+public class WidgetCommandBuffer {
+
+    private static final String LOGTAG = "VRB";
+    private static final int STATS_INTERVAL = 1000;
+
+    public static final int RECORD_SIZE = 80;
+    public static final int COMMAND_ADD = 1;
+    public static final int COMMAND_UPDATE = 2;
+    public static final int COMMAND_REMOVE = 3;
+    public static final int COMMAND_START_RESIZE = 4;
+    public static final int COMMAND_FINISH_RESIZE = 5;
+    public static final int COMMAND_SET_BRIGHTNESS = 6;
+
+    public static final int FLAG_VISIBLE = 1;
+    public static final int FLAG_OPAQUE = 1 << 1;
+    public static final int FLAG_SHOW_POINTER = 1 << 2;
+    public static final int FLAG_FIRST_DRAW = 1 << 3;
+    public static final int FLAG_LAYER = 1 << 4;
+    public static final int FLAG_CYLINDER = 1 << 5;
+
+    public interface Sink {
+        /**
+         * Called on the flush executor thread. The buffer is only valid during the call.
+         */
+        void onCommands(@NonNull ByteBuffer aBuffer, int aCount);
+    }
+
+    private final Executor mFlushExecutor;
+    private final Sink mSink;
+    private final Runnable mFlushRunnable = this::flush;
+    // Written by the UI thread, guarded by this.
+    private ByteBuffer mPending;
+    private int mPendingCount;
+    private boolean mFlushScheduled;
+    // Record index of the pending add or update of each handle.
+    private final SparseIntArray mPendingPlacements = new SparseIntArray();
+    private int mPendingBrightness = -1;
+    // Closed batches waiting for their flush task, oldest first. The limit of each buffer is the
+    // end of its records. Guarded by this.
+    private final ArrayDeque<ByteBuffer> mClosed = new ArrayDeque<>();
+    // Buffers of flushed batches, reused for the next ones. Guarded by this.
+    private final ArrayDeque<ByteBuffer> mFree = new ArrayDeque<>();
+
+    // Statistics
+    private long mFlushes;
+    private long mFlushedCommands;
+    private long mMerged;
+    private int mMaxCommandsPerFlush;
+
+    /**
+     * @param aFlushExecutor Executor of the thread that consumes the commands, the pending
+     *                       commands are flushed to aSink in a single task.
+     */
+    public WidgetCommandBuffer(@NonNull Executor aFlushExecutor, @NonNull Sink aSink, int aInitialCapacity) {
+        mFlushExecutor = aFlushExecutor;
+        mSink = aSink;
+        mPending = allocate(Math.max(1, aInitialCapacity));
+    }
+
+    public synchronized void addWidget(int aHandle, @NonNull WidgetPlacement aPlacement) {
+        putPlacement(COMMAND_ADD, aHandle, aPlacement);
+    }
+
+    public synchronized void updateWidget(int aHandle, @NonNull WidgetPlacement aPlacement) {
+        putPlacement(COMMAND_UPDATE, aHandle, aPlacement);
+    }
+
+    public synchronized void removeWidget(int aHandle) {
+        mPendingPlacements.delete(aHandle);
+        putCommand(COMMAND_REMOVE, aHandle);
+    }
+
+    public synchronized void startWidgetResize(int aHandle) {
+        // Later updates must not be moved before the resize starts.
+        mPendingPlacements.delete(aHandle);
+        putCommand(COMMAND_START_RESIZE, aHandle);
+    }
+
+    public synchronized void finishWidgetResize(int aHandle) {
+        mPendingPlacements.delete(aHandle);
+        putCommand(COMMAND_FINISH_RESIZE, aHandle);
+    }
+
+    public synchronized void setWorldBrightness(float aBrightness) {
+        if (mPendingBrightness >= 0) {
+            mPending.putFloat(mPendingBrightness * RECORD_SIZE + 16, aBrightness);
+            mMerged++;
+            return;
+        }
+        mPendingBrightness = mPendingCount;
+        int offset = putCommand(COMMAND_SET_BRIGHTNESS, 0);
+        mPending.putFloat(offset + 16, aBrightness);
+    }
+
+    /**
+     * Ends the pending batch, the commands issued after this call are flushed by a new task queued
+     * on the flush executor. Must be called before queueing any other task on the flush executor
+     * so it runs after the commands issued before it and before the ones issued after it.
+     */
+    public synchronized void closeBatch() {
+        if (mPendingCount == 0) {
+            return;
+        }
+        // The flush task already queued for this batch takes it from mClosed.
+        mClosed.add(takePending());
+        mFlushScheduled = false;
+    }
+
+    private void putPlacement(int aCommand, int aHandle, WidgetPlacement aPlacement) {
+        int index = mPendingPlacements.get(aHandle, -1);
+        int offset;
+        if (index >= 0) {
+            // Keep the pending command, an add stays an add with the newer placement.
+            offset = index * RECORD_SIZE;
+            mMerged++;
+        } else {
+            mPendingPlacements.put(aHandle, mPendingCount);
+            offset = putCommand(aCommand, aHandle);
+        }
+        encode(mPending, offset, aPlacement);
+    }
+
+    private int putCommand(int aCommand, int aHandle) {
+        if ((mPendingCount + 1) * RECORD_SIZE > mPending.capacity()) {
+            ByteBuffer buffer = allocate(mPendingCount * 2);
+            mPending.position(0).limit(mPendingCount * RECORD_SIZE);
+            buffer.put(mPending);
+            buffer.clear();
+            mPending = buffer;
+        }
+        int offset = mPendingCount * RECORD_SIZE;
+        mPending.putInt(offset, aCommand);
+        mPending.putInt(offset + 4, aHandle);
+        mPendingCount++;
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mFlushExecutor.execute(mFlushRunnable);
+        }
+        return offset;
+    }
+
+    /**
+     * Writes aPlacement at aOffset using the record layout described in the class comment.
+     */
+    public static void encode(@NonNull ByteBuffer aBuffer, int aOffset, @NonNull WidgetPlacement aPlacement) {
+        aBuffer.putInt(aOffset + 8, aPlacement.width);
+        aBuffer.putInt(aOffset + 12, aPlacement.height);
+        aBuffer.putFloat(aOffset + 16, aPlacement.anchorX);
+        aBuffer.putFloat(aOffset + 20, aPlacement.anchorY);
+        aBuffer.putFloat(aOffset + 24, aPlacement.translationX);
+        aBuffer.putFloat(aOffset + 28, aPlacement.translationY);
+        aBuffer.putFloat(aOffset + 32, aPlacement.translationZ);
+        aBuffer.putFloat(aOffset + 36, aPlacement.rotationAxisX);
+        aBuffer.putFloat(aOffset + 40, aPlacement.rotationAxisY);
+        aBuffer.putFloat(aOffset + 44, aPlacement.rotationAxisZ);
+        aBuffer.putFloat(aOffset + 48, aPlacement.rotation);
+        aBuffer.putInt(aOffset + 52, aPlacement.parentHandle);
+        aBuffer.putFloat(aOffset + 56, aPlacement.parentAnchorX);
+        aBuffer.putFloat(aOffset + 60, aPlacement.parentAnchorY);
+        aBuffer.putFloat(aOffset + 64, aPlacement.density);
+        aBuffer.putFloat(aOffset + 68, aPlacement.worldWidth);
+        int flags = 0;
+        flags |= aPlacement.visible ? FLAG_VISIBLE : 0;
+        flags |= aPlacement.opaque ? FLAG_OPAQUE : 0;
+        flags |= aPlacement.showPointer ? FLAG_SHOW_POINTER : 0;
+        flags |= aPlacement.firstDraw ? FLAG_FIRST_DRAW : 0;
+        flags |= aPlacement.layer ? FLAG_LAYER : 0;
+        flags |= aPlacement.cylinder ? FLAG_CYLINDER : 0;
+        aBuffer.putInt(aOffset + 72, flags);
+        aBuffer.putFloat(aOffset + 76, aPlacement.textureScale);
+    }
+
+    private void flush() {
+        ByteBuffer buffer;
+        int count;
+        synchronized (this) {
+            // Flush tasks run in the order they were queued, so the oldest closed batch is ours.
+            buffer = mClosed.poll();
+            if (buffer == null) {
+                mFlushScheduled = false;
+                if (mPendingCount == 0) {
+                    return;
+                }
+                buffer = takePending();
+            }
+            count = buffer.limit() / RECORD_SIZE;
+            recordFlush(count);
+        }
+        try {
+            mSink.onCommands(buffer, count);
+        } finally {
+            synchronized (this) {
+                buffer.clear();
+                mFree.add(buffer);
+            }
+        }
+    }
+
+    // Returns the pending batch, ready to be read, and starts a new empty one.
+    private ByteBuffer takePending() {
+        ByteBuffer buffer = mPending;
+        buffer.position(0).limit(mPendingCount * RECORD_SIZE);
+        ByteBuffer free = mFree.poll();
+        mPending = free != null && free.capacity() >= buffer.capacity() ? free : allocate(buffer.capacity() / RECORD_SIZE);
+        mPendingCount = 0;
+        mPendingPlacements.clear();
+        mPendingBrightness = -1;
+        return buffer;
+    }
+
+    private void recordFlush(int aCount) {
+        mFlushes++;
+        mFlushedCommands += aCount;
+        mMaxCommandsPerFlush = Math.max(mMaxCommandsPerFlush, aCount);
+        if (mFlushes % STATS_INTERVAL == 0) {
+            Log.d(LOGTAG, "Widget commands: " + getAverageCommandsPerFlush() + " per frame average, " +
+                    mMaxCommandsPerFlush + " max, " + mMerged + " merged");
+        }
+    }
+
+    /**
+     * @return Average number of commands sent to native per flush, i.e. per frame with commands.
+     */
+    public synchronized float getAverageCommandsPerFlush() {
+        return mFlushes > 0 ? (float)mFlushedCommands / mFlushes : 0;
+    }
+
+    public synchronized int getMaxCommandsPerFlush() {
+        return mMaxCommandsPerFlush;
+    }
+
+    /**
+     * @return Number of updates merged into a pending command of the same widget.
+     */
+    public synchronized long getMergedCount() {
+        return mMerged;
+    }
+
+    private static ByteBuffer allocate(int aRecords) {
+        return ByteBuffer.allocateDirect(aRecords * RECORD_SIZE).order(ByteOrder.nativeOrder());
+    }
+}
@@ -15,7 +15,7 @@ import androidx.annotation.NonNull;
 public class WidgetPlacement {
     static final float WORLD_DPI_RATIO = 2.0f/720.0f;
 
-    private WidgetPlacement() {}
+    WidgetPlacement() {}
     public WidgetPlacement(Context aContext) {
         density = aContext.getResources().getDisplayMetrics().density;
     }
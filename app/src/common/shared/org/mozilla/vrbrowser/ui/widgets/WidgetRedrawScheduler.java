@@ -0,0 +1,241 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.ui.widgets;
+
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.View;
+
+import org.mozilla.vrbrowser.telemetry.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Redraws the UI widgets textures once per display frame at most. Invalidations of a widget
+ * received during a frame are coalesced into a single redraw on the next frame. A widget with a
+ * redraw rate cap keeps its invalidation pending until enough time passed since its previous
+ * redraw. Invalidations of hidden widgets are dropped, the widget manager hides them by setting
+ * the view visibility to GONE and showing the view again invalidates it.
+ * Must only be used from the UI thread.
+ */
+public class WidgetRedrawScheduler implements Choreographer.FrameCallback {
+
+    private static final String LOGTAG = "VRB";
+    private static final int STATS_INTERVAL = 1000;
+    private static final long RATE_WINDOW = 1000000000L;
+
+    public static class Entry {
+        private final UIWidget mWidget;
+        private long mMinInterval;
+        private boolean mPending;
+        private long mLastRedrawTime;
+        private long mDrawStart;
+
+        // Statistics
+        private long mRedraws;
+        private long mDeferred;
+        private long mSkippedHidden;
+        private long mDrawTimeSum;
+        private long mMaxDrawTime;
+        private long mRateWindowStart;
+        private int mRateWindowRedraws;
+        private float mRedrawRate;
+
+        Entry(@NonNull UIWidget aWidget) {
+            mWidget = aWidget;
+        }
+
+        /**
+         * @param aFps Maximum number of redraws per second, 0 to redraw on every frame.
+         */
+        void setMaxRedrawRate(int aFps) {
+            mMinInterval = aFps > 0 ? 1000000000L / aFps : 0;
+        }
+
+        public String getName() {
+            return mWidget.getClass().getSimpleName();
+        }
+
+        /**
+         * @return Number of times the widget texture was drawn.
+         */
+        public long getRedrawCount() {
+            return mRedraws;
+        }
+
+        /**
+         * @return Number of frames a redraw was held back by the redraw rate cap.
+         */
+        public long getDeferredCount() {
+            return mDeferred;
+        }
+
+        /**
+         * @return Number of invalidations received while the widget was hidden.
+         */
+        public long getSkippedHiddenCount() {
+            return mSkippedHidden;
+        }
+
+        /**
+         * @return Average time spent drawing the widget texture, in nanoseconds.
+         */
+        public long getAverageDrawTime() {
+            return mRedraws > 0 ? mDrawTimeSum / mRedraws : 0;
+        }
+
+        public long getMaxDrawTime() {
+            return mMaxDrawTime;
+        }
+
+        /**
+         * @return Redraws per second over the last complete second with redraws, decaying while
+         * the widget is not redrawn.
+         */
+        public float getRedrawRate() {
+            long elapsed = System.nanoTime() - mRateWindowStart;
+            if (elapsed >= 2 * RATE_WINDOW) {
+                return mRateWindowRedraws * (float)RATE_WINDOW / elapsed;
+            }
+            return mRedrawRate;
+        }
+    }
+
+    private static WidgetRedrawScheduler mInstance;
+
+    public static WidgetRedrawScheduler get() {
+        if (mInstance == null) {
+            mInstance = new WidgetRedrawScheduler();
+        }
+        return mInstance;
+    }
+
+    private final Choreographer mChoreographer;
+    private final ArrayList<Entry> mEntries = new ArrayList<>();
+    private ArrayList<Entry> mPending = new ArrayList<>();
+    private ArrayList<Entry> mProcessing = new ArrayList<>();
+    private boolean mFrameScheduled;
+    private long mTotalRedraws;
+
+    private WidgetRedrawScheduler() {
+        mChoreographer = Choreographer.getInstance();
+        MetricsRegistry.get().source("widgets", this::collectMetrics);
+    }
+
+    Entry register(@NonNull UIWidget aWidget) {
+        Entry entry = new Entry(aWidget);
+        mEntries.add(entry);
+        return entry;
+    }
+
+    void unregister(@NonNull Entry aEntry) {
+        mEntries.remove(aEntry);
+        if (aEntry.mPending) {
+            aEntry.mPending = false;
+            mPending.remove(aEntry);
+        }
+    }
+
+    /**
+     * Requests a redraw of the widget texture on the next frame allowed by its redraw rate cap.
+     */
+    void requestRedraw(@NonNull Entry aEntry) {
+        if (aEntry.mPending) {
+            return;
+        }
+        aEntry.mPending = true;
+        mPending.add(aEntry);
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    void onDrawBegin(@NonNull Entry aEntry) {
+        aEntry.mDrawStart = System.nanoTime();
+    }
+
+    void onDrawEnd(@NonNull Entry aEntry) {
+        long drawTime = System.nanoTime() - aEntry.mDrawStart;
+        aEntry.mRedraws++;
+        aEntry.mDrawTimeSum += drawTime;
+        aEntry.mMaxDrawTime = Math.max(aEntry.mMaxDrawTime, drawTime);
+        long now = aEntry.mDrawStart + drawTime;
+        if (now - aEntry.mRateWindowStart >= RATE_WINDOW) {
+            long elapsed = now - aEntry.mRateWindowStart;
+            aEntry.mRedrawRate = aEntry.mRateWindowRedraws * (float)RATE_WINDOW / elapsed;
+            aEntry.mRateWindowStart = now;
+            aEntry.mRateWindowRedraws = 0;
+        }
+        aEntry.mRateWindowRedraws++;
+        mTotalRedraws++;
+        if (mTotalRedraws % STATS_INTERVAL == 0) {
+            logStats();
+        }
+    }
+
+    @Override
+    public void doFrame(long aFrameTimeNanos) {
+        mFrameScheduled = false;
+        // Entries still pending after this frame are added back to mPending.
+        ArrayList<Entry> processing = mPending;
+        mPending = mProcessing;
+        mProcessing = processing;
+        for (Entry entry : processing) {
+            entry.mPending = false;
+            if (entry.mWidget.getVisibility() != View.VISIBLE) {
+                entry.mSkippedHidden++;
+                continue;
+            }
+            if (aFrameTimeNanos - entry.mLastRedrawTime < entry.mMinInterval) {
+                entry.mDeferred++;
+                requestRedraw(entry);
+                continue;
+            }
+            entry.mLastRedrawTime = aFrameTimeNanos;
+            // Invalidated during the animation callbacks, the widget is drawn in this frame traversal.
+            entry.mWidget.invalidate();
+        }
+        processing.clear();
+    }
+
+    /**
+     * @return The redraw statistics of the registered widgets.
+     */
+    public List<Entry> getEntries() {
+        return new ArrayList<>(mEntries);
+    }
+
+    private void collectMetrics(@NonNull MetricsRegistry.Snapshot aSnapshot) {
+        aSnapshot.put("widgets.count", mEntries.size());
+        aSnapshot.put("widgets.redraws", mTotalRedraws);
+        for (Entry entry : mEntries) {
+            String prefix = "widgets." + entry.getName() + "_" + entry.mWidget.getHandle();
+            aSnapshot.put(prefix + ".redraw_rate", entry.getRedrawRate());
+            aSnapshot.put(prefix + ".avg_draw_us", entry.getAverageDrawTime() / 1000);
+            aSnapshot.put(prefix + ".deferred", entry.mDeferred);
+        }
+    }
+
+    private void logStats() {
+        StringBuilder builder = new StringBuilder("Widget redraws:");
+        for (Entry entry : mEntries) {
+            if (entry.mRedraws == 0) {
+                continue;
+            }
+            builder.append(' ').append(entry.getName())
+                    .append(" ").append(entry.mRedraws)
+                    .append(" (").append(entry.getAverageDrawTime() / 1000).append("us avg, ")
+                    .append(entry.mMaxDrawTime / 1000).append("us max, ")
+                    .append(entry.mDeferred).append(" deferred, ")
+                    .append(entry.mSkippedHidden).append(" hidden)");
+        }
+        Log.d(LOGTAG, builder.toString());
+    }
+}
@@ -276,6 +276,10 @@ public class WindowWidget extends UIWidget implements SessionStore.SessionChange
         mSaveResizeChanges = aSave;
     }
 
+    public boolean getSaveResizeChanges() {
+        return mSaveResizeChanges;
+    }
+
     @Override
     public void setSurfaceTexture(SurfaceTexture aTexture, final int aWidth, final int aHeight) {
         if (mView != null) {
@@ -108,11 +108,17 @@ class DeveloperOptionsView extends SettingsView {
         if (mConsoleLogsSwitch.isChecked() != SettingsStore.CONSOLE_LOGS_DEFAULT) {
             setConsoleLogs(SettingsStore.CONSOLE_LOGS_DEFAULT, true);
         }
-        if (mMultiprocessSwitch.isChecked() != SettingsStore.MULTIPROCESS_DEFAULT) {
-            setMultiprocess(SettingsStore.MULTIPROCESS_DEFAULT, true);
-        }
-        if (mServoSwitch.isChecked() != SettingsStore.SERVO_DEFAULT) {
-            setServo(SettingsStore.SERVO_DEFAULT, true);
+        // Recreate the session once for all the reset settings.
+        SessionStore.get().beginSettingsTransaction();
+        try {
+            if (mMultiprocessSwitch.isChecked() != SettingsStore.MULTIPROCESS_DEFAULT) {
+                setMultiprocess(SettingsStore.MULTIPROCESS_DEFAULT, true);
+            }
+            if (mServoSwitch.isChecked() != SettingsStore.SERVO_DEFAULT) {
+                setServo(SettingsStore.SERVO_DEFAULT, true);
+            }
+        } finally {
+            SessionStore.get().commitSettingsTransaction();
         }
 
         if (restart && mDelegate != null) {
@@ -1,15 +1,27 @@
 package org.mozilla.vrbrowser.utils;
 
 import android.content.Context;
+import android.text.Html;
 import android.util.Base64;
+import android.util.Base64OutputStream;
 
 import org.mozilla.vrbrowser.R;
+import org.mozilla.vrbrowser.telemetry.Histogram;
+import org.mozilla.vrbrowser.telemetry.MetricsRegistry;
 
 import org.mozilla.geckoview.WebRequestError;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import mozilla.components.browser.errorpages.ErrorPages;
 import mozilla.components.browser.errorpages.ErrorType;
@@ -140,19 +152,71 @@ public class InternalPages {
         }
     }
 
+    private static final String ERROR_PAGE_DATA_URI = "data:text/html;base64,";
+    // Rendered in place of the uri, so the rendered page can be reused for every uri.
+    private static final String ERROR_PAGE_URI_PLACEHOLDER = "%errorPageUri%";
+    // Rendered error pages of the current locale, split around the uri placeholder.
+    private static final EnumMap<ErrorType, byte[][]> sErrorPageTemplates = new EnumMap<>(ErrorType.class);
+    private static Locale sErrorPagesLocale;
+    private static final MetricsRegistry.CacheCounter sErrorPagesCounter = MetricsRegistry.get().cache("cache.error_pages");
+    private static final Histogram sErrorPagesHistogram = MetricsRegistry.get().histogram("error_pages.create_us", 1000 * 1000);
+
     public static String createErrorPage(Context context,
                                          String uri,
                                          int errorCategory,
                                          int errorType) {
+        final long start = System.nanoTime();
+        byte[][] template = getErrorPageTemplate(context, fromGeckoErrorToErrorType(errorCategory, errorType));
+        byte[] uriBytes = Html.escapeHtml(uri != null ? uri : "").getBytes(StandardCharsets.UTF_8);
+
+        // The page is Base64 encoded as it is written, without building the HTML first.
+        int length = uriBytes.length * (template.length - 1);
+        for (byte[] part : template) {
+            length += part.length;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(ERROR_PAGE_DATA_URI.length() + (length + 2) / 3 * 4);
+        try (Base64OutputStream base64 = new Base64OutputStream(out, Base64.NO_WRAP)) {
+            for (int i = 0; i < template.length; ++i) {
+                if (i > 0) {
+                    base64.write(uriBytes);
+                }
+                base64.write(template[i]);
+            }
+        } catch (IOException e) {
+            // Not thrown when writing to memory.
+            e.printStackTrace();
+        }
+        String result = ERROR_PAGE_DATA_URI + new String(out.toByteArray(), StandardCharsets.US_ASCII);
+        sErrorPagesHistogram.record((System.nanoTime() - start) / 1000);
+        return result;
+    }
+
+    private static synchronized byte[][] getErrorPageTemplate(Context context, ErrorType aErrorType) {
+        Locale locale = context.getResources().getConfiguration().getLocales().get(0);
+        if (!locale.equals(sErrorPagesLocale)) {
+            sErrorPageTemplates.clear();
+            sErrorPagesLocale = locale;
+        }
+        byte[][] template = sErrorPageTemplates.get(aErrorType);
+        if (template != null) {
+            sErrorPagesCounter.hit();
+            return template;
+        }
+        sErrorPagesCounter.miss();
         // TODO: browser-error pages component needs to accept a uri parameter
         String html = ErrorPages.INSTANCE.createErrorPage(
                 context,
-                fromGeckoErrorToErrorType(errorCategory, errorType),
-                uri,
+                aErrorType,
+                ERROR_PAGE_URI_PLACEHOLDER,
                 R.raw.error_pages,
                 R.raw.error_style);
-
-        return "data:text/html;base64," + Base64.encodeToString(html.getBytes(), Base64.DEFAULT);
+        String[] parts = html.split(Pattern.quote(ERROR_PAGE_URI_PLACEHOLDER), -1);
+        template = new byte[parts.length][];
+        for (int i = 0; i < parts.length; ++i) {
+            template[i] = parts[i].getBytes(StandardCharsets.UTF_8);
+        }
+        sErrorPageTemplates.put(aErrorType, template);
+        return template;
     }
 
     public static byte[] createAboutPage(Context context,
@@ -170,6 +234,63 @@ public class InternalPages {
         return html.getBytes();
     }
 
+    /**
+     * @param aExportResult Path of the file the snapshot was exported to, or the export error.
+     *                      Null if the snapshot wasn't exported.
+     */
+    public static byte[] createPerformancePage(@NonNull Context context,
+                                               @NonNull MetricsRegistry.Snapshot aSnapshot,
+                                               @Nullable String aExportResult) {
+        String html = readRawResourceString(context, R.raw.performance);
+        String css = readRawResourceString(context, R.raw.performance_style);
+
+        StringBuilder body = new StringBuilder();
+        if (aExportResult != null) {
+            body.append("<p class=\"export\">")
+                    .append(context.getString(R.string.performance_exported, Html.escapeHtml(aExportResult)))
+                    .append("</p>");
+        }
+        String group = null;
+        for (String name : aSnapshot.getNames()) {
+            int separator = name.indexOf('.');
+            String nameGroup = separator > 0 ? name.substring(0, separator) : name;
+            if (!nameGroup.equals(group)) {
+                if (group != null) {
+                    body.append("</table>");
+                }
+                group = nameGroup;
+                body.append("<h2>").append(Html.escapeHtml(group)).append("</h2><table>");
+            }
+            body.append("<tr><td>").append(Html.escapeHtml(separator > 0 ? name.substring(separator + 1) : name))
+                    .append("</td><td>").append(formatMetric(aSnapshot.getValue(name))).append("</td></tr>");
+        }
+        if (group != null) {
+            body.append("</table>");
+        }
+
+        html = html
+                .replace("%pageTitle%", context.getString(R.string.performance_page_title))
+                .replace("%css%", css)
+                .replace("%refresh%", context.getString(R.string.performance_refresh))
+                .replace("%export%", context.getString(R.string.performance_export))
+                .replace("%pageBody%", body.toString());
+
+        return html.getBytes();
+    }
+
+    private static String formatMetric(Object aValue) {
+        if (aValue instanceof Histogram.Snapshot) {
+            Histogram.Snapshot histogram = (Histogram.Snapshot)aValue;
+            return String.format(Locale.US, "count %d, mean %d, p50 %d, p90 %d, p99 %d, max %d",
+                    histogram.getCount(), histogram.getMean(), histogram.getPercentile(50),
+                    histogram.getPercentile(90), histogram.getPercentile(99), histogram.getMax());
+        }
+        if (aValue instanceof Float || aValue instanceof Double) {
+            return String.format(Locale.US, "%.2f", ((Number)aValue).doubleValue());
+        }
+        return String.valueOf(aValue);
+    }
+
     private static String readRawResourceString(Context context, int resource) {
         StringBuilder total = new StringBuilder();
         try {
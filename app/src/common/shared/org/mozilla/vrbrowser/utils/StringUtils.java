@@ -3,19 +3,67 @@ package org.mozilla.vrbrowser.utils;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.Configuration;
+import android.content.res.Resources;
 import android.os.Build;
+import android.os.LocaleList;
+import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
 
+import org.mozilla.vrbrowser.telemetry.MetricsRegistry;
+
+import java.util.HashMap;
 import java.util.Locale;
 
 public class StringUtils {
+    // Localized resources and strings by locale, so that looking up a string in a locale other
+    // than the current one doesn't create a new configuration context each time.
+    private static final HashMap<Locale, Resources> sLocalizedResources = new HashMap<>();
+    private static final HashMap<Locale, SparseArray<String>> sLocalizedStrings = new HashMap<>();
+    private static LocaleList sCachedLocales;
+    private static final MetricsRegistry.CacheCounter sCacheCounter = MetricsRegistry.get().cache("cache.localized_strings");
+
     @NonNull
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
-    public static String getStringByLocale(Context context, int id, Locale locale) {
-        Configuration configuration = new Configuration(context.getResources().getConfiguration());
-        configuration.setLocale(locale);
-        return context.createConfigurationContext(configuration).getResources().getString(id);
+    public static synchronized String getStringByLocale(Context context, int id, Locale locale) {
+        Configuration baseConfiguration = context.getResources().getConfiguration();
+        if (!baseConfiguration.getLocales().equals(sCachedLocales)) {
+            // The system locale changed, the cached strings may be stale.
+            sLocalizedResources.clear();
+            sLocalizedStrings.clear();
+            sCachedLocales = baseConfiguration.getLocales();
+        }
+
+        SparseArray<String> strings = sLocalizedStrings.get(locale);
+        if (strings == null) {
+            strings = new SparseArray<>();
+            sLocalizedStrings.put(locale, strings);
+        }
+        String result = strings.get(id);
+        if (result != null) {
+            sCacheCounter.hit();
+        } else {
+            sCacheCounter.miss();
+            Resources resources = sLocalizedResources.get(locale);
+            if (resources == null) {
+                Configuration configuration = new Configuration(baseConfiguration);
+                configuration.setLocale(locale);
+                resources = context.createConfigurationContext(configuration).getResources();
+                sLocalizedResources.put(locale, resources);
+            }
+            result = resources.getString(id);
+            strings.put(id, result);
+        }
+        return result;
+    }
+
+    /**
+     * Loads the given strings for a locale so later {@link #getStringByLocale} calls are lookups.
+     */
+    public static void preloadStringsByLocale(Context context, Locale locale, int... ids) {
+        for (int id: ids) {
+            getStringByLocale(context, id, locale);
+        }
     }
 
     public static String removeSpaces(@NonNull String aText) {
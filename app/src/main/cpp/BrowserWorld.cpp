@@ -53,6 +53,7 @@
 #include "vrb/Vector.h"
 
 #include <array>
+#include <cstring>
 #include <functional>
 #include <fstream>
 
@@ -1322,42 +1323,60 @@ BrowserWorld::DistanceToPlane(const vrb::NodePtr& aNode, const vrb::Vector& aPos
 
 extern "C" {
 
-JNI_METHOD(void, addWidgetNative)
-(JNIEnv* aEnv, jobject, jint aHandle, jobject aPlacement) {
-  crow::WidgetPlacementPtr placement = crow::WidgetPlacement::FromJava(aEnv, aPlacement);
-  if (placement) {
-    crow::BrowserWorld::Instance().AddWidget(aHandle, placement);
+JNI_METHOD(void, flushWidgetCommandsNative)
+(JNIEnv* aEnv, jobject, jobject aBuffer, jint aCount) {
+  // Keep in sync with WidgetCommandBuffer.java.
+  static const int kRecordSize = 80;
+  enum {
+    kCommandAdd = 1,
+    kCommandUpdate = 2,
+    kCommandRemove = 3,
+    kCommandStartResize = 4,
+    kCommandFinishResize = 5,
+    kCommandSetBrightness = 6
+  };
+  const uint8_t* data = (const uint8_t*)aEnv->GetDirectBufferAddress(aBuffer);
+  const jlong capacity = aEnv->GetDirectBufferCapacity(aBuffer);
+  if (!data || aCount < 0 || (jlong)aCount * kRecordSize > capacity) {
+    VRB_ERROR("Invalid widget command buffer");
+    return;
   }
-}
-
-JNI_METHOD(void, updateWidgetNative)
-(JNIEnv* aEnv, jobject, jint aHandle, jobject aPlacement) {
-  crow::WidgetPlacementPtr placement = crow::WidgetPlacement::FromJava(aEnv, aPlacement);
-  if (placement) {
-    crow::BrowserWorld::Instance().UpdateWidget(aHandle, placement);
+  crow::BrowserWorld& world = crow::BrowserWorld::Instance();
+  for (int i = 0; i < aCount; ++i) {
+    const uint8_t* record = data + i * kRecordSize;
+    int32_t command;
+    int32_t handle;
+    memcpy(&command, record, sizeof(command));
+    memcpy(&handle, record + 4, sizeof(handle));
+    switch (command) {
+      case kCommandAdd:
+        world.AddWidget(handle, crow::WidgetPlacement::FromBuffer(record));
+        break;
+      case kCommandUpdate:
+        world.UpdateWidget(handle, crow::WidgetPlacement::FromBuffer(record));
+        break;
+      case kCommandRemove:
+        world.RemoveWidget(handle);
+        break;
+      case kCommandStartResize:
+        world.StartWidgetResize(handle);
+        break;
+      case kCommandFinishResize:
+        world.FinishWidgetResize(handle);
+        break;
+      case kCommandSetBrightness: {
+        float brightness;
+        memcpy(&brightness, record + 16, sizeof(brightness));
+        world.SetBrightness(brightness);
+        break;
+      }
+      default:
+        VRB_ERROR("Unknown widget command: %d", command);
+        break;
+    }
   }
 }
 
-JNI_METHOD(void, removeWidgetNative)
-(JNIEnv*, jobject, jint aHandle) {
-  crow::BrowserWorld::Instance().RemoveWidget(aHandle);
-}
-
-JNI_METHOD(void, startWidgetResizeNative)
-(JNIEnv*, jobject, jint aHandle) {
-  crow::BrowserWorld::Instance().StartWidgetResize(aHandle);
-}
-
-JNI_METHOD(void, finishWidgetResizeNative)
-(JNIEnv*, jobject, jint aHandle) {
-  crow::BrowserWorld::Instance().FinishWidgetResize(aHandle);
-}
-
-JNI_METHOD(void, setWorldBrightnessNative)
-(JNIEnv*, jobject, jfloat aBrightness) {
-  crow::BrowserWorld::Instance().SetBrightness(aBrightness);
-}
-
 JNI_METHOD(void, setTemporaryFilePath)
 (JNIEnv* aEnv, jobject, jstring aPath) {
   const char *nativeString = aEnv->GetStringUTFChars(aPath, nullptr);
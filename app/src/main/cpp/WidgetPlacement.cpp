@@ -4,57 +4,59 @@
  * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
 
 #include "WidgetPlacement.h"
+#include <cstring>
 
 namespace crow {
 
 WidgetPlacementPtr
-WidgetPlacement::FromJava(JNIEnv* aEnv, jobject& aObject) {
-  if (!aObject || !aEnv) {
+WidgetPlacement::FromBuffer(const uint8_t* aRecord) {
+  if (!aRecord) {
     return nullptr;
   }
 
-  jclass clazz = aEnv->GetObjectClass(aObject);
+  std::shared_ptr<WidgetPlacement> result(new WidgetPlacement());
 
-  std::shared_ptr<WidgetPlacement> result(new WidgetPlacement());;
-
-#define GET_INT_FIELD(name) { \
-  jfieldID f = aEnv->GetFieldID(clazz, #name, "I"); \
-  result->name = aEnv->GetIntField(aObject, f); \
+  // Offsets must match the record layout documented in WidgetCommandBuffer.java.
+#define READ_INT(offset, to) { \
+  int32_t value; \
+  memcpy(&value, aRecord + offset, sizeof(value)); \
+  result->to = value; \
 }
 
-#define GET_FLOAT_FIELD(to, name) { \
-  jfieldID f = aEnv->GetFieldID(clazz, name, "F"); \
-  result->to = aEnv->GetFloatField(aObject, f); \
+#define READ_FLOAT(offset, to) { \
+  float value; \
+  memcpy(&value, aRecord + offset, sizeof(value)); \
+  result->to = value; \
 }
 
-#define GET_BOOLEAN_FIELD(name) { \
-  jfieldID f = aEnv->GetFieldID(clazz, #name, "Z"); \
-  result->name = aEnv->GetBooleanField(aObject, f); \
-}
+  READ_INT(8, width);
+  READ_INT(12, height);
+  READ_FLOAT(16, anchor.x());
+  READ_FLOAT(20, anchor.y());
+  READ_FLOAT(24, translation.x());
+  READ_FLOAT(28, translation.y());
+  READ_FLOAT(32, translation.z());
+  READ_FLOAT(36, rotationAxis.x());
+  READ_FLOAT(40, rotationAxis.y());
+  READ_FLOAT(44, rotationAxis.z());
+  READ_FLOAT(48, rotation);
+  READ_INT(52, parentHandle);
+  READ_FLOAT(56, parentAnchor.x());
+  READ_FLOAT(60, parentAnchor.y());
+  READ_FLOAT(64, density);
+  READ_FLOAT(68, worldWidth);
+  int32_t flags;
+  memcpy(&flags, aRecord + 72, sizeof(flags));
+  result->visible = (flags & (1 << 0)) != 0;
+  result->opaque = (flags & (1 << 1)) != 0;
+  result->showPointer = (flags & (1 << 2)) != 0;
+  result->firstDraw = (flags & (1 << 3)) != 0;
+  result->layer = (flags & (1 << 4)) != 0;
+  result->cylinder = (flags & (1 << 5)) != 0;
+  READ_FLOAT(76, textureScale);
 
-  GET_INT_FIELD(width);
-  GET_INT_FIELD(height);
-  GET_FLOAT_FIELD(anchor.x(), "anchorX");
-  GET_FLOAT_FIELD(anchor.y(), "anchorY");
-  GET_FLOAT_FIELD(translation.x(), "translationX");
-  GET_FLOAT_FIELD(translation.y(), "translationY");
-  GET_FLOAT_FIELD(translation.z(), "translationZ");
-  GET_FLOAT_FIELD(rotationAxis.x(), "rotationAxisX");
-  GET_FLOAT_FIELD(rotationAxis.y(), "rotationAxisY");
-  GET_FLOAT_FIELD(rotationAxis.z(), "rotationAxisZ");
-  GET_FLOAT_FIELD(rotation, "rotation");
-  GET_INT_FIELD(parentHandle);
-  GET_FLOAT_FIELD(parentAnchor.x(), "parentAnchorX");
-  GET_FLOAT_FIELD(parentAnchor.y(), "parentAnchorY");
-  GET_FLOAT_FIELD(density, "density");
-  GET_FLOAT_FIELD(worldWidth, "worldWidth");
-  GET_BOOLEAN_FIELD(visible);
-  GET_BOOLEAN_FIELD(opaque);
-  GET_BOOLEAN_FIELD(showPointer);
-  GET_BOOLEAN_FIELD(firstDraw);
-  GET_BOOLEAN_FIELD(layer);
-  GET_BOOLEAN_FIELD(cylinder);
-  GET_FLOAT_FIELD(textureScale, "textureScale");
+#undef READ_INT
+#undef READ_FLOAT
 
   return result;
 }
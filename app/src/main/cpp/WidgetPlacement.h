@@ -8,7 +8,8 @@
 
 #include "vrb/Vector.h"
 #include "vrb/MacroUtils.h"
-#include <jni.h>
+#include <cstdint>
+#include <memory>
 
 namespace crow {
 
@@ -37,7 +38,8 @@ struct WidgetPlacement {
   int32_t GetTextureWidth() const;
   int32_t GetTextureHeight() const;
 
-  static WidgetPlacementPtr FromJava(JNIEnv* aEnv, jobject& aObject);
+  // Reads a placement record written by WidgetCommandBuffer.encode() on the Java side.
+  static WidgetPlacementPtr FromBuffer(const uint8_t* aRecord);
 private:
   WidgetPlacement() = default;
   VRB_NO_DEFAULTS(WidgetPlacement)
@@ -0,0 +1,95 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.telemetry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the percentiles of Histogram and the exact linear buckets kept for the legacy probes.
+ */
+public class HistogramTest {
+
+    private static final int PRECISION_BITS = 7;
+    private static final int BUCKET_SIZE = 100;
+    private static final int BUCKET_COUNT = 200;
+
+    private static Histogram createLinearHistogram() {
+        return new Histogram("test", BUCKET_SIZE * BUCKET_COUNT, PRECISION_BITS, BUCKET_SIZE, BUCKET_COUNT);
+    }
+
+    @Test
+    public void linearBucketsAreExact() {
+        // Above 8192 the log-linear buckets are 128 wide and straddle the 100 wide linear ones.
+        Histogram histogram = createLinearHistogram();
+        for (int value = 0; value < BUCKET_SIZE * BUCKET_COUNT; ++value) {
+            histogram.record(value);
+        }
+        long[] buckets = histogram.snapshot().getLinearBuckets();
+        assertEquals(BUCKET_COUNT, buckets.length);
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            assertEquals("Bucket " + i, BUCKET_SIZE, buckets[i]);
+        }
+    }
+
+    @Test
+    public void linearBucketBoundaries() {
+        Histogram histogram = createLinearHistogram();
+        histogram.record(8199);
+        histogram.record(8200);
+        histogram.record(8299);
+        histogram.record(8300);
+        long[] buckets = histogram.snapshot().getLinearBuckets();
+        assertEquals(1, buckets[81]);
+        assertEquals(2, buckets[82]);
+        assertEquals(1, buckets[83]);
+    }
+
+    @Test
+    public void largerValuesGoToLastLinearBucket() {
+        Histogram histogram = createLinearHistogram();
+        histogram.record(BUCKET_SIZE * BUCKET_COUNT - 1);
+        histogram.record(BUCKET_SIZE * BUCKET_COUNT);
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-1);
+        long[] buckets = histogram.snapshot().getLinearBuckets();
+        assertEquals(3, buckets[BUCKET_COUNT - 1]);
+        assertEquals(1, buckets[0]);
+    }
+
+    @Test
+    public void snapshotAndResetClearsLinearBuckets() {
+        Histogram histogram = createLinearHistogram();
+        histogram.record(150);
+        assertEquals(1, histogram.snapshotAndReset().getLinearBuckets()[1]);
+        assertEquals(0, histogram.snapshot().getLinearBuckets()[1]);
+        assertEquals(0, histogram.snapshot().getCount());
+    }
+
+    @Test
+    public void noLinearBuckets() {
+        Histogram histogram = new Histogram("test", 1000, PRECISION_BITS);
+        histogram.record(10);
+        assertEquals(0, histogram.snapshot().getLinearBuckets().length);
+    }
+
+    @Test
+    public void percentiles() {
+        Histogram histogram = createLinearHistogram();
+        for (int value = 1; value <= 100; ++value) {
+            histogram.record(value);
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        // Values under 2^PRECISION_BITS are exact.
+        assertEquals(100, snapshot.getCount());
+        assertEquals(50, snapshot.getPercentile(50));
+        assertEquals(90, snapshot.getPercentile(90));
+        assertEquals(99, snapshot.getPercentile(99));
+        assertEquals(100, snapshot.getMax());
+        assertEquals(50, snapshot.getMean());
+    }
+}
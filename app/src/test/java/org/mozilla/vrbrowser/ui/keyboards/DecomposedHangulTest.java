@@ -0,0 +1,258 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.ui.keyboards;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks KoreanKeyboard.DecomposedHangul against the String based implementation it replaced,
+ * over every Hangul syllable and jamo.
+ */
+public class DecomposedHangulTest {
+
+    private static final String INITIALS = "ᄀㄲㄴㄷㄸㄹㅁㅂㅃㅅㅆㅇㅈㅉㅊㅋㅌㅍㅎ";
+    private static final String VOWELS = "ᅡᅢᅣᅤᅥᅦᅧᅨᅩᅪᅫᅬᅭᅮᅯᅰᅱᅲᅳᅴᅵ";
+    private static final String TAILS = "ᄀㄲㄳㄴㄵㄶㄷㄹㄺㄻㄼㄽㄾㄿㅀㅁㅂㅄㅅㅆㅇㅈㅊㅋㅌㅍㅎ";
+    private static final String[] COMBINED_CONSONANTS = new String[] {
+            "ㄳᄀㅅ", "ㄵㄴㅈ", "ㄶㄴㅎ", "ㄺㄹᄀ", "ㄻㄹㅁ", "ㄼㄹㅂ", "ㄽㄹㅅ", "ㄾㄹㅌ", "ㄿㄹㅍ", "ㅀㄹㅎ", "ㅄㅂㅅ"
+    };
+    private static final String[] COMBINED_VOWELS = new String[] {
+            "ᅦᅥᅵ", "ᅪᅩᅡ", "ᅫᅩᅢ", "ᅬᅩᅵ", "ᅯᅮᅥ", "ᅰᅮᅦ", "ᅱᅮᅵ", "ᅴᅳᅵ"
+    };
+    private static final int HANGUL_UNICODE_START_VALUE = 44032;
+    private static final int HANGUL_UNICODE_LAST_VALUE = 55203;
+    private static final int AMOUNT_OF_TAILS = TAILS.length() + 1; // 28
+    private static final int AMOUNT_OF_TAILS_THE_AMOUNT_OF_VOWELS = AMOUNT_OF_TAILS * VOWELS.length(); // 588
+
+    // Previous implementation, every lookup slices the tables into one character Strings.
+    private static class LegacyHangul {
+        int initialIndex = -1;
+        int vowelIndex = -1;
+        int tailIndex = -1;
+
+        static LegacyHangul decompose(String aCharacter) {
+            LegacyHangul result = new LegacyHangul();
+            if (aCharacter == null || aCharacter.isEmpty()) {
+                return result;
+            }
+            final int charValue = aCharacter.codePointAt(0);
+            if (charValue >= HANGUL_UNICODE_START_VALUE && charValue <= HANGUL_UNICODE_LAST_VALUE) {
+                result.initialIndex = (charValue - HANGUL_UNICODE_START_VALUE) / AMOUNT_OF_TAILS_THE_AMOUNT_OF_VOWELS;
+                result.tailIndex = ((charValue - HANGUL_UNICODE_START_VALUE) % AMOUNT_OF_TAILS) - 1;
+                result.vowelIndex = ((charValue - HANGUL_UNICODE_START_VALUE - result.tailIndex) % AMOUNT_OF_TAILS_THE_AMOUNT_OF_VOWELS) / AMOUNT_OF_TAILS;
+                return result;
+            }
+            result.initialIndex = INITIALS.indexOf(aCharacter);
+            result.vowelIndex = VOWELS.indexOf(aCharacter);
+            result.tailIndex = TAILS.indexOf(aCharacter);
+            return result;
+        }
+
+        boolean isInitial() {
+            return initialIndex >= 0 && vowelIndex < 0;
+        }
+
+        boolean isVowel() {
+            return vowelIndex >= 0 && initialIndex < 0 && tailIndex < 0;
+        }
+
+        boolean isTail() {
+            return tailIndex >= 0 && vowelIndex < 0;
+        }
+
+        boolean isCompleteHangul() {
+            return initialIndex >= 0 && vowelIndex >= 0 && tailIndex >= 0;
+        }
+
+        boolean isInitialAndVowel() {
+            return initialIndex >= 0 && vowelIndex >= 0 && tailIndex < 0;
+        }
+
+        boolean combineVowel(String aSufix) {
+            if (!isVowel() && !isInitialAndVowel()) {
+                return false;
+            }
+            String prefix = VOWELS.substring(vowelIndex, vowelIndex + 1);
+            for (String values : COMBINED_VOWELS) {
+                if (values.indexOf(prefix) == 1 && values.indexOf(aSufix) == 2) {
+                    vowelIndex = VOWELS.indexOf(values.substring(0, 1));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean combineTail(String aSufix) {
+            if (!isCompleteHangul()) {
+                return false;
+            }
+            String prefix = TAILS.substring(tailIndex, tailIndex + 1);
+            for (String values : COMBINED_CONSONANTS) {
+                if (values.indexOf(prefix) == 1 && values.indexOf(aSufix) == 2) {
+                    tailIndex = TAILS.indexOf(values.substring(0, 1));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean removeCombinedVowel() {
+            if (!isVowel() && !isInitialAndVowel()) {
+                return false;
+            }
+            String jamo = VOWELS.substring(vowelIndex, vowelIndex + 1);
+            for (String values : COMBINED_VOWELS) {
+                if (values.indexOf(jamo) == 0) {
+                    vowelIndex = VOWELS.indexOf(values.substring(1, 2));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean removeCombinedTail() {
+            if (!isCompleteHangul()) {
+                return false;
+            }
+            String jamo = TAILS.substring(tailIndex, tailIndex + 1);
+            for (String values : COMBINED_CONSONANTS) {
+                if (values.indexOf(jamo) == 0) {
+                    tailIndex = TAILS.indexOf(values.substring(1, 2));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String getHangul() {
+            if (isVowel()) {
+                return VOWELS.substring(vowelIndex, vowelIndex + 1);
+            } else if (isInitial()) {
+                return INITIALS.substring(initialIndex, initialIndex + 1);
+            } else if (isTail()) {
+                return TAILS.substring(tailIndex, tailIndex + 1);
+            } else if (isInitialAndVowel() || isCompleteHangul()) {
+                int charValue = HANGUL_UNICODE_START_VALUE + initialIndex * AMOUNT_OF_TAILS_THE_AMOUNT_OF_VOWELS;
+                if (vowelIndex >= 0) {
+                    charValue += vowelIndex * AMOUNT_OF_TAILS;
+                    if (tailIndex >= 0) {
+                        charValue += tailIndex + 1;
+                    }
+                }
+                return new String(Character.toChars(charValue));
+            }
+            return "";
+        }
+    }
+
+    private static final String JAMOS = INITIALS + VOWELS + TAILS;
+
+    private static KoreanKeyboard.DecomposedHangul decompose(int aCodePoint) {
+        KoreanKeyboard.DecomposedHangul result = new KoreanKeyboard.DecomposedHangul();
+        result.decompose(aCodePoint);
+        return result;
+    }
+
+    private static String compose(KoreanKeyboard.DecomposedHangul aHangul) {
+        StringBuilder builder = new StringBuilder();
+        aHangul.appendTo(builder);
+        return builder.toString();
+    }
+
+    private static void assertSameState(String aMessage, LegacyHangul aExpected, KoreanKeyboard.DecomposedHangul aActual) {
+        assertEquals(aMessage + " initial", aExpected.initialIndex, aActual.initialIndex);
+        assertEquals(aMessage + " vowel", aExpected.vowelIndex, aActual.vowelIndex);
+        assertEquals(aMessage + " tail", aExpected.tailIndex, aActual.tailIndex);
+        assertEquals(aMessage + " composed", aExpected.getHangul(), compose(aActual));
+    }
+
+    private static String describe(int aCodePoint) {
+        return "U+" + Integer.toHexString(aCodePoint).toUpperCase();
+    }
+
+    @Test
+    public void syllablesRoundTrip() {
+        for (int c = HANGUL_UNICODE_START_VALUE; c <= HANGUL_UNICODE_LAST_VALUE; ++c) {
+            String syllable = new String(Character.toChars(c));
+            KoreanKeyboard.DecomposedHangul hangul = decompose(c);
+            assertSameState(describe(c), LegacyHangul.decompose(syllable), hangul);
+            assertEquals(describe(c), syllable, compose(hangul));
+        }
+    }
+
+    @Test
+    public void jamosRoundTrip() {
+        for (int i = 0; i < JAMOS.length(); ++i) {
+            char jamo = JAMOS.charAt(i);
+            KoreanKeyboard.DecomposedHangul hangul = decompose(jamo);
+            assertSameState(describe(jamo), LegacyHangul.decompose(String.valueOf(jamo)), hangul);
+            assertEquals(describe(jamo), String.valueOf(jamo), compose(hangul));
+        }
+    }
+
+    @Test
+    public void noCharacter() {
+        KoreanKeyboard.DecomposedHangul hangul = decompose(-1);
+        assertSameState("none", LegacyHangul.decompose(""), hangul);
+        assertEquals("", compose(hangul));
+    }
+
+    @Test
+    public void combineMatchesLegacy() {
+        for (int c = HANGUL_UNICODE_START_VALUE; c <= HANGUL_UNICODE_LAST_VALUE + JAMOS.length(); ++c) {
+            // The syllables followed by every jamo.
+            int prefix = c <= HANGUL_UNICODE_LAST_VALUE ? c : JAMOS.charAt(c - HANGUL_UNICODE_LAST_VALUE - 1);
+            String prefixString = new String(Character.toChars(prefix));
+            for (int i = 0; i < JAMOS.length(); ++i) {
+                char suffix = JAMOS.charAt(i);
+                String message = describe(prefix) + " + " + describe(suffix);
+
+                LegacyHangul legacyVowel = LegacyHangul.decompose(prefixString);
+                KoreanKeyboard.DecomposedHangul vowel = decompose(prefix);
+                assertEquals(message + " combineVowel", legacyVowel.combineVowel(String.valueOf(suffix)), vowel.combineVowel(suffix));
+                assertSameState(message + " combineVowel", legacyVowel, vowel);
+
+                LegacyHangul legacyTail = LegacyHangul.decompose(prefixString);
+                KoreanKeyboard.DecomposedHangul tail = decompose(prefix);
+                assertEquals(message + " combineTail", legacyTail.combineTail(String.valueOf(suffix)), tail.combineTail(suffix));
+                assertSameState(message + " combineTail", legacyTail, tail);
+            }
+        }
+    }
+
+    @Test
+    public void removeCombinedMatchesLegacy() {
+        for (int c = HANGUL_UNICODE_START_VALUE; c <= HANGUL_UNICODE_LAST_VALUE + JAMOS.length(); ++c) {
+            int codePoint = c <= HANGUL_UNICODE_LAST_VALUE ? c : JAMOS.charAt(c - HANGUL_UNICODE_LAST_VALUE - 1);
+            String character = new String(Character.toChars(codePoint));
+
+            LegacyHangul legacyVowel = LegacyHangul.decompose(character);
+            KoreanKeyboard.DecomposedHangul vowel = decompose(codePoint);
+            assertEquals(describe(codePoint) + " removeCombinedVowel", legacyVowel.removeCombinedVowel(), vowel.removeCombinedVowel());
+            assertSameState(describe(codePoint) + " removeCombinedVowel", legacyVowel, vowel);
+
+            LegacyHangul legacyTail = LegacyHangul.decompose(character);
+            KoreanKeyboard.DecomposedHangul tail = decompose(codePoint);
+            assertEquals(describe(codePoint) + " removeCombinedTail", legacyTail.removeCombinedTail(), tail.removeCombinedTail());
+            assertSameState(describe(codePoint) + " removeCombinedTail", legacyTail, tail);
+        }
+    }
+
+    @Test
+    public void reusedInstanceIsReset() {
+        // The keyboard reuses the instances between keystrokes.
+        KoreanKeyboard.DecomposedHangul hangul = new KoreanKeyboard.DecomposedHangul();
+        for (int c = HANGUL_UNICODE_START_VALUE; c <= HANGUL_UNICODE_LAST_VALUE; ++c) {
+            hangul.decompose(c);
+            assertEquals(describe(c), new String(Character.toChars(c)), compose(hangul));
+            char jamo = JAMOS.charAt(c % JAMOS.length());
+            hangul.decompose(jamo);
+            assertSameState(describe(jamo), LegacyHangul.decompose(String.valueOf(jamo)), hangul);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.ui.keyboards;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mozilla.vrbrowser.ui.keyboards.KoreanKeyboardTest.A;
+import static org.mozilla.vrbrowser.ui.keyboards.KoreanKeyboardTest.B;
+import static org.mozilla.vrbrowser.ui.keyboards.KoreanKeyboardTest.E;
+import static org.mozilla.vrbrowser.ui.keyboards.KoreanKeyboardTest.EO;
+import static org.mozilla.vrbrowser.ui.keyboards.KoreanKeyboardTest.G;
+import static org.mozilla.vrbrowser.ui.keyboards.KoreanKeyboardTest.H;
+import static org.mozilla.vrbrowser.ui.keyboards.KoreanKeyboardTest.I;
+import static org.mozilla.vrbrowser.ui.keyboards.KoreanKeyboardTest.N;
+import static org.mozilla.vrbrowser.ui.keyboards.KoreanKeyboardTest.NG;
+import static org.mozilla.vrbrowser.ui.keyboards.KoreanKeyboardTest.O;
+import static org.mozilla.vrbrowser.ui.keyboards.KoreanKeyboardTest.R;
+import static org.mozilla.vrbrowser.ui.keyboards.KoreanKeyboardTest.S;
+import static org.mozilla.vrbrowser.ui.keyboards.KoreanKeyboardTest.U;
+import static org.mozilla.vrbrowser.ui.keyboards.KoreanKeyboardTest.type;
+
+/**
+ * Measures the time per keystroke of KoreanKeyboard.overrideAddText and overrideBackspace, typing
+ * a phrase that goes through every composition rule and erasing it. The result is printed, the
+ * test only fails if the composition is wrong.
+ */
+public class HangulCompositionBenchmark {
+
+    private static final String[] KEYS = {
+            H, A, N, G, U, G, NG, EO, " ",  // 한국어, initial + vowel + tail
+            B, A, B, A, " ",                // 바바, tail split before a vowel
+            S, S, A, G, S, " ",             // 싻, double consonant and combined tail
+            G, O, A, R, G, " ",             // 괅, combined vowel and combined tail
+            EO, I                           // combined jamo
+    };
+    private static final String TEXT = "한국어 바바 싻 괅 " + E;
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 100000;
+
+    private final KoreanKeyboard mKeyboard = new KoreanKeyboard(null);
+    private String mTyped;
+
+    // Types KEYS and erases the text aIterations times, returns the number of keystrokes.
+    private long run(int aIterations) {
+        long keystrokes = 0;
+        for (int i = 0; i < aIterations; ++i) {
+            String text = "";
+            for (String key: KEYS) {
+                text = type(mKeyboard, text, key);
+            }
+            mTyped = text;
+            keystrokes += KEYS.length;
+            while (!text.isEmpty()) {
+                String result = mKeyboard.overrideBackspace(text);
+                text = result != null ? result : text.substring(0, text.length() - 1);
+                keystrokes++;
+            }
+        }
+        return keystrokes;
+    }
+
+    @Test
+    public void composition() {
+        run(WARMUP_ITERATIONS);
+        assertEquals(TEXT, mTyped);
+
+        long start = System.nanoTime();
+        long keystrokes = run(ITERATIONS);
+        long elapsed = System.nanoTime() - start;
+        assertEquals(TEXT, mTyped);
+        System.out.println(String.format("Hangul composition: %d keystrokes, %.1f ns per keystroke",
+                keystrokes, (double)elapsed / keystrokes));
+    }
+}
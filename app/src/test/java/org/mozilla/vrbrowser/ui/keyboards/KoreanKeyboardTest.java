@@ -0,0 +1,148 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.ui.keyboards;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the Hangul composition of KoreanKeyboard.overrideAddText and overrideBackspace. The
+ * keyboard mixes jamo from two Unicode blocks, so the jamo are written as escapes.
+ */
+public class KoreanKeyboardTest {
+
+    // Consonants
+    static final String G = "\u1100"; // ᄀ, initial and tail
+    static final String N = "\u3134"; // ㄴ
+    static final String B = "\u3142"; // ㅂ
+    static final String BB = "\u3143"; // ㅃ
+    static final String S = "\u3145"; // ㅅ
+    static final String SS = "\u3146"; // ㅆ
+    static final String NG = "\u3147"; // ㅇ
+    static final String H = "\u314E"; // ㅎ
+    static final String R = "\u3139"; // ㄹ
+    // Vowels
+    static final String A = "\u1161"; // ᅡ
+    static final String EO = "\u1165"; // ᅥ
+    static final String E = "\u1166"; // ᅦ
+    static final String O = "\u1169"; // ᅩ
+    static final String WA = "\u116A"; // ᅪ
+    static final String U = "\u116E"; // ᅮ
+    static final String I = "\u1175"; // ᅵ
+
+    // The keyboard only needs a context for its layouts and labels.
+    private final KoreanKeyboard mKeyboard = new KoreanKeyboard(null);
+
+    // Same as the keyboard widget: the text is appended when there is no override.
+    static String type(KoreanKeyboard aKeyboard, String aText, String aJamo) {
+        String result = aKeyboard.overrideAddText(aText, aJamo);
+        return result != null ? result : aText + aJamo;
+    }
+
+    private String type(String... aJamos) {
+        String text = "";
+        for (String jamo: aJamos) {
+            text = type(mKeyboard, text, jamo);
+        }
+        return text;
+    }
+
+    @Test
+    public void addTextCombinesDoubleConsonants() {
+        assertEquals(SS, mKeyboard.overrideAddText(S, S));
+        assertEquals(BB, mKeyboard.overrideAddText(B, B));
+        // ㄴ has no double consonant.
+        assertNull(mKeyboard.overrideAddText(N, N));
+    }
+
+    @Test
+    public void addTextCombinesVowels() {
+        assertEquals(E, mKeyboard.overrideAddText(EO, I));
+        assertEquals("과", mKeyboard.overrideAddText("고", A));
+        assertEquals(WA, mKeyboard.overrideAddText(O, A));
+        assertNull(mKeyboard.overrideAddText(A, O));
+    }
+
+    @Test
+    public void addTextComposesSyllables() {
+        assertEquals("보", mKeyboard.overrideAddText(B, O));
+        assertEquals("봉", mKeyboard.overrideAddText("보", NG));
+        // ᄀㅅ is combined into the ㄳ tail.
+        assertEquals("싟", mKeyboard.overrideAddText("식", S));
+        assertEquals("닭", mKeyboard.overrideAddText("달", G));
+    }
+
+    @Test
+    public void addTextSplitsTailBeforeVowel() {
+        assertEquals("바바", mKeyboard.overrideAddText("밥", A));
+        // The second consonant of a combined tail can't be split, the vowel is appended.
+        assertNull(mKeyboard.overrideAddText("닭", A));
+    }
+
+    @Test
+    public void addTextKeepsPrecedingText() {
+        assertEquals("abc 봉", mKeyboard.overrideAddText("abc 보", NG));
+        assertEquals("한국 바바", mKeyboard.overrideAddText("한국 밥", A));
+    }
+
+    @Test
+    public void addTextWithoutOverride() {
+        assertNull(mKeyboard.overrideAddText(null, A));
+        assertNull(mKeyboard.overrideAddText("", A));
+        assertNull(mKeyboard.overrideAddText("보", null));
+        assertNull(mKeyboard.overrideAddText("보", ""));
+        assertNull(mKeyboard.overrideAddText("a", "b"));
+        assertNull(mKeyboard.overrideAddText("a", A));
+        assertNull(mKeyboard.overrideAddText("봉", NG));
+    }
+
+    @Test
+    public void typingSequences() {
+        assertEquals("한국어", type(H, A, N, G, U, G, NG, EO));
+        assertEquals("갉", type(G, A, R, G));
+        assertEquals("바바", type(B, A, B, A));
+        assertEquals("싸", type(S, S, A));
+    }
+
+    @Test
+    public void backspaceRemovesCombinedParts() {
+        assertEquals("식", mKeyboard.overrideBackspace("싟"));
+        assertEquals("달", mKeyboard.overrideBackspace("닭"));
+        assertEquals(EO, mKeyboard.overrideBackspace(E));
+        assertEquals("고", mKeyboard.overrideBackspace("과"));
+        assertEquals(S, mKeyboard.overrideBackspace(SS));
+    }
+
+    @Test
+    public void backspaceDecomposesSyllables() {
+        assertEquals("보", mKeyboard.overrideBackspace("봉"));
+        assertEquals(B, mKeyboard.overrideBackspace("보"));
+        // The initial left by the removed vowel goes back to the previous syllable.
+        assertEquals("밥", mKeyboard.overrideBackspace("바바"));
+        assertEquals("abc 밥", mKeyboard.overrideBackspace("abc 바바"));
+    }
+
+    @Test
+    public void backspaceWithoutOverride() {
+        assertNull(mKeyboard.overrideBackspace(null));
+        assertNull(mKeyboard.overrideBackspace(""));
+        assertNull(mKeyboard.overrideBackspace("a"));
+        assertNull(mKeyboard.overrideBackspace(N));
+        assertNull(mKeyboard.overrideBackspace(A));
+    }
+
+    @Test
+    public void backspaceUndoesTyping() {
+        String text = type(H, A, N, G, U, G);
+        assertEquals("한국", text);
+        assertEquals("한구", mKeyboard.overrideBackspace(text));
+        assertEquals("한" + G, mKeyboard.overrideBackspace("한구"));
+        assertEquals("하", mKeyboard.overrideBackspace("한"));
+        assertEquals(H, mKeyboard.overrideBackspace("하"));
+    }
+}
@@ -0,0 +1,276 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.ui.widgets;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the texture scales applied by TextureBudgetManager through a recording Renderer.
+ */
+public class TextureBudgetManagerTest {
+
+    private static final long MB = 1000 * 1000;
+    private static final long HIDDEN_TIMEOUT = 1000;
+    private static final float REFERENCE_DISTANCE = 2.0f;
+    private static final float DELTA = 0.001f;
+    // 4 MB at scale 1.
+    private static final int SIZE = 1000;
+
+    private static class RecordingRenderer implements TextureBudgetManager.Renderer {
+        final List<Integer> mHandles = new ArrayList<>();
+        final List<Float> mScales = new ArrayList<>();
+
+        @Override
+        public void onTextureScaleChanged(int aHandle, float aTextureScale) {
+            mHandles.add(aHandle);
+            mScales.add(aTextureScale);
+        }
+
+        void clear() {
+            mHandles.clear();
+            mScales.clear();
+        }
+    }
+
+    private final RecordingRenderer mRenderer = new RecordingRenderer();
+
+    private TextureBudgetManager createManager(long aBudget) {
+        return new TextureBudgetManager(mRenderer, aBudget, HIDDEN_TIMEOUT, REFERENCE_DISTANCE);
+    }
+
+    private static void addWidget(TextureBudgetManager aManager, int aHandle, boolean aScalable, float aZ) {
+        aManager.addWidget(aHandle, 1.0f, aScalable);
+        aManager.updateWidget(aHandle, -1, SIZE, SIZE, 0, 0, aZ, true, 0);
+    }
+
+    private static void setVisible(TextureBudgetManager aManager, int aHandle, float aZ, boolean aVisible, long aNow) {
+        aManager.updateWidget(aHandle, -1, SIZE, SIZE, 0, 0, aZ, aVisible, aNow);
+    }
+
+    @Test
+    public void withinBudgetKeepsScale() {
+        TextureBudgetManager manager = createManager(100 * MB);
+        addWidget(manager, 1, true, -1);
+        addWidget(manager, 2, false, -1);
+        manager.update(0);
+
+        assertEquals(0, mRenderer.mHandles.size());
+        assertEquals(1.0f, manager.getTextureScale(1), DELTA);
+        assertEquals(4 * MB, manager.getAllocatedBytes(1));
+        assertEquals(8 * MB, manager.getTotalAllocatedBytes());
+    }
+
+    @Test
+    public void hiddenSurfaceIsShrunk() {
+        TextureBudgetManager manager = createManager(100 * MB);
+        addWidget(manager, 1, true, -1);
+        manager.update(0);
+
+        setVisible(manager, 1, -1, false, 100);
+        manager.update(100 + HIDDEN_TIMEOUT - 1);
+        assertEquals("Released before the timeout", 0, mRenderer.mHandles.size());
+        assertEquals(1.0f, manager.getTextureScale(1), DELTA);
+
+        manager.update(100 + HIDDEN_TIMEOUT);
+        assertEquals(1, mRenderer.mHandles.size());
+        assertEquals(1, (int)mRenderer.mHandles.get(0));
+        assertEquals(0.01f, mRenderer.mScales.get(0), 0);
+        assertEquals(TextureBudgetManager.RELEASED_SCALE, manager.getTextureScale(1), 0);
+        // ceil(1000 * 0.01)^2 pixels.
+        assertEquals(10 * 10 * TextureBudgetManager.BYTES_PER_PIXEL, manager.getAllocatedBytes(1));
+        assertEquals(1, manager.getReleaseCount());
+
+        // A released surface is released once.
+        manager.update(100 + HIDDEN_TIMEOUT * 2);
+        assertEquals(1, mRenderer.mHandles.size());
+        assertEquals(1, manager.getReleaseCount());
+    }
+
+    @Test
+    public void showingAgainBeforeTimeoutKeepsSurface() {
+        TextureBudgetManager manager = createManager(100 * MB);
+        addWidget(manager, 1, true, -1);
+
+        setVisible(manager, 1, -1, false, 100);
+        setVisible(manager, 1, -1, true, 500);
+        setVisible(manager, 1, -1, false, 900);
+        // The hidden time restarts when the widget is hidden again.
+        manager.update(100 + HIDDEN_TIMEOUT);
+        assertEquals(0, mRenderer.mHandles.size());
+        manager.update(900 + HIDDEN_TIMEOUT);
+        assertEquals(1, mRenderer.mHandles.size());
+    }
+
+    @Test
+    public void hiddenSurfacesAreReleasedInHiddenOrder() {
+        TextureBudgetManager manager = createManager(100 * MB);
+        addWidget(manager, 1, true, -1);
+        addWidget(manager, 2, true, -1);
+        addWidget(manager, 3, false, -1);
+
+        setVisible(manager, 2, -1, false, 100);
+        setVisible(manager, 1, -1, false, 300);
+        setVisible(manager, 3, -1, false, 0);
+
+        manager.update(100 + HIDDEN_TIMEOUT);
+        assertEquals(1, mRenderer.mHandles.size());
+        assertEquals(2, (int)mRenderer.mHandles.get(0));
+        assertEquals(1.0f, manager.getTextureScale(1), DELTA);
+
+        manager.update(300 + HIDDEN_TIMEOUT);
+        assertEquals(2, mRenderer.mHandles.size());
+        assertEquals(1, (int)mRenderer.mHandles.get(1));
+
+        // Widgets that are not scalable are never released.
+        manager.update(300 + HIDDEN_TIMEOUT * 10);
+        assertEquals(2, mRenderer.mHandles.size());
+        assertEquals(1.0f, manager.getTextureScale(3), DELTA);
+        assertEquals(2, manager.getReleaseCount());
+    }
+
+    @Test
+    public void overBudgetScalesVisibleWidgets() {
+        TextureBudgetManager manager = createManager(2 * MB);
+        addWidget(manager, 1, true, -1);
+        manager.update(0);
+
+        // sqrt(2 MB / 4 MB) rounded to the scale step.
+        assertEquals(1, mRenderer.mHandles.size());
+        assertEquals(0.7f, manager.getTextureScale(1), DELTA);
+        assertEquals(0.7f, mRenderer.mScales.get(0), DELTA);
+
+        // Nothing changes while the scale fits.
+        manager.update(10);
+        assertEquals(1, mRenderer.mHandles.size());
+    }
+
+    @Test
+    public void scaleNeverGoesBelowMinimum() {
+        TextureBudgetManager manager = createManager(MB / 100);
+        addWidget(manager, 1, true, -1);
+        manager.update(0);
+        assertEquals(TextureBudgetManager.MIN_SCALE, manager.getTextureScale(1), DELTA);
+    }
+
+    @Test
+    public void overBudgetScalesDistantWidgetsFirst() {
+        TextureBudgetManager manager = createManager(100 * MB);
+        addWidget(manager, 1, true, -1);
+        addWidget(manager, 2, true, -4);
+        manager.update(0);
+
+        // Only the widget past the reference distance is reduced while within budget.
+        assertEquals(1, mRenderer.mHandles.size());
+        assertEquals(2, (int)mRenderer.mHandles.get(0));
+        assertEquals(1.0f, manager.getTextureScale(1), DELTA);
+        assertEquals(0.5f, manager.getTextureScale(2), DELTA);
+    }
+
+    @Test
+    public void overBudgetKeepsDistanceRatio() {
+        TextureBudgetManager manager = createManager(5 * MB / 2);
+        addWidget(manager, 1, true, -1);
+        addWidget(manager, 2, true, -4);
+        manager.update(0);
+
+        // 4 MB + 1 MB needed for 2.5 MB, both are reduced by sqrt(0.5) from their distance scale.
+        assertEquals(0.7f, manager.getTextureScale(1), DELTA);
+        assertEquals(0.35f, manager.getTextureScale(2), DELTA);
+    }
+
+    @Test
+    public void fixedWidgetsCountAgainstBudget() {
+        TextureBudgetManager manager = createManager(6 * MB);
+        addWidget(manager, 1, true, -1);
+        addWidget(manager, 2, false, -1);
+        manager.update(0);
+
+        // 2 MB left for the scalable widget, the fixed one keeps its scale.
+        assertEquals(1, mRenderer.mHandles.size());
+        assertEquals(1, (int)mRenderer.mHandles.get(0));
+        assertEquals(0.7f, manager.getTextureScale(1), DELTA);
+        assertEquals(1.0f, manager.getTextureScale(2), DELTA);
+    }
+
+    @Test
+    public void hiddenWidgetsFreeBudget() {
+        TextureBudgetManager manager = createManager(5 * MB);
+        addWidget(manager, 1, true, -1);
+        addWidget(manager, 2, true, -1);
+        manager.update(0);
+        assertEquals(0.8f, manager.getTextureScale(1), DELTA);
+        assertEquals(0.8f, manager.getTextureScale(2), DELTA);
+
+        // Once released, the hidden widget only keeps its shrunk surface.
+        setVisible(manager, 2, -1, false, 100);
+        manager.update(100 + HIDDEN_TIMEOUT);
+        assertEquals(TextureBudgetManager.RELEASED_SCALE, manager.getTextureScale(2), 0);
+        assertEquals(1.0f, manager.getTextureScale(1), DELTA);
+    }
+
+    @Test
+    public void restoredSurfaceGetsPreviousScale() {
+        TextureBudgetManager manager = createManager(2 * MB);
+        addWidget(manager, 1, true, -1);
+        manager.update(0);
+        assertEquals(0.7f, manager.getTextureScale(1), DELTA);
+
+        setVisible(manager, 1, -1, false, 100);
+        manager.update(100 + HIDDEN_TIMEOUT);
+        assertEquals(TextureBudgetManager.RELEASED_SCALE, manager.getTextureScale(1), 0);
+        mRenderer.clear();
+
+        // Restored as soon as it is visible, without waiting for the next update.
+        setVisible(manager, 1, -1, true, 2000);
+        assertEquals(1, mRenderer.mHandles.size());
+        assertEquals(1, (int)mRenderer.mHandles.get(0));
+        assertEquals(0.7f, mRenderer.mScales.get(0), DELTA);
+        assertEquals(0.7f, manager.getTextureScale(1), DELTA);
+
+        manager.update(2010);
+        assertEquals(1, mRenderer.mHandles.size());
+    }
+
+    @Test
+    public void readdedWidgetKeepsPlacementScale() {
+        TextureBudgetManager manager = createManager(6 * MB);
+        addWidget(manager, 1, true, -1);
+        addWidget(manager, 2, false, -1);
+        manager.update(0);
+        assertEquals(0.7f, manager.getTextureScale(1), DELTA);
+
+        // The placement now has the reduced scale, the base scale is still the original one.
+        manager.removeWidget(1);
+        manager.removeWidget(2);
+        assertEquals(-1, manager.getTextureScale(1), 0);
+        manager.addWidget(1, 0.7f, true);
+        manager.updateWidget(1, -1, SIZE, SIZE, 0, 0, -1, true, 10);
+        manager.update(20);
+        assertEquals(1.0f, manager.getTextureScale(1), DELTA);
+    }
+
+    @Test
+    public void changedBudgetAppliesOnNextUpdate() {
+        TextureBudgetManager manager = createManager(100 * MB);
+        addWidget(manager, 1, true, -1);
+        manager.update(0);
+        assertEquals(1.0f, manager.getTextureScale(1), DELTA);
+
+        manager.setBudget(2 * MB);
+        assertEquals("Applied before the update", 1.0f, manager.getTextureScale(1), DELTA);
+        manager.update(10);
+        assertEquals(0.7f, manager.getTextureScale(1), DELTA);
+
+        manager.setBudget(100 * MB);
+        manager.update(20);
+        assertEquals(1.0f, manager.getTextureScale(1), DELTA);
+    }
+}
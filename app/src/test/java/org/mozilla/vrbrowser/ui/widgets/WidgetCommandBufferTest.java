@@ -0,0 +1,143 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.ui.widgets;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the record written by WidgetCommandBuffer.encode against the offsets read by
+ * WidgetPlacement::FromBuffer in WidgetPlacement.cpp.
+ */
+public class WidgetCommandBufferTest {
+
+    private static final byte UNTOUCHED = (byte)0xA5;
+
+    private static WidgetPlacement createPlacement() {
+        // Every field gets a distinct value so a swapped offset is detected.
+        WidgetPlacement placement = new WidgetPlacement();
+        placement.width = 1001;
+        placement.height = 1002;
+        placement.anchorX = 1.5f;
+        placement.anchorY = 2.5f;
+        placement.translationX = 3.5f;
+        placement.translationY = 4.5f;
+        placement.translationZ = 5.5f;
+        placement.rotationAxisX = 6.5f;
+        placement.rotationAxisY = 7.5f;
+        placement.rotationAxisZ = 8.5f;
+        placement.rotation = 9.5f;
+        placement.parentHandle = 1003;
+        placement.parentAnchorX = 10.5f;
+        placement.parentAnchorY = 11.5f;
+        placement.density = 12.5f;
+        placement.worldWidth = 13.5f;
+        placement.visible = false;
+        placement.opaque = false;
+        placement.showPointer = false;
+        placement.firstDraw = false;
+        placement.layer = false;
+        placement.cylinder = false;
+        placement.textureScale = 14.5f;
+        return placement;
+    }
+
+    // A record in the middle of the buffer, to check that encode honors the offset.
+    private static ByteBuffer encode(WidgetPlacement aPlacement) {
+        ByteBuffer buffer = ByteBuffer.allocate(WidgetCommandBuffer.RECORD_SIZE * 3).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < buffer.capacity(); ++i) {
+            buffer.put(i, UNTOUCHED);
+        }
+        WidgetCommandBuffer.encode(buffer, WidgetCommandBuffer.RECORD_SIZE, aPlacement);
+        return buffer;
+    }
+
+    private static int readFlags(WidgetPlacement aPlacement) {
+        return encode(aPlacement).getInt(WidgetCommandBuffer.RECORD_SIZE + 72);
+    }
+
+    @Test
+    public void recordSize() {
+        assertEquals(80, WidgetCommandBuffer.RECORD_SIZE);
+    }
+
+    @Test
+    public void fieldOffsets() {
+        ByteBuffer buffer = encode(createPlacement());
+        int record = WidgetCommandBuffer.RECORD_SIZE;
+        assertEquals(1001, buffer.getInt(record + 8));
+        assertEquals(1002, buffer.getInt(record + 12));
+        assertEquals(1.5f, buffer.getFloat(record + 16), 0);
+        assertEquals(2.5f, buffer.getFloat(record + 20), 0);
+        assertEquals(3.5f, buffer.getFloat(record + 24), 0);
+        assertEquals(4.5f, buffer.getFloat(record + 28), 0);
+        assertEquals(5.5f, buffer.getFloat(record + 32), 0);
+        assertEquals(6.5f, buffer.getFloat(record + 36), 0);
+        assertEquals(7.5f, buffer.getFloat(record + 40), 0);
+        assertEquals(8.5f, buffer.getFloat(record + 44), 0);
+        assertEquals(9.5f, buffer.getFloat(record + 48), 0);
+        assertEquals(1003, buffer.getInt(record + 52));
+        assertEquals(10.5f, buffer.getFloat(record + 56), 0);
+        assertEquals(11.5f, buffer.getFloat(record + 60), 0);
+        assertEquals(12.5f, buffer.getFloat(record + 64), 0);
+        assertEquals(13.5f, buffer.getFloat(record + 68), 0);
+        assertEquals(0, buffer.getInt(record + 72));
+        assertEquals(14.5f, buffer.getFloat(record + 76), 0);
+    }
+
+    @Test
+    public void onlyPlacementBytesAreWritten() {
+        ByteBuffer buffer = encode(createPlacement());
+        int record = WidgetCommandBuffer.RECORD_SIZE;
+        // The command and the handle are written by the buffer, not by encode.
+        for (int i = 0; i < record + 8; ++i) {
+            assertEquals("Byte " + i, UNTOUCHED, buffer.get(i));
+        }
+        for (int i = record * 2; i < buffer.capacity(); ++i) {
+            assertEquals("Byte " + i, UNTOUCHED, buffer.get(i));
+        }
+    }
+
+    @Test
+    public void flagBits() {
+        // Same bits as the ones tested by WidgetPlacement::FromBuffer.
+        WidgetPlacement placement = createPlacement();
+        placement.visible = true;
+        assertEquals(1, readFlags(placement));
+        assertEquals(WidgetCommandBuffer.FLAG_VISIBLE, readFlags(placement));
+
+        placement = createPlacement();
+        placement.opaque = true;
+        assertEquals(1 << 1, readFlags(placement));
+
+        placement = createPlacement();
+        placement.showPointer = true;
+        assertEquals(1 << 2, readFlags(placement));
+
+        placement = createPlacement();
+        placement.firstDraw = true;
+        assertEquals(1 << 3, readFlags(placement));
+
+        placement = createPlacement();
+        placement.layer = true;
+        assertEquals(1 << 4, readFlags(placement));
+
+        placement = createPlacement();
+        placement.cylinder = true;
+        assertEquals(1 << 5, readFlags(placement));
+
+        placement.visible = true;
+        placement.opaque = true;
+        placement.showPointer = true;
+        placement.firstDraw = true;
+        placement.layer = true;
+        assertEquals(0x3F, readFlags(placement));
+    }
+}
@@ -0,0 +1,105 @@
+# This Source Code Form is subject to the terms of the Mozilla Public
+# License, v. 2.0. If a copy of the MPL was not distributed with this
+# file, You can obtain one at http://mozilla.org/MPL/2.0/.
+
+"""
+Converts an input trace written by InputTracer into Chrome trace JSON, that
+can be opened in chrome://tracing or https://ui.perfetto.dev.
+
+Enable the tracing when launching the app and pull the trace, it is written
+when the app is paused:
+$ adb shell am start -n org.mozilla.vrbrowser/.VRBrowserActivity --ez input_trace true
+$ adb pull /sdcard/Android/data/org.mozilla.vrbrowser/files/input_trace.bin
+$ python3 convert_trace.py input_trace.bin input_trace.json
+
+Every traced event gets a slice for each stage it went through, from the
+stamp of the stage to the stamp of the next one:
+  queue: from the render thread to the UI thread dispatch
+  generate: from the dispatch to the widget
+  draw: from the widget to the post of the widget texture
+Events coalesced in the queue or merged in a batched move have fewer stages.
+"""
+
+import json
+import struct
+import sys
+
+MAGIC = 0x46585254
+VERSION = 1
+HEADER = struct.Struct('>iiiiqq')
+RECORD = struct.Struct('>qiib')
+
+STAGE_NAMES = ['native', 'dispatch', 'widget', 'surface_post']
+SLICE_NAMES = ['queue', 'generate', 'draw']
+RENDER_THREAD = 1
+UI_THREAD = 2
+
+
+def read_trace(path):
+    with open(path, 'rb') as trace:
+        data = trace.read()
+    magic, version, record_size, count, dump_nanos, dump_millis = HEADER.unpack_from(data, 0)
+    if magic != MAGIC or version != VERSION or record_size != RECORD.size:
+        raise ValueError('%s is not a version %d input trace' % (path, VERSION))
+    records = []
+    for index in range(count):
+        offset = HEADER.size + index * record_size
+        if offset + record_size > len(data):
+            break
+        records.append(RECORD.unpack_from(data, offset))
+    return records
+
+
+def convert(records):
+    # Stamps of each event by stage, the last stamp wins if a stage is repeated.
+    events = {}
+    for time, event, handle, stage in records:
+        if 0 <= stage < len(STAGE_NAMES):
+            events.setdefault(event, {})[stage] = (time, handle)
+
+    start = min(time for time, _, _, _ in records) if records else 0
+    trace_events = [
+        {'ph': 'M', 'pid': 1, 'tid': RENDER_THREAD, 'name': 'thread_name', 'args': {'name': 'render'}},
+        {'ph': 'M', 'pid': 1, 'tid': UI_THREAD, 'name': 'thread_name', 'args': {'name': 'ui'}},
+    ]
+    for event, stamps in sorted(events.items()):
+        stages = sorted(stamps)
+        for stage in stages:
+            time, handle = stamps[stage]
+            trace_events.append({
+                'ph': 'i', 's': 't', 'pid': 1,
+                'tid': RENDER_THREAD if stage == 0 else UI_THREAD,
+                'name': STAGE_NAMES[stage],
+                'ts': (time - start) / 1000.0,
+                'args': {'event': event, 'widget': handle},
+            })
+        for stage, next_stage in zip(stages, stages[1:]):
+            time, handle = stamps[stage]
+            next_time, _ = stamps[next_stage]
+            if next_time < time:
+                continue
+            name = SLICE_NAMES[stage] if next_stage == stage + 1 else \
+                '%s-%s' % (STAGE_NAMES[stage], STAGE_NAMES[next_stage])
+            # Slices of consecutive events overlap, async slices keep each event on its own track.
+            for phase, ts in (('b', time), ('e', next_time)):
+                trace_events.append({
+                    'ph': phase, 'cat': 'input', 'id': event, 'pid': 1, 'tid': UI_THREAD,
+                    'name': name,
+                    'ts': (ts - start) / 1000.0,
+                    'args': {'event': event, 'widget': handle},
+                })
+    return {'traceEvents': trace_events, 'displayTimeUnit': 'ms'}
+
+
+def main():
+    if len(sys.argv) != 3:
+        print('Usage: %s <input_trace.bin> <output.json>' % sys.argv[0])
+        sys.exit(1)
+    records = read_trace(sys.argv[1])
+    with open(sys.argv[2], 'w') as output:
+        json.dump(convert(records), output)
+    print('Converted %d records' % len(records))
+
+
+if __name__ == '__main__':
+    main()